@@ -0,0 +1,164 @@
+package stl.threebodysimulation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Checks that a trajectory written by BinaryTrajectoryWriter reads back through BinaryTrajectoryReader exactly as it was simulated.
+ * A default template is simulated with every frame both kept in memory and recorded to a temporary file, for long enough that the file spans several mapped segments.
+ * The header, and every time, state, velocity and acceleration, must then read back identically, first in order and then in a random order.
+ * <p>
+ * Usage: mvn -Pbenchmarks compile exec:java -Dexec.mainClass=stl.threebodysimulation.BinaryTrajectoryRoundTripCheck [-Dexec.args="FRAMES"]
+ */
+public class BinaryTrajectoryRoundTripCheck {
+
+    /**
+     * The number of frames recorded if none is given. Enough to need a second segment in the writer.
+     */
+    private static final int DEFAULT_FRAME_COUNT = 60000;
+
+    /**
+     * The simulation time between frames, in seconds.
+     */
+    private static final double FRAME_INTERVAL = 0.01;
+
+    /**
+     * The initial step size of the integrator, in seconds.
+     */
+    private static final double STEP_SIZE = 0.002;
+
+    /**
+     * The number of frames read back in a random order.
+     */
+    private static final int RANDOM_READ_COUNT = 10000;
+
+    /**
+     * Records a run, reads it back, and prints the number of values that differ.
+     *
+     * @param args The number of frames, optionally.
+     * @throws Exception If the file cannot be written or read, or the run fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAME_COUNT;
+
+        SimulationSettings settings = DefaultTemplates.SIMPLE_ORBIT.getSettings();
+        Particle[] particles = settings.getParticles();
+        int particleCount = particles.length;
+        IntegrationSettings integrationSettings = new IntegrationSettings(ForceModel.DIRECT, IntegrationSettings.DEFAULT_OPENING_ANGLE, IntegratorType.DORMAND_PRINCE, STEP_SIZE);
+        ParticleDifferentialEquations equations = new ParticleDifferentialEquations(settings.getMass(), integrationSettings);
+        SimulationIntegrator integrator = integrationSettings.buildIntegrator(equations);
+
+        double[] state = new double[equations.getDimension()];
+        for (Particle particle : particles) {
+            particle.flatten(state, particleCount);
+        }
+
+        // Each frame is kept in memory in the same layout as in the file: the time, the state and the accelerations.
+        int frameLength = BinaryTrajectoryWriter.getFrameLength(particleCount);
+        double[] frames = new double[frameCount * frameLength];
+        File file = File.createTempFile("roundtrip", ".3btraj");
+        long mismatchCount;
+        try {
+            BinaryTrajectoryWriter writer = new BinaryTrajectoryWriter(file.getPath(), particles);
+            int[] recorded = new int[1];
+            integrator.integrateFrames(0, state, FRAME_INTERVAL, (time, frameState, accelerations) -> {
+                int offset = recorded[0] * frameLength;
+                frames[offset] = time;
+                System.arraycopy(frameState, 0, frames, offset + 1, frameState.length);
+                System.arraycopy(accelerations, 0, frames, offset + 1 + frameState.length, accelerations.length);
+                writer.record(time, frameState, accelerations);
+                return ++recorded[0] < frameCount;
+            });
+            writer.close();
+
+            try (BinaryTrajectoryReader reader = new BinaryTrajectoryReader(file.getPath())) {
+                mismatchCount = compareHeader(reader, particles, frameCount);
+                double[] readState = new double[4 * particleCount];
+                for (int frame = 0; frame < frameCount; frame++) {
+                    mismatchCount += compareFrame(reader, frames, frame, readState);
+                }
+                Random random = new Random(0);
+                for (int i = 0; i < RANDOM_READ_COUNT; i++) {
+                    mismatchCount += compareFrame(reader, frames, random.nextInt(frameCount), readState);
+                }
+            }
+            System.out.println(String.format("Mismatches: %d, over %d frames of %d particles (%d bytes).", mismatchCount, frameCount, particleCount, file.length()));
+        } finally {
+            if (!file.delete()) {
+                System.out.println("Could not delete " + file.getPath());
+            }
+        }
+        System.exit(mismatchCount == 0 ? 0 : 1);
+    }
+
+    /**
+     * Compares the header of the file with the run.
+     *
+     * @param reader     The reader of the file.
+     * @param particles  The particles of the run.
+     * @param frameCount The number of frames recorded.
+     * @return The number of header values that differ.
+     */
+    private static long compareHeader(BinaryTrajectoryReader reader, Particle[] particles, int frameCount) {
+        long mismatchCount = 0;
+        if (reader.getParticleCount() != particles.length) {
+            mismatchCount++;
+        }
+        if (reader.getFrameCount() != frameCount) {
+            mismatchCount++;
+        }
+        // Particle IDs start with 1, in the order of the particles.
+        for (int id = 1; id <= particles.length; id++) {
+            if (reader.getMass(id) != particles[id - 1].getMass()) {
+                mismatchCount++;
+            }
+            if (!reader.getColor(id).equals(particles[id - 1].getColor())) {
+                mismatchCount++;
+            }
+        }
+        return mismatchCount;
+    }
+
+    /**
+     * Compares a frame of the file with the same frame in memory, reading it both as a whole state and value by value.
+     *
+     * @param reader    The reader of the file.
+     * @param frames    The frames kept in memory.
+     * @param frame     The index of the frame, starting from 0.
+     * @param readState An array to read the state into.
+     * @return The number of values that differ.
+     * @throws IOException If the frame cannot be read.
+     */
+    private static long compareFrame(BinaryTrajectoryReader reader, double[] frames, int frame, double[] readState) throws IOException {
+        int particleCount = reader.getParticleCount();
+        int offset = frame * BinaryTrajectoryWriter.getFrameLength(particleCount);
+        long mismatchCount = 0;
+        if (reader.getTime(frame) != frames[offset]) {
+            mismatchCount++;
+        }
+
+        reader.readState(frame, readState);
+        for (int i = 0; i < readState.length; i++) {
+            if (readState[i] != frames[offset + 1 + i]) {
+                mismatchCount++;
+            }
+        }
+
+        for (int id = 1; id <= particleCount; id++) {
+            for (int dimension = 0; dimension < 2; dimension++) {
+                int column = dimension * particleCount + id - 1;
+                if (reader.getPosition(frame, id, dimension) != frames[offset + 1 + column]) {
+                    mismatchCount++;
+                }
+                if (reader.getVelocity(frame, id, dimension) != frames[offset + 1 + 2 * particleCount + column]) {
+                    mismatchCount++;
+                }
+                if (reader.getAcceleration(frame, id, dimension) != frames[offset + 1 + 4 * particleCount + column]) {
+                    mismatchCount++;
+                }
+            }
+        }
+        return mismatchCount;
+    }
+}
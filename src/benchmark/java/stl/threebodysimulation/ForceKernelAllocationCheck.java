@@ -0,0 +1,75 @@
+package stl.threebodysimulation;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that the direct force kernel allocates nothing per evaluation, by counting the bytes the thread allocates over many calls of computeDerivatives.
+ * <p>
+ * Usage: mvn -Pbenchmarks compile exec:java -Dexec.mainClass=stl.threebodysimulation.ForceKernelAllocationCheck [-Dexec.args="EVALUATIONS"]
+ */
+public class ForceKernelAllocationCheck {
+
+    /**
+     * The number of evaluations run before measuring, so that the JIT compiler has settled and any lazy allocation is done.
+     */
+    private static final int WARM_UP_EVALUATIONS = 2_000_000;
+
+    /**
+     * The number of evaluations measured if none is given.
+     */
+    private static final int DEFAULT_EVALUATIONS = 10_000_000;
+
+    /**
+     * The particle counts that the kernel is checked with: the three-body case the app is named for, and a larger system.
+     */
+    private static final int[] PARTICLE_COUNTS = {3, 64};
+
+    /**
+     * Measures the bytes allocated per evaluation for every particle count, and prints them.
+     *
+     * @param args The number of evaluations to measure, optionally.
+     */
+    public static void main(String[] args) {
+        int evaluations = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EVALUATIONS;
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        boolean allocationFree = true;
+        for (int particleCount : PARTICLE_COUNTS) {
+            double[] masses = new double[particleCount];
+            double[] state = new double[4 * particleCount];
+            // A ring of equal masses, so that no two particles sit on top of each other.
+            for (int i = 0; i < particleCount; i++) {
+                double angle = 2 * Math.PI * i / particleCount;
+                masses[i] = 1;
+                state[i] = 100 * Math.cos(angle);
+                state[particleCount + i] = 100 * Math.sin(angle);
+                state[2 * particleCount + i] = -Math.sin(angle);
+                state[3 * particleCount + i] = Math.cos(angle);
+            }
+            ParticleDifferentialEquations equations = new ParticleDifferentialEquations(masses);
+            double[] derivatives = new double[state.length];
+
+            // Evaluations are scaled down with the particle count, so every count takes about as long.
+            int measuredEvaluations = Math.max(1, evaluations / (particleCount * particleCount / 9));
+            for (int i = 0; i < Math.max(1, WARM_UP_EVALUATIONS / (particleCount * particleCount / 9)); i++) {
+                equations.computeDerivatives(0, state, derivatives);
+            }
+
+            long startBytes = threadBean.getThreadAllocatedBytes(threadId);
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < measuredEvaluations; i++) {
+                equations.computeDerivatives(0, state, derivatives);
+            }
+            long nanos = System.nanoTime() - startNanos;
+            long bytes = threadBean.getThreadAllocatedBytes(threadId) - startBytes;
+
+            System.out.println(String.format("%d particles: %.4f bytes/evaluation, %.1f ns/evaluation over %d evaluations",
+                    particleCount, (double) bytes / measuredEvaluations, (double) nanos / measuredEvaluations, measuredEvaluations));
+            // The thread allocation counter itself can allocate a few bytes, so anything under one byte per thousand evaluations counts as none.
+            allocationFree &= bytes * 1000 < measuredEvaluations;
+        }
+        System.out.println(allocationFree ? "The force kernel is allocation-free." : "The force kernel allocates.");
+        System.exit(allocationFree ? 0 : 1);
+    }
+}
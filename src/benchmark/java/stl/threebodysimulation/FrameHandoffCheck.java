@@ -0,0 +1,130 @@
+package stl.threebodysimulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Checks the hand-off of frames from a simulation thread to a display thread through FrameRingBuffer, and reports how many frames the display dropped.
+ * A simulation publishes its frames into the buffer on one thread, while another thread plays them back on a clock that runs several frames per pulse, like the app at high speeds.
+ * Every frame taken must match the same frame of a reference run, the dropped count must account for every frame skipped, and the backlog must stay within the ring.
+ * <p>
+ * Usage: mvn -Pbenchmarks compile exec:java -Dexec.mainClass=stl.threebodysimulation.FrameHandoffCheck [-Dexec.args="FRAMES_PER_PULSE"]
+ */
+public class FrameHandoffCheck {
+
+    /**
+     * The number of frames played back.
+     */
+    private static final int FRAME_COUNT = 3000;
+
+    /**
+     * The number of slots in the ring, as in the app.
+     */
+    private static final int CAPACITY = 16;
+
+    /**
+     * The number of frames the playback clock advances per pulse if none is given.
+     */
+    private static final double DEFAULT_FRAMES_PER_PULSE = 2.5;
+
+    /**
+     * The time between pulses of the playback clock, in nanoseconds.
+     */
+    private static final long PULSE_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    /**
+     * The simulation time between frames, in seconds.
+     */
+    private static final double FRAME_INTERVAL = 0.01;
+
+    /**
+     * The initial step size of the integrator, in seconds.
+     */
+    private static final double STEP_SIZE = 0.002;
+
+    /**
+     * Plays back a simulation through the buffer, and prints the frames taken, dropped and the largest backlog seen.
+     *
+     * @param args The number of frames the playback clock advances per pulse, optionally.
+     * @throws InterruptedException Should never occur, as nothing interrupts the threads.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        double framesPerPulse = args.length > 0 ? Double.parseDouble(args[0]) : DEFAULT_FRAMES_PER_PULSE;
+
+        // Frame 1 is the first frame the simulation hands over, so it is stored at index 0.
+        List<double[]> references = new ArrayList<>();
+        buildIntegrator().integrateFrames(0, initialState(), FRAME_INTERVAL, (time, state, accelerations) -> {
+            references.add(state.clone());
+            return references.size() < FRAME_COUNT;
+        });
+
+        FrameRingBuffer buffer = new FrameRingBuffer(CAPACITY, references.get(0).length);
+        SimulationIntegrator integrator = buildIntegrator();
+        double[] simulationState = initialState();
+        Thread producer = new Thread(() -> {
+            try {
+                integrator.integrateFrames(0, simulationState, FRAME_INTERVAL, (time, state, accelerations) ->
+                        buffer.publish(time, state, accelerations, null, null));
+            } catch (InterruptedException ignored) {
+                // Should never happen.
+            }
+        });
+        producer.setDaemon(true);
+        producer.start();
+
+        // Play back as the app does: the clock never passes the newest frame, and only the frame it lands on is taken.
+        double playbackFrame = 0;
+        long takeCount = 0;
+        long mismatchCount = 0;
+        long largestBacklog = 0;
+        while (buffer.getTakenCount() < FRAME_COUNT) {
+            largestBacklog = Math.max(largestBacklog, buffer.getBacklog());
+            playbackFrame = Math.min(Math.min(playbackFrame + framesPerPulse, buffer.getPublishedCount()), FRAME_COUNT);
+            long frame = (long) playbackFrame;
+            if (frame > buffer.getTakenCount()) {
+                if (!Arrays.equals(references.get((int) frame - 1), buffer.getState(frame))) {
+                    mismatchCount++;
+                }
+                buffer.take(frame);
+                takeCount++;
+            }
+            LockSupport.parkNanos(PULSE_NANOS);
+        }
+        buffer.close();
+        producer.join();
+
+        // Every frame up to the last one taken was either taken or skipped.
+        long unaccounted = FRAME_COUNT - takeCount - buffer.getDroppedCount();
+        System.out.println(String.format("Frames taken: %d, dropped: %d, largest backlog: %d of %d, mismatches: %d, unaccounted: %d.",
+                takeCount, buffer.getDroppedCount(), largestBacklog, CAPACITY - 1, mismatchCount, unaccounted));
+        boolean passed = mismatchCount == 0 && unaccounted == 0 && largestBacklog < CAPACITY;
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Builds a Dormand-Prince integrator for the simple orbit template.
+     *
+     * @return The integrator.
+     */
+    private static SimulationIntegrator buildIntegrator() {
+        IntegrationSettings integrationSettings = new IntegrationSettings(ForceModel.DIRECT, IntegrationSettings.DEFAULT_OPENING_ANGLE, IntegratorType.DORMAND_PRINCE, STEP_SIZE);
+        return integrationSettings.buildIntegrator(new ParticleDifferentialEquations(DefaultTemplates.SIMPLE_ORBIT.getSettings().getMass(), integrationSettings));
+    }
+
+    /**
+     * Flattens the particles of the simple orbit template into a state.
+     *
+     * @return The initial state.
+     */
+    private static double[] initialState() {
+        Particle[] particles = DefaultTemplates.SIMPLE_ORBIT.getSettings().getParticles();
+        double[] state = new double[4 * particles.length];
+        for (Particle particle : particles) {
+            particle.flatten(state, particles.length);
+        }
+        return state;
+    }
+}
@@ -0,0 +1,134 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+import org.apache.commons.math3.exception.NumberIsTooSmallException;
+
+/**
+ * Compares the cost and accuracy of the adaptive integrators on every default template: Dormand-Prince, and Bulirsch-Stoer.
+ * Each template is run with frames one second apart, as in the batch examples of the README, and the force evaluations, wall-clock time and largest relative error in energy over the frames are printed.
+ * Both integrators have their error tolerances multiplied by the same scale, so that the trade of accuracy for speed can be followed by running it at several scales.
+ * <p>
+ * The algorithmic chain is then compared with Dormand-Prince on the hierarchical triple it is meant for, over a longer run, once with frames a second apart and once with many frames per orbit of the inner binary.
+ * The chain has no tolerance, and takes the step size of the README's example instead.
+ * <p>
+ * Every run is done twice, and only the second is timed, so that the first warms up the JIT.
+ * <p>
+ * Usage: mvn -Pbenchmarks compile exec:java -Dexec.mainClass=stl.threebodysimulation.IntegratorAccuracyBenchmark [-Dexec.args="TOLERANCE_SCALE END_TIME"]
+ */
+public class IntegratorAccuracyBenchmark {
+
+    /**
+     * The factor the integrators' tolerances are multiplied by if none is given, which keeps the tolerances of the app.
+     */
+    private static final double DEFAULT_TOLERANCE_SCALE = 1;
+
+    /**
+     * The simulation time each template is run to if none is given, in seconds.
+     */
+    private static final double DEFAULT_END_TIME = 100;
+
+    /**
+     * The simulation time between frames, in seconds.
+     */
+    private static final double FRAME_INTERVAL = 1;
+
+    /**
+     * The simulation time the chain and Dormand-Prince are run to on the hierarchical triple, in seconds.
+     */
+    private static final double CHAIN_END_TIME = 200;
+
+    /**
+     * The simulation time between frames in the run with many frames per orbit of the inner binary, in seconds.
+     */
+    private static final double SHORT_FRAME_INTERVAL = 0.01;
+
+    /**
+     * The step size of the chain, in seconds at the start of the run.
+     */
+    private static final double CHAIN_STEP_SIZE = 0.01;
+
+    /**
+     * The fraction of a frame by which the last frame may fall short of the end time, so that rounding in the frame times does not add a frame.
+     */
+    private static final double END_TIME_TOLERANCE = 1e-9;
+
+    /**
+     * Runs every template with both adaptive integrators, then the hierarchical triple with the chain, and prints a line for each run.
+     *
+     * @param args The tolerance scale, then the end time in seconds, optionally.
+     */
+    public static void main(String[] args) {
+        double toleranceScale = args.length > 0 ? Double.parseDouble(args[0]) : DEFAULT_TOLERANCE_SCALE;
+        double endTime = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_END_TIME;
+
+        System.out.println(String.format("Tolerances scaled by %.3g, to %.1f s, with frames %.1f s apart.", toleranceScale, endTime, FRAME_INTERVAL));
+        System.out.println(String.format("%-20s %-16s %12s %10s %12s", "Template", "Integrator", "Evaluations", "Wall (ms)", "Energy error"));
+        for (DefaultTemplates template : DefaultTemplates.values()) {
+            for (IntegratorType type : new IntegratorType[]{IntegratorType.DORMAND_PRINCE, IntegratorType.BULIRSCH_STOER}) {
+                run(template, type, toleranceScale, IntegrationSettings.DEFAULT_STEP_SIZE, endTime, FRAME_INTERVAL);
+                System.out.println(run(template, type, toleranceScale, IntegrationSettings.DEFAULT_STEP_SIZE, endTime, FRAME_INTERVAL));
+            }
+        }
+
+        for (double frameInterval : new double[]{FRAME_INTERVAL, SHORT_FRAME_INTERVAL}) {
+            System.out.println();
+            System.out.println(String.format("Hierarchical triple to %.1f s, with frames %.2f s apart.", CHAIN_END_TIME, frameInterval));
+            run(DefaultTemplates.HIERARCHICAL_TRIPLE, IntegratorType.DORMAND_PRINCE, toleranceScale, IntegrationSettings.DEFAULT_STEP_SIZE, CHAIN_END_TIME, frameInterval);
+            System.out.println(run(DefaultTemplates.HIERARCHICAL_TRIPLE, IntegratorType.DORMAND_PRINCE, toleranceScale, IntegrationSettings.DEFAULT_STEP_SIZE, CHAIN_END_TIME, frameInterval));
+            run(DefaultTemplates.HIERARCHICAL_TRIPLE, IntegratorType.ALGORITHMIC_CHAIN, toleranceScale, CHAIN_STEP_SIZE, CHAIN_END_TIME, frameInterval);
+            System.out.println(run(DefaultTemplates.HIERARCHICAL_TRIPLE, IntegratorType.ALGORITHMIC_CHAIN, toleranceScale, CHAIN_STEP_SIZE, CHAIN_END_TIME, frameInterval));
+        }
+    }
+
+    /**
+     * Runs a template with an integrator, and measures it.
+     *
+     * @param template       The template to run.
+     * @param type           The integrator to run it with.
+     * @param toleranceScale The factor the integrator's tolerances are multiplied by. Ignored by integrators other than the adaptive ones.
+     * @param stepSize       The step size of the integrator, in seconds.
+     * @param endTime        The simulation time to run to, in seconds.
+     * @param frameInterval  The simulation time between frames, in seconds.
+     * @return A line describing the run.
+     */
+    private static String run(DefaultTemplates template, IntegratorType type, double toleranceScale, double stepSize, double endTime, double frameInterval) {
+        SimulationSettings settings = template.getSettings();
+        Particle[] particles = settings.getParticles();
+        IntegrationSettings integrationSettings = new IntegrationSettings(ForceModel.DIRECT, IntegrationSettings.DEFAULT_OPENING_ANGLE, type, stepSize);
+        ParticleDifferentialEquations equations = new ParticleDifferentialEquations(settings.getMass(), integrationSettings);
+        SimulationIntegrator integrator;
+        if (type == IntegratorType.DORMAND_PRINCE) {
+            integrator = new DormandPrinceIntegrator(equations, integrationSettings, toleranceScale);
+        } else if (type == IntegratorType.BULIRSCH_STOER) {
+            integrator = new BulirschStoerIntegrator(equations, integrationSettings, toleranceScale);
+        } else {
+            integrator = integrationSettings.buildIntegrator(equations);
+        }
+
+        double[] state = new double[equations.getDimension()];
+        for (Particle particle : particles) {
+            particle.flatten(state, particles.length);
+        }
+        double initialEnergy = equations.computeEnergy(state);
+
+        // The largest error is kept in an array, so that the frame handler can update it.
+        double[] energyError = new double[1];
+        String status = "";
+        long startNanos = System.nanoTime();
+        try {
+            integrator.integrateFrames(0, state, frameInterval, (time, frameState, accelerations) -> {
+                energyError[0] = Math.max(energyError[0], Math.abs((equations.computeEnergy(frameState) - initialEnergy) / initialEnergy));
+                return time + frameInterval <= endTime + END_TIME_TOLERANCE * frameInterval;
+            });
+        } catch (NumberIsTooSmallException | NumberIsTooLargeException e) {
+            // The integrator gave up, usually at a close approach, so the numbers only cover the run up to there.
+            status = " (failed: " + e.getMessage() + ")";
+        } catch (InterruptedException e) {
+            // Should never occur, as the frame handler does not wait.
+            Thread.currentThread().interrupt();
+        }
+        double milliseconds = (System.nanoTime() - startNanos) / 1e6;
+
+        return String.format("%-20s %-16s %12d %10.1f %12.2e%s", template.name(), type, equations.getEvaluationCount(), milliseconds, energyError[0], status);
+    }
+}
@@ -0,0 +1,121 @@
+package stl.threebodysimulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that simulations running at the same time in one process do not disturb each other.
+ * Every default template is run with every integrator, first one at a time for reference, then all at once on more threads than there are cores, several times over.
+ * Each run sums the state and accelerations of every frame it is handed, and the sums of the concurrent runs must match the reference exactly.
+ * <p>
+ * Usage: mvn -Pbenchmarks compile exec:java -Dexec.mainClass=stl.threebodysimulation.IsolationStressCheck [-Dexec.args="THREADS REPETITIONS"]
+ */
+public class IsolationStressCheck {
+
+    /**
+     * The number of simulations in each round. Enough to cover every pairing of a default template with an integrator.
+     */
+    private static final int RUN_COUNT = 40;
+
+    /**
+     * The number of threads the simulations share if none is given. More than most machines have cores, so that the runs are preempted midway.
+     */
+    private static final int DEFAULT_THREAD_COUNT = 16;
+
+    /**
+     * The number of concurrent rounds if none is given.
+     */
+    private static final int DEFAULT_REPETITIONS = 5;
+
+    /**
+     * The simulation time of each run, in seconds.
+     */
+    private static final double END_TIME = 5;
+
+    /**
+     * The simulation time between frames, in seconds.
+     */
+    private static final double FRAME_INTERVAL = 0.01;
+
+    /**
+     * The step size of fixed-step integrators, in seconds.
+     */
+    private static final double STEP_SIZE = 0.002;
+
+    /**
+     * Runs the reference and concurrent rounds, and prints the number of runs that did not match.
+     *
+     * @param args The number of threads and of concurrent rounds, optionally.
+     * @throws Exception If a run fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int threadCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREAD_COUNT;
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_REPETITIONS;
+
+        double[][] references = new double[RUN_COUNT][];
+        for (int run = 0; run < RUN_COUNT; run++) {
+            references[run] = simulate(run);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        int mismatchCount = 0;
+        try {
+            for (int repetition = 0; repetition < repetitions; repetition++) {
+                List<Future<double[]>> results = new ArrayList<>();
+                for (int run = 0; run < RUN_COUNT; run++) {
+                    int index = run;
+                    results.add(executor.submit(() -> simulate(index)));
+                }
+                for (int run = 0; run < RUN_COUNT; run++) {
+                    if (!Arrays.equals(references[run], results.get(run).get())) {
+                        mismatchCount++;
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        System.out.println(String.format("Mismatches: %d of %d concurrent runs, on %d threads.", mismatchCount, RUN_COUNT * repetitions, threadCount));
+        System.exit(mismatchCount == 0 ? 0 : 1);
+    }
+
+    /**
+     * Runs one simulation, picked by its index from the default templates and integrators.
+     *
+     * @param index The index of the run.
+     * @return The sum of the state of every frame, and the sum of the accelerations of every frame.
+     * @throws InterruptedException Should never occur, as nothing interrupts the runs.
+     */
+    private static double[] simulate(int index) throws InterruptedException {
+        SimulationSettings settings = DefaultTemplates.values()[index % DefaultTemplates.values().length].getSettings();
+        IntegratorType integratorType = IntegratorType.values()[index % IntegratorType.values().length];
+        IntegrationSettings integrationSettings = new IntegrationSettings(ForceModel.DIRECT, IntegrationSettings.DEFAULT_OPENING_ANGLE, integratorType, STEP_SIZE);
+        ParticleDifferentialEquations equations = new ParticleDifferentialEquations(settings.getMass(), integrationSettings);
+        SimulationIntegrator integrator = integrationSettings.buildIntegrator(equations);
+
+        Particle[] particles = settings.getParticles();
+        double[] state = new double[equations.getDimension()];
+        for (Particle particle : particles) {
+            particle.flatten(state, particles.length);
+        }
+
+        double[] sums = new double[2];
+        integrator.integrateFrames(0, state, FRAME_INTERVAL, (time, frameState, accelerations) -> {
+            for (double value : frameState) {
+                sums[0] += value;
+            }
+            for (double value : accelerations) {
+                sums[1] += value;
+            }
+            // Hand the core over between frames, so that runs interleave as much as possible.
+            Thread.yield();
+            return time < END_TIME;
+        });
+        return sums;
+    }
+}
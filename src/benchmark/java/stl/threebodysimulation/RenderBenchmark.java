@@ -0,0 +1,115 @@
+package stl.threebodysimulation;
+
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.paint.Color;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the CPU time that CanvasWrapper.updateCanvas takes per frame, with trails and the center of mass shown.
+ * The canvases are never put on screen, so this is the time spent on the FX thread recording draw calls, without the time the render thread spends drawing them.
+ * The frames are drawn on the FX thread, like the app's, so the JavaFX toolkit must be able to start: on a machine without a display, run it with Monocle's headless platform.
+ * <p>
+ * The particles move on circles at different speeds, rather than under gravity, so that every particle count draws the same kind of frame.
+ * The colors come in three runs, as in the default templates, so that color changes are counted.
+ * <p>
+ * Usage: mvn -Pbenchmarks compile exec:java -Dexec.mainClass=stl.threebodysimulation.RenderBenchmark [-Dexec.args="FRAMES PARTICLE_COUNT..."]
+ */
+public class RenderBenchmark {
+
+    /**
+     * The number of frames drawn for each particle count if none is given. The first half warms up, and the second half is measured.
+     */
+    private static final int DEFAULT_FRAME_COUNT = 20000;
+
+    /**
+     * The particle counts measured if none are given.
+     */
+    private static final int[] DEFAULT_PARTICLE_COUNTS = {3, 100, 1000};
+
+    /**
+     * The colors of the particles, in equal runs.
+     */
+    private static final Color[] COLORS = {Color.RED, Color.BLUE, Color.GREEN};
+
+    /**
+     * Measures the average draw time of every particle count, and prints them.
+     *
+     * @param args The number of frames, then the particle counts, optionally.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_FRAME_COUNT;
+        int[] particleCounts = DEFAULT_PARTICLE_COUNTS;
+        if (args.length > 1) {
+            particleCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                particleCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        int[] measuredCounts = particleCounts;
+        CountDownLatch finished = new CountDownLatch(1);
+        Platform.startup(() -> {
+            try {
+                for (int particleCount : measuredCounts) {
+                    System.out.println(String.format("%d particles: %.4f ms/frame", particleCount, measure(particleCount, frameCount)));
+                }
+            } finally {
+                finished.countDown();
+            }
+        });
+        finished.await();
+        Platform.exit();
+    }
+
+    /**
+     * Draws frames of particles moving on circles, and times the second half of them.
+     *
+     * @param particleCount The number of particles.
+     * @param frameCount    The number of frames to draw.
+     * @return The average time of a measured frame, in milliseconds.
+     */
+    private static double measure(int particleCount, int frameCount) {
+        Particle[] particles = new Particle[particleCount];
+        for (int i = 0; i < particleCount; i++) {
+            double angle = 2 * Math.PI * i / particleCount;
+            // Particle IDs start with 1.
+            particles[i] = new Particle(radius(i) * Math.cos(angle), radius(i) * Math.sin(angle), 0, 0, 1, i + 1, COLORS[i * COLORS.length / particleCount]);
+        }
+        SimulationSettings settings = new SimulationSettings(particles, true, true, true, 0, 1, NumberFormat.ADAPTIVE, "");
+        CanvasWrapper canvasWrapper = new CanvasWrapper(new Canvas(800, 720), new Canvas(800, 720), new Canvas(800, 720));
+        canvasWrapper.setupScalesAndSettings(settings);
+
+        double[] state = new double[4 * particleCount];
+        double[] accelerations = new double[2 * particleCount];
+        long measuredNanos = 0;
+        for (int frame = 0; frame < frameCount; frame++) {
+            for (int i = 0; i < particleCount; i++) {
+                double angle = 2 * Math.PI * i / particleCount + frame * 0.01 * (1 + i % 5);
+                state[i] = radius(i) * Math.cos(angle);
+                state[particleCount + i] = radius(i) * Math.sin(angle);
+            }
+            for (Particle particle : particles) {
+                particle.update(state, accelerations, particleCount);
+            }
+
+            long startNanos = System.nanoTime();
+            canvasWrapper.updateCanvas();
+            if (frame >= frameCount / 2) {
+                measuredNanos += System.nanoTime() - startNanos;
+            }
+        }
+        return measuredNanos / 1e6 / (frameCount - frameCount / 2);
+    }
+
+    /**
+     * Gets the radius of the circle a particle moves on.
+     *
+     * @param index The index of the particle.
+     * @return The radius, in km.
+     */
+    private static double radius(int index) {
+        return 1000 + 100 * index;
+    }
+}
@@ -0,0 +1,517 @@
+package stl.threebodysimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A ForceSolver that approximates distant groups of particles by their center of mass, using a Barnes-Hut quadtree. O(N log N).
+ * <p>
+ * The tree is rebuilt for every evaluation, but its nodes live in a pooled arena of primitive arrays that is only ever grown, so evaluations do not allocate.
+ * Once the tree is built, large particle counts walk it in parallel on the common ForkJoinPool. Every particle is written by exactly one thread, so results do not depend on the thread count.
+ */
+class BarnesHutForceSolver implements ForceSolver {
+
+    /**
+     * The deepest a node can be. Particles that are still together at this depth share a leaf, which stops coincident particles from subdividing forever.
+     */
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * The smallest a node can be, in units in the last place of its coordinates. Smaller nodes could not be told apart from their neighbours.
+     */
+    private static final double MIN_HALF_WIDTH_ULPS = 16;
+
+    /**
+     * Marks a missing child or particle.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The number of particles.
+     */
+    private final int particleCount;
+
+    /**
+     * The gravitational parameter (G * mass) of each particle.
+     */
+    private final double[] gravitationalParameters;
+
+    /**
+     * The square of the opening angle. A node is approximated by its center of mass if (node width / distance)^2 is below this.
+     */
+    private final double squaredOpeningAngle;
+
+    /**
+     * The next particle in the same leaf, forming a linked list of the particles in each leaf.
+     */
+    private final int[] nextParticle;
+
+    /**
+     * The stack of nodes still to be visited when walking the tree, one for each block of particles. Every visit pushes at most 4 children, so it never needs more than 3 slots per level.
+     */
+    private final int[][] traversalStacks;
+
+    /**
+     * The pool that runs parallel tree walks, or null if tree walks are serial.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The task that walks the tree for every block, reused for every evaluation.
+     */
+    private final RecursiveAction parallelEvaluation;
+
+    /**
+     * The tasks that walk the tree for each block of particles, reused for every evaluation.
+     */
+    private final BlockTask[] blockTasks;
+
+    /**
+     * The state being evaluated by the block tasks.
+     */
+    private double[] evaluatedState;
+
+    /**
+     * The array the block tasks store accelerations in.
+     */
+    private double[] evaluatedAccelerations;
+
+    /**
+     * The x coordinate of the center of each node's square.
+     */
+    private double[] nodeCenterX;
+
+    /**
+     * The y coordinate of the center of each node's square.
+     */
+    private double[] nodeCenterY;
+
+    /**
+     * Half of the width of each node's square.
+     */
+    private double[] nodeHalfWidth;
+
+    /**
+     * The sum of the gravitational parameters inside each node.
+     */
+    private double[] nodeMass;
+
+    /**
+     * The x coordinate of each node's center of mass.
+     */
+    private double[] nodeMassX;
+
+    /**
+     * The y coordinate of each node's center of mass.
+     */
+    private double[] nodeMassY;
+
+    /**
+     * The index of the first of the 4 consecutive children of each node, or NONE if the node is a leaf.
+     */
+    private int[] nodeFirstChild;
+
+    /**
+     * The first particle of each leaf, or NONE if the leaf is empty.
+     */
+    private int[] nodeFirstParticle;
+
+    /**
+     * The depth of each node. The root has depth 0.
+     */
+    private int[] nodeDepth;
+
+    /**
+     * The number of nodes in use in the current tree.
+     */
+    private int nodeCount;
+
+    /**
+     * Creates a Barnes-Hut solver for a set of particles.
+     *
+     * @param gravitationalParameters The gravitational parameter (G * mass) of each particle.
+     * @param openingAngle            The opening angle. Lower is more accurate, and 0 is exact.
+     */
+    BarnesHutForceSolver(double[] gravitationalParameters, double openingAngle) {
+        this.particleCount = gravitationalParameters.length;
+        this.gravitationalParameters = gravitationalParameters;
+        this.squaredOpeningAngle = openingAngle * openingAngle;
+        this.nextParticle = new int[particleCount];
+
+        // A tree usually needs about twice as many nodes as particles. The arena grows if a tree ever needs more.
+        allocateArena(4 * particleCount + 5);
+
+        int threadCount = ForkJoinPool.getCommonPoolParallelism();
+        if (particleCount < DirectForceSolver.PARALLEL_THRESHOLD || threadCount < 2) {
+            pool = null;
+            blockTasks = null;
+            parallelEvaluation = null;
+            traversalStacks = new int[1][3 * MAX_DEPTH + 4];
+            return;
+        }
+
+        pool = ForkJoinPool.commonPool();
+        traversalStacks = new int[threadCount][3 * MAX_DEPTH + 4];
+        blockTasks = new BlockTask[threadCount];
+        for (int block = 0; block < threadCount; block++) {
+            // Particles are split into equal contiguous ranges.
+            blockTasks[block] = new BlockTask(block, (int) ((long) particleCount * block / threadCount), (int) ((long) particleCount * (block + 1) / threadCount));
+        }
+        parallelEvaluation = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(blockTasks);
+            }
+        };
+    }
+
+    /**
+     * Calculates the acceleration of every particle by walking the quadtree.
+     *
+     * @param state         The state of the particles. Only the positions are read.
+     * @param accelerations The array where the accelerations are stored.
+     */
+    @Override
+    public void computeAccelerations(double[] state, double[] accelerations) {
+        buildTree(state);
+
+        if (pool == null) {
+            for (int particle = 0; particle < particleCount; particle++) {
+                accumulateAcceleration(state, particle, accelerations, traversalStacks[0]);
+            }
+            return;
+        }
+
+        // Tasks are reused, so they must be reset before every run.
+        evaluatedState = state;
+        evaluatedAccelerations = accelerations;
+        for (BlockTask task : blockTasks) {
+            task.reinitialize();
+        }
+        parallelEvaluation.reinitialize();
+        pool.invoke(parallelEvaluation);
+    }
+
+    /**
+     * Rebuilds the quadtree around the current positions, reusing the arena.
+     *
+     * @param state The state of the particles.
+     */
+    private void buildTree(double[] state) {
+        // Find the smallest square that holds every particle.
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int particle = 0; particle < particleCount; particle++) {
+            minX = Math.min(minX, state[particle]);
+            maxX = Math.max(maxX, state[particle]);
+            minY = Math.min(minY, state[particleCount + particle]);
+            maxY = Math.max(maxY, state[particleCount + particle]);
+        }
+        // Padded slightly, so particles on the far edges still fall inside.
+        double halfWidth = Math.max(maxX - minX, maxY - minY) / 2 * 1.0001 + Double.MIN_NORMAL;
+
+        nodeCount = 0;
+        int root = allocateNode((minX + maxX) / 2, (minY + maxY) / 2, halfWidth, 0);
+
+        for (int particle = 0; particle < particleCount; particle++) {
+            insertParticle(state, root, particle);
+        }
+
+        computeCentersOfMass(state);
+    }
+
+    /**
+     * Inserts a particle into the tree, subdividing leaves as needed.
+     *
+     * @param state    The state of the particles.
+     * @param root     The root node.
+     * @param particle The particle to insert.
+     */
+    private void insertParticle(double[] state, int root, int particle) {
+        double x = state[particle];
+        double y = state[particleCount + particle];
+        int node = root;
+
+        while (true) {
+            if (nodeFirstChild[node] != NONE) {
+                // Internal node: descend into the right quadrant.
+                node = nodeFirstChild[node] + quadrant(node, x, y);
+            } else if (nodeFirstParticle[node] == NONE) {
+                // Empty leaf: the particle lives here.
+                nodeFirstParticle[node] = particle;
+                nextParticle[particle] = NONE;
+                return;
+            } else if (!canSubdivide(node)) {
+                // Too deep or too small to subdivide: share the leaf.
+                nextParticle[particle] = nodeFirstParticle[node];
+                nodeFirstParticle[node] = particle;
+                return;
+            } else {
+                // Occupied leaf: split it, move the resident particle down, and try again.
+                subdivide(state, node);
+            }
+        }
+    }
+
+    /**
+     * Splits a leaf that holds a single particle into 4 children.
+     *
+     * @param state The state of the particles.
+     * @param node  The leaf to split.
+     */
+    private void subdivide(double[] state, int node) {
+        double childHalfWidth = nodeHalfWidth[node] / 2;
+        int depth = nodeDepth[node] + 1;
+
+        // Children are allocated consecutively, in the order given by quadrant().
+        int firstChild = NONE;
+        for (int child = 0; child < 4; child++) {
+            double childX = nodeCenterX[node] + ((child & 1) == 0 ? -childHalfWidth : childHalfWidth);
+            double childY = nodeCenterY[node] + ((child & 2) == 0 ? -childHalfWidth : childHalfWidth);
+            int childNode = allocateNode(childX, childY, childHalfWidth, depth);
+            if (child == 0) {
+                firstChild = childNode;
+            }
+        }
+
+        // Leaves that can be split only ever hold a single particle.
+        int resident = nodeFirstParticle[node];
+        int residentChild = firstChild + quadrant(node, state[resident], state[particleCount + resident]);
+        nodeFirstParticle[residentChild] = resident;
+        nextParticle[resident] = NONE;
+
+        nodeFirstParticle[node] = NONE;
+        nodeFirstChild[node] = firstChild;
+    }
+
+    /**
+     * Checks whether a leaf can still be split into children that are distinguishable in floating point.
+     *
+     * @param node The leaf.
+     * @return True if the leaf can be split, false if it must hold all of its particles itself.
+     */
+    private boolean canSubdivide(int node) {
+        double resolution = Math.ulp(Math.max(Math.abs(nodeCenterX[node]), Math.abs(nodeCenterY[node])));
+        return nodeDepth[node] < MAX_DEPTH && nodeHalfWidth[node] > MIN_HALF_WIDTH_ULPS * resolution;
+    }
+
+    /**
+     * Finds which quadrant of a node a position falls in.
+     *
+     * @param node The node.
+     * @param x    The x coordinate of the position.
+     * @param y    The y coordinate of the position.
+     * @return The quadrant: 0 for lower left, 1 for lower right, 2 for upper left, 3 for upper right.
+     */
+    private int quadrant(int node, double x, double y) {
+        return (x >= nodeCenterX[node] ? 1 : 0) + (y >= nodeCenterY[node] ? 2 : 0);
+    }
+
+    /**
+     * Calculates the mass and center of mass of every node. Children are always allocated after their parents, so walking the arena backwards visits children first.
+     *
+     * @param state The state of the particles.
+     */
+    private void computeCentersOfMass(double[] state) {
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            double mass = 0;
+            double weightedX = 0;
+            double weightedY = 0;
+
+            if (nodeFirstChild[node] == NONE) {
+                for (int particle = nodeFirstParticle[node]; particle != NONE; particle = nextParticle[particle]) {
+                    mass += gravitationalParameters[particle];
+                    weightedX += gravitationalParameters[particle] * state[particle];
+                    weightedY += gravitationalParameters[particle] * state[particleCount + particle];
+                }
+            } else {
+                for (int child = nodeFirstChild[node]; child < nodeFirstChild[node] + 4; child++) {
+                    mass += nodeMass[child];
+                    weightedX += nodeMass[child] * nodeMassX[child];
+                    weightedY += nodeMass[child] * nodeMassY[child];
+                }
+            }
+
+            nodeMass[node] = mass;
+            if (mass != 0) {
+                nodeMassX[node] = weightedX / mass;
+                nodeMassY[node] = weightedY / mass;
+            }
+        }
+    }
+
+    /**
+     * Calculates the acceleration of one particle by walking the tree from the root.
+     *
+     * @param state          The state of the particles.
+     * @param particle       The particle whose acceleration is calculated.
+     * @param accelerations  The array where the acceleration is stored.
+     * @param traversalStack The stack used to walk the tree. Each thread needs its own.
+     */
+    private void accumulateAcceleration(double[] state, int particle, double[] accelerations, int[] traversalStack) {
+        double x = state[particle];
+        double y = state[particleCount + particle];
+        double xAcceleration = 0;
+        double yAcceleration = 0;
+
+        int stackSize = 0;
+        traversalStack[stackSize++] = 0; // The root is always the first node.
+
+        while (stackSize > 0) {
+            int node = traversalStack[--stackSize];
+            if (nodeMass[node] == 0) {
+                continue;
+            }
+
+            if (nodeFirstChild[node] == NONE) {
+                // Leaf: sum its particles exactly.
+                for (int other = nodeFirstParticle[node]; other != NONE; other = nextParticle[other]) {
+                    if (other == particle) {
+                        continue;
+                    }
+                    double xDistance = state[other] - x;
+                    double yDistance = state[particleCount + other] - y;
+                    double squaredDistance = xDistance * xDistance + yDistance * yDistance;
+                    if (squaredDistance == 0) {
+                        continue;
+                    }
+                    double inverseDistance = 1 / Math.sqrt(squaredDistance);
+                    double massFactor = gravitationalParameters[other] * inverseDistance * inverseDistance * inverseDistance;
+                    xAcceleration += massFactor * xDistance;
+                    yAcceleration += massFactor * yDistance;
+                }
+                continue;
+            }
+
+            double xDistance = nodeMassX[node] - x;
+            double yDistance = nodeMassY[node] - y;
+            double squaredDistance = xDistance * xDistance + yDistance * yDistance;
+            double width = 2 * nodeHalfWidth[node];
+
+            // A node that holds the particle itself is always opened, so that a particle never attracts itself.
+            boolean containsParticle = Math.abs(x - nodeCenterX[node]) <= nodeHalfWidth[node] && Math.abs(y - nodeCenterY[node]) <= nodeHalfWidth[node];
+
+            if (!containsParticle && width * width < squaredOpeningAngle * squaredDistance) {
+                // Far enough away: treat the whole node as a single mass at its center of mass.
+                double inverseDistance = 1 / Math.sqrt(squaredDistance);
+                double massFactor = nodeMass[node] * inverseDistance * inverseDistance * inverseDistance;
+                xAcceleration += massFactor * xDistance;
+                yAcceleration += massFactor * yDistance;
+            } else {
+                // Too close: open the node.
+                for (int child = nodeFirstChild[node]; child < nodeFirstChild[node] + 4; child++) {
+                    traversalStack[stackSize++] = child;
+                }
+            }
+        }
+
+        accelerations[particle] = xAcceleration;
+        accelerations[particleCount + particle] = yAcceleration;
+    }
+
+    /**
+     * Takes a fresh node from the arena, growing the arena if it is full.
+     *
+     * @param centerX   The x coordinate of the center of the node's square.
+     * @param centerY   The y coordinate of the center of the node's square.
+     * @param halfWidth Half of the width of the node's square.
+     * @param depth     The depth of the node.
+     * @return The index of the node.
+     */
+    private int allocateNode(double centerX, double centerY, double halfWidth, int depth) {
+        if (nodeCount == nodeMass.length) {
+            allocateArena(2 * nodeMass.length);
+        }
+        int node = nodeCount++;
+        nodeCenterX[node] = centerX;
+        nodeCenterY[node] = centerY;
+        nodeHalfWidth[node] = halfWidth;
+        nodeDepth[node] = depth;
+        nodeMass[node] = 0;
+        nodeFirstChild[node] = NONE;
+        nodeFirstParticle[node] = NONE;
+        return node;
+    }
+
+    /**
+     * Allocates or grows the arena of node arrays, keeping the nodes already in use.
+     *
+     * @param capacity The number of nodes the arena must hold.
+     */
+    private void allocateArena(int capacity) {
+        if (nodeMass == null) {
+            nodeCenterX = new double[capacity];
+            nodeCenterY = new double[capacity];
+            nodeHalfWidth = new double[capacity];
+            nodeMass = new double[capacity];
+            nodeMassX = new double[capacity];
+            nodeMassY = new double[capacity];
+            nodeFirstChild = new int[capacity];
+            nodeFirstParticle = new int[capacity];
+            nodeDepth = new int[capacity];
+            return;
+        }
+        nodeCenterX = Arrays.copyOf(nodeCenterX, capacity);
+        nodeCenterY = Arrays.copyOf(nodeCenterY, capacity);
+        nodeHalfWidth = Arrays.copyOf(nodeHalfWidth, capacity);
+        nodeMass = Arrays.copyOf(nodeMass, capacity);
+        nodeMassX = Arrays.copyOf(nodeMassX, capacity);
+        nodeMassY = Arrays.copyOf(nodeMassY, capacity);
+        nodeFirstChild = Arrays.copyOf(nodeFirstChild, capacity);
+        nodeFirstParticle = Arrays.copyOf(nodeFirstParticle, capacity);
+        nodeDepth = Arrays.copyOf(nodeDepth, capacity);
+    }
+
+    /**
+     * A task that walks the tree for one contiguous block of particles.
+     */
+    private class BlockTask extends RecursiveAction {
+
+        /**
+         * The version of the serialized form, which is never used, as the class is never serialized.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The block this task evaluates, which decides its traversal stack.
+         */
+        private final int block;
+
+        /**
+         * The first particle of the block.
+         */
+        private final int firstParticle;
+
+        /**
+         * The particle after the last particle of the block.
+         */
+        private final int endParticle;
+
+        /**
+         * Creates a task for a block of particles.
+         *
+         * @param block         The block this task evaluates.
+         * @param firstParticle The first particle of the block.
+         * @param endParticle   The particle after the last particle of the block.
+         */
+        BlockTask(int block, int firstParticle, int endParticle) {
+            this.block = block;
+            this.firstParticle = firstParticle;
+            this.endParticle = endParticle;
+        }
+
+        /**
+         * Walks the tree for every particle in the block. Called by the pool.
+         */
+        @Override
+        protected void compute() {
+            for (int particle = firstParticle; particle < endParticle; particle++) {
+                accumulateAcceleration(evaluatedState, particle, evaluatedAccelerations, traversalStacks[block]);
+            }
+        }
+    }
+}
@@ -0,0 +1,738 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+import org.apache.commons.math3.exception.NumberIsTooSmallException;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+
+/**
+ * A class that runs a simulation from a template on the command line, without JavaFX, as fast as the integrator allows.
+ * With --members, it runs an ensemble of perturbed copies of the template in parallel instead, using EnsembleRunner.
+ * With --map-x and --map-y, it scans a grid of initial conditions into a stability map instead, using StabilityMapper.
+ * <p>
+ * Usage: <br>
+ * --batch TEMPLATE (--time SECONDS | --steps COUNT) [--output FILE] [--format csv|binary] [--interval SECONDS]
+ * [--integrator NAME] [--step-size SECONDS] [--force-model NAME] [--opening-angle ANGLE] [--regularize] [--chaos]
+ * [--collision-radius KM] [--on-collision stop|merge] [--encounter-radius KM] <br>
+ * --batch TEMPLATE --time SECONDS --members COUNT --output FILE [--vary ID:PROPERTY:DISTRIBUTION:SPREAD]... [--seed SEED] [--threads COUNT]
+ * [--integrator NAME] [--step-size SECONDS] [--force-model NAME] [--opening-angle ANGLE] [--regularize] [--chaos]
+ * [--collision-radius KM] [--on-collision stop|merge] [--encounter-radius KM] <br>
+ * --batch TEMPLATE --time SECONDS --map-x ID:PROPERTY:MIN:MAX --map-y ID:PROPERTY:MIN:MAX --output FILE.png [--resolution WIDTHxHEIGHT]
+ * [--color-by escape_time|encounter_count] [--escape-radius KM] [--encounter-radius KM] [--checkpoint DIRECTORY] [--threads COUNT]
+ * [--integrator NAME] [--step-size SECONDS] [--force-model NAME] [--opening-angle ANGLE] [--regularize] [--collision-radius KM] [--on-collision stop|merge]
+ */
+class BatchRunner {
+
+    /**
+     * The argument that starts the batch runner instead of the app.
+     */
+    static final String BATCH_FLAG = "--batch";
+
+    /**
+     * The resolution of stability maps if none is given.
+     */
+    private static final String DEFAULT_MAP_RESOLUTION = "100x100";
+
+    /**
+     * The usage message printed when the arguments are not valid.
+     */
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: " + BATCH_FLAG + " TEMPLATE (--time SECONDS | --steps COUNT) [options]",
+            "  --time SECONDS          Simulate until this time.",
+            "  --steps COUNT           Simulate until the integrator has taken this many steps. Stops at the first frame after.",
+            "  --output FILE           Save the trajectory to this file. Nothing is saved if this is left out.",
+            "  --format csv|binary     The format of the trajectory. Binary if the file ends in " + SceneFXMLController.BINARY_TRAJECTORY_EXTENSION_NAME + ", CSV otherwise.",
+            "  --interval SECONDS      The simulation time between saved frames. Matches the app at the template's speed by default.",
+            "  --integrator NAME       dormand_prince (default), bulirsch_stoer, leapfrog, yoshida_4, yoshida_6, forest_ruth or algorithmic_chain.",
+            "  --step-size SECONDS     The step size of fixed-step integrators. " + IntegrationSettings.DEFAULT_STEP_SIZE + " by default.",
+            "  --force-model NAME      direct (default) or barnes_hut.",
+            "  --opening-angle ANGLE   The opening angle of barnes_hut. " + IntegrationSettings.DEFAULT_OPENING_ANGLE + " by default.",
+            "  --regularize            Step dormand_prince in regularized time, which slows down through close encounters instead of failing. Takes no value.",
+            "  --chaos                 Measure the maximal Lyapunov exponent and MEGNO from the variational equations. Takes no value.",
+            "  --collision-radius KM   Two particles collide when they come this close. Collisions are not detected by default.",
+            "  --on-collision ACTION   stop (default) ends the run at a collision, and merge combines the two particles and carries on.",
+            "  --encounter-radius KM   Report every time two particles come this close. Encounters are only counted in maps by default.",
+            "Ensemble sweeps:",
+            "  --members COUNT         Run this many perturbed copies of the template in parallel, and save a summary of each to the output file.",
+            "  --vary ID:PROPERTY:DISTRIBUTION:SPREAD",
+            "                          Vary a property (mass, x_position, y_position, x_velocity or y_velocity) of a particle,",
+            "                          by offsets drawn from a distribution (uniform or normal). May be given more than once.",
+            "  --seed SEED             The seed of the random offsets. 0 by default.",
+            "  --threads COUNT         The number of members or tiles that run at once. Every core by default.",
+            "Stability maps:",
+            "  --map-x ID:PROPERTY:MIN:MAX",
+            "  --map-y ID:PROPERTY:MIN:MAX",
+            "                          Offset a property of a particle evenly from MIN to MAX across or down the map.",
+            "                          Saves a PNG to the output file, and the results of every cell to a CSV beside it.",
+            "  --resolution WIDTHxHEIGHT  The number of cells in the map. " + DEFAULT_MAP_RESOLUTION + " by default.",
+            "  --color-by METRIC       escape_time (default) or encounter_count.",
+            "  --escape-radius KM      The distance from the center of mass at which a particle has escaped. 10 times the template's largest by default.",
+            "  --encounter-radius KM   In maps, the encounter radius is 0.1 times the template's smallest distance by default.",
+            "  --checkpoint DIRECTORY  Save finished tiles here, and resume from any already saved.");
+
+    /**
+     * The fraction of a frame interval that a frame time may miss the end time by, and still count as reaching it.
+     */
+    private static final double END_TIME_TOLERANCE = 1e-9;
+
+    /**
+     * The path of the template to run.
+     */
+    private String templatePath;
+
+    /**
+     * The time to simulate until, or NaN if the run is limited by steps.
+     */
+    private double endTime = Double.NaN;
+
+    /**
+     * The number of steps to simulate for, or 0 if the run is limited by time.
+     */
+    private long stepLimit;
+
+    /**
+     * The path of the trajectory file, or null if the trajectory is not saved.
+     */
+    private String outputPath;
+
+    /**
+     * The format of the trajectory file, or null to choose by file extension.
+     */
+    private TrajectoryFormat trajectoryFormat;
+
+    /**
+     * The simulation time between saved frames, or NaN to match the app.
+     */
+    private double frameInterval = Double.NaN;
+
+    /**
+     * The numerical integrator that advances the simulation.
+     */
+    private IntegratorType integratorType = IntegratorType.DORMAND_PRINCE;
+
+    /**
+     * The step size of fixed-step integrators, in seconds.
+     */
+    private double stepSize = IntegrationSettings.DEFAULT_STEP_SIZE;
+
+    /**
+     * The algorithm that calculates gravitational forces.
+     */
+    private ForceModel forceModel = ForceModel.DIRECT;
+
+    /**
+     * The opening angle of tree force models.
+     */
+    private double openingAngle = IntegrationSettings.DEFAULT_OPENING_ANGLE;
+
+    /**
+     * True if chaos indicators are measured alongside the state.
+     */
+    private boolean chaosIndicators;
+
+    /**
+     * True if the adaptive integrator steps in regularized time.
+     */
+    private boolean regularized;
+
+    /**
+     * The distance between two particles at which they collide, in km, or 0 if collisions are not detected.
+     */
+    private double collisionRadius;
+
+    /**
+     * What happens when two particles collide.
+     */
+    private CollisionResponse collisionResponse = CollisionResponse.STOP;
+
+    /**
+     * The number of members of an ensemble sweep, or 0 to run the template once.
+     */
+    private int memberCount;
+
+    /**
+     * The properties that an ensemble sweep varies.
+     */
+    private final ArrayList<SweepParameter> sweepParameters = new ArrayList<>();
+
+    /**
+     * The seed of the random offsets of an ensemble sweep.
+     */
+    private long seed;
+
+    /**
+     * The number of ensemble members that run at once.
+     */
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The property offset across a stability map, or null if no map is made.
+     */
+    private StabilityMapAxis mapXAxis;
+
+    /**
+     * The property offset down a stability map, or null if no map is made.
+     */
+    private StabilityMapAxis mapYAxis;
+
+    /**
+     * The number of cells across and down a stability map.
+     */
+    private int[] mapResolution = parseResolution("--resolution", DEFAULT_MAP_RESOLUTION);
+
+    /**
+     * The quantity that a stability map is colored by.
+     */
+    private StabilityMetric mapMetric = StabilityMetric.ESCAPE_TIME;
+
+    /**
+     * The escape radius of a stability map, or NaN to scale it from the template.
+     */
+    private double escapeRadius = Double.NaN;
+
+    /**
+     * The encounter radius, or NaN to leave encounters unreported, or to scale the radius of a stability map from the template.
+     */
+    private double encounterRadius = Double.NaN;
+
+    /**
+     * The checkpoint directory of a stability map, or null if tiles are not saved.
+     */
+    private String checkpointDirectory;
+
+    /**
+     * The TrajectoryRecorder that saves the trajectory, or null if it is not saved.
+     */
+    private TrajectoryRecorder recorder;
+
+    /**
+     * The number of frames saved so far.
+     */
+    private long frameCount;
+
+    /**
+     * The time of the last frame handled.
+     */
+    private double lastFrameTime;
+
+    /**
+     * The time of the last frame handled by the integrator, which the chaos indicators it holds belong to.
+     */
+    private double lastIntegratorFrameTime;
+
+    /**
+     * Runs a simulation according to command line arguments.
+     *
+     * @param args The command line arguments, starting with BATCH_FLAG.
+     * @return The exit status: 0 if the run finished, 1 if it failed or the arguments are not valid.
+     */
+    static int run(String[] args) {
+        BatchRunner runner = new BatchRunner();
+        try {
+            runner.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            return 1;
+        }
+        return runner.simulate();
+    }
+
+    /**
+     * Reads the options of the run from the command line arguments.
+     *
+     * @param args The command line arguments, starting with BATCH_FLAG.
+     * @throws IllegalArgumentException If the arguments are not valid.
+     */
+    private void parseArguments(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("No template given.");
+        }
+        templatePath = args[1];
+
+        int index = 2;
+        while (index < args.length) {
+            String option = args[index++];
+            // Flags stand alone, and every other option takes a value.
+            if (option.equals("--chaos")) {
+                chaosIndicators = true;
+                continue;
+            }
+            if (option.equals("--regularize")) {
+                regularized = true;
+                continue;
+            }
+            if (index >= args.length) {
+                throw new IllegalArgumentException("No value given for " + option + ".");
+            }
+            String value = args[index++];
+            switch (option) {
+                case "--time":
+                    endTime = parsePositiveNumber(option, value);
+                    break;
+                case "--steps":
+                    stepLimit = (long) parsePositiveNumber(option, value);
+                    break;
+                case "--output":
+                    outputPath = value;
+                    break;
+                case "--format":
+                    trajectoryFormat = parseEnum(TrajectoryFormat.class, option, value);
+                    break;
+                case "--interval":
+                    frameInterval = parsePositiveNumber(option, value);
+                    break;
+                case "--integrator":
+                    integratorType = parseEnum(IntegratorType.class, option, value);
+                    break;
+                case "--step-size":
+                    stepSize = parsePositiveNumber(option, value);
+                    break;
+                case "--force-model":
+                    forceModel = parseEnum(ForceModel.class, option, value);
+                    break;
+                case "--opening-angle":
+                    openingAngle = Double.parseDouble(value);
+                    break;
+                case "--members":
+                    memberCount = (int) parsePositiveNumber(option, value);
+                    break;
+                case "--vary":
+                    sweepParameters.add(parseSweepParameter(option, value));
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--threads":
+                    threadCount = (int) parsePositiveNumber(option, value);
+                    break;
+                case "--map-x":
+                    mapXAxis = parseMapAxis(option, value);
+                    break;
+                case "--map-y":
+                    mapYAxis = parseMapAxis(option, value);
+                    break;
+                case "--resolution":
+                    mapResolution = parseResolution(option, value);
+                    break;
+                case "--color-by":
+                    mapMetric = parseEnum(StabilityMetric.class, option, value);
+                    break;
+                case "--escape-radius":
+                    escapeRadius = parsePositiveNumber(option, value);
+                    break;
+                case "--encounter-radius":
+                    encounterRadius = parsePositiveNumber(option, value);
+                    break;
+                case "--collision-radius":
+                    collisionRadius = parsePositiveNumber(option, value);
+                    break;
+                case "--on-collision":
+                    collisionResponse = parseEnum(CollisionResponse.class, option, value);
+                    break;
+                case "--checkpoint":
+                    checkpointDirectory = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option + ".");
+            }
+        }
+
+        if (Double.isNaN(endTime) == (stepLimit == 0)) {
+            throw new IllegalArgumentException("Exactly one of --time and --steps must be given.");
+        }
+        if (memberCount > 0 && (Double.isNaN(endTime) || outputPath == null)) {
+            throw new IllegalArgumentException("Ensemble sweeps need --time and --output.");
+        }
+        if ((mapXAxis == null) != (mapYAxis == null)) {
+            throw new IllegalArgumentException("Stability maps need both --map-x and --map-y.");
+        }
+        if (mapXAxis != null && (Double.isNaN(endTime) || outputPath == null || memberCount > 0)) {
+            throw new IllegalArgumentException("Stability maps need --time and --output, and cannot be combined with --members.");
+        }
+        if (regularized && !integratorType.canRegularize()) {
+            throw new IllegalArgumentException("Only dormand_prince steps in regularized time, so --regularize cannot be combined with other integrators.");
+        }
+        if (mapXAxis != null && chaosIndicators) {
+            throw new IllegalArgumentException("Stability maps do not measure chaos indicators, so cannot be combined with --chaos.");
+        }
+        if (outputPath != null && trajectoryFormat == null) {
+            trajectoryFormat = outputPath.endsWith(SceneFXMLController.BINARY_TRAJECTORY_EXTENSION_NAME) ? TrajectoryFormat.BINARY : TrajectoryFormat.CSV;
+        }
+    }
+
+    /**
+     * Parses a number that must be positive.
+     *
+     * @param option The option the number was given for.
+     * @param value  The number, as given.
+     * @return The number.
+     * @throws IllegalArgumentException If the value is not a positive number.
+     */
+    private static double parsePositiveNumber(String option, String value) {
+        double number;
+        try {
+            number = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(value + " is not a number, for " + option + ".");
+        }
+        if (!(number > 0) || Double.isInfinite(number)) {
+            throw new IllegalArgumentException(option + " must be positive.");
+        }
+        return number;
+    }
+
+    /**
+     * Parses a sweep parameter, given as ID:PROPERTY:DISTRIBUTION:SPREAD.
+     *
+     * @param option The option the parameter was given for.
+     * @param value  The parameter, as given.
+     * @return The sweep parameter.
+     * @throws IllegalArgumentException If the value is not a valid sweep parameter.
+     */
+    private static SweepParameter parseSweepParameter(String option, String value) {
+        String[] fields = value.split(":");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException(value + " is not of the form ID:PROPERTY:DISTRIBUTION:SPREAD, for " + option + ".");
+        }
+        return new SweepParameter(
+                (int) parsePositiveNumber(option, fields[0]),
+                parseEnum(SweepProperty.class, option, fields[1]),
+                parseEnum(SweepDistribution.class, option, fields[2]),
+                parsePositiveNumber(option, fields[3]));
+    }
+
+    /**
+     * Parses an axis of a stability map, given as ID:PROPERTY:MIN:MAX.
+     *
+     * @param option The option the axis was given for.
+     * @param value  The axis, as given.
+     * @return The axis.
+     * @throws IllegalArgumentException If the value is not a valid axis.
+     */
+    private static StabilityMapAxis parseMapAxis(String option, String value) {
+        String[] fields = value.split(":");
+        if (fields.length != 4) {
+            throw new IllegalArgumentException(value + " is not of the form ID:PROPERTY:MIN:MAX, for " + option + ".");
+        }
+        try {
+            return new StabilityMapAxis(
+                    (int) parsePositiveNumber(option, fields[0]),
+                    parseEnum(SweepProperty.class, option, fields[1]),
+                    Double.parseDouble(fields[2]),
+                    Double.parseDouble(fields[3]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(value + " does not have a numeric range, for " + option + ".");
+        }
+    }
+
+    /**
+     * Parses the resolution of a stability map, given as WIDTHxHEIGHT.
+     *
+     * @param option The option the resolution was given for.
+     * @param value  The resolution, as given.
+     * @return The width and height, in cells.
+     * @throws IllegalArgumentException If the value is not a valid resolution.
+     */
+    private static int[] parseResolution(String option, String value) {
+        String[] fields = value.split("x");
+        if (fields.length != 2) {
+            throw new IllegalArgumentException(value + " is not of the form WIDTHxHEIGHT, for " + option + ".");
+        }
+        return new int[]{(int) parsePositiveNumber(option, fields[0]), (int) parsePositiveNumber(option, fields[1])};
+    }
+
+    /**
+     * Finds the constant of an enum by its name, ignoring case, with dashes in place of underscores allowed.
+     *
+     * @param type   The enum class.
+     * @param option The option the name was given for.
+     * @param value  The name, as given.
+     * @param <T>    The enum type.
+     * @return The constant with that name.
+     * @throws IllegalArgumentException If no constant has that name.
+     */
+    private static <T extends Enum<T>> T parseEnum(Class<T> type, String option, String value) {
+        for (T constant : type.getEnumConstants()) {
+            if (constant.name().equalsIgnoreCase(value.replace('-', '_'))) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException(value + " is not a valid choice for " + option + ".");
+    }
+
+    /**
+     * Reads a template file.
+     *
+     * @param filepath The path of the template.
+     * @return The settings stored in the template.
+     * @throws IOException If the template cannot be read.
+     */
+    private static SimulationSettings readTemplate(String filepath) throws IOException {
+        ArrayList<String> serializedForm = new ArrayList<>();
+        try (Reader reader = new FileReader(filepath)) {
+            for (CSVRecord record : CSVFormat.DEFAULT.parse(reader)) {
+                for (int index = 0; index < record.size(); index++) {
+                    serializedForm.add(record.get(index));
+                }
+            }
+        }
+        return new SimulationSettings(serializedForm);
+    }
+
+    /**
+     * Runs the simulation and prints its throughput.
+     *
+     * @return The exit status: 0 if the run finished, 1 if it failed.
+     */
+    private int simulate() {
+        SimulationSettings settings;
+        try {
+            settings = readTemplate(templatePath);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("The template " + templatePath + " cannot be read: " + e.getMessage());
+            return 1;
+        }
+        if (endTime <= settings.getSkip()) {
+            System.out.println("--time must be after the time the template skips to, " + settings.getSkip() + " s.");
+            return 1;
+        }
+        // Approximate force models report how far they stray from exact forces, before the run so that a poor opening angle shows up straight away.
+        printForceError(settings);
+        if (memberCount > 0) {
+            return sweep(settings);
+        }
+        if (mapXAxis != null) {
+            return map(settings);
+        }
+        if (Double.isNaN(frameInterval)) {
+            frameInterval = settings.getSpeed() / CanvasPanelFXMLController.MAX_FRAMERATE;
+        }
+
+        IntegrationSettings integrationSettings = buildIntegrationSettings(Double.isNaN(encounterRadius) ? 0 : encounterRadius);
+        ParticleDifferentialEquations equations = new ParticleDifferentialEquations(settings.getMass(), integrationSettings);
+        SimulationIntegrator integrator = integrationSettings.buildIntegrator(equations);
+        integrator.setEncounterHandler((type, time, firstParticle, secondParticle) ->
+                System.out.println(String.format("%s between particles %d and %d at %.6f s.", type, firstParticle + 1, secondParticle + 1, time)));
+        double[] state = new double[equations.getDimension()];
+        double[] frameAccelerations = new double[equations.getDimension() / 2];
+        for (Particle particle : settings.getParticles()) {
+            particle.flatten(state, settings.getParticles().length);
+        }
+
+        if (outputPath != null) {
+            try {
+                recorder = trajectoryFormat.openRecorder(outputPath, settings.getParticles());
+            } catch (IOException e) {
+                System.out.println("The file " + outputPath + " cannot be written: " + e.getMessage());
+                return 1;
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        int status = 0;
+        try {
+            // Skip ahead like the app does, and save frames from there.
+            double startTime = settings.getSkip();
+            if (startTime != 0) {
+                integrator.integrate(0, state, startTime);
+            }
+            equations.computeAccelerations(state, frameAccelerations);
+            handleFrame(startTime, state, frameAccelerations);
+
+            integrator.integrateFrames(startTime, state, frameInterval, (time, frameState, accelerations) -> {
+                lastIntegratorFrameTime = time;
+                return handleFrame(time, frameState, accelerations) && !isFinished(integrator, time);
+            });
+
+            // The end time may fall between frames, in which case the run finishes with one shorter frame.
+            if (!Double.isNaN(endTime) && lastFrameTime < endTime) {
+                integrator.integrate(lastFrameTime, state, endTime);
+                equations.computeAccelerations(state, frameAccelerations);
+                handleFrame(endTime, state, frameAccelerations);
+            }
+        } catch (NumberIsTooSmallException e) {
+            // Asymptote error (the integrator can't converge and gives up)
+            System.out.println(FilenameUnspecificMessage.ASYMPTOTE_ERROR.getMessage());
+            status = 1;
+        } catch (NumberIsTooLargeException e) {
+            // Double overflow error (inputs too large for double datatype to handle)
+            System.out.println(FilenameUnspecificMessage.OVERFLOW_ERROR.getMessage());
+            status = 1;
+        } catch (CollisionException e) {
+            // Two particles collided, and the run stops at collisions.
+            System.out.println(e.getMessage());
+            status = 1;
+        } catch (InterruptedException e) {
+            // Should never occur, as nothing interrupts the batch runner.
+            Thread.currentThread().interrupt();
+            status = 1;
+        } catch (Exception e) {
+            // Other errors
+            System.out.println(e.getMessage());
+            status = 1;
+        } finally {
+            if (recorder != null) {
+                recorder.close();
+            }
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        long stepCount = integrator.getStepCount();
+        long evaluationCount = equations.getEvaluationCount();
+        System.out.println(String.format("Simulated %d particles to %.6f s with %s in %.3f s of real time.", state.length / 4, lastFrameTime, integratorType, seconds));
+        System.out.println(String.format("Steps: %d (%.0f steps/s)", stepCount, stepCount / seconds));
+        System.out.println(String.format("Force evaluations: %d (%.0f evaluations/s)", evaluationCount, evaluationCount / seconds));
+        System.out.println(String.format("Frames: %d%s", frameCount, outputPath == null ? "" : ", saved to " + outputPath));
+        if (chaosIndicators) {
+            // The integrator holds the indicators of the last frame it handled, which may be one short frame before the end.
+            double[] indicators = integrator.getChaosIndicators();
+            System.out.println(String.format("Chaos indicators at %.6f s: %s %.6g, %s %.6g, %s %.6g", lastIntegratorFrameTime,
+                    ChaosIndicator.LYAPUNOV_EXPONENT, indicators[ChaosIndicator.LYAPUNOV_EXPONENT.ordinal()],
+                    ChaosIndicator.MEGNO, indicators[ChaosIndicator.MEGNO.ordinal()],
+                    ChaosIndicator.MEAN_MEGNO, indicators[ChaosIndicator.MEAN_MEGNO.ordinal()]));
+        }
+        return status;
+    }
+
+    /**
+     * Runs an ensemble sweep around the template and prints its throughput.
+     *
+     * @param settings The template.
+     * @return The exit status: 0 if the sweep finished, 1 if it could not be run. Members that fail are recorded in the summary, and do not fail the sweep.
+     */
+    private int sweep(SimulationSettings settings) {
+        IntegrationSettings integrationSettings = buildIntegrationSettings(Double.isNaN(encounterRadius) ? 0 : encounterRadius);
+        EnsembleRunner ensemble;
+        try {
+            ensemble = new EnsembleRunner(settings, integrationSettings, sweepParameters, memberCount, seed);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return 1;
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            ensemble.run(endTime, threadCount, outputPath);
+        } catch (IOException e) {
+            System.out.println("The file " + outputPath + " cannot be written: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            // Should never occur, as nothing interrupts the batch runner.
+            Thread.currentThread().interrupt();
+            return 1;
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        System.out.println(String.format("Simulated %d members to %.6f s with %s on %d threads in %.3f s of real time.", memberCount, endTime, integratorType, threadCount, seconds));
+        System.out.println(String.format("Members: %.2f members/s", memberCount / seconds));
+        System.out.println(String.format("Steps: %d (%.0f steps/s)", ensemble.getTotalStepCount(), ensemble.getTotalStepCount() / seconds));
+        System.out.println(String.format("Force evaluations: %d (%.0f evaluations/s)", ensemble.getTotalEvaluationCount(), ensemble.getTotalEvaluationCount() / seconds));
+        System.out.println("Summaries saved to " + outputPath);
+        return 0;
+    }
+
+    /**
+     * Scans a stability map around the template and prints its throughput.
+     *
+     * @param settings The template.
+     * @return The exit status: 0 if the map was saved, 1 if it could not be made.
+     */
+    private int map(SimulationSettings settings) {
+        // Maps count encounters between frames themselves, so the integrator only looks for collisions.
+        IntegrationSettings integrationSettings = buildIntegrationSettings(0);
+        StabilityMapper mapper;
+        try {
+            mapper = new StabilityMapper(settings, integrationSettings, mapXAxis, mapYAxis, mapResolution[0], mapResolution[1], endTime, escapeRadius, encounterRadius);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return 1;
+        }
+
+        // The raw data goes beside the image, with the same name.
+        int extensionStart = outputPath.lastIndexOf('.');
+        String dataPath = (extensionStart > Math.max(outputPath.lastIndexOf('/'), outputPath.lastIndexOf('\\')) ? outputPath.substring(0, extensionStart) : outputPath) + SceneFXMLController.CSV_EXTENSION_NAME;
+
+        long startNanos = System.nanoTime();
+        try {
+            mapper.run(threadCount, checkpointDirectory);
+            mapper.writeImage(outputPath, mapMetric);
+            mapper.writeData(dataPath);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            return 1;
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+
+        int cellCount = mapResolution[0] * mapResolution[1];
+        System.out.println(String.format("Mapped %dx%d cells to %.6f s with %s on %d threads in %.3f s of real time (%.1f cells/s).",
+                mapResolution[0], mapResolution[1], endTime, integratorType, threadCount, seconds, cellCount / seconds));
+        System.out.println("Map saved to " + outputPath + ", raw data to " + dataPath);
+        return 0;
+    }
+
+    /**
+     * Prints how far the force model strays from exact direct summation at the start of the template, if it is approximate.
+     *
+     * @param settings The template.
+     */
+    private void printForceError(SimulationSettings settings) {
+        if (forceModel == ForceModel.DIRECT) {
+            return;
+        }
+        Particle[] particles = settings.getParticles();
+        ParticleDifferentialEquations equations = new ParticleDifferentialEquations(settings.getMass(), buildIntegrationSettings(0));
+        double[] state = new double[equations.getDimension()];
+        for (Particle particle : particles) {
+            particle.flatten(state, particles.length);
+        }
+        System.out.println(String.format("Force error of %s at 0 s: %.3e (root-mean-square, relative to direct summation)", forceModel, equations.measureForceError(state)));
+    }
+
+    /**
+     * Builds the integration settings of the run from its options.
+     *
+     * @param encounterRadius The distance between two particles at which the integrator reports a close encounter, in km, or 0 if it reports none.
+     * @return The integration settings.
+     */
+    private IntegrationSettings buildIntegrationSettings(double encounterRadius) {
+        EncounterSettings encounterSettings = new EncounterSettings(collisionRadius, collisionResponse, encounterRadius);
+        return new IntegrationSettings(forceModel, openingAngle, integratorType, stepSize, regularized, chaosIndicators, encounterSettings);
+    }
+
+    /**
+     * Saves a frame, if the trajectory is being saved.
+     *
+     * @param time          The time of the frame.
+     * @param state         The state of the frame.
+     * @param accelerations The accelerations of the frame.
+     * @return Always true, so that the simulation goes on to the next frame.
+     */
+    private boolean handleFrame(double time, double[] state, double[] accelerations) {
+        if (recorder != null) {
+            recorder.record(time, state, accelerations);
+        }
+        frameCount++;
+        lastFrameTime = time;
+        return true;
+    }
+
+    /**
+     * Checks whether the run should end after a frame.
+     *
+     * @param integrator The integrator of the run.
+     * @param time       The time of the frame.
+     * @return True if the next frame would pass the end time, or the step limit has been reached.
+     */
+    private boolean isFinished(SimulationIntegrator integrator, double time) {
+        if (Double.isNaN(endTime)) {
+            return integrator.getStepCount() >= stepLimit;
+        }
+        return time + frameInterval > endTime + END_TIME_TOLERANCE * frameInterval;
+    }
+}
@@ -0,0 +1,254 @@
+package stl.threebodysimulation;
+
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A class that reads a file in the binary trajectory format written by BinaryTrajectoryWriter.
+ * <p>
+ * The file is memory-mapped, so any frame can be read directly, in any order, without reading the frames before it or copying the file into memory.
+ */
+class BinaryTrajectoryReader implements AutoCloseable {
+
+    /**
+     * The largest size of each mapped segment of frames, in bytes. Mappings are limited to 2GB, so larger files are mapped in several segments.
+     */
+    private static final int SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The number of particles in the trajectory.
+     */
+    private final int particleCount;
+
+    /**
+     * The number of frames in the trajectory.
+     */
+    private final long frameCount;
+
+    /**
+     * The mass, red, green and blue of every particle, as stored in the header.
+     */
+    private final double[] particleDescriptions;
+
+    /**
+     * The size of the header, in bytes.
+     */
+    private final long headerSize;
+
+    /**
+     * The size of each frame, in bytes.
+     */
+    private final int frameSize;
+
+    /**
+     * The number of frames in each mapped segment.
+     */
+    private final int framesPerSegment;
+
+    /**
+     * The mapped segments of frames. Each is mapped the first time a frame in it is read.
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Opens a binary trajectory file.
+     *
+     * @param filepath The path of the file.
+     * @throws IOException If the file cannot be read, or is not a binary trajectory file.
+     */
+    BinaryTrajectoryReader(String filepath) throws IOException {
+        channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ);
+
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BinaryTrajectoryWriter.FIXED_HEADER_SIZE);
+        header.order(BinaryTrajectoryWriter.BYTE_ORDER);
+        if (header.getInt() != BinaryTrajectoryWriter.MAGIC_NUMBER) {
+            channel.close();
+            throw new IOException(filepath + " is not a binary trajectory file.");
+        }
+        int version = header.getInt();
+        if (version != BinaryTrajectoryWriter.VERSION) {
+            channel.close();
+            throw new IOException(filepath + " uses unsupported version " + version + " of the binary trajectory format.");
+        }
+        particleCount = header.getInt();
+        int frameLength = header.getInt();
+        frameCount = header.getLong();
+
+        headerSize = BinaryTrajectoryWriter.getHeaderSize(particleCount);
+        frameSize = frameLength * Double.BYTES;
+        framesPerSegment = Math.max(1, SEGMENT_SIZE / frameSize);
+        segments = new MappedByteBuffer[(int) ((frameCount + framesPerSegment - 1) / framesPerSegment)];
+
+        MappedByteBuffer descriptions = channel.map(FileChannel.MapMode.READ_ONLY, BinaryTrajectoryWriter.FIXED_HEADER_SIZE, headerSize - BinaryTrajectoryWriter.FIXED_HEADER_SIZE);
+        descriptions.order(BinaryTrajectoryWriter.BYTE_ORDER);
+        particleDescriptions = new double[BinaryTrajectoryWriter.PARTICLE_DESCRIPTION_LENGTH * particleCount];
+        descriptions.asDoubleBuffer().get(particleDescriptions);
+    }
+
+    /**
+     * Gets the number of particles in the trajectory.
+     *
+     * @return The number of particles.
+     */
+    int getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * Gets the number of frames in the trajectory.
+     *
+     * @return The number of frames.
+     */
+    long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Gets the mass of a particle.
+     *
+     * @param id The ID of the particle, starting from 1.
+     * @return The mass of the particle.
+     */
+    double getMass(int id) {
+        return particleDescriptions[BinaryTrajectoryWriter.PARTICLE_DESCRIPTION_LENGTH * (id - 1)];
+    }
+
+    /**
+     * Gets the color of a particle.
+     *
+     * @param id The ID of the particle, starting from 1.
+     * @return The color of the particle.
+     */
+    Color getColor(int id) {
+        int index = BinaryTrajectoryWriter.PARTICLE_DESCRIPTION_LENGTH * (id - 1);
+        return Color.color(particleDescriptions[index + 1], particleDescriptions[index + 2], particleDescriptions[index + 3]);
+    }
+
+    /**
+     * Gets the time of a frame.
+     *
+     * @param frame The index of the frame, starting from 0.
+     * @return The time of the frame.
+     * @throws IOException If the frame cannot be mapped.
+     */
+    double getTime(long frame) throws IOException {
+        return readValue(frame, 0);
+    }
+
+    /**
+     * Gets the position of a particle in a frame.
+     *
+     * @param frame     The index of the frame, starting from 0.
+     * @param id        The ID of the particle, starting from 1.
+     * @param dimension 0 for X, 1 for Y.
+     * @return The position.
+     * @throws IOException If the frame cannot be mapped.
+     */
+    double getPosition(long frame, int id, int dimension) throws IOException {
+        return readValue(frame, 1 + dimension * particleCount + id - 1);
+    }
+
+    /**
+     * Gets the velocity of a particle in a frame.
+     *
+     * @param frame     The index of the frame, starting from 0.
+     * @param id        The ID of the particle, starting from 1.
+     * @param dimension 0 for X, 1 for Y.
+     * @return The velocity.
+     * @throws IOException If the frame cannot be mapped.
+     */
+    double getVelocity(long frame, int id, int dimension) throws IOException {
+        return readValue(frame, 1 + (2 + dimension) * particleCount + id - 1);
+    }
+
+    /**
+     * Gets the acceleration of a particle in a frame.
+     *
+     * @param frame     The index of the frame, starting from 0.
+     * @param id        The ID of the particle, starting from 1.
+     * @param dimension 0 for X, 1 for Y.
+     * @return The acceleration.
+     * @throws IOException If the frame cannot be mapped.
+     */
+    double getAcceleration(long frame, int id, int dimension) throws IOException {
+        return readValue(frame, 1 + (4 + dimension) * particleCount + id - 1);
+    }
+
+    /**
+     * Copies the state of a frame into an array.
+     *
+     * @param frame The index of the frame, starting from 0.
+     * @param state The array the state is copied into, in the layout used by ParticleDifferentialEquations.
+     * @throws IOException If the frame cannot be mapped.
+     */
+    void readState(long frame, double[] state) throws IOException {
+        MappedByteBuffer segment = getSegment(frame);
+        int position = getPositionInSegment(frame) + Double.BYTES;
+        for (int i = 0; i < 4 * particleCount; i++) {
+            state[i] = segment.getDouble(position + i * Double.BYTES);
+        }
+    }
+
+    /**
+     * Reads a single value of a frame.
+     *
+     * @param frame  The index of the frame, starting from 0.
+     * @param column The index of the value within the frame.
+     * @return The value.
+     * @throws IOException If the frame cannot be mapped.
+     */
+    private double readValue(long frame, int column) throws IOException {
+        return getSegment(frame).getDouble(getPositionInSegment(frame) + column * Double.BYTES);
+    }
+
+    /**
+     * Finds where a frame starts within its segment.
+     *
+     * @param frame The index of the frame, starting from 0.
+     * @return The position of the frame within its segment, in bytes.
+     */
+    private int getPositionInSegment(long frame) {
+        return (int) (frame % framesPerSegment) * frameSize;
+    }
+
+    /**
+     * Gets the segment a frame is in, mapping it if it has not been yet.
+     *
+     * @param frame The index of the frame, starting from 0.
+     * @return The mapped segment.
+     * @throws IOException If the segment cannot be mapped.
+     */
+    private MappedByteBuffer getSegment(long frame) throws IOException {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " is outside of the trajectory, which has " + frameCount + " frames.");
+        }
+        int index = (int) (frame / framesPerSegment);
+        if (segments[index] == null) {
+            long start = (long) index * framesPerSegment;
+            long length = Math.min(framesPerSegment, frameCount - start) * frameSize;
+            segments[index] = channel.map(FileChannel.MapMode.READ_ONLY, headerSize + start * frameSize, length);
+            segments[index].order(BinaryTrajectoryWriter.BYTE_ORDER);
+        }
+        return segments[index];
+    }
+
+    /**
+     * Closes the file. Frames already mapped stay readable until they are garbage collected.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,219 @@
+package stl.threebodysimulation;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A TrajectoryRecorder that writes the binary trajectory format through memory-mapped segments of the file.
+ * <p>
+ * The file starts with a header: <br>
+ * [magic number (int), version (int), particle count (int), doubles per frame (int), frame count (long)] <br>
+ * followed by [mass, red, green, blue] (doubles) for every particle. <br>
+ * Every frame after the header is a fixed-width record of doubles: <br>
+ * [time, state in the layout used by ParticleDifferentialEquations, accelerations in the layout used by ParticleDifferentialEquations] <br>
+ * Everything is little-endian. The frame count is updated with every frame, so a file cut short by a crash is still readable up to its last frame.
+ */
+class BinaryTrajectoryWriter implements TrajectoryRecorder {
+
+    /**
+     * The number every binary trajectory file starts with: "3BTR" in ASCII.
+     */
+    static final int MAGIC_NUMBER = 0x33425452;
+
+    /**
+     * The version of the format written.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * The byte order of the whole file. Matches most processors, so frames are copied without swapping bytes.
+     */
+    static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * The position of the frame count in the header, in bytes.
+     */
+    static final int FRAME_COUNT_POSITION = 16;
+
+    /**
+     * The size of the header before the particle descriptions, in bytes.
+     */
+    static final int FIXED_HEADER_SIZE = 24;
+
+    /**
+     * The number of doubles that describe each particle in the header.
+     */
+    static final int PARTICLE_DESCRIPTION_LENGTH = 4;
+
+    /**
+     * The rough size of each mapped segment of frames, in bytes.
+     */
+    private static final int SEGMENT_SIZE = 8 << 20;
+
+    /**
+     * The channel to the file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The mapped header of the file.
+     */
+    private final MappedByteBuffer header;
+
+    /**
+     * The size of the header, in bytes.
+     */
+    private final long headerSize;
+
+    /**
+     * The size of each frame, in bytes.
+     */
+    private final int frameSize;
+
+    /**
+     * The number of frames in each mapped segment.
+     */
+    private final int framesPerSegment;
+
+    /**
+     * The mapped segment that frames are being written to.
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * A view of the current segment as doubles.
+     */
+    private DoubleBuffer segmentDoubles;
+
+    /**
+     * The number of frames written so far.
+     */
+    private long frameCount;
+
+    /**
+     * Opens a binary trajectory file for a run and writes its header. Anything already in the file is replaced.
+     *
+     * @param filepath  The path of the file.
+     * @param particles The particles of the run, which supply the masses and colors in the header.
+     * @throws IOException If the file cannot be opened or written.
+     */
+    BinaryTrajectoryWriter(String filepath, Particle[] particles) throws IOException {
+        int particleCount = particles.length;
+        int frameLength = getFrameLength(particleCount);
+        headerSize = getHeaderSize(particleCount);
+        frameSize = frameLength * Double.BYTES;
+        framesPerSegment = Math.max(1, SEGMENT_SIZE / frameSize);
+
+        channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+        header.order(BYTE_ORDER);
+        header.putInt(MAGIC_NUMBER);
+        header.putInt(VERSION);
+        header.putInt(particleCount);
+        header.putInt(frameLength);
+        header.putLong(0);
+        for (Particle particle : particles) {
+            header.putDouble(particle.getMass());
+            header.putDouble(particle.getColor().getRed());
+            header.putDouble(particle.getColor().getGreen());
+            header.putDouble(particle.getColor().getBlue());
+        }
+    }
+
+    /**
+     * Gets the number of doubles in each frame.
+     *
+     * @param particleCount The number of particles.
+     * @return The number of doubles in each frame: the time, the state and the accelerations.
+     */
+    static int getFrameLength(int particleCount) {
+        return 1 + 6 * particleCount;
+    }
+
+    /**
+     * Gets the size of the header.
+     *
+     * @param particleCount The number of particles.
+     * @return The size of the header, in bytes.
+     */
+    static long getHeaderSize(int particleCount) {
+        return FIXED_HEADER_SIZE + (long) PARTICLE_DESCRIPTION_LENGTH * Double.BYTES * particleCount;
+    }
+
+    /**
+     * Adds a frame to the file.
+     *
+     * @param time          The time of the frame.
+     * @param state         The state of the frame, in the layout used by ParticleDifferentialEquations.
+     * @param accelerations The accelerations of the frame, in the layout used by ParticleDifferentialEquations.
+     */
+    @Override
+    public void record(double time, double[] state, double[] accelerations) {
+        try {
+            if (segmentDoubles == null || !segmentDoubles.hasRemaining()) {
+                mapNextSegment();
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // Should never occur, unless the disk is full.
+            return;
+        }
+
+        segmentDoubles.put(time);
+        segmentDoubles.put(state);
+        segmentDoubles.put(accelerations);
+
+        // The frame only counts once all of it is written.
+        header.putLong(FRAME_COUNT_POSITION, ++frameCount);
+    }
+
+    /**
+     * Maps the segment of the file after the current one, growing the file.
+     *
+     * @throws IOException If the file cannot be grown.
+     */
+    private void mapNextSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        long position = headerSize + frameCount * frameSize;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, position, (long) framesPerSegment * frameSize);
+        segment.order(BYTE_ORDER);
+        segmentDoubles = segment.asDoubleBuffer();
+    }
+
+    /**
+     * Writes the mapped frames and header to disk. Memory-mapped frames survive a crash of the program without this, but not a crash of the computer.
+     */
+    @Override
+    public void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+        header.force();
+    }
+
+    /**
+     * Writes everything to disk, trims the unused end of the last segment, and closes the file.
+     */
+    @Override
+    public void close() {
+        flush();
+        try {
+            try {
+                channel.truncate(headerSize + frameCount * frameSize);
+            } catch (IOException e) {
+                // Some systems refuse to shrink a file that is still mapped. Readers go by the frame count in the header, so the unused end is harmless.
+                System.out.println(e.getMessage());
+            }
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace(); // Should never occur.
+        }
+    }
+}
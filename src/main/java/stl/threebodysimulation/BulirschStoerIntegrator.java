@@ -0,0 +1,559 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+import org.apache.commons.math3.exception.NumberIsTooSmallException;
+import org.apache.commons.math3.exception.util.LocalizedFormats;
+
+/**
+ * A SimulationIntegrator that uses Gragg-Bulirsch-Stoer extrapolation, choosing both its order and its step size as it goes.
+ * <p>
+ * Every step is taken several times with Stoermer's rule, the form of Gragg's modified midpoint method for equations whose accelerations only depend on the positions, as gravity's do.
+ * Each try splits the step into more substeps (2, 4, 6, ...), and the tries are extrapolated to substeps of no length, which gains two orders of accuracy per try.
+ * The difference between the last two orders estimates the error. As in Hairer and Wanner's ODEX, the number of tries and the next step size are chosen to reach the tolerances
+ * in the fewest force evaluations, so on smooth orbits the integrator climbs to high orders and long steps, which reach tolerances near machine precision cheaply.
+ * <p>
+ * There is no dense output, so a step that would pass a frame is shortened to land on it, and every frame costs at least one step.
+ * The integrator is meant for accurate runs with frames far apart, where steps are long. Close encounters and collisions are checked at the end of every step.
+ * With chaos indicators, the tangent is extrapolated alongside the state, and renormalized after every step.
+ */
+class BulirschStoerIntegrator implements SimulationIntegrator {
+
+    /**
+     * The absolute error allowed per step in the app, in km and km/s.
+     */
+    private static final double ABSOLUTE_TOLERANCE = Math.pow(10, -12);
+
+    /**
+     * The relative error allowed per step in the app.
+     */
+    private static final double RELATIVE_TOLERANCE = Math.pow(10, -14);
+
+    /**
+     * The smallest step the integrator will take, in seconds. Matches the adaptive Dormand-Prince integrator.
+     */
+    private static final double MIN_STEP_SIZE = Math.pow(10, -10);
+
+    /**
+     * The length of the first step, in seconds. Only a guess, which the step size control corrects within a few steps.
+     */
+    private static final double INITIAL_STEP_SIZE = Math.pow(10, -3);
+
+    /**
+     * The most tries taken of a step, which caps the order at twice this.
+     */
+    private static final int MAX_TRIES = 9;
+
+    /**
+     * The try at which the first step expects to reach the tolerances, counted from 0.
+     */
+    private static final int INITIAL_ORDER = 5;
+
+    /**
+     * The fraction of the error allowed that a step size is aimed at, so that the next step is not rejected for a small change in error.
+     */
+    private static final double ERROR_SAFETY = 0.65;
+
+    /**
+     * The fraction of the ideal step size that is taken.
+     */
+    private static final double STEP_SAFETY = 0.94;
+
+    /**
+     * The most a step may grow by from one step to the next.
+     */
+    private static final double MAX_GROWTH = 4;
+
+    /**
+     * The most a step may shrink by from one try to the next.
+     */
+    private static final double MAX_SHRINK = 50;
+
+    /**
+     * The differential equations being integrated.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The absolute error allowed per step by this integrator, in km and km/s.
+     */
+    private final double absoluteTolerance;
+
+    /**
+     * The relative error allowed per step by this integrator.
+     */
+    private final double relativeTolerance;
+
+    /**
+     * The length of a state.
+     */
+    private final int stateLength;
+
+    /**
+     * The number of positions in a state, and of accelerations.
+     */
+    private final int positionLength;
+
+    /**
+     * The number of states that are integrated together: the state, and the tangent if chaos indicators are measured.
+     */
+    private final int blockCount;
+
+    /**
+     * The number of substeps of each try.
+     */
+    private final int[] substeps;
+
+    /**
+     * The number of force evaluations needed to reach each try, including the evaluation at the start of the step.
+     */
+    private final double[] costs;
+
+    /**
+     * The factor that joins each entry of the extrapolation table to the one before it: (substeps[try] / substeps[try - column])^2 - 1, indexed by try and column.
+     */
+    private final double[][] extrapolationFactors;
+
+    /**
+     * The extrapolation table. After a try, the row at its index holds the best estimate, and the row before it the estimate of one order lower.
+     */
+    private final double[][] table;
+
+    /**
+     * The ideal step size after each try, as of the last step, in seconds.
+     */
+    private final double[] idealStepSizes;
+
+    /**
+     * The force evaluations per second of simulation time after each try, as of the last step.
+     */
+    private final double[] workRates;
+
+    /**
+     * The state and tangent at the current time: [state, tangent], each in the layout used by ParticleDifferentialEquations.
+     */
+    private final double[] current;
+
+    /**
+     * The accelerations of the state and tangent at the current time. <br>
+     * [accelerations of the state, accelerations of the tangent]
+     */
+    private final double[] currentAccelerations;
+
+    /**
+     * True if currentAccelerations belong to the current state.
+     */
+    private boolean accelerationsCurrent;
+
+    /**
+     * Scratch space for the state and tangent at the end of a try.
+     */
+    private final double[] trial;
+
+    /**
+     * Scratch space for the accelerations within a try.
+     */
+    private final double[] trialAccelerations;
+
+    /**
+     * Scratch space for the change in position over each substep of a try.
+     */
+    private final double[] substepChanges;
+
+    /**
+     * The accelerations of every particle at the current state, owned by the integrator and handed to the frame handler with every frame.
+     */
+    private final double[] accelerations;
+
+    /**
+     * The tracker that measures chaos indicators, or null if they are not measured.
+     */
+    private final ChaosTracker chaosTracker;
+
+    /**
+     * The detectors of close encounters and collisions, checked at the end of every step.
+     */
+    private final EncounterDetector[] encounterDetectors;
+
+    /**
+     * The current time.
+     */
+    private double time;
+
+    /**
+     * The length of the next step, in seconds, as chosen by the step size control.
+     */
+    private double nextStepSize;
+
+    /**
+     * The try at which the next step expects to reach the tolerances.
+     */
+    private int order;
+
+    /**
+     * The number of steps taken since the integrator was built.
+     */
+    private long stepCount;
+
+    /**
+     * Creates a Bulirsch-Stoer integrator for a set of differential equations.
+     *
+     * @param equations The differential equations to integrate.
+     * @param settings  The settings of the run, which choose chaos indicators and encounter detection. The step size is ignored.
+     */
+    BulirschStoerIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+        this(equations, settings, 1);
+    }
+
+    /**
+     * Creates a Bulirsch-Stoer integrator with its error tolerances scaled, so that it can be compared with other integrators at the same accuracy.
+     *
+     * @param equations      The differential equations to integrate.
+     * @param settings       The settings of the run, which choose chaos indicators and encounter detection. The step size is ignored.
+     * @param toleranceScale The factor that both tolerances are multiplied by. 1 gives the tolerances of the app.
+     */
+    BulirschStoerIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings, double toleranceScale) {
+        this.equations = equations;
+        this.absoluteTolerance = ABSOLUTE_TOLERANCE * toleranceScale;
+        this.relativeTolerance = RELATIVE_TOLERANCE * toleranceScale;
+        this.stateLength = equations.getDimension();
+        this.positionLength = stateLength / 2;
+        this.chaosTracker = settings.getChaosIndicators() ? new ChaosTracker(equations) : null;
+        this.blockCount = chaosTracker == null ? 1 : 2;
+        this.encounterDetectors = settings.getEncounterSettings().buildDetectors(equations);
+
+        this.substeps = new int[MAX_TRIES];
+        this.costs = new double[MAX_TRIES];
+        this.extrapolationFactors = new double[MAX_TRIES][MAX_TRIES];
+        for (int attempt = 0; attempt < MAX_TRIES; attempt++) {
+            // The harmonic sequence, which is the cheapest when there is no dense output to keep smooth.
+            substeps[attempt] = 2 * (attempt + 1);
+            costs[attempt] = (attempt == 0 ? 1 : costs[attempt - 1]) + substeps[attempt];
+            for (int column = 1; column <= attempt; column++) {
+                double ratio = (double) substeps[attempt] / substeps[attempt - column];
+                extrapolationFactors[attempt][column] = ratio * ratio - 1;
+            }
+        }
+        this.table = new double[MAX_TRIES][blockCount * stateLength];
+        this.idealStepSizes = new double[MAX_TRIES];
+        this.workRates = new double[MAX_TRIES];
+
+        this.current = new double[blockCount * stateLength];
+        this.currentAccelerations = new double[blockCount * positionLength];
+        this.trial = new double[blockCount * stateLength];
+        this.trialAccelerations = new double[blockCount * positionLength];
+        this.substepChanges = new double[blockCount * positionLength];
+        this.accelerations = new double[positionLength];
+        this.nextStepSize = INITIAL_STEP_SIZE;
+        this.order = INITIAL_ORDER;
+    }
+
+    /**
+     * Advances a state from one time to another, in place.
+     *
+     * @param startTime The time of the state.
+     * @param state     The state. Overwritten with the state at the end time.
+     * @param endTime   The time to advance to.
+     */
+    @Override
+    public void integrate(double startTime, double[] state, double endTime) {
+        equations.applyMerges(state);
+        start(startTime, state);
+        advance(endTime, null);
+        System.arraycopy(current, 0, state, 0, stateLength);
+    }
+
+    /**
+     * Advances a state frame by frame until the frame handler asks to stop. The accelerations at each frame are reused at the start of the next step.
+     *
+     * @param startTime     The time of the state.
+     * @param state         The state. Overwritten with the state at each frame.
+     * @param frameInterval The simulation time between frames, in seconds.
+     * @param handler       The FrameHandler that receives every frame.
+     * @throws InterruptedException If the thread is interrupted while handling a frame.
+     */
+    @Override
+    public void integrateFrames(double startTime, double[] state, double frameInterval, FrameHandler handler) throws InterruptedException {
+        equations.applyMerges(state);
+        start(startTime, state);
+        if (chaosTracker != null) {
+            chaosTracker.start(startTime);
+        }
+        for (long frame = 1; ; frame++) {
+            // Frame times are counted from the start, rather than added up, so that they do not drift.
+            double frameTime = startTime + frame * frameInterval;
+            advance(frameTime, chaosTracker);
+            System.arraycopy(current, 0, state, 0, stateLength);
+            updateAccelerations();
+            System.arraycopy(currentAccelerations, 0, accelerations, 0, positionLength);
+            if (chaosTracker != null) {
+                chaosTracker.recordFrame(frameTime);
+            }
+            if (!handler.handleFrame(frameTime, state, accelerations)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of steps the integrator has taken, over every call since it was built. Rejected steps are not counted.
+     *
+     * @return The number of steps taken.
+     */
+    @Override
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Gets the chaos indicators at the frame being handled.
+     *
+     * @return The indicators, indexed by the ordinal of each ChaosIndicator, or null if the integrator was built without them.
+     */
+    @Override
+    public double[] getChaosIndicators() {
+        return chaosTracker == null ? null : chaosTracker.getIndicators();
+    }
+
+    /**
+     * Sets the handler that is told about every close encounter and collision.
+     *
+     * @param handler The handler, or null if nothing should be told.
+     */
+    @Override
+    public void setEncounterHandler(EncounterHandler handler) {
+        for (EncounterDetector detector : encounterDetectors) {
+            detector.setHandler(handler);
+        }
+    }
+
+    /**
+     * Starts integrating from a state. The step size and order carry on from the last run, as they suit the same orbit.
+     *
+     * @param startTime The time of the state.
+     * @param state     The state.
+     */
+    private void start(double startTime, double[] state) {
+        time = startTime;
+        System.arraycopy(state, 0, current, 0, stateLength);
+        accelerationsCurrent = false;
+        for (EncounterDetector detector : encounterDetectors) {
+            detector.startSteps(state);
+        }
+    }
+
+    /**
+     * Advances the current state to a time, shortening the last step to land on it exactly.
+     *
+     * @param endTime The time to advance to.
+     * @param tracker The tracker whose tangent is extrapolated alongside the state, or null if there is none.
+     */
+    private void advance(double endTime, ChaosTracker tracker) {
+        double direction = Math.signum(endTime - time);
+        while (time != endTime) {
+            if (tracker != null) {
+                System.arraycopy(tracker.getTangent(), 0, current, stateLength, stateLength);
+                // The tangent has been renormalized since its accelerations were found.
+                accelerationsCurrent = false;
+            }
+            updateAccelerations();
+
+            // A step that lands on the time does not say how long the next step should be, so the planned step size is kept if it was longer.
+            double plannedStepSize = nextStepSize;
+            boolean landing = Math.abs(endTime - time) <= plannedStepSize;
+            double stepSize = takeStep(landing ? endTime - time : direction * plannedStepSize);
+            boolean landed = landing && Math.abs(stepSize) == Math.abs(endTime - time);
+            if (landed) {
+                nextStepSize = Math.max(nextStepSize, plannedStepSize);
+            }
+            time = landed ? endTime : time + stepSize;
+            stepCount++;
+
+            if (tracker != null) {
+                System.arraycopy(current, stateLength, tracker.getTangent(), 0, stateLength);
+                tracker.finishStep(time, stepSize);
+            }
+            for (EncounterDetector detector : encounterDetectors) {
+                if (detector.checkStep(time, current)) {
+                    // Merged particles move and change mass, so the accelerations must be recalculated.
+                    accelerationsCurrent = false;
+                }
+            }
+        }
+
+        // Check that the result is still a number, in case an encounter was stepped over.
+        for (int i = 0; i < stateLength; i++) {
+            if (!Double.isFinite(current[i])) {
+                throw new NumberIsTooLargeException(current[i], Double.MAX_VALUE, true);
+            }
+        }
+    }
+
+    /**
+     * Takes a step from the current state, retrying with shorter steps until one meets the tolerances. Chooses the order and size of the next step.
+     *
+     * @param stepSize The length of the step to try first, in seconds. Negative to integrate backwards.
+     * @return The length of the step that was taken, in seconds.
+     * @throws NumberIsTooSmallException If the step has to shrink below the smallest step size, as it does at a collision.
+     */
+    private double takeStep(double stepSize) {
+        boolean rejected = false;
+        while (true) {
+            if (Math.abs(stepSize) < MIN_STEP_SIZE) {
+                throw new NumberIsTooSmallException(LocalizedFormats.MINIMAL_STEPSIZE_REACHED_DURING_INTEGRATION, Math.abs(stepSize), MIN_STEP_SIZE, true);
+            }
+            int lastTry = Math.min(order + 1, MAX_TRIES - 1);
+            for (int attempt = 0; attempt <= lastTry; attempt++) {
+                stoermer(stepSize, substeps[attempt]);
+                extrapolate(attempt);
+                if (attempt == 0) {
+                    continue;
+                }
+                double error = estimateError(attempt);
+                // The error of the estimate one order lower shrinks with the step size to the power 2 * attempt + 1.
+                double shrink = Math.pow(error / ERROR_SAFETY, 1.0 / (2 * attempt + 1)) / STEP_SAFETY;
+                shrink = Math.max(1 / MAX_GROWTH, Math.min(MAX_SHRINK, shrink));
+                idealStepSizes[attempt] = Math.abs(stepSize) / shrink;
+                workRates[attempt] = costs[attempt] / idealStepSizes[attempt];
+
+                if (attempt >= order - 1 && error <= 1) {
+                    System.arraycopy(table[attempt], 0, current, 0, current.length);
+                    accelerationsCurrent = false;
+                    chooseNextStep(attempt, stepSize, rejected);
+                    return stepSize;
+                }
+                // Give up on the step early if the error is too large to fall below the tolerance by the last try.
+                double lastRatio = (double) substeps[lastTry] / substeps[0];
+                if ((attempt == order - 1 && error > Math.pow(lastRatio * substeps[order] / substeps[0], 2))
+                        || (attempt == order && error > lastRatio * lastRatio)
+                        || attempt == lastTry) {
+                    stepSize = Math.copySign(idealStepSizes[attempt], stepSize);
+                    rejected = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Chooses the order and size of the next step, to reach the tolerances with the fewest force evaluations per second of simulation time.
+     *
+     * @param acceptedTry The try whose estimate was accepted.
+     * @param stepSize    The length of the step that was taken, in seconds.
+     * @param rejected    True if the step was rejected before it was accepted, in which case neither the order nor the step size may grow.
+     */
+    private void chooseNextStep(int acceptedTry, double stepSize, boolean rejected) {
+        int nextOrder = acceptedTry;
+        if (acceptedTry >= 2 && workRates[acceptedTry - 1] < 0.8 * workRates[acceptedTry]) {
+            nextOrder = acceptedTry - 1;
+        } else if (!rejected && acceptedTry < MAX_TRIES - 2 && (acceptedTry < 2 || workRates[acceptedTry] < 0.9 * workRates[acceptedTry - 1])) {
+            nextOrder = acceptedTry + 1;
+        }
+        order = Math.max(1, nextOrder);
+        if (nextOrder > acceptedTry) {
+            // There is no estimate for the higher order yet, so its step is scaled up by how much more it costs.
+            nextStepSize = idealStepSizes[acceptedTry] * costs[nextOrder] / costs[acceptedTry];
+        } else {
+            nextStepSize = idealStepSizes[nextOrder];
+        }
+        if (rejected) {
+            nextStepSize = Math.min(nextStepSize, Math.abs(stepSize));
+        }
+    }
+
+    /**
+     * Takes a step from the current state with Stoermer's rule, and stores the result in trial.
+     *
+     * @param stepSize The length of the step, in seconds.
+     * @param count    The number of substeps to split it into. Even, so that the error only has even powers of the substep size.
+     */
+    private void stoermer(double stepSize, int count) {
+        double substepSize = stepSize / count;
+        for (int block = 0; block < blockCount; block++) {
+            int offset = block * stateLength;
+            int accelerationOffset = block * positionLength;
+            for (int i = 0; i < positionLength; i++) {
+                double change = substepSize * (current[offset + positionLength + i] + substepSize / 2 * currentAccelerations[accelerationOffset + i]);
+                substepChanges[accelerationOffset + i] = change;
+                trial[offset + i] = current[offset + i] + change;
+            }
+        }
+        for (int substep = 1; substep < count; substep++) {
+            computeAccelerations(trial, trialAccelerations);
+            for (int block = 0; block < blockCount; block++) {
+                int offset = block * stateLength;
+                int accelerationOffset = block * positionLength;
+                for (int i = 0; i < positionLength; i++) {
+                    substepChanges[accelerationOffset + i] += substepSize * substepSize * trialAccelerations[accelerationOffset + i];
+                    trial[offset + i] += substepChanges[accelerationOffset + i];
+                }
+            }
+        }
+        // The velocities at the end are found from the last change in position, and the accelerations at the end.
+        computeAccelerations(trial, trialAccelerations);
+        for (int block = 0; block < blockCount; block++) {
+            int offset = block * stateLength;
+            int accelerationOffset = block * positionLength;
+            for (int i = 0; i < positionLength; i++) {
+                trial[offset + positionLength + i] = substepChanges[accelerationOffset + i] / substepSize + substepSize / 2 * trialAccelerations[accelerationOffset + i];
+            }
+        }
+    }
+
+    /**
+     * Adds the result of a try to the extrapolation table, by Aitken-Neville extrapolation in the square of the substep size.
+     * Afterwards, the row of the try holds the best estimate, and the row before it the estimate of one order lower.
+     *
+     * @param attempt The index of the try, whose result is in trial.
+     */
+    private void extrapolate(int attempt) {
+        for (int i = 0; i < trial.length; i++) {
+            double estimate = trial[i];
+            for (int column = 1; column <= attempt; column++) {
+                double lowerEstimate = table[column - 1][i];
+                table[column - 1][i] = estimate;
+                estimate += (estimate - lowerEstimate) / extrapolationFactors[attempt][column];
+            }
+            table[attempt][i] = estimate;
+        }
+    }
+
+    /**
+     * Estimates the error of a try from the difference between its two best estimates, relative to the tolerances. Only the state counts, and not the tangent.
+     *
+     * @param attempt The index of the try.
+     * @return The root mean square of the error relative to the tolerance of each value, so that 1 is just within the tolerances. Infinite if the try did not give a number.
+     */
+    private double estimateError(int attempt) {
+        double sum = 0;
+        for (int i = 0; i < stateLength; i++) {
+            double scale = absoluteTolerance + relativeTolerance * Math.max(Math.abs(current[i]), Math.abs(table[attempt][i]));
+            double relativeError = (table[attempt][i] - table[attempt - 1][i]) / scale;
+            sum += relativeError * relativeError;
+        }
+        double error = Math.sqrt(sum / stateLength);
+        return Double.isNaN(error) ? Double.POSITIVE_INFINITY : error;
+    }
+
+    /**
+     * Brings the accelerations of the current state up to date, if it has changed since they were found.
+     */
+    private void updateAccelerations() {
+        if (!accelerationsCurrent) {
+            computeAccelerations(current, currentAccelerations);
+            accelerationsCurrent = true;
+        }
+    }
+
+    /**
+     * Calculates the accelerations of a state, and of its tangent if there is one.
+     *
+     * @param y                  The state and tangent. Only the positions are read.
+     * @param blockAccelerations The array the accelerations are written into: those of the state, followed by those of the tangent.
+     */
+    private void computeAccelerations(double[] y, double[] blockAccelerations) {
+        equations.computeAccelerations(y, blockAccelerations);
+        if (blockCount > 1) {
+            equations.computeTangentAccelerations(y, y, stateLength, blockAccelerations, positionLength);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TrajectoryRecorder that records the rows of a CSV file for one run. The file stays open for the whole run, rows collect in a large buffer,
+ * and a background thread flushes the buffer to disk every second, so a crash loses at most the last second of rows.
+ */
+class CSVRecorder implements TrajectoryRecorder {
+
+    /**
+     * The size of the buffer rows collect in, in characters. About a few seconds of rows at full framerate for three particles.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * The time between background flushes, in milliseconds.
+     */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * The background thread that flushes every open recorder. Shared, as flushing is quick.
+     */
+    private static final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CSV flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The number of particles in the run.
+     */
+    private final int particleCount;
+
+    /**
+     * The writer to the CSV file.
+     */
+    private final BufferedWriter writer;
+
+    /**
+     * CSVPrinter to parse data and write in CSV format using the writer.
+     */
+    private final CSVPrinter printer;
+
+    /**
+     * The scheduled background flushes of this recorder.
+     */
+    private final ScheduledFuture<?> flushTask;
+
+    /**
+     * True once the file is closed. Only accessed while holding the writer.
+     */
+    private boolean closed;
+
+    /**
+     * Opens a CSV file for a run and writes its column headers. Anything already in the file is replaced.
+     *
+     * @param filepath      The path of the CSV file.
+     * @param particleCount The number of particles in the run.
+     * @throws IOException If the file cannot be opened or written.
+     */
+    CSVRecorder(String filepath, int particleCount) throws IOException {
+        this.particleCount = particleCount;
+
+        String[] headers = new String[1 + 6 * particleCount]; // Column headers for a CSV file.
+        int index = 0;
+        headers[index++] = "Time";
+        for (int id = 1; id <= particleCount; id++) {
+            for (String vectorName : new String[]{"Pos", "Vel", "Acc"}) {
+                headers[index++] = id + " X " + vectorName;
+                headers[index++] = id + " Y " + vectorName;
+            }
+        }
+
+        writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(Paths.get(filepath)), StandardCharsets.UTF_8), BUFFER_SIZE);
+        printer = new CSVPrinter(writer, CSVFormat.DEFAULT);
+        //noinspection RedundantCast
+        printer.printRecord((Object[]) headers); // Cast for clarity's sake.
+        // The header goes to disk straight away, so even an empty run leaves a valid file.
+        writer.flush();
+        flushTask = flushScheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a frame to the CSV file as a row. The row reaches the disk at the next flush.
+     *
+     * @param time          The time of the frame.
+     * @param state         The state of the frame, in the layout used by ParticleDifferentialEquations.
+     * @param accelerations The accelerations of the frame, in the layout used by ParticleDifferentialEquations.
+     */
+    @Override
+    public void record(double time, double[] state, double[] accelerations) {
+        String[] record = getRecord(time, state, accelerations);
+        try {
+            // Holding the writer keeps a background flush from landing in the middle of a row.
+            synchronized (writer) {
+                if (!closed) {
+                    //noinspection RedundantCast
+                    printer.printRecord((Object[]) record); // Cast for clarity's sake.
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // Should never occur, unless the user deletes the file midway through a simulation.
+        }
+    }
+
+    /**
+     * Converts a frame into an array of strings.
+     *
+     * @param time          The time of the frame.
+     * @param state         The state of the frame, in the layout used by ParticleDifferentialEquations.
+     * @param accelerations The accelerations of the frame, in the layout used by ParticleDifferentialEquations.
+     * @return The array of strings to be stored as the next row in the CSV file.
+     */
+    private String[] getRecord(double time, double[] state, double[] accelerations) {
+        String[] record = new String[1 + 6 * particleCount]; // Time + particles * 6 attributes for each particle
+        int index = 0;
+        record[index++] = String.format("%.07f", time);
+        for (int id = 0; id < particleCount; id++) {
+            // Position, velocity, then acceleration, each as an X and Y pair.
+            for (double[] vectors : new double[][]{state, accelerations}) {
+                for (int offset = 0; offset < vectors.length; offset += 2 * particleCount) {
+                    record[index++] = String.format("%.07f", vectors[offset + id]);
+                    record[index++] = String.format("%.07f", vectors[offset + particleCount + id]);
+                }
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Writes every buffered row to disk. Called by the background thread, and whenever the simulation pauses.
+     */
+    @Override
+    public void flush() {
+        try {
+            synchronized (writer) {
+                // A background flush may already be on its way when the file is closed.
+                if (!closed) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // Should never occur, unless the user deletes the file midway through a simulation.
+        }
+    }
+
+    /**
+     * Writes every buffered row to disk and closes the file. Called when the simulation stops, normally or because of an error.
+     */
+    @Override
+    public void close() {
+        flushTask.cancel(false);
+        try {
+            // Closing the printer flushes and closes the writer too.
+            synchronized (writer) {
+                closed = true;
+                printer.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // Should never occur, unless the user deletes the file midway through a simulation.
+        }
+    }
+}
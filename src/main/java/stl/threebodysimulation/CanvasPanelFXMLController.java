@@ -1,25 +1,20 @@
 package stl.threebodysimulation;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVPrinter;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
 import org.apache.commons.math3.exception.NumberIsTooLargeException;
 import org.apache.commons.math3.exception.NumberIsTooSmallException;
-import org.apache.commons.math3.ode.nonstiff.DormandPrince853Integrator;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
 
 /**
  * The controller for the Canvas with graphics.
@@ -28,27 +23,71 @@ public class CanvasPanelFXMLController {
     /**
      * Maximum framerate allowed by program.
      */
-    private static final int MAX_FRAMERATE = 100;
+    static final int MAX_FRAMERATE = 100;
     /**
-     * Amount of time in milliseconds that a frame appears on screen
+     * Amount of time in nanoseconds that a frame appears on screen
      */
-    private static final long FRAMETIME = 1000 / MAX_FRAMERATE;
+    private static final long FRAMETIME = 1000000000L / MAX_FRAMERATE;
     /**
-     * Object used for synchronization between threads
+     * Number of frames held between the simulation thread and the UI. The simulation can run ahead of the display by one less than this.
      */
-    private static final Object synchronizationObject = new Object();
+    private static final int FRAME_BUFFER_CAPACITY = 16;
     /**
-     * Flattened version of the Particle array for input into a ParticleDifferentialEquations object.
+     * Flattened version of the Particle array for input into a ParticleDifferentialEquations object. Holds the state on display. Sized for each run.
      */
-    private final double[] flattenedParticles = new double[12];
+    private double[] flattenedParticles;
     /**
-     * A lock that ensures synchronization between threads.
+     * The accelerations of the particles in flattenedParticles, in the layout used by ParticleDifferentialEquations. Sized for each run.
      */
-    boolean lock = false;
+    private double[] flattenedAccelerations;
+    /**
+     * The chaos indicators of the frame on display, indexed by the ordinal of each ChaosIndicator. NaN if the run does not measure them.
+     */
+    private final double[] chaosIndicators = new double[ChaosIndicator.values().length];
+    /**
+     * The number of close encounters and collisions detected by the frame on display, indexed by the ordinal of each EncounterType. Counted from the end of the skip.
+     */
+    private final long[] encounterCounts = new long[EncounterType.values().length];
+    /**
+     * The number of close encounters and collisions the integrator has detected, which runs ahead of the display. Only touched by the thread running the integrator.
+     */
+    private final long[] simulationEncounterCounts = new long[EncounterType.values().length];
+    /**
+     * The ring of frames that the simulation thread passes to the UI, or null if the simulation is not running.
+     */
+    private FrameRingBuffer frameBuffer;
+    /**
+     * The timer that shows frames from the frame buffer on every pulse of the UI.
+     */
+    private AnimationTimer frameTimer;
+    /**
+     * The thread that runs the simulation or its skip, or null if one has never been started.
+     */
+    private Thread simulationThread;
+    /**
+     * The task that skips the simulation ahead to its start time, or null if no skip is running.
+     */
+    private SkipTask skipTask;
+    /**
+     * The number of the frame that should be on screen according to the playback clock. Fractional, as pulses do not line up with frames.
+     */
+    private double playbackFrame;
+    /**
+     * The time of the last pulse of the frame timer, in nanoseconds.
+     */
+    private long lastPulse;
     /**
      * A Listener that is called when the simulation stops.
      */
     private Listener onStopListener;
+    /**
+     * A Listener that is called when the chaos indicators on display change.
+     */
+    private Listener onChaosIndicatorsListener;
+    /**
+     * A Listener that is called when the encounter counts on display change.
+     */
+    private Listener onEncountersListener;
     /**
      * Particle array that the controller manages.
      */
@@ -69,19 +108,24 @@ public class CanvasPanelFXMLController {
     private double speed;
 
     /**
-     * The name of the CSV file we save stats to.
+     * The name of the CSV or binary trajectory file we save stats to.
      */
     private String CSVFilePath = "";
 
+    /**
+     * The TrajectoryRecorder that saves stats to the file for the current run, or null if the run is not saving stats.
+     */
+    private TrajectoryRecorder trajectoryRecorder;
+
     /**
      * A ParticleDifferentialEquations object that represents the unique differential equation of the particles, with respect to their masses in Earth units.
      */
     private ParticleDifferentialEquations particleDifferentialEquations;
 
     /**
-     * The DormandPrince853Integrator provided by Apache Commons Math that we used to approximate values according to the differential equation.
+     * The integrator that we used to approximate values according to the differential equation.
      */
-    private DormandPrince853Integrator integrator;
+    private SimulationIntegrator integrator;
 
     /**
      * The Canvas UI object.
@@ -124,6 +168,24 @@ public class CanvasPanelFXMLController {
     @FXML
     private Label timeLabel;
 
+    /**
+     * The HBox UI object that holds the progress of a skip. Only visible while a skip runs.
+     */
+    @FXML
+    private HBox skipBox;
+
+    /**
+     * The ProgressBar UI object that shows how far a skip has come.
+     */
+    @FXML
+    private ProgressBar skipProgressBar;
+
+    /**
+     * The Label UI object that writes the speed of a skip, and the time it has left.
+     */
+    @FXML
+    private Label skipLabel;
+
     /**
      * Constructor, for use by the FXML loader.
      */
@@ -131,13 +193,14 @@ public class CanvasPanelFXMLController {
     }
 
     /**
-     * Sets up a CSV file with the specified filename
+     * Sets up a CSV or binary trajectory file with the specified filename
      *
-     * @param filename The name of the CSV file to be setup
-     * @return The path of the new CSV file.
+     * @param filename The name of the file to be setup
+     * @param format   The format of the file.
+     * @return The path of the new file.
      */
-    private String setupCSV(String filename) {
-        String filepath = String.format(SceneFXMLController.CSVFilePathTemplate, filename);
+    private String setupCSV(String filename, TrajectoryFormat format) {
+        String filepath = String.format(format.getFilePathTemplate(), filename);
         File CSVDirectory = new File(SceneFXMLController.CSV_DIRECTORY_NAME);
         File CSVFile = new File(filepath);
         try {
@@ -157,33 +220,8 @@ public class CanvasPanelFXMLController {
                 }
             }
 
-            BufferedWriter headerWriter = Files.newBufferedWriter(Paths.get(filepath)); // A FileWriter object to modify the file
-
-            CSVPrinter headerPrinter = new CSVPrinter(headerWriter, CSVFormat.DEFAULT); // CSVPrinter to parse data and write in CSV format using a FileWriter
-            String[] headers = new String[]{ // Column headers for a CSV file.
-                    "Time",
-                    "1 X Pos",
-                    "1 Y Pos",
-                    "1 X Vel",
-                    "1 Y Vel",
-                    "1 X Acc",
-                    "1 Y Acc",
-                    "2 X Pos",
-                    "2 Y Pos",
-                    "2 X Vel",
-                    "2 Y Vel",
-                    "2 X Acc",
-                    "2 Y Acc",
-                    "3 X Pos",
-                    "3 Y Pos",
-                    "3 X Vel",
-                    "3 Y Vel",
-                    "3 X Acc",
-                    "3 Y Acc",
-            };
-            //noinspection RedundantCast
-            headerPrinter.printRecord((Object[]) headers); // Write the headers into the file. Cast for clarity's sake.
-            headerWriter.close(); // Close the file.
+            // The file stays open for the rest of the run.
+            trajectoryRecorder = format.openRecorder(filepath, particles);
 
         } catch (IOException e) {
             e.printStackTrace(); // Should never happen.
@@ -204,6 +242,13 @@ public class CanvasPanelFXMLController {
         currentTime = 0;
         // Wrap the canvas.
         canvasWrapper = new CanvasWrapper(canvas, gridCanvas, trailCanvas);
+        // Shows frames on the JavaFX thread, at whatever rate the screen refreshes.
+        frameTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                showFramesUntil(now);
+            }
+        };
     }
 
     /**
@@ -215,10 +260,46 @@ public class CanvasPanelFXMLController {
         onStopListener = listener;
     }
 
+    /**
+     * Sets a Listener that is called when the chaos indicators on display change.
+     *
+     * @param listener The listener that will be called.
+     */
+    void setOnChaosIndicatorsListener(Listener listener) {
+        onChaosIndicatorsListener = listener;
+    }
+
+    /**
+     * Gets the chaos indicators of the frame on display.
+     *
+     * @return The indicators, indexed by the ordinal of each ChaosIndicator. NaN if the run does not measure them, or nothing has been measured yet.
+     */
+    double[] getChaosIndicators() {
+        return chaosIndicators;
+    }
+
+    /**
+     * Sets a Listener that is called when the encounter counts on display change.
+     *
+     * @param listener The listener that will be called.
+     */
+    void setOnEncountersListener(Listener listener) {
+        onEncountersListener = listener;
+    }
+
+    /**
+     * Gets the number of close encounters and collisions detected by the frame on display.
+     *
+     * @return The counts, indexed by the ordinal of each EncounterType.
+     */
+    long[] getEncounterCounts() {
+        return encounterCounts;
+    }
+
     /**
      * Sets the Particle arrays to be simulated.
      *
-     * @param particles An array of 3 particles to be simulated by the canvas controller.
+     * @param particles An array of particles to be simulated by the canvas controller.
      */
     void setParticles(Particle[] particles) {
         this.particles = particles;
@@ -230,64 +311,111 @@ public class CanvasPanelFXMLController {
      * @param settings The SimulationSettings object that supplies properties for the simulation.
      */
     void runSimulation(SimulationSettings settings) {
+        // The previous simulation must be done with the old equations before new ones are set up. A skip still running belongs to the previous simulation.
+        hideSkip();
+        waitForSimulationThread();
+
+        // The last run's file should already be closed, but make sure it is before starting a new one.
+        closeCSV();
 
         String CSVFileName = settings.getCSVFileName();
         if (CSVFileName.equals("")) {
             CSVFilePath = "";
         } else {
-            CSVFilePath = setupCSV(settings.getCSVFileName());
+            CSVFilePath = setupCSV(settings.getCSVFileName(), settings.getTrajectoryFormat());
             if (CSVFilePath.equals("")) {
                 return;
             }
         }
 
         // Set up the particle differential equation according to the masses of each particle.
-        particleDifferentialEquations = new ParticleDifferentialEquations(settings.getMass());
+        particleDifferentialEquations = new ParticleDifferentialEquations(settings.getMass(), settings.getIntegrationSettings());
 
-        // Set up the integrator that we will be using. The minimum step size is 10 ^ -20, so that the integrator will return errors at asymptotes.
-        integrator = new DormandPrince853Integrator(Math.pow(10, -10), 10000, 0.01, 0.0001);
+        // Set up the integrator that we will be using.
+        integrator = settings.getIntegrationSettings().buildIntegrator(particleDifferentialEquations);
+        // Events are counted on the thread that finds them, and reach the display along with the frames they happened before.
+        integrator.setEncounterHandler((type, time, firstParticle, secondParticle) -> simulationEncounterCounts[type.ordinal()]++);
 
         // Flatten particles into the flattenedParticles array.
+        flattenedParticles = new double[particleDifferentialEquations.getDimension()];
+        flattenedAccelerations = new double[particleDifferentialEquations.getDimension() / 2];
         flattenParticles();
+        updateAccelerations();
+        // Nothing has been measured at the start of the run.
+        Arrays.fill(chaosIndicators, Double.NaN);
+        Arrays.fill(encounterCounts, 0);
 
         // Set current time.
         currentTime = settings.getSkip();
 
-        // Get position, velocity, acceleration at current time.
-        if (currentTime != 0) {
-            try {
-                // Get the position and velocity of particles at currentTime
-                integrator.integrate(particleDifferentialEquations, 0, flattenedParticles, currentTime, flattenedParticles);
-            } catch (NumberIsTooSmallException e) {
+        if (currentTime == 0) {
+            // Nothing to skip, so the first frame is shown straight away.
+            finishRun(settings);
+            return;
+        }
+
+        // The skip runs in the background, so that the window stays responsive. The run carries on in finishRun once it is done.
+        state = SimulationState.SKIPPING;
+        stopButton.setDisable(false);
+        pauseButton.setDisable(true);
+        SkipTask skip = new SkipTask(settings);
+        skip.setOnSucceeded(event -> {
+            // A skip that was stopped may have finished on its way out.
+            if (skip != skipTask) {
+                return;
+            }
+            hideSkip();
+            finishRun(settings);
+        });
+        skip.setOnFailed(event -> {
+            if (skip != skipTask) {
+                return;
+            }
+            hideSkip();
+            Throwable e = skip.getException();
+            System.out.println(e.getMessage());
+            if (e instanceof NumberIsTooSmallException) {
                 // Asymptote error (the integrator can't converge and gives up)
-                System.out.println(e.getMessage());
                 breakSimulationAfterUpdate(FilenameUnspecificMessage.ASYMPTOTE_ERROR);
-                return;
-            } catch (NumberIsTooLargeException e) {
+            } else if (e instanceof NumberIsTooLargeException) {
                 // Double overflow error (inputs too large for double datatype to handle)
-                System.out.println(e.getMessage());
                 breakSimulationAfterUpdate(FilenameUnspecificMessage.OVERFLOW_ERROR);
-                return;
-            } catch (Exception e) {
+            } else if (e instanceof CollisionException) {
+                // Two particles collided, and the simulation stops at collisions.
+                breakSimulationAfterUpdate(FilenameUnspecificMessage.COLLISION_ERROR);
+            } else {
                 // Other errors
-                System.out.println(e.getMessage());
                 breakSimulationAfterUpdate(FilenameUnspecificMessage.UNKNOWN_ERROR);
-                return;
             }
-        }
+        });
+        skipTask = skip;
+        skipProgressBar.progressProperty().bind(skip.progressProperty());
+        skipLabel.textProperty().bind(skip.messageProperty());
+        skipBox.setVisible(true);
 
-        double[][] scales = generateScale(integrator, flattenedParticles.clone(), settings);
+        simulationThread = new Thread(skip);
+        simulationThread.setDaemon(true);
+        // For debugging purposes, an exception handler to terminal output is created.
+        simulationThread.setUncaughtExceptionHandler((t, e) -> System.out.println(e.getMessage()));
+        simulationThread.start();
+    }
 
+    /**
+     * Shows the first frame of a run once its skip is done, and starts the simulation if it runs infinitely.
+     *
+     * @param settings The SimulationSettings object that supplies properties for the simulation.
+     */
+    private void finishRun(SimulationSettings settings) {
         updateParticles();
 
         // Clear out the canvas and provide the wrapper with settings.
-        canvasWrapper.setupScalesAndSettings(scales, settings);
+        canvasWrapper.setupScalesAndSettings(settings);
 
         // Update canvas
         updateCanvas();
 
-        if (!CSVFilePath.equals("")) {
-            updateCSV();
+        if (trajectoryRecorder != null) {
+            updateCSV(currentTime, flattenedParticles, flattenedAccelerations);
         }
 
         // Different situations if we are running infinitely or not
@@ -303,89 +431,50 @@ public class CanvasPanelFXMLController {
         } else {
             // We are already done, so set the state to inactive.
             state = SimulationState.INACTIVE;
+            stopButton.setDisable(true);
+            closeCSV();
         }
     }
 
     /**
-     * Calculates the maximum and minimum x/y coordinates during the first ten seconds of simulation.
-     *
-     * @param integrator The integrator used.
-     * @param particles  The particles' initial states in flattened form.
-     * @param settings   The settings of the simulation.
-     * @return The four corners of the smallest possible rectangle that all three particles do not escape in the first 10 seconds of simulation.
-     */
-    private double[][] generateScale(DormandPrince853Integrator integrator, double[] particles, SimulationSettings settings) {
-        final int SIMULATION_LENGTH = 10;
-        double simulationTime = currentTime;
-
-        double[][] minsAndMaxs = minAndMaxPositions(particles);
-
-        for (double time = simulationTime; time < SIMULATION_LENGTH * settings.getSpeed() + simulationTime; time += settings.getSpeed() / 5) {
-            try {
-                // Get the position and velocity of particles at currentTime
-                integrator.integrate(particleDifferentialEquations, time, particles, time + settings.getSpeed() / 5, particles);
-                double[][] currentMinsAndMaxs = minAndMaxPositions(particles);
-                for (int i = 0; i < 2; i++) {
-                    if (currentMinsAndMaxs[0][i] < minsAndMaxs[0][i]) {
-                        minsAndMaxs[0][i] = currentMinsAndMaxs[0][i];
-                    }
-                    if (currentMinsAndMaxs[1][i] > minsAndMaxs[1][i]) {
-                        minsAndMaxs[1][i] = currentMinsAndMaxs[1][i];
-                    }
-                }
-            } catch (Exception e) {
-                // All exceptions mean automatic break.
-                break;
-            }
-        }
-
-        double[][] coordinatePositions = new double[4][2];
-        int index = 0;
-
-        for (int i = 0; i < 2; i++) {
-            for (int j = 0; j < 2; j++) {
-                coordinatePositions[index++] = new double[]{minsAndMaxs[i][0], minsAndMaxs[j][1]};
-            }
+     * Hides the progress of the skip, and stops it if it is still running.
+     */
+    private void hideSkip() {
+        if (skipTask == null) {
+            return;
         }
-        return coordinatePositions;
-    }
-
-    /**
-     * Calculates the min and max x/y coordinates of a single set of particles
-     *
-     * @param particles Particles in flattened form.
-     * @return double 2D array {{minimum x, minimum y}, {maximum x, maximum y}}
-     */
-    private double[][] minAndMaxPositions(double[] particles) {
-        double[] xPositions = new double[]{particles[0], particles[4], particles[8]};
-        double[] yPositions = new double[]{particles[1], particles[5], particles[9]};
-        Arrays.sort(xPositions);
-        Arrays.sort(yPositions);
-        return new double[][]{{xPositions[0], yPositions[0]}, {xPositions[2], yPositions[2]}};
+        // The skip stops at its next report of progress, and saves its checkpoints on the way out.
+        skipTask.cancel(false);
+        skipTask = null;
+        skipProgressBar.progressProperty().unbind();
+        skipLabel.textProperty().unbind();
+        skipBox.setVisible(false);
     }
 
     /**
      * Updates the flattenedParticles array according to the particles array.
      */
     private void flattenParticles() {
-        int index = 0;
-        for (int id = 0; id < 3; id++) {
-            // Flatten the particle
-            double[] flattenedParticle = particles[id].flatten();
-            for (double property : flattenedParticle) {
-                // Fill out the array according to the flattened particle.
-                flattenedParticles[index++] = property;
-            }
+        for (Particle particle : particles) {
+            // Fill out the array according to the flattened particle.
+            particle.flatten(flattenedParticles, particles.length);
         }
     }
 
+    /**
+     * Updates the flattenedAccelerations array according to the flattenedParticles array.
+     */
+    private void updateAccelerations() {
+        particleDifferentialEquations.computeAccelerations(flattenedParticles, flattenedAccelerations);
+    }
+
     /**
      * Updates particles.
      */
     private void updateParticles() {
-        for (int id = 0; id < 3; id++) {
-            // Update each of the particles according to the state of the FlattenedParticles array.
-            particles[id].update(Arrays.copyOfRange(flattenedParticles, 4 * id, 4 * id + 4));
+        for (Particle particle : particles) {
+            // Update each of the particles according to the state of the FlattenedParticles and flattenedAccelerations arrays.
+            particle.update(flattenedParticles, flattenedAccelerations, particles.length);
         }
     }
 
@@ -395,20 +484,28 @@ public class CanvasPanelFXMLController {
     private void updateCanvas() {
         timeLabel.setText(String.format("Time: %.5f secs", currentTime));
         canvasWrapper.updateCanvas();
+        onChaosIndicatorsListener.onEvent();
+        onEncountersListener.onEvent();
     }
 
     /**
-     * Updates the CSV with the current state of the particles.
+     * Updates the CSV or binary trajectory file with a state of the particles.
+     *
+     * @param time          The time of the state.
+     * @param state         The state, in the layout used by ParticleDifferentialEquations.
+     * @param accelerations The accelerations at the state, in the layout used by ParticleDifferentialEquations.
      */
-    private void updateCSV() {
-        try {
-            BufferedWriter dataWriter = Files.newBufferedWriter(Paths.get(CSVFilePath), StandardOpenOption.APPEND, StandardOpenOption.CREATE);
-            CSVPrinter dataPrinter = new CSVPrinter(dataWriter, CSVFormat.DEFAULT);
-            //noinspection RedundantCast
-            dataPrinter.printRecord((Object[]) getRecord()); // Cast for clarity's sake.
-            dataWriter.close();
-        } catch (IOException e) {
-            e.printStackTrace(); // Should never occur, unless the user deletes the file midway through a simulation.
+    private void updateCSV(double time, double[] state, double[] accelerations) {
+        trajectoryRecorder.record(time, state, accelerations);
+    }
+
+    /**
+     * Writes every saved frame to the CSV or binary trajectory file and closes it, if the run is saving stats.
+     */
+    private void closeCSV() {
+        if (trajectoryRecorder != null) {
+            trajectoryRecorder.close();
+            trajectoryRecorder = null;
         }
     }
 
@@ -419,42 +516,89 @@ public class CanvasPanelFXMLController {
         updateParticles();
 
         updateCanvas();
+    }
 
-        if (!CSVFilePath.equals("")) { // Check if the user wants to save CSVs. If not, CSVFileName should equal an empty string.
-            updateCSV();
-        }
-
-        lock = false;
+    /**
+     * Shows the frame that is due according to the playback clock, and saves every frame up to it. Called by the frame timer on every pulse.
+     *
+     * @param now The time of the pulse, in nanoseconds.
+     */
+    private void showFramesUntil(long now) {
+        // Advance the playback clock, but never past the newest frame, so a slow simulation slows playback down instead of jumping ahead later.
+        playbackFrame = Math.min(playbackFrame + (double) (now - lastPulse) / FRAMETIME, frameBuffer.getPublishedCount());
+        lastPulse = now;
 
-        // Finally, let the thread that runs the simulation unpause.
-        synchronized (synchronizationObject) {
-            synchronizationObject.notify();
+        long frame = (long) playbackFrame;
+        if (frame > frameBuffer.getTakenCount()) {
+            showFrame(frame);
         }
     }
 
     /**
-     * Converts particle information into an array of strings.
+     * Shows a frame from the frame buffer. Every frame since the last one shown is saved to the CSV, but only this one is drawn.
      *
-     * @return The array of strings to be stored as the next row in a CSV file.
+     * @param frame The number of the frame.
      */
-    private String[] getRecord() {
-        String[] record = new String[1 + 6 * 3]; // Time + 3 particles * 6 attributes for each particle
-        int index = 0;
-        record[index++] = String.format("%.07f", currentTime);
-        for (Particle particle : particles) {
-            LinkedHashMap<String, double[]> information = particle.getPackage();
-            for (String vectorKey : information.keySet()) {
-                record[index++] = String.format("%.07f", information.get(vectorKey)[0]);
-                record[index++] = String.format("%.07f", information.get(vectorKey)[1]);
+    private void showFrame(long frame) {
+        if (trajectoryRecorder != null) { // Check if the user wants to save CSVs.
+            for (long savedFrame = frameBuffer.getTakenCount() + 1; savedFrame <= frame; savedFrame++) {
+                updateCSV(frameBuffer.getTime(savedFrame), frameBuffer.getState(savedFrame), frameBuffer.getAccelerations(savedFrame));
             }
         }
-        return record;
+
+        // Keep a copy of the frame on display, so that the simulation can resume from it.
+        currentTime = frameBuffer.getTime(frame);
+        System.arraycopy(frameBuffer.getState(frame), 0, flattenedParticles, 0, flattenedParticles.length);
+        System.arraycopy(frameBuffer.getAccelerations(frame), 0, flattenedAccelerations, 0, flattenedAccelerations.length);
+        System.arraycopy(frameBuffer.getChaosIndicators(frame), 0, chaosIndicators, 0, chaosIndicators.length);
+        System.arraycopy(frameBuffer.getEncounterCounts(frame), 0, encounterCounts, 0, encounterCounts.length);
+        frameBuffer.take(frame);
+
+        updateAll();
+    }
+
+    /**
+     * Stops showing frames, and stops the simulation thread at its next frame. Frames computed ahead of the display are thrown away.
+     */
+    private void stopFrames() {
+        if (frameBuffer == null) {
+            return;
+        }
+        frameTimer.stop();
+        frameBuffer.close();
+        frameBuffer = null;
+    }
+
+    /**
+     * Waits for the simulation thread to finish, if there is one. It stops at its next frame once the frame buffer is closed, so this is short.
+     */
+    private void waitForSimulationThread() {
+        if (simulationThread == null) {
+            return;
+        }
+        try {
+            simulationThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        simulationThread = null;
     }
 
     /**
      * Starts the simulation in a separate thread.
      */
     private void startSimulation() {
+        // A paused simulation finishes its frame before stopping, and must be done with the integrator before it is used again.
+        waitForSimulationThread();
+
+        // The simulation thread works on its own copy of the state, and hands frames to the UI through the frame buffer.
+        FrameRingBuffer buffer = new FrameRingBuffer(FRAME_BUFFER_CAPACITY, flattenedParticles.length);
+        double[] simulationState = flattenedParticles.clone();
+        double startTime = currentTime;
+        double frameInterval = speed / MAX_FRAMERATE;
+        SimulationIntegrator simulationIntegrator = integrator;
+        // Events in frames computed ahead of the display were thrown away with them, so counting carries on from the frame on display.
+        System.arraycopy(encounterCounts, 0, simulationEncounterCounts, 0, encounterCounts.length);
 
         // Builds a new JavaFX task that simulates the particle
         Task<Void> simulation = new Task<>() {
@@ -465,57 +609,42 @@ public class CanvasPanelFXMLController {
              */
             @Override
             protected Void call() throws Exception {
-                while (state == SimulationState.ACTIVE) { // Break if the simulation becomes inactive or paused.
-                    long taskTime = System.currentTimeMillis(); // Record current time (to sync framerate)
-                    try {
-                        // Store the state of the particles at the next frame.
-                        integrator.integrate(particleDifferentialEquations, currentTime, flattenedParticles, currentTime + (speed / MAX_FRAMERATE), flattenedParticles);
-                    } catch (NumberIsTooSmallException e) {
-                        // Asymptote error catching
-                        System.out.println(e.getMessage());
-                        Platform.runLater(() -> breakSimulationAfterUpdate(FilenameUnspecificMessage.ASYMPTOTE_ERROR));
-                        break;
-                    } catch (NumberIsTooLargeException e) {
-                        // Double overflow error catching.
-                        System.out.println(e.getMessage());
-                        Platform.runLater(() -> breakSimulationAfterUpdate(FilenameUnspecificMessage.OVERFLOW_ERROR));
-                        break;
-                    } catch (Exception e) {
-                        // Other errors
-                        System.out.println(e.getMessage());
-                        Platform.runLater(() -> breakSimulationAfterUpdate(FilenameUnspecificMessage.UNKNOWN_ERROR));
-                        break;
-                    }
-
-                    // Update the time
-                    currentTime += (speed / MAX_FRAMERATE);
-
-                    lock = true;
-
-                    // Update the UI on the main thread
-                    Platform.runLater(() -> updateAll());
-
-                    // Wait for the UI to update completely and notify this thread.
-                    if (lock) {
-                        synchronized (synchronizationObject) {
-                            synchronizationObject.wait();
-                        }
-                    }
-
-                    // Check how much time left to wait before next frame
-                    long leftoverTime = FRAMETIME - (System.currentTimeMillis() - taskTime);
-                    if (leftoverTime > 0) {
-                        // Wait until next frame.
-
-                        //noinspection BusyWait
-                        Thread.sleep(leftoverTime);
-                    }
+                try {
+                    // Integrate continuously, publishing the state of the particles at every frame until the buffer is closed.
+                    // Chaos indicators are read off the integrator while it hands over each frame, since they are only current then.
+                    simulationIntegrator.integrateFrames(startTime, simulationState, frameInterval, (time, frameState, frameAccelerations) ->
+                            buffer.publish(time, frameState, frameAccelerations, simulationIntegrator.getChaosIndicators(), simulationEncounterCounts));
+                } catch (NumberIsTooSmallException e) {
+                    // Asymptote error catching
+                    System.out.println(e.getMessage());
+                    Platform.runLater(() -> breakSimulationAfterFrames(buffer, FilenameUnspecificMessage.ASYMPTOTE_ERROR));
+                } catch (NumberIsTooLargeException e) {
+                    // Double overflow error catching.
+                    System.out.println(e.getMessage());
+                    Platform.runLater(() -> breakSimulationAfterFrames(buffer, FilenameUnspecificMessage.OVERFLOW_ERROR));
+                } catch (CollisionException e) {
+                    // Collision error catching.
+                    System.out.println(e.getMessage());
+                    Platform.runLater(() -> breakSimulationAfterFrames(buffer, FilenameUnspecificMessage.COLLISION_ERROR));
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // Other errors
+                    System.out.println(e.getMessage());
+                    Platform.runLater(() -> breakSimulationAfterFrames(buffer, FilenameUnspecificMessage.UNKNOWN_ERROR));
                 }
                 return null;
             }
         };
+
+        // Start the playback clock at the current frame.
+        frameBuffer = buffer;
+        playbackFrame = 0;
+        lastPulse = System.nanoTime();
+        frameTimer.start();
+
         // Run the thread.
-        Thread simulationThread = new Thread(simulation);
+        simulationThread = new Thread(simulation);
         simulationThread.setDaemon(true);
         // For debugging purposes, an exception handler to terminal output is created.
         simulationThread.setUncaughtExceptionHandler((t, e) -> System.out.println(e.getMessage()));
@@ -527,6 +656,9 @@ public class CanvasPanelFXMLController {
      */
     public void stopPressed() {
         state = SimulationState.INACTIVE; // Change state
+        hideSkip();
+        stopFrames();
+        closeCSV();
         pauseButton.setText("Pause"); // Change pause button to say "pause" instead of "unpause"
         // Disable buttons
         pauseButton.setDisable(true);
@@ -550,6 +682,11 @@ public class CanvasPanelFXMLController {
             case ACTIVE:
                 state = SimulationState.PAUSED;
                 pauseButton.setText("Resume");
+                stopFrames();
+                // Everything recorded so far goes to disk while the simulation is paused.
+                if (trajectoryRecorder != null) {
+                    trajectoryRecorder.flush();
+                }
                 break;
         }
     }
@@ -564,6 +701,24 @@ public class CanvasPanelFXMLController {
         breakSimulation(errorMessage);
     }
 
+    /**
+     * Breaks the simulation prematurely after showing the last frame the simulation thread managed to compute.
+     *
+     * @param buffer       The frame buffer of the simulation thread that failed.
+     * @param errorMessage What error message to send to the user.
+     */
+    private void breakSimulationAfterFrames(FrameRingBuffer buffer, PopupMessage errorMessage) {
+        // The user may have paused or stopped the simulation while the error was on its way.
+        if (buffer != frameBuffer) {
+            return;
+        }
+        long newestFrame = frameBuffer.getPublishedCount();
+        if (newestFrame > frameBuffer.getTakenCount()) {
+            showFrame(newestFrame);
+        }
+        breakSimulation(errorMessage);
+    }
+
     /**
      * Breaks the simulation prematurely and sends an error message to the user.
      *
@@ -573,4 +728,77 @@ public class CanvasPanelFXMLController {
         stopPressed();
         SceneFXMLController.openErrorWindow(errorMessage, canvas.getScene().getWindow());
     }
-}
\ No newline at end of file
+
+    /**
+     * A task that skips the simulation ahead to its start time.
+     * Progress is counted in simulated seconds.
+     */
+    private class SkipTask extends Task<Void> {
+
+        /**
+         * The settings of the simulation.
+         */
+        private final SimulationSettings settings;
+
+        /**
+         * The time the task started, in nanoseconds.
+         */
+        private long startNanos;
+
+        /**
+         * The simulated seconds done when the task started, which are more than 0 if the skip resumes from a checkpoint. NaN until the first report.
+         */
+        private double startProgress = Double.NaN;
+
+        /**
+         * Creates a task for a run.
+         *
+         * @param settings The settings of the simulation.
+         */
+        SkipTask(SimulationSettings settings) {
+            this.settings = settings;
+        }
+
+        /**
+         * This method is called by the thread, and advances the state on display to the start time.
+         *
+         * @return null: inherited from task interface.
+         * @throws InterruptedException If the task is stopped.
+         */
+        @Override
+        protected Void call() throws InterruptedException {
+            startNanos = System.nanoTime();
+            // Get the position and velocity of particles at the skip, from the last checkpoint of an earlier run of the same simulation if there is one.
+            new CheckpointCache(SceneFXMLController.CHECKPOINTS_DIRECTORY_NAME, settings.getMass(), flattenedParticles, settings.getIntegrationSettings())
+                    .skip(integrator, particleDifferentialEquations, flattenedParticles, settings.getSkip(), time -> reportProgress(Math.abs(time)));
+            updateAccelerations();
+            return null;
+        }
+
+        /**
+         * Reports how far the task has come, how fast it is going, and how long it has left.
+         *
+         * @param progress The simulated seconds done so far.
+         * @throws InterruptedException If the task has been stopped.
+         */
+        private void reportProgress(double progress) throws InterruptedException {
+            if (isCancelled()) {
+                throw new InterruptedException();
+            }
+            if (Double.isNaN(startProgress)) {
+                startProgress = progress;
+            }
+            double totalLength = Math.abs(settings.getSkip());
+            updateProgress(progress, totalLength);
+
+            // Throughput is measured in simulated seconds per wall second, over the work actually done since the task started.
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+            double throughput = (progress - startProgress) / elapsedSeconds;
+            if (throughput > 0) {
+                updateMessage(String.format("Skipping ahead: %.1f sim secs/sec, %.0f secs left", throughput, (totalLength - progress) / throughput));
+            } else {
+                updateMessage("Skipping ahead");
+            }
+        }
+    }
+}
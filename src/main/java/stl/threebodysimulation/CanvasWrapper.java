@@ -1,23 +1,74 @@
 package stl.threebodysimulation;
 
+import javafx.scene.SnapshotParameters;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.text.Font;
-import javafx.scene.transform.Rotate;
+import javafx.scene.text.Text;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * A wrapper that manages the graphics of a canvas UI object.
  */
 class CanvasWrapper {
+    /**
+     * The largest number of particles that are joined to each other by center of mass guides. Beyond this, the guides would only clutter the canvas.
+     */
+    private static final int MAX_CONNECTED_PARTICLES = 3;
+    /**
+     * The color of the center of mass and its guides. Parsed once, rather than on every frame.
+     */
+    private static final Color CENTER_OF_MASS_COLOR = Color.valueOf("#555555");
+    /**
+     * The most grid label images kept at once. Enough for the labels of several views, so that the views the particles move between reuse them.
+     */
+    private static final int MAX_GRID_LABELS = 256;
+    /**
+     * How far the view reaches past the trajectory after it is rescaled, as a proportion of the size of the trajectory.
+     * The view zooms out as soon as a particle leaves it, so this headroom keeps rescales rare.
+     */
+    private static final double RESCALE_HEADROOM = 0.5;
+    /**
+     * The number of frames between checks for whether the view can zoom in on the particles.
+     */
+    private static final int FOLLOW_INTERVAL = 1000;
+    /**
+     * The view zooms in once the trajectory since the last check fits within this proportion of its width and height.
+     * Well below the size the view is rescaled to, so that the view does not zoom back and forth.
+     */
+    private static final double ZOOM_IN_FRACTION = 0.25;
+    /**
+     * The most memory that the trails may take up together, in bytes. Once they reach it, the oldest parts of the trails are forgotten.
+     */
+    private static final long TRAIL_MEMORY_LIMIT = 8L * 1024 * 1024;
+    /**
+     * The distance on the canvas that a particle must move for its trail to get a new point, in pixels.
+     */
+    private static final double TRAIL_SPACING = 1;
     /**
      * An array of the radii of each particle respectively.
      */
-    final double[] circleDiameter = {0, 0, 0};
+    double[] circleDiameter = new double[0];
+    /**
+     * The x canvas position of each particle as of the last frame drawn.
+     */
+    double[] oldCanvasX = new double[0];
+    /**
+     * The y canvas position of each particle as of the last frame drawn.
+     */
+    double[] oldCanvasY = new double[0];
     /**
-     * A 2D array of the old canvas position values
+     * The x canvas position of each particle in the frame being drawn. Reused from frame to frame.
      */
-    final double[][] oldCanvasPos = new double[3][2];
+    private double[] canvasX = new double[0];
+    /**
+     * The y canvas position of each particle in the frame being drawn. Reused from frame to frame.
+     */
+    private double[] canvasY = new double[0];
     /**
      * The canvas to draw particles on.
      */
@@ -43,7 +94,7 @@ class CanvasWrapper {
      */
     private final GraphicsContext trailGC;
     /**
-     * An array of the X and Y positions of a particle.
+     * An array of the X and Y canvas positions of a particle, reused to find its off-canvas indicator.
      */
     double[] canvasPos = {0, 0};
     /**
@@ -74,6 +125,44 @@ class CanvasWrapper {
      * Whether the canvas should show the center of mass of the particles.
      */
     private boolean centerOfMass;
+    /**
+     * The smallest rectangle that holds every position of every particle drawn since the view was last scaled. <br>[minimum x, minimum y, maximum x, maximum y]
+     */
+    private final double[] trajectoryBounds = new double[4];
+    /**
+     * The number of frames drawn since the view was last scaled, or last checked for zooming in.
+     */
+    private int framesSinceCheck;
+    /**
+     * The trails of the particles in space, so that they can be drawn again when the view is rescaled.
+     */
+    private TrailStore trailStore = new TrailStore(0, 0);
+    /**
+     * Reused space for the x canvas positions of a trail while it is drawn.
+     */
+    private double[] trailXBuffer = new double[0];
+    /**
+     * Reused space for the y canvas positions of a trail while it is drawn.
+     */
+    private double[] trailYBuffer = new double[0];
+    /**
+     * Images of the grid labels, keyed by the coordinate of their gridline, so that a label is only formatted and laid out once however often the view moves.
+     * Kept in order of use, and the least recently used are dropped past MAX_GRID_LABELS.
+     */
+    private final Map<Double, WritableImage> gridLabels = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Double, WritableImage> eldest) {
+            return size() > MAX_GRID_LABELS;
+        }
+    };
+    /**
+     * The text node that grid labels are laid out in before their images are taken.
+     */
+    private final Text gridLabelText = new Text();
+    /**
+     * The settings for taking images of grid labels. The fill is transparent, so the images only hold the text.
+     */
+    private final SnapshotParameters gridLabelParameters = new SnapshotParameters();
 
     /**
      * Constructs a basic CanvasWrapper object for a particular canvas UI element.
@@ -89,6 +178,7 @@ class CanvasWrapper {
         particlesGC = canvas.getGraphicsContext2D();
         gridGC = gridCanvas.getGraphicsContext2D();
         trailGC = trailCanvas.getGraphicsContext2D();
+        gridLabelParameters.setFill(Color.TRANSPARENT);
     }
 
     /**
@@ -130,29 +220,22 @@ class CanvasWrapper {
     }
 
     /**
-     * Calculates the first gridline based on a corner coordinate and a grid interval.
+     * Gives the four corners of a rectangle.
      *
-     * @param base     The corner coordinate.
-     * @param interval The grid interval.
-     * @return The coordinate of the first gridline.
-     */
-    private static double calculateFirstGridline(double base, double interval) {
-        if (base < 0) { // Modulo works differently with positive and negative numbers in Java
-            return base + Math.abs(base % interval);
-        } else if (base > 0) {
-            return base + (interval - base % interval);
-        } else {
-            return 0;
-        }
+     * @param bounds The edges of the rectangle. <br>[minimum x, minimum y, maximum x, maximum y]
+     * @return The corners of the rectangle: lower left, upper left, lower right, then upper right.
+     */
+    private static double[][] toCorners(double[] bounds) {
+        return new double[][]{{bounds[0], bounds[1]}, {bounds[0], bounds[3]}, {bounds[2], bounds[1]}, {bounds[2], bounds[3]}};
     }
 
     /**
-     * Sets the graphics options and particles for the canvas.
+     * Sets the graphics options and particles for the canvas, and scales the view to the particles where they start.
+     * The view follows the particles from there, so nothing has to be simulated ahead of time to find its scale.
      *
-     * @param scales   An 2D array of doubles that represent the max/min x/y coordinates of the particles in the first 10 seconds of simulation.
      * @param settings The SimulationSettings object that options and particles will be read from.
      */
-    void setupScalesAndSettings(double[][] scales, SimulationSettings settings) {
+    void setupScalesAndSettings(SimulationSettings settings) {
         clearCanvas();
 
         // Establishes the trail width
@@ -170,37 +253,69 @@ class CanvasWrapper {
         this.particles = settings.getParticles();
 
         // Calculate the sum of the particle masses
-        massSum = particles[0].getMass() + particles[1].getMass() + particles[2].getMass();
+        massSum = 0;
+        for (Particle particle : particles) {
+            massSum += particle.getMass();
+        }
 
-        // Coordinates of the rectangle that the canvas represents.
-        double[][] canvasRectangle = calculateRectangle(scales, calculateBuffer(particles));
+        // Coordinates of the rectangle that the canvas represents. The buffer leaves room for where the particles are headed.
+        resetTrajectoryBounds();
+        double[][] canvasRectangle = calculateRectangle(toCorners(trajectoryBounds), calculateBuffer(particles));
 
-        // Geometric mean of masses.
-        avgMass = Math.cbrt(particles[0].getMass() * particles[1].getMass() * particles[2].getMass());
+        // Geometric mean of masses, through logarithms so that the product of many masses cannot overflow.
+        double logMassSum = 0;
+        for (Particle particle : particles) {
+            logMassSum += Math.log(particle.getMass());
+        }
+        avgMass = Math.exp(logMassSum / particles.length);
 
         // Attempting to normalize the masses.
-        for (int i = 0; i < 3; i++) {
+        circleDiameter = new double[particles.length];
+        for (int i = 0; i < particles.length; i++) {
             circleDiameter[i] = Math.cbrt(particles[i].getMass() / avgMass) * 4 + 8;
         }
 
-        // Clears the trails canvas of any existing trails and grid lines
+        // Clears the trails canvas of any existing trails
         trailGC.clearRect(0, 0, trailCanvas.getWidth(), trailCanvas.getHeight());
-        gridGC.clearRect(0, 0, gridCanvas.getWidth(), gridCanvas.getHeight());
 
         // Sets the scale factors for drawing on the canvas
         setScaleFactors(canvasRectangle);
 
-        // Initializes the oldCanvasPos variable with the original position values
-        for (int i = 0; i < 3; i++) {
-            oldCanvasPos[i] = returnRelativePosition(particles[i].getPosition());
+        // Initializes the old canvas positions with the original position values
+        oldCanvasX = new double[particles.length];
+        oldCanvasY = new double[particles.length];
+        canvasX = new double[particles.length];
+        canvasY = new double[particles.length];
+        for (int i = 0; i < particles.length; i++) {
+            oldCanvasX[i] = projectX(particles[i].getPosition()[0]);
+            oldCanvasY[i] = projectY(particles[i].getPosition()[1]);
+        }
+        if (trails) {
+            trailStore = new TrailStore(particles.length, TRAIL_MEMORY_LIMIT);
+            trailXBuffer = new double[trailStore.getCapacity()];
+            trailYBuffer = new double[trailStore.getCapacity()];
+            trailStore.record(particles, TRAIL_SPACING * particleScale);
+        } else {
+            // Runs without trails never touch the store, so the memory of the last run's trails is let go instead of being allocated again.
+            trailStore = new TrailStore(0, 0);
+            trailXBuffer = new double[0];
+            trailYBuffer = new double[0];
         }
+        framesSinceCheck = 0;
 
-        double gridInterval = calculateGridInterval();
+        drawGrid();
 
+        particlesGC.setFont(Font.font("Verdana", 50));
+    }
+
+    /**
+     * Draws the grid lines and their labels for the current view. The lines are stroked again, but the labels are put back from their images wherever they have been drawn before.
+     */
+    private void drawGrid() {
+        gridGC.clearRect(0, 0, gridCanvas.getWidth(), gridCanvas.getHeight());
+        double gridInterval = calculateGridInterval();
         printVerticalGridlines(gridInterval);
         printHorizontalGridlines(gridInterval);
-
-        particlesGC.setFont(Font.font("Verdana", 50));
     }
 
     /**
@@ -209,77 +324,92 @@ class CanvasWrapper {
      * @param interval The absolute distance between each vertical gridline.
      */
     private void printVerticalGridlines(double interval) {
-        // left end of the canvas
-        double base = translationScale[0];
-
-        double currentGridline = calculateFirstGridline(base, interval);
+        // The first gridline at or right of the left end of the canvas. Gridlines are counted from zero, so that the same gridline always has the same coordinate.
+        long index = (long) Math.ceil(translationScale[0] / interval);
+        double currentGridline = index * interval;
 
         // Draws all gridlines that fit on the canvas
         while (currentGridline < translationScale[0] + particleScale * 800) {
             // If it is the zero gridline, make it darker
-            if (Math.abs(currentGridline) < Math.pow(10, -10)) {
-                gridGC.setFill(Color.BLACK);
-                gridGC.setStroke(Color.BLACK);
-            } else {
-                gridGC.setFill(Color.DARKGRAY);
-                gridGC.setStroke(Color.DARKGRAY);
-            }
-            double relativeCurrentGridline = returnRelativePosition(new double[]{currentGridline, 0})[0];
+            gridGC.setStroke(index == 0 ? Color.BLACK : Color.DARKGRAY);
+            double relativeCurrentGridline = projectX(currentGridline);
             gridGC.strokeLine(relativeCurrentGridline, -20, relativeCurrentGridline, 800);
             // Draw the label for the gridline, but only if it isn't too close to the left side of the canvas (to prevent overlap)
             if (!(relativeCurrentGridline < 100)) {
-                drawRotatedText(gridGC, String.format("%g", currentGridline), 270, relativeCurrentGridline - 10, 710);
+                // The label reads upwards, rotated by 270 degrees about the start of its baseline.
+                gridGC.save();
+                gridGC.translate(Math.round(relativeCurrentGridline - 10), 710);
+                gridGC.rotate(270);
+                drawGridLabel(currentGridline, 0, 0);
+                gridGC.restore();
             }
-            currentGridline += interval;
+            index++;
+            currentGridline = index * interval;
         }
     }
 
-    /**
-     * Draws a rotated piece of text. Modified from jewelsea's answer at https://stackoverflow.com/questions/18260421/how-to-draw-image-rotated-on-javafx-canvas.
-     *
-     * @param gc    The GraphicsContext to draw it on.
-     * @param text  The text to draw.
-     * @param angle The angle to draw the text.
-     * @param tlpx  The x position of the text.
-     * @param tlpy  The y position of the text.
-     */
-    private void drawRotatedText(GraphicsContext gc, String text, double angle, double tlpx, double tlpy) {
-        gc.save(); // saves the current state on stack, including the current transform
-        Rotate r = new Rotate(angle, tlpx, tlpy);
-        gc.setTransform(r.getMxx(), r.getMyx(), r.getMxy(), r.getMyy(), r.getTx(), r.getTy());
-        gc.fillText(text, tlpx, tlpy);
-        gc.restore(); // back to original state (before rotation)
-    }
-
     /**
      * Prints the horizontal gridlines based on the calculated grid interval.
      *
      * @param interval The absolute distance between each horizontal gridline.
      */
     private void printHorizontalGridlines(double interval) {
-        // Top end of the canvas
-        double base = translationScale[1];
-
-        double currentGridline = calculateFirstGridline(base, interval);
+        // The first gridline at or below the top end of the canvas
+        long index = (long) Math.floor(translationScale[1] / interval);
+        double currentGridline = index * interval;
 
         // Fill in gridlines that appear on canvas
         while (currentGridline > translationScale[1] - particleScale * 720) {
-            // Zero gridline is darker (approximation due to double inaccuracy)
-            if (Math.abs(currentGridline) < Math.pow(10, -10)) {
-                gridGC.setFill(Color.BLACK);
-                gridGC.setStroke(Color.BLACK);
-            } else {
-                gridGC.setFill(Color.DARKGRAY);
-                gridGC.setStroke(Color.DARKGRAY);
-            }
+            // Zero gridline is darker
+            gridGC.setStroke(index == 0 ? Color.BLACK : Color.DARKGRAY);
 
-            // Draws the vertical gridlines on the canvas
-            double relativeCurrentGridline = returnRelativePosition(new double[]{0, currentGridline})[1];
+            // Draws the horizontal gridlines on the canvas
+            double relativeCurrentGridline = projectY(currentGridline);
             gridGC.strokeLine(-20, relativeCurrentGridline, 850, relativeCurrentGridline);
-            gridGC.fillText(String.format("%g", currentGridline), 10, relativeCurrentGridline - 10);
+            drawGridLabel(currentGridline, 10, relativeCurrentGridline - 10);
+
+            index--;
+            currentGridline = index * interval;
+        }
+    }
 
-            currentGridline -= interval;
+    /**
+     * Draws the label of a gridline from its image, taking the image first if the label has not been drawn recently.
+     *
+     * @param gridline The coordinate of the gridline.
+     * @param x        The x position of the start of the label's baseline.
+     * @param y        The y position of the label's baseline.
+     */
+    private void drawGridLabel(double gridline, double x, double y) {
+        WritableImage label = gridLabels.get(gridline);
+        if (label == null) {
+            gridLabelText.setText(String.format("%g", gridline));
+            gridLabelText.setFont(gridGC.getFont());
+            gridLabelText.setFill(gridline == 0 ? Color.BLACK : Color.DARKGRAY);
+            label = gridLabelText.snapshot(gridLabelParameters, null);
+            gridLabels.put(gridline, label);
         }
+        // The image starts at the top of the text, rounded out to a whole pixel, which is the same height above the baseline for every label, as they share a font.
+        // It is drawn on whole pixels, so that it is copied as it is rather than blurred between them.
+        gridGC.drawImage(label, Math.round(x), Math.round(y) + Math.floor(gridLabelText.getLayoutBounds().getMinY()));
+    }
+
+    /**
+     * Draws a rotated piece of text. Modified from jewelsea's answer at https://stackoverflow.com/questions/18260421/how-to-draw-image-rotated-on-javafx-canvas.
+     * Rotates the graphics context about the text directly, rather than building a Rotate transform for every piece of text.
+     *
+     * @param gc    The GraphicsContext to draw it on.
+     * @param text  The text to draw.
+     * @param angle The angle to draw the text.
+     * @param tlpx  The x position of the text.
+     * @param tlpy  The y position of the text.
+     */
+    private void drawRotatedText(GraphicsContext gc, String text, double angle, double tlpx, double tlpy) {
+        gc.save(); // saves the current state on stack, including the current transform
+        gc.translate(tlpx, tlpy);
+        gc.rotate(angle);
+        gc.fillText(text, 0, 0);
+        gc.restore(); // back to original state (before rotation)
     }
 
     /**
@@ -382,17 +512,17 @@ class CanvasWrapper {
         // Declares buffer variable
         double buffer;
 
-        // Constructs an array of the absolute values of the particle velocities
-        double[] particleSquares = new double[3];
-        for (int i = 0; i < 3; i++) {
-            particleSquares[i] =
-                    particles[i].getVelocity()[0] * particles[i].getVelocity()[0] +
-                            particles[i].getVelocity()[1] * particles[i].getVelocity()[1];
+        // Sums the squared velocities of the particles, weighted by mass
+        double weightedSquareSum = 0;
+        for (Particle particle : particles) {
+            double particleSquare =
+                    particle.getVelocity()[0] * particle.getVelocity()[0] +
+                            particle.getVelocity()[1] * particle.getVelocity()[1];
+            weightedSquareSum += particleSquare * particle.getMass();
         }
 
         // Calculates the average squared velocity
-        double avgSquaredVelocity = Math.sqrt((particleSquares[0] * particles[0].getMass() + particleSquares[1] * particles[1].getMass()
-                + particleSquares[2] * particles[2].getMass()) / massSum);
+        double avgSquaredVelocity = Math.sqrt(weightedSquareSum / massSum);
 
         // Determines the buffer as a product of ASV and a constant
         buffer = avgSquaredVelocity * 5;
@@ -401,81 +531,229 @@ class CanvasWrapper {
     }
 
     /**
-     * Gives the relative canvas position of a drawn element given it's real position
+     * Gives the x canvas position of a drawn element given its real x position. Works on single coordinates, so nothing is allocated while drawing.
      *
-     * @param absolutePosition The real position of the element
-     * @return The position of the element on the canvas
-     */
-    private double[] returnRelativePosition(double[] absolutePosition) {
-        return new double[]{
-                (absolutePosition[0] - translationScale[0]) / particleScale,
-                -(absolutePosition[1] - translationScale[1]) / particleScale
-        };
+     * @param x The real x position of the element
+     * @return The x position of the element on the canvas
+     */
+    private double projectX(double x) {
+        return (x - translationScale[0]) / particleScale;
     }
 
     /**
-     * Updates the canvas according to the current state of the particles.
+     * Gives the y canvas position of a drawn element given its real y position.
+     *
+     * @param y The real y position of the element
+     * @return The y position of the element on the canvas
      */
-    void updateCanvas() {
-        clearCanvas();
+    private double projectY(double y) {
+        return -(y - translationScale[1]) / particleScale;
+    }
+
+    /**
+     * Gives the real x position of a drawn element given its x canvas position. The inverse of projectX.
+     *
+     * @param x The x position of the element on the canvas
+     * @return The real x position of the element
+     */
+    private double unprojectX(double x) {
+        return x * particleScale + translationScale[0];
+    }
+
+    /**
+     * Gives the real y position of a drawn element given its y canvas position. The inverse of projectY.
+     *
+     * @param y The y position of the element on the canvas
+     * @return The real y position of the element
+     */
+    private double unprojectY(double y) {
+        return -y * particleScale + translationScale[1];
+    }
+
+    /**
+     * Shrinks the trajectory bounds down to the particles where they are now.
+     */
+    private void resetTrajectoryBounds() {
+        trajectoryBounds[0] = trajectoryBounds[1] = Double.POSITIVE_INFINITY;
+        trajectoryBounds[2] = trajectoryBounds[3] = Double.NEGATIVE_INFINITY;
+        growTrajectoryBounds();
+    }
+
+    /**
+     * Grows the trajectory bounds to hold the particles where they are now. Only the newest positions are looked at, so this costs the same however long the run.
+     *
+     * @return True if a particle is outside the view, so that the view should be rescaled.
+     */
+    private boolean growTrajectoryBounds() {
+        boolean outsideView = false;
+        for (Particle particle : particles) {
+            double[] position = particle.getPosition();
+            trajectoryBounds[0] = Math.min(trajectoryBounds[0], position[0]);
+            trajectoryBounds[1] = Math.min(trajectoryBounds[1], position[1]);
+            trajectoryBounds[2] = Math.max(trajectoryBounds[2], position[0]);
+            trajectoryBounds[3] = Math.max(trajectoryBounds[3], position[1]);
+
+            double x = projectX(position[0]);
+            double y = projectY(position[1]);
+            if (x < 0 || x > 800 || y < 0 || y > 720) {
+                outsideView = true;
+            }
+        }
+        return outsideView;
+    }
+
+    /**
+     * Moves the view to follow the particles. The view zooms out as soon as a particle leaves it,
+     * but only zooms in or pans while the particles stay inside once they have kept to a small part of it for FOLLOW_INTERVAL frames.
+     */
+    private void followParticles() {
+        if (growTrajectoryBounds()) {
+            rescale();
+            return;
+        }
+        if (++framesSinceCheck < FOLLOW_INTERVAL) {
+            return;
+        }
+        double viewWidth = particleScale * 800;
+        double viewHeight = particleScale * 720;
+        if (trajectoryBounds[2] - trajectoryBounds[0] < ZOOM_IN_FRACTION * viewWidth && trajectoryBounds[3] - trajectoryBounds[1] < ZOOM_IN_FRACTION * viewHeight) {
+            rescale();
+        } else {
+            // Start the next check from where the particles are now, so that the view follows their recent path rather than all of it.
+            resetTrajectoryBounds();
+            framesSinceCheck = 0;
+        }
+    }
 
-        // Displays the positions of the particles on the canvas
-        for (int i = 0; i < 3; i++) {
+    /**
+     * Rescales the view to hold the trajectory since the view was last scaled or checked, with headroom around it.
+     * The trails and grid lines are redrawn from scratch in one pass each, as the old ones are at the old scale.
+     */
+    private void rescale() {
+        // Keep the last position of each particle in space, so its trail carries on from it at the new scale.
+        for (int i = 0; i < particles.length; i++) {
+            oldCanvasX[i] = unprojectX(oldCanvasX[i]);
+            oldCanvasY[i] = unprojectY(oldCanvasY[i]);
+        }
 
-            // Determines the position of the particle on the canvas
-            canvasPos = returnRelativePosition(particles[i].getPosition());
+        double headroom = RESCALE_HEADROOM * Math.max(trajectoryBounds[2] - trajectoryBounds[0], trajectoryBounds[3] - trajectoryBounds[1]);
+        setScaleFactors(calculateRectangle(toCorners(trajectoryBounds), headroom));
 
-            // Draws the particle
-            particlesGC.setFill(particles[i].getColor());
-            particlesGC.fillOval(canvasPos[0] - (circleDiameter[i] / 2), canvasPos[1] - (circleDiameter[i] / 2), circleDiameter[i], circleDiameter[i]);
+        for (int i = 0; i < particles.length; i++) {
+            oldCanvasX[i] = projectX(oldCanvasX[i]);
+            oldCanvasY[i] = projectY(oldCanvasY[i]);
+        }
 
+        trailGC.clearRect(0, 0, trailCanvas.getWidth(), trailCanvas.getHeight());
+        redrawTrails();
+        drawGrid();
 
-            // Conditionally draws trails
-            if (trails) {
-                trailGC.setStroke(particles[i].getColor());
-                trailGC.strokeLine(oldCanvasPos[i][0], oldCanvasPos[i][1], canvasPos[0], canvasPos[1]);
+        resetTrajectoryBounds();
+        framesSinceCheck = 0;
+    }
+
+    /**
+     * Draws every trail from the trail store at the current scale, with one polyline per particle.
+     */
+    private void redrawTrails() {
+        if (!trails) {
+            return;
+        }
+        for (int i = 0; i < particles.length; i++) {
+            int size = trailStore.getSize(i);
+            for (int index = 0; index < size; index++) {
+                trailXBuffer[index] = projectX(trailStore.getX(i, index));
+                trailYBuffer[index] = projectY(trailStore.getY(i, index));
             }
+            trailGC.setStroke(particles[i].getColor());
+            trailGC.strokePolyline(trailXBuffer, trailYBuffer, size);
+        }
+    }
 
-            // Sets the current canvas position as the old canvas position
-            oldCanvasPos[i][0] = canvasPos[0];
-            oldCanvasPos[i][1] = canvasPos[1];
+    /**
+     * Updates the canvas according to the current state of the particles. The view is moved to follow the particles first.
+     * Draw calls are grouped so that colors and paths change as rarely as possible, and nothing is allocated unless a particle is off the canvas.
+     */
+    void updateCanvas() {
+        clearCanvas();
+
+        followParticles();
 
-            // Conditionally draws the off-canvas position indicator
-            if ((canvasPos[0] < 0 || canvasPos[0] > 800) || (canvasPos[1] < 0 || canvasPos[1] > 720)) {
+        // Determines the position of every particle on the canvas
+        for (int i = 0; i < particles.length; i++) {
+            double[] position = particles[i].getPosition();
+            canvasX[i] = projectX(position[0]);
+            canvasY[i] = projectY(position[1]);
+        }
+
+        // Draws the particles, only changing the fill when the color changes
+        Color fill = null;
+        for (int i = 0; i < particles.length; i++) {
+            Color color = particles[i].getColor();
+            if (!color.equals(fill)) {
+                particlesGC.setFill(color);
+                fill = color;
+            }
+            particlesGC.fillOval(canvasX[i] - (circleDiameter[i] / 2), canvasY[i] - (circleDiameter[i] / 2), circleDiameter[i], circleDiameter[i]);
+
+            // Conditionally draws the off-canvas position indicator, in the color of the particle
+            if ((canvasX[i] < 0 || canvasX[i] > 800) || (canvasY[i] < 0 || canvasY[i] > 720)) {
+                canvasPos[0] = canvasX[i];
+                canvasPos[1] = canvasY[i];
                 double[] indicatorArgs = findIndicatorArguments(canvasPos);
                 drawRotatedText(particlesGC, "^", indicatorArgs[0], indicatorArgs[1], indicatorArgs[2]);
             }
         }
 
+        // Conditionally draws trails, only changing the stroke when the color changes
+        if (trails) {
+            Color stroke = null;
+            for (int i = 0; i < particles.length; i++) {
+                Color color = particles[i].getColor();
+                if (!color.equals(stroke)) {
+                    trailGC.setStroke(color);
+                    stroke = color;
+                }
+                trailGC.strokeLine(oldCanvasX[i], oldCanvasY[i], canvasX[i], canvasY[i]);
+            }
+
+            // Keep the trails in space as well, so that they can be drawn again when the view is rescaled.
+            trailStore.record(particles, TRAIL_SPACING * particleScale);
+        }
+
+        // Sets the current canvas positions as the old canvas positions
+        System.arraycopy(canvasX, 0, oldCanvasX, 0, particles.length);
+        System.arraycopy(canvasY, 0, oldCanvasY, 0, particles.length);
+
         // Conditionally draws the center of mass
         if (centerOfMass) {
 
-            double[] centerOfMassAbsolutePosition = new double[2];
-
             // Calculates the center of mass
-            for (int i = 0; i < 2; i++) {
-                centerOfMassAbsolutePosition[i] = ((particles[0].getMass() * particles[0].getPosition()[i])
-                        + (particles[1].getMass() * particles[1].getPosition()[i])
-                        + (particles[2].getMass() * particles[2].getPosition()[i])) / massSum;
+            double centerOfMassX = 0;
+            double centerOfMassY = 0;
+            for (Particle particle : particles) {
+                centerOfMassX += particle.getMass() * particle.getPosition()[0];
+                centerOfMassY += particle.getMass() * particle.getPosition()[1];
             }
-
-            double[] centerOfMassRelativePosition = returnRelativePosition(centerOfMassAbsolutePosition);
-
+            double centerOfMassCanvasX = projectX(centerOfMassX / massSum);
+            double centerOfMassCanvasY = projectY(centerOfMassY / massSum);
 
             // Displays the center of mass
-            particlesGC.setFill(Color.valueOf("#555555"));
-            particlesGC.fillOval((centerOfMassRelativePosition[0] - 5), (centerOfMassRelativePosition[1] - 5), 10, 10);
-
-            particlesGC.setStroke(Color.valueOf("#555555"));
-            for (int i = 0; i < 2; i++) {
-                for (int j = i + 1; j < 3; j++) {
-                    particlesGC.strokeLine(oldCanvasPos[i][0], oldCanvasPos[i][1], oldCanvasPos[j][0], oldCanvasPos[j][1]);
+            particlesGC.setFill(CENTER_OF_MASS_COLOR);
+            particlesGC.fillOval(centerOfMassCanvasX - 5, centerOfMassCanvasY - 5, 10, 10);
+
+            // Every guide is drawn in the same color, so the stroke is set once for all of them
+            particlesGC.setStroke(CENTER_OF_MASS_COLOR);
+            if (particles.length <= MAX_CONNECTED_PARTICLES) {
+                for (int i = 0; i < particles.length - 1; i++) {
+                    for (int j = i + 1; j < particles.length; j++) {
+                        particlesGC.strokeLine(canvasX[i], canvasY[i], canvasX[j], canvasY[j]);
+                    }
                 }
             }
-            for (int i = 0; i < 3; i++) {
-                particlesGC.strokeLine(oldCanvasPos[i][0], oldCanvasPos[i][1], centerOfMassRelativePosition[0], centerOfMassRelativePosition[1]);
+            for (int i = 0; i < particles.length; i++) {
+                particlesGC.strokeLine(canvasX[i], canvasY[i], centerOfMassCanvasX, centerOfMassCanvasY);
             }
-
         }
     }
 
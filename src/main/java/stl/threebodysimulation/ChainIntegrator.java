@@ -0,0 +1,762 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+
+import java.util.Arrays;
+
+/**
+ * A SimulationIntegrator that uses algorithmic chain regularization (Mikkola and Aarseth's chain coordinates, stepped with Mikkola and Tanikawa's logarithmic Hamiltonian leapfrog).
+ * <p>
+ * Instead of the position and velocity of every particle, the integrator follows the center of mass, and the vectors between particles along a chain,
+ * ordered so that every close pair is joined by a link of its own. The separation of a tight binary is then integrated directly, instead of as the difference of two large positions.
+ * <p>
+ * Steps are taken in a fictitious time s, in which drifts last ds / (T + B) and kicks last ds / U, where T is the kinetic energy, U the potential, and B the binding energy.
+ * Both split flows are exact, so they compose into a symplectic integrator with the same coefficients as SymplecticIntegrator, with drifts and kicks swapped.
+ * Real time slows down as particles approach each other, so a binary takes the same number of steps per orbit however eccentric it is, and two-body orbits come out exact apart from their timing.
+ * Fictitious time is scaled so that at the start of the run, a step lasts as long as the step size in real time.
+ * <p>
+ * Frames fall within steps, so the step that would pass a frame is shortened to end just short of it, or retaken shorter if it passes it by much.
+ * The last sliver is taken in real time with the same composition, which lands on the frame exactly, and is too short to lose any accuracy.
+ * Forces are always calculated exactly, whatever the force model.
+ */
+class ChainIntegrator implements SimulationIntegrator {
+
+    /**
+     * The most times a step that passed a frame is taken again.
+     */
+    private static final int MAX_LANDING_ITERATIONS = 10;
+
+    /**
+     * How far from a frame, as a fraction of the length of a step, the rest of the way is taken in real time.
+     */
+    private static final double LANDING_FRACTION = 0.01;
+
+    /**
+     * The differential equations being integrated, which hold the masses and any merges.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The number of particles.
+     */
+    private final int particleCount;
+
+    /**
+     * The space kept for each component of the links: one fewer than the number of particles.
+     */
+    private final int linkStride;
+
+    /**
+     * The largest step the integrator will take, in fictitious time, scaled to seconds at the start of the run.
+     */
+    private final double maxStepSize;
+
+    /**
+     * The drift coefficient of each stage.
+     */
+    private final double[] driftCoefficients;
+
+    /**
+     * The kick coefficient of each stage.
+     */
+    private final double[] kickCoefficients;
+
+    /**
+     * The tracker that measures chaos indicators, or null if they are not measured.
+     */
+    private final ChaosTracker chaosTracker;
+
+    /**
+     * The detectors of close encounters and collisions, checked at the end of every step.
+     */
+    private final EncounterDetector[] encounterDetectors;
+
+    /**
+     * The indices of the particles that have not been merged, in chain order.
+     */
+    private final int[] chain;
+
+    /**
+     * The number of particles in the chain.
+     */
+    private int chainLength;
+
+    /**
+     * The gravitational parameter of each particle in the chain, in chain order.
+     */
+    private final double[] chainParameters;
+
+    /**
+     * The sum of the gravitational parameters of the chain.
+     */
+    private double totalParameter;
+
+    /**
+     * The links of the chain: the position and velocity of each particle relative to the one before it. <br>
+     * [X-pos of every link, Y-pos of every link, X-vel of every link, Y-vel of every link], each linkStride long.
+     */
+    private final double[] links;
+
+    /**
+     * The links at the start of the current step, kept so that a step can be retaken.
+     */
+    private final double[] stepStartLinks;
+
+    /**
+     * The change in velocity of each link per unit time, at the current links. <br>
+     * [X-acc of every link, Y-acc of every link], each linkStride long.
+     */
+    private final double[] linkAccelerations;
+
+    /**
+     * True if linkAccelerations and linkPotential belong to the current links.
+     */
+    private boolean linkAccelerationsCurrent;
+
+    /**
+     * The potential U at the current links.
+     */
+    private double linkPotential;
+
+    /**
+     * Scratch space for the position (then the velocity) of each particle relative to the first in the chain. <br>
+     * [X of every particle, Y of every particle], in chain order.
+     */
+    private final double[] offsets;
+
+    /**
+     * Scratch space for the offset of the center of mass from the first particle of the chain. <br>
+     * [X, Y]
+     */
+    private final double[] centerOffset;
+
+    /**
+     * Scratch space for the acceleration of each particle in the chain. <br>
+     * [X-acc of every particle, Y-acc of every particle], in chain order.
+     */
+    private final double[] particleAccelerations;
+
+    /**
+     * The position of the center of mass at centerTime. <br>
+     * [X-pos, Y-pos]
+     */
+    private final double[] centerPosition;
+
+    /**
+     * The velocity of the center of mass, which never changes. <br>
+     * [X-vel, Y-vel]
+     */
+    private final double[] centerVelocity;
+
+    /**
+     * The time of centerPosition.
+     */
+    private double centerTime;
+
+    /**
+     * The binding energy B = U - T, times G. Constant along the exact flow, so it is only measured at the start and after merges, which change it.
+     * Measuring it again whenever the chain is reordered would lock in the small error in energy at that moment, and the errors would add up.
+     */
+    private double binding;
+
+    /**
+     * The potential at the start of the first run, which scales fictitious time to seconds.
+     */
+    private double referencePotential;
+
+    /**
+     * The real time of the links.
+     */
+    private double time;
+
+    /**
+     * The real time at the start of the current step.
+     */
+    private double stepStartTime;
+
+    /**
+     * The real length of the drift in each stage of the last step, kept to replay onto the tangent.
+     */
+    private final double[] stageDriftTimes;
+
+    /**
+     * The real length of the kick in each stage of the last step, kept to replay onto the tangent.
+     */
+    private final double[] stageKickTimes;
+
+    /**
+     * The state at the kick in each stage of the last step, kept to replay onto the tangent.
+     */
+    private final double[][] stageStates;
+
+    /**
+     * The accelerations of every particle at the current state, owned by the integrator and handed to the frame handler with every frame.
+     */
+    private final double[] accelerations;
+
+    /**
+     * Scratch space for the state, for encounter detection.
+     */
+    private final double[] detectionState;
+
+    /**
+     * The number of steps taken since the integrator was built.
+     */
+    private long stepCount;
+
+    /**
+     * Creates a chain integrator for a set of differential equations.
+     *
+     * @param equations         The differential equations to integrate.
+     * @param driftCoefficients The drift coefficient of each stage, of a composition that starts with a kick, as in SymplecticIntegrator.
+     * @param kickCoefficients  The kick coefficient of each stage, of the same composition.
+     * @param settings          The settings of the run. Its step size is the length of a step in fictitious time, scaled to seconds at the start of the run.
+     */
+    ChainIntegrator(ParticleDifferentialEquations equations, double[] driftCoefficients, double[] kickCoefficients, IntegrationSettings settings) {
+        this.equations = equations;
+        this.particleCount = equations.getParticleCount();
+        this.linkStride = Math.max(1, particleCount - 1);
+        this.maxStepSize = settings.getStepSize();
+        // The logarithmic Hamiltonian leapfrog only follows a two-body orbit exactly when it starts with a drift, so drifts and kicks swap places.
+        this.driftCoefficients = kickCoefficients.clone();
+        this.kickCoefficients = new double[driftCoefficients.length];
+        System.arraycopy(driftCoefficients, 1, this.kickCoefficients, 0, driftCoefficients.length - 1);
+        this.chaosTracker = settings.getChaosIndicators() ? new ChaosTracker(equations) : null;
+        this.encounterDetectors = settings.getEncounterSettings().buildDetectors(equations);
+        this.chain = new int[particleCount];
+        this.chainParameters = new double[particleCount];
+        this.links = new double[4 * linkStride];
+        this.stepStartLinks = new double[4 * linkStride];
+        this.linkAccelerations = new double[2 * linkStride];
+        this.offsets = new double[2 * particleCount];
+        this.centerOffset = new double[2];
+        this.particleAccelerations = new double[2 * particleCount];
+        this.centerPosition = new double[2];
+        this.centerVelocity = new double[2];
+        this.referencePotential = Double.NaN;
+        this.stageDriftTimes = new double[driftCoefficients.length];
+        this.stageKickTimes = new double[driftCoefficients.length];
+        this.stageStates = new double[driftCoefficients.length][4 * particleCount];
+        this.accelerations = new double[2 * particleCount];
+        this.detectionState = new double[4 * particleCount];
+    }
+
+    /**
+     * Advances a state from one time to another, in place.
+     *
+     * @param startTime The time of the state.
+     * @param state     The state. Overwritten with the state at the end time.
+     * @param endTime   The time to advance to.
+     */
+    @Override
+    public void integrate(double startTime, double[] state, double endTime) {
+        equations.applyMerges(state);
+        start(startTime, state);
+        advance(endTime, null);
+        writeState(state);
+    }
+
+    /**
+     * Advances a state frame by frame until the frame handler asks to stop, carrying the chain from one frame to the next.
+     * With chaos indicators, the tangent is drifted and kicked alongside the state, by the real lengths of each drift and kick.
+     *
+     * @param startTime     The time of the state.
+     * @param state         The state. Overwritten with the state at each frame.
+     * @param frameInterval The simulation time between frames, in seconds.
+     * @param handler       The FrameHandler that receives every frame.
+     * @throws InterruptedException If the thread is interrupted while handling a frame.
+     */
+    @Override
+    public void integrateFrames(double startTime, double[] state, double frameInterval, FrameHandler handler) throws InterruptedException {
+        equations.applyMerges(state);
+        start(startTime, state);
+        if (chaosTracker != null) {
+            chaosTracker.start(startTime);
+        }
+        for (long frame = 1; ; frame++) {
+            // Frame times are counted from the start, rather than added up, so that they do not drift.
+            double frameTime = startTime + frame * frameInterval;
+            advance(frameTime, chaosTracker);
+            writeState(state);
+            equations.computeAccelerations(state, accelerations);
+            if (chaosTracker != null) {
+                chaosTracker.recordFrame(frameTime);
+            }
+            if (!handler.handleFrame(frameTime, state, accelerations)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of steps the integrator has taken, over every call since it was built. Steps retaken to land on a frame are counted once.
+     *
+     * @return The number of steps taken.
+     */
+    @Override
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Gets the chaos indicators at the frame being handled.
+     *
+     * @return The indicators, indexed by the ordinal of each ChaosIndicator, or null if the integrator was built without them.
+     */
+    @Override
+    public double[] getChaosIndicators() {
+        return chaosTracker == null ? null : chaosTracker.getIndicators();
+    }
+
+    /**
+     * Sets the handler that is told about every close encounter and collision.
+     *
+     * @param handler The handler, or null if nothing should be told.
+     */
+    @Override
+    public void setEncounterHandler(EncounterHandler handler) {
+        for (EncounterDetector detector : encounterDetectors) {
+            detector.setHandler(handler);
+        }
+    }
+
+    /**
+     * Starts integrating from a state: builds the chain, and starts checking for encounters.
+     *
+     * @param startTime The time of the state.
+     * @param state     The state.
+     */
+    private void start(double startTime, double[] state) {
+        time = startTime;
+        buildChain(state);
+        binding = computeLinkAccelerations() - computeKineticEnergy();
+        if (Double.isNaN(referencePotential)) {
+            // Fixed for the life of the integrator, so that a paused run carries on with the same steps.
+            referencePotential = linkPotential;
+        }
+        for (EncounterDetector detector : encounterDetectors) {
+            detector.startSteps(state);
+        }
+    }
+
+    /**
+     * Advances the links to a time, with regularized steps of the maximum step size, the last of which are shortened to land on the time exactly.
+     *
+     * @param endTime The time to advance to.
+     * @param tracker The tracker whose tangent is advanced alongside the state, or null if there is none.
+     */
+    private void advance(double endTime, ChaosTracker tracker) {
+        if (chainLength < 2) {
+            // A single particle, or everything merged into one, just drifts with the center of mass.
+            time = endTime;
+            return;
+        }
+        double direction = Math.signum(endTime - time);
+        double stepSize = direction * maxStepSize;
+        while (time != endTime) {
+            stepStartTime = time;
+            System.arraycopy(links, 0, stepStartLinks, 0, links.length);
+            // The real length of a full step here, as the kicks add up to a whole step.
+            double expectedDuration = maxStepSize * referencePotential / computeLinkAccelerations();
+            double remainingTime = (endTime - time) * direction;
+            if (remainingTime <= LANDING_FRACTION * expectedDuration) {
+                // Close enough that a step in real time, which lands exactly, is as accurate as a regularized one. Steps back if the last step passed the time.
+                step(endTime - time, false, tracker != null);
+                time = endTime;
+            } else {
+                // Real time runs at a nearly steady rate over a step, so a shortened step lands close to the time.
+                double trialStep = remainingTime < expectedDuration ? stepSize * remainingTime / expectedDuration : stepSize;
+                step(trialStep, true, tracker != null);
+                for (int iteration = 0; iteration < MAX_LANDING_ITERATIONS && (time - endTime) * direction > LANDING_FRACTION * expectedDuration; iteration++) {
+                    // Too far past the time to step back, so the step is shortened by the secant method and taken again.
+                    trialStep *= (endTime - stepStartTime) / (time - stepStartTime);
+                    System.arraycopy(stepStartLinks, 0, links, 0, links.length);
+                    linkAccelerationsCurrent = false;
+                    time = stepStartTime;
+                    step(trialStep, true, tracker != null);
+                }
+            }
+            stepCount++;
+            finishStep(tracker);
+        }
+
+        // Unlike the adaptive integrator, a fixed step will happily step through a singularity, so check that the result is still a number.
+        for (double value : links) {
+            if (!Double.isFinite(value)) {
+                throw new NumberIsTooLargeException(value, Double.MAX_VALUE, true);
+            }
+        }
+    }
+
+    /**
+     * Finishes a step that has been taken: replays it onto the tangent, checks for encounters, and rebuilds the chain if its order is out of date.
+     *
+     * @param tracker The tracker whose tangent is advanced alongside the state, or null if there is none.
+     */
+    private void finishStep(ChaosTracker tracker) {
+        if (tracker != null) {
+            for (int stage = 0; stage < driftCoefficients.length; stage++) {
+                if (driftCoefficients[stage] != 0) {
+                    tracker.drift(stageDriftTimes[stage]);
+                }
+                if (kickCoefficients[stage] != 0) {
+                    tracker.kick(stageStates[stage], stageKickTimes[stage], true);
+                }
+            }
+            tracker.finishStep(time, time - stepStartTime);
+        }
+        if (encounterDetectors.length != 0) {
+            writeState(detectionState);
+            boolean merged = false;
+            for (EncounterDetector detector : encounterDetectors) {
+                if (detector.checkStep(time, detectionState)) {
+                    merged = true;
+                }
+            }
+            if (merged) {
+                // Merged particles leave the chain, and the merged particle moves and changes mass.
+                buildChain(detectionState);
+                binding = computeLinkAccelerations() - computeKineticEnergy();
+                return;
+            }
+        }
+        if (isChainOutOfOrder()) {
+            writeState(detectionState);
+            buildChain(detectionState);
+        }
+    }
+
+    /**
+     * Takes one step of the logarithmic Hamiltonian leapfrog composition, or of the ordinary leapfrog composition in real time.
+     *
+     * @param stepSize    The length of the step, in fictitious time if regularized, and in seconds otherwise.
+     * @param regularized True if the step is taken in fictitious time.
+     * @param record      True if the real length of every drift and kick, and the state at every kick, are kept for the tangent.
+     */
+    private void step(double stepSize, boolean regularized, boolean record) {
+        int linkCount = chainLength - 1;
+        for (int stage = 0; stage < driftCoefficients.length; stage++) {
+            if (driftCoefficients[stage] != 0) {
+                double drift = driftCoefficients[stage] * stepSize;
+                if (regularized) {
+                    double kineticRate = computeKineticEnergy() + binding;
+                    // Along the exact flow T + B = U, which is always positive. Far from it, the potential is used instead, as in a time-transformed leapfrog.
+                    if (!(kineticRate > 0)) {
+                        kineticRate = computeLinkAccelerations();
+                    }
+                    drift *= referencePotential / kineticRate;
+                }
+                for (int k = 0; k < linkCount; k++) {
+                    links[k] += drift * links[2 * linkStride + k];
+                    links[linkStride + k] += drift * links[3 * linkStride + k];
+                }
+                time += drift;
+                linkAccelerationsCurrent = false;
+                if (record) {
+                    stageDriftTimes[stage] = drift;
+                }
+            }
+            if (kickCoefficients[stage] != 0) {
+                double kick = kickCoefficients[stage] * stepSize;
+                double potential = computeLinkAccelerations();
+                if (regularized) {
+                    kick *= referencePotential / potential;
+                }
+                for (int k = 0; k < linkCount; k++) {
+                    links[2 * linkStride + k] += kick * linkAccelerations[k];
+                    links[3 * linkStride + k] += kick * linkAccelerations[linkStride + k];
+                }
+                if (record) {
+                    stageKickTimes[stage] = kick;
+                    writeState(stageStates[stage]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the chain from a state: the particles that have not been merged, ordered so that each is joined to its nearest neighbors.
+     * Also fixes the center of mass.
+     *
+     * @param state The state, in the layout used by ParticleDifferentialEquations.
+     */
+    private void buildChain(double[] state) {
+        chainLength = 0;
+        int[] active = new int[particleCount];
+        int activeCount = 0;
+        for (int particle = 0; particle < particleCount; particle++) {
+            if (!equations.isMerged(particle)) {
+                active[activeCount++] = particle;
+            }
+        }
+        orderChain(active, activeCount, (first, second) -> {
+            double xDistance = state[second] - state[first];
+            double yDistance = state[particleCount + second] - state[particleCount + first];
+            return xDistance * xDistance + yDistance * yDistance;
+        }, chain);
+        chainLength = activeCount;
+
+        totalParameter = 0;
+        Arrays.fill(centerPosition, 0);
+        Arrays.fill(centerVelocity, 0);
+        for (int k = 0; k < chainLength; k++) {
+            int particle = chain[k];
+            chainParameters[k] = equations.getGravitationalParameter(particle);
+            totalParameter += chainParameters[k];
+            for (int axis = 0; axis < 2; axis++) {
+                centerPosition[axis] += chainParameters[k] * state[axis * particleCount + particle];
+                centerVelocity[axis] += chainParameters[k] * state[(2 + axis) * particleCount + particle];
+            }
+        }
+        for (int axis = 0; axis < 2; axis++) {
+            centerPosition[axis] /= totalParameter;
+            centerVelocity[axis] /= totalParameter;
+        }
+        centerTime = time;
+
+        for (int k = 0; k < chainLength - 1; k++) {
+            for (int component = 0; component < 4; component++) {
+                links[component * linkStride + k] = state[component * particleCount + chain[k + 1]] - state[component * particleCount + chain[k]];
+            }
+        }
+        linkAccelerationsCurrent = false;
+    }
+
+    /**
+     * Checks whether the chain should be rebuilt, because a pair of particles is no longer joined as closely as the chain order would join them.
+     *
+     * @return True if the order of the chain differs from the order it would be built in now.
+     */
+    private boolean isChainOutOfOrder() {
+        if (chainLength < 3) {
+            return false;
+        }
+        int[] positions = new int[chainLength];
+        for (int k = 0; k < chainLength; k++) {
+            positions[k] = k;
+        }
+        int[] order = new int[chainLength];
+        orderChain(positions, chainLength, this::getSquaredChainDistance, order);
+        // A chain read backwards is the same chain.
+        boolean forwards = true;
+        boolean backwards = true;
+        for (int k = 0; k < chainLength; k++) {
+            forwards &= order[k] == k;
+            backwards &= order[k] == chainLength - 1 - k;
+        }
+        return !(forwards || backwards);
+    }
+
+    /**
+     * Orders particles into a chain: starting from the closest pair, the nearest remaining particle is joined to either end until none remain.
+     *
+     * @param particles The particles to order.
+     * @param count     The number of particles.
+     * @param distances The squared distance between two particles.
+     * @param order     The array the particles are written into, in chain order.
+     */
+    private static void orderChain(int[] particles, int count, PairDistance distances, int[] order) {
+        if (count < 2) {
+            System.arraycopy(particles, 0, order, 0, count);
+            return;
+        }
+        boolean[] joined = new boolean[count];
+        int closestFirst = 0;
+        int closestSecond = 1;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                double distance = distances.get(particles[i], particles[j]);
+                if (distance < closestDistance) {
+                    closestDistance = distance;
+                    closestFirst = i;
+                    closestSecond = j;
+                }
+            }
+        }
+
+        // The chain grows from the middle of the array outwards, so that either end can be extended.
+        int[] ends = new int[2 * count];
+        int head = count;
+        int tail = count + 1;
+        ends[head] = closestFirst;
+        ends[tail] = closestSecond;
+        joined[closestFirst] = true;
+        joined[closestSecond] = true;
+        for (int added = 2; added < count; added++) {
+            int nearest = -1;
+            boolean atHead = false;
+            double nearestDistance = Double.POSITIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                if (joined[i]) {
+                    continue;
+                }
+                double headDistance = distances.get(particles[ends[head]], particles[i]);
+                double tailDistance = distances.get(particles[ends[tail]], particles[i]);
+                if (Math.min(headDistance, tailDistance) < nearestDistance) {
+                    nearestDistance = Math.min(headDistance, tailDistance);
+                    nearest = i;
+                    atHead = headDistance < tailDistance;
+                }
+            }
+            joined[nearest] = true;
+            if (atHead) {
+                ends[--head] = nearest;
+            } else {
+                ends[++tail] = nearest;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            order[k] = particles[ends[head + k]];
+        }
+    }
+
+    /**
+     * Gets the squared distance between two particles of the chain, from the links between them.
+     *
+     * @param first  The position of the first particle in the chain.
+     * @param second The position of the second particle in the chain.
+     * @return The squared distance, in km^2.
+     */
+    private double getSquaredChainDistance(int first, int second) {
+        int start = Math.min(first, second);
+        int end = Math.max(first, second);
+        double xDistance = 0;
+        double yDistance = 0;
+        for (int k = start; k < end; k++) {
+            xDistance += links[k];
+            yDistance += links[linkStride + k];
+        }
+        return xDistance * xDistance + yDistance * yDistance;
+    }
+
+    /**
+     * Calculates the relative accelerations of the links, and the potential, at the current links. Reuses them if the links have not moved.
+     * Pairs joined by a link use the link itself as their separation, so a close pair is never found as the difference of two large positions.
+     *
+     * @return The potential U, times G.
+     */
+    private double computeLinkAccelerations() {
+        if (linkAccelerationsCurrent) {
+            return linkPotential;
+        }
+        computeOffsets(0);
+        Arrays.fill(particleAccelerations, 0);
+        double potential = 0;
+        for (int a = 0; a < chainLength; a++) {
+            for (int b = a + 1; b < chainLength; b++) {
+                double xDistance;
+                double yDistance;
+                if (b == a + 1) {
+                    xDistance = links[a];
+                    yDistance = links[linkStride + a];
+                } else {
+                    xDistance = offsets[b] - offsets[a];
+                    yDistance = offsets[particleCount + b] - offsets[particleCount + a];
+                }
+                double squaredDistance = xDistance * xDistance + yDistance * yDistance;
+                double distance = Math.sqrt(squaredDistance);
+                double inverseCube = 1 / (squaredDistance * distance);
+                particleAccelerations[a] += chainParameters[b] * xDistance * inverseCube;
+                particleAccelerations[particleCount + a] += chainParameters[b] * yDistance * inverseCube;
+                particleAccelerations[b] -= chainParameters[a] * xDistance * inverseCube;
+                particleAccelerations[particleCount + b] -= chainParameters[a] * yDistance * inverseCube;
+                potential += chainParameters[a] * chainParameters[b] / distance;
+            }
+        }
+        for (int k = 0; k < chainLength - 1; k++) {
+            linkAccelerations[k] = particleAccelerations[k + 1] - particleAccelerations[k];
+            linkAccelerations[linkStride + k] = particleAccelerations[particleCount + k + 1] - particleAccelerations[particleCount + k];
+        }
+        equations.countEvaluation();
+        linkPotential = potential;
+        linkAccelerationsCurrent = true;
+        return potential;
+    }
+
+    /**
+     * Calculates the kinetic energy of the chain relative to its center of mass, from the velocities of the links.
+     *
+     * @return The kinetic energy T, times G.
+     */
+    private double computeKineticEnergy() {
+        computeOffsets(2);
+        computeCenterOffset();
+        double kineticEnergy = 0;
+        for (int k = 0; k < chainLength; k++) {
+            double xVelocity = offsets[k] - centerOffset[0];
+            double yVelocity = offsets[particleCount + k] - centerOffset[1];
+            kineticEnergy += 0.5 * chainParameters[k] * (xVelocity * xVelocity + yVelocity * yVelocity);
+        }
+        return kineticEnergy;
+    }
+
+    /**
+     * Adds up the links into offsets from the first particle of the chain.
+     *
+     * @param component 0 to add up positions, 2 to add up velocities.
+     */
+    private void computeOffsets(int component) {
+        offsets[0] = 0;
+        offsets[particleCount] = 0;
+        for (int k = 0; k < chainLength - 1; k++) {
+            offsets[k + 1] = offsets[k] + links[component * linkStride + k];
+            offsets[particleCount + k + 1] = offsets[particleCount + k] + links[(component + 1) * linkStride + k];
+        }
+    }
+
+    /**
+     * Finds the center of mass of the offsets, and stores it in centerOffset.
+     */
+    private void computeCenterOffset() {
+        centerOffset[0] = 0;
+        centerOffset[1] = 0;
+        for (int k = 0; k < chainLength; k++) {
+            centerOffset[0] += chainParameters[k] * offsets[k];
+            centerOffset[1] += chainParameters[k] * offsets[particleCount + k];
+        }
+        centerOffset[0] /= totalParameter;
+        centerOffset[1] /= totalParameter;
+    }
+
+    /**
+     * Writes the current links out as a state, with merged particles on top of the particles they were merged into.
+     *
+     * @param state The array the state is written into, in the layout used by ParticleDifferentialEquations.
+     */
+    private void writeState(double[] state) {
+        for (int component = 0; component < 4; component += 2) {
+            computeOffsets(component);
+            computeCenterOffset();
+            for (int axis = 0; axis < 2; axis++) {
+                // The center of mass moves in a straight line.
+                double center = component == 0 ? centerPosition[axis] + centerVelocity[axis] * (time - centerTime) : centerVelocity[axis];
+                for (int k = 0; k < chainLength; k++) {
+                    state[(component + axis) * particleCount + chain[k]] = center + offsets[axis * particleCount + k] - centerOffset[axis];
+                }
+            }
+        }
+        for (int particle = 0; particle < particleCount; particle++) {
+            if (equations.isMerged(particle)) {
+                for (int component = 0; component < 4; component++) {
+                    state[component * particleCount + particle] = state[component * particleCount + equations.getHost(particle)];
+                }
+            }
+        }
+    }
+
+    /**
+     * The squared distance between two particles, however it is found.
+     */
+    private interface PairDistance {
+
+        /**
+         * Gets the squared distance between two particles.
+         *
+         * @param first  The first particle.
+         * @param second The second particle.
+         * @return The squared distance, in km^2.
+         */
+        double get(int first, int second);
+    }
+}
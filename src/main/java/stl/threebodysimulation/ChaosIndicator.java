@@ -0,0 +1,60 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that represents all indicators of chaos that can be measured from the variational equations.
+ * <p>
+ * Each indicator is calculated from three running integrals of the growth rate s of a tangent vector, taken from the start time t0 of the measurement:
+ * the log growth L = integral of s dt, the weighted growth W = integral of s (t - t0) dt, and the MEGNO integral Z = integral of Y dt, where Y is the MEGNO.
+ */
+enum ChaosIndicator {
+    /**
+     * The maximal Lyapunov exponent, L / (t - t0), in 1/s. Tends to 0 for regular orbits, and to a positive rate for chaotic ones.
+     */
+    LYAPUNOV_EXPONENT {
+        @Override
+        double compute(double logGrowth, double weightedGrowth, double megnoIntegral, double elapsedTime) {
+            return logGrowth / elapsedTime;
+        }
+
+        public String toString() {
+            return "Lyapunov Exponent";
+        }
+    },
+    /**
+     * The Mean Exponential Growth factor of Nearby Orbits, 2W / (t - t0). Oscillates around 2 for quasi-periodic orbits, and grows linearly for chaotic ones.
+     */
+    MEGNO {
+        @Override
+        double compute(double logGrowth, double weightedGrowth, double megnoIntegral, double elapsedTime) {
+            return 2 * weightedGrowth / elapsedTime;
+        }
+
+        public String toString() {
+            return "MEGNO";
+        }
+    },
+    /**
+     * The time average of the MEGNO, Z / (t - t0). Smoother than the MEGNO itself: tends to 2 for quasi-periodic orbits, 0 for stable periodic ones, and grows for chaotic ones.
+     */
+    MEAN_MEGNO {
+        @Override
+        double compute(double logGrowth, double weightedGrowth, double megnoIntegral, double elapsedTime) {
+            return megnoIntegral / elapsedTime;
+        }
+
+        public String toString() {
+            return "Mean MEGNO";
+        }
+    };
+
+    /**
+     * Calculates the value of this indicator from the running integrals.
+     *
+     * @param logGrowth      The log growth of the tangent vector, L.
+     * @param weightedGrowth The time-weighted growth of the tangent vector, W.
+     * @param megnoIntegral  The integral of the MEGNO, Z.
+     * @param elapsedTime    The time since the start of the measurement, t - t0, in seconds.
+     * @return The value of the indicator.
+     */
+    abstract double compute(double logGrowth, double weightedGrowth, double megnoIntegral, double elapsedTime);
+}
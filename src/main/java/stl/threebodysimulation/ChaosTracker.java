@@ -0,0 +1,267 @@
+package stl.threebodysimulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A class that follows a tangent vector alongside a simulation, and measures chaos indicators from how fast it grows.
+ * <p>
+ * Integrators own a tracker when they are built with chaos indicators. Adaptive integrators carry the tangent in the extended state of VariationalEquations,
+ * while symplectic integrators drift and kick it alongside the state, and the Bulirsch-Stoer integrator extrapolates it alongside the state. Both renormalize it after every step.
+ * <p>
+ * A run that is paused resumes from a frame on display, which is behind the newest frame the integrator reached.
+ * The tracker keeps the tangent of recent frames, so that a measurement resumed from any of them carries on exactly where it left off.
+ */
+class ChaosTracker {
+
+    /**
+     * The number of recent frames whose tangent is kept. More than the frame buffer of the canvas can hold ahead of the display.
+     */
+    private static final int HISTORY_LENGTH = 64;
+
+    /**
+     * The seed of the initial direction of the tangent, fixed so that runs are repeatable.
+     */
+    private static final long TANGENT_SEED = 0;
+
+    /**
+     * The differential equations of the state.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The length of a state, and of the tangent.
+     */
+    private final int stateDimension;
+
+    /**
+     * The tangent vector, in the same layout as the state.
+     */
+    private final double[] tangent;
+
+    /**
+     * Scratch space for the change in accelerations along the tangent, for symplectic kicks.
+     */
+    private final double[] tangentAccelerations;
+
+    /**
+     * The value of each indicator at the last frame recorded, indexed by the ordinal of each ChaosIndicator.
+     */
+    private final double[] indicators;
+
+    /**
+     * The time of each frame in the history.
+     */
+    private final double[] historyTimes;
+
+    /**
+     * The tangent and running integrals of each frame in the history, followed by the start time of its measurement.
+     */
+    private final double[][] history;
+
+    /**
+     * The number of frames recorded since the tracker was built.
+     */
+    private long historyCount;
+
+    /**
+     * The time the measurement started from, t0.
+     */
+    private double startTime;
+
+    /**
+     * The log growth of the tangent, L.
+     */
+    private double logGrowth;
+
+    /**
+     * The time-weighted growth of the tangent, W.
+     */
+    private double weightedGrowth;
+
+    /**
+     * The integral of the MEGNO, Z.
+     */
+    private double megnoIntegral;
+
+    /**
+     * Creates a tracker for a set of differential equations.
+     *
+     * @param equations The differential equations of the state.
+     */
+    ChaosTracker(ParticleDifferentialEquations equations) {
+        this.equations = equations;
+        this.stateDimension = equations.getDimension();
+        this.tangent = new double[stateDimension];
+        this.tangentAccelerations = new double[stateDimension / 2];
+        this.indicators = new double[ChaosIndicator.values().length];
+        this.historyTimes = new double[HISTORY_LENGTH];
+        this.history = new double[HISTORY_LENGTH][stateDimension + VariationalEquations.INTEGRAL_COUNT + 1];
+    }
+
+    /**
+     * Starts or resumes a measurement. If a frame at the given time was recorded recently, the measurement carries on from it, and otherwise a new one starts.
+     *
+     * @param time The time of the state that the integrator starts from.
+     */
+    void start(double time) {
+        for (long frame = historyCount - 1; frame >= Math.max(0, historyCount - HISTORY_LENGTH); frame--) {
+            int slot = (int) (frame % HISTORY_LENGTH);
+            if (historyTimes[slot] == time) {
+                double[] snapshot = history[slot];
+                System.arraycopy(snapshot, 0, tangent, 0, stateDimension);
+                logGrowth = snapshot[stateDimension];
+                weightedGrowth = snapshot[stateDimension + 1];
+                megnoIntegral = snapshot[stateDimension + 2];
+                startTime = snapshot[stateDimension + 3];
+                return;
+            }
+        }
+
+        // Almost any direction will do, as the tangent soon turns towards the fastest growing one.
+        // Equal components would move every particle together, which gravity never pulls apart, so the direction is drawn at random from a fixed seed instead.
+        Random random = new Random(TANGENT_SEED);
+        double squaredLength = 0;
+        for (int i = 0; i < stateDimension; i++) {
+            tangent[i] = random.nextGaussian();
+            squaredLength += tangent[i] * tangent[i];
+        }
+        double length = Math.sqrt(squaredLength);
+        for (int i = 0; i < stateDimension; i++) {
+            tangent[i] /= length;
+        }
+        logGrowth = 0;
+        weightedGrowth = 0;
+        megnoIntegral = 0;
+        startTime = time;
+        // Nothing has been measured yet.
+        Arrays.fill(indicators, Double.NaN);
+    }
+
+    /**
+     * Gets the time the measurement started from.
+     *
+     * @return The start time, t0.
+     */
+    double getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets the value of each indicator at the last frame recorded.
+     *
+     * @return The indicators, indexed by the ordinal of each ChaosIndicator. NaN before the first frame. Owned by the tracker and overwritten at every frame.
+     */
+    double[] getIndicators() {
+        return indicators;
+    }
+
+    /**
+     * Gets the tangent, for integrators that advance it themselves.
+     *
+     * @return The tangent, in the same layout as the state. Owned by the tracker, and advanced in place.
+     */
+    double[] getTangent() {
+        return tangent;
+    }
+
+    /**
+     * Copies the tangent and running integrals into an extended state of VariationalEquations.
+     *
+     * @param extendedState The extended state. The state at its front is left alone.
+     */
+    void writeExtendedState(double[] extendedState) {
+        System.arraycopy(tangent, 0, extendedState, stateDimension, stateDimension);
+        extendedState[2 * stateDimension] = logGrowth;
+        extendedState[2 * stateDimension + 1] = weightedGrowth;
+        extendedState[2 * stateDimension + 2] = megnoIntegral;
+    }
+
+    /**
+     * Reads the tangent and running integrals of a frame from an extended state of VariationalEquations, and records the frame.
+     *
+     * @param time          The time of the frame.
+     * @param extendedState The extended state at the frame.
+     */
+    void readExtendedState(double time, double[] extendedState) {
+        System.arraycopy(extendedState, stateDimension, tangent, 0, stateDimension);
+        logGrowth = extendedState[2 * stateDimension];
+        weightedGrowth = extendedState[2 * stateDimension + 1];
+        megnoIntegral = extendedState[2 * stateDimension + 2];
+        recordFrame(time);
+    }
+
+    /**
+     * Moves the tangent along its velocities, alongside a symplectic drift of the state.
+     *
+     * @param time The length of the drift, in seconds.
+     */
+    void drift(double time) {
+        int velocityOffset = stateDimension / 2;
+        for (int i = 0; i < velocityOffset; i++) {
+            tangent[i] += time * tangent[velocityOffset + i];
+        }
+    }
+
+    /**
+     * Changes the velocities of the tangent by the Jacobian of the accelerations, alongside a symplectic kick of the state.
+     *
+     * @param state          The state being kicked. Only the positions are read.
+     * @param time           The length of the kick, in seconds.
+     * @param positionsMoved True if the state or the tangent has drifted since the last kick, so the change in accelerations must be recalculated.
+     */
+    void kick(double[] state, double time, boolean positionsMoved) {
+        if (positionsMoved) {
+            equations.computeTangentAccelerations(state, tangent, 0, tangentAccelerations, 0);
+        }
+        int velocityOffset = stateDimension / 2;
+        for (int i = 0; i < velocityOffset; i++) {
+            tangent[velocityOffset + i] += time * tangentAccelerations[i];
+        }
+    }
+
+    /**
+     * Renormalizes the tangent at the end of a symplectic step, and adds its growth over the step to the running integrals.
+     *
+     * @param time     The time at the end of the step.
+     * @param stepSize The length of the step, in seconds.
+     */
+    void finishStep(double time, double stepSize) {
+        double squaredLength = 0;
+        for (double component : tangent) {
+            squaredLength += component * component;
+        }
+        double length = Math.sqrt(squaredLength);
+        for (int i = 0; i < stateDimension; i++) {
+            tangent[i] /= length;
+        }
+
+        // The growth over the step is taken to happen at its midpoint.
+        double stepGrowth = Math.log(length);
+        logGrowth += stepGrowth;
+        weightedGrowth += stepGrowth * (time - stepSize / 2 - startTime);
+        megnoIntegral += 2 * weightedGrowth / (time - startTime) * stepSize;
+    }
+
+    /**
+     * Records a frame: updates the indicators, and keeps the tangent in the history so the measurement can resume from the frame.
+     *
+     * @param time The time of the frame.
+     */
+    void recordFrame(double time) {
+        double elapsedTime = time - startTime;
+        for (ChaosIndicator indicator : ChaosIndicator.values()) {
+            indicators[indicator.ordinal()] = indicator.compute(logGrowth, weightedGrowth, megnoIntegral, elapsedTime);
+        }
+
+        int slot = (int) (historyCount % HISTORY_LENGTH);
+        historyTimes[slot] = time;
+        double[] snapshot = history[slot];
+        System.arraycopy(tangent, 0, snapshot, 0, stateDimension);
+        snapshot[stateDimension] = logGrowth;
+        snapshot[stateDimension + 1] = weightedGrowth;
+        snapshot[stateDimension + 2] = megnoIntegral;
+        snapshot[stateDimension + 3] = startTime;
+        historyCount++;
+    }
+}
@@ -0,0 +1,306 @@
+package stl.threebodysimulation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A cache of states along the time skip of a simulation, so that a run that skips far ahead does not integrate all the way from time 0 every time.
+ * <p>
+ * Every run with the same masses, initial state and integration settings follows the same path, so the state is saved at every multiple of CHECKPOINT_INTERVAL that the skip passes.
+ * A later run of the same simulation resumes from the last checkpoint before its skip. The skip is always integrated in pieces that end on checkpoint times,
+ * whether a checkpoint was found or not, so a resumed run lands on exactly the state that a run from time 0 would.
+ * The exceptions are the Bulirsch-Stoer and algorithmic chain integrators, which carry their step sizes over from piece to piece,
+ * and so land on a state that differs by their own error instead.
+ * <p>
+ * Each simulation has its own file, named after a hash of everything that decides its path. When the files grow past MAX_CACHE_SIZE in total,
+ * the least recently used are deleted first.
+ */
+class CheckpointCache {
+
+    /**
+     * The simulation time between checkpoints, in seconds.
+     */
+    private static final double CHECKPOINT_INTERVAL = 100;
+
+    /**
+     * The longest simulation time between two reports of progress, in seconds.
+     */
+    private static final double PROGRESS_INTERVAL = 1;
+
+    /**
+     * The most space that checkpoint files may take up together, in bytes.
+     */
+    private static final long MAX_CACHE_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * The directory that stores checkpoint files.
+     */
+    private final Path directory;
+
+    /**
+     * The file of the simulation being skipped.
+     */
+    private final Path filePath;
+
+    /**
+     * Describes everything that decides the path of the simulation, so that a file is only resumed by the same simulation, even if two hashes collide.
+     */
+    private final String description;
+
+    /**
+     * The number of particles in the simulation.
+     */
+    private final int particleCount;
+
+    /**
+     * The saved states, keyed by their time in multiples of CHECKPOINT_INTERVAL. Negative for skips back in time.
+     */
+    private final Map<Integer, double[]> states = new HashMap<>();
+
+    /**
+     * The particle each particle had been merged into at each saved state, keyed like the states.
+     */
+    private final Map<Integer, int[]> hosts = new HashMap<>();
+
+    /**
+     * Creates a cache for one simulation.
+     *
+     * @param directoryName The directory that stores checkpoint files.
+     * @param masses        The masses of the particles.
+     * @param initialState  The state of the particles at time 0.
+     * @param settings      The integration settings of the simulation.
+     */
+    CheckpointCache(String directoryName, double[] masses, double[] initialState, IntegrationSettings settings) {
+        directory = Paths.get(directoryName);
+        particleCount = masses.length;
+        description = describe(masses, initialState, settings);
+        filePath = directory.resolve(hash(description) + SceneFXMLController.CHECKPOINT_EXTENSION_NAME);
+    }
+
+    /**
+     * Describes everything that decides the path of a simulation. Close encounters are only reported, so their radius is left out.
+     *
+     * @param masses       The masses of the particles.
+     * @param initialState The state of the particles at time 0.
+     * @param settings     The integration settings of the simulation.
+     * @return A description of the simulation.
+     */
+    private static String describe(double[] masses, double[] initialState, IntegrationSettings settings) {
+        StringBuilder description = new StringBuilder();
+        description.append("Masses: ").append(Arrays.toString(masses)).append(System.lineSeparator());
+        description.append("State: ").append(Arrays.toString(initialState)).append(System.lineSeparator());
+        description.append("Integrator: ").append(settings.getIntegratorType()).append(", step size ").append(settings.getStepSize())
+                .append(", regularized ").append(settings.getRegularized()).append(System.lineSeparator());
+        description.append("Force model: ").append(settings.getForceModel()).append(", opening angle ").append(settings.getOpeningAngle()).append(System.lineSeparator());
+        description.append("Collisions: ").append(settings.getEncounterSettings().getCollisionRadius()).append(" km, ")
+                .append(settings.getEncounterSettings().getCollisionResponse()).append(System.lineSeparator());
+        description.append("Checkpoint interval: ").append(CHECKPOINT_INTERVAL).append(", progress interval ").append(PROGRESS_INTERVAL).append(System.lineSeparator());
+        return description.toString();
+    }
+
+    /**
+     * Hashes a description into a name for its file.
+     *
+     * @param description The description of a simulation.
+     * @return The SHA-256 hash of the description, in hexadecimal.
+     */
+    private static String hash(String description) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(description.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Should never occur, as every Java platform supports SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Advances the state of the simulation from time 0 to the skip, resuming from the last checkpoint on the way if there is one.
+     * Any checkpoints passed are saved, even if the integration fails or is abandoned partway.
+     *
+     * @param integrator      The integrator of the simulation.
+     * @param equations       The differential equations of the simulation. Given the merges of the checkpoint resumed from.
+     * @param state           The state at time 0. Overwritten with the state at the skip.
+     * @param skip            The time to skip to, in seconds. May be negative.
+     * @param progressHandler The ProgressHandler that is told the time the skip starts from, and every time it reaches after that.
+     * @throws InterruptedException If the progress handler abandons the skip.
+     */
+    void skip(SimulationIntegrator integrator, ParticleDifferentialEquations equations, double[] state, double skip, ProgressHandler progressHandler) throws InterruptedException {
+        int direction = skip > 0 ? 1 : -1;
+        int lastCheckpoint = (int) Math.floor(Math.abs(skip) / CHECKPOINT_INTERVAL);
+        // A checkpoint on the skip itself is the end of the skip, so the last piece is never empty.
+        if (lastCheckpoint * CHECKPOINT_INTERVAL == Math.abs(skip)) {
+            lastCheckpoint--;
+        }
+
+        boolean loaded = load();
+        int checkpoint = lastCheckpoint;
+        while (checkpoint > 0 && !states.containsKey(direction * checkpoint)) {
+            checkpoint--;
+        }
+        if (checkpoint > 0) {
+            System.arraycopy(states.get(direction * checkpoint), 0, state, 0, state.length);
+            equations.restoreMerges(hosts.get(direction * checkpoint));
+        }
+
+        boolean changed = false;
+        try {
+            double time = direction * checkpoint * CHECKPOINT_INTERVAL;
+            progressHandler.handleProgress(time);
+            while (checkpoint < lastCheckpoint) {
+                checkpoint++;
+                double checkpointTime = direction * checkpoint * CHECKPOINT_INTERVAL;
+                advance(integrator, state, time, checkpointTime, progressHandler);
+                time = checkpointTime;
+
+                int[] checkpointHosts = new int[particleCount];
+                for (int particle = 0; particle < particleCount; particle++) {
+                    checkpointHosts[particle] = equations.getHost(particle);
+                }
+                states.put(direction * checkpoint, state.clone());
+                hosts.put(direction * checkpoint, checkpointHosts);
+                changed = true;
+            }
+            advance(integrator, state, time, skip, progressHandler);
+        } finally {
+            // The cache only saves time, so a run never fails because it cannot be used.
+            try {
+                Files.createDirectories(directory);
+                if (changed) {
+                    save();
+                } else if (loaded) {
+                    // Mark the file as recently used.
+                    Files.setLastModifiedTime(filePath, FileTime.fromMillis(System.currentTimeMillis()));
+                }
+                evict();
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Advances a state from one time to another, in frames no longer than PROGRESS_INTERVAL, so that progress is reported as it goes.
+     *
+     * @param integrator      The integrator of the simulation.
+     * @param state           The state. Overwritten with the state at the end time.
+     * @param startTime       The time of the state.
+     * @param endTime         The time to advance to.
+     * @param progressHandler The ProgressHandler that is told the time of every frame.
+     * @throws InterruptedException If the progress handler abandons the skip.
+     */
+    private static void advance(SimulationIntegrator integrator, double[] state, double startTime, double endTime, ProgressHandler progressHandler) throws InterruptedException {
+        int frameCount = (int) Math.ceil(Math.abs(endTime - startTime) / PROGRESS_INTERVAL);
+        double frameInterval = (endTime - startTime) / frameCount;
+        integrator.integrateFrames(startTime, state, frameInterval, (time, frameState, accelerations) -> {
+            progressHandler.handleProgress(time);
+            // Stop at the frame closest to the end time, which is the end time up to rounding.
+            return Math.abs(endTime - time) > Math.abs(frameInterval) / 2;
+        });
+    }
+
+    /**
+     * Loads the checkpoints of the simulation, if it has a file.
+     *
+     * @return True if the checkpoints were loaded, false if there is no file for the simulation, or it could not be read.
+     */
+    private boolean load() {
+        if (!Files.exists(filePath)) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath)))) {
+            byte[] fileDescription = new byte[input.readInt()];
+            input.readFully(fileDescription);
+            if (!new String(fileDescription, StandardCharsets.UTF_8).equals(description)) {
+                // Two simulations share a hash. The file is left for the other one.
+                return false;
+            }
+            int checkpointCount = input.readInt();
+            for (int index = 0; index < checkpointCount; index++) {
+                int checkpoint = input.readInt();
+                int[] checkpointHosts = new int[particleCount];
+                for (int particle = 0; particle < particleCount; particle++) {
+                    checkpointHosts[particle] = input.readInt();
+                }
+                double[] checkpointState = new double[4 * particleCount];
+                for (int i = 0; i < checkpointState.length; i++) {
+                    checkpointState[i] = input.readDouble();
+                }
+                states.put(checkpoint, checkpointState);
+                hosts.put(checkpoint, checkpointHosts);
+            }
+        } catch (IOException e) {
+            // A damaged file is ignored, and replaced by the next save.
+            System.out.println(e.getMessage());
+            states.clear();
+            hosts.clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Saves every checkpoint of the simulation. The file only appears once it is complete, so a crash midway never leaves a partial file behind.
+     *
+     * @throws IOException If the file cannot be saved.
+     */
+    private void save() throws IOException {
+        Path temporaryPath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+            byte[] fileDescription = description.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(fileDescription.length);
+            output.write(fileDescription);
+            output.writeInt(states.size());
+            for (Map.Entry<Integer, double[]> entry : states.entrySet()) {
+                output.writeInt(entry.getKey());
+                for (int host : hosts.get(entry.getKey())) {
+                    output.writeInt(host);
+                }
+                for (double value : entry.getValue()) {
+                    output.writeDouble(value);
+                }
+            }
+        }
+        Files.move(temporaryPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the least recently used checkpoint files until the rest fit within MAX_CACHE_SIZE. The file of this simulation is always kept.
+     */
+    private void evict() {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(SceneFXMLController.CHECKPOINT_EXTENSION_NAME));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        long totalSize = 0;
+        for (File file : files) {
+            totalSize += file.length();
+            if (totalSize > MAX_CACHE_SIZE && !file.toPath().equals(filePath)) {
+                totalSize -= file.length();
+                //noinspection ResultOfMethodCallIgnored : a file that cannot be deleted is tried again after the next skip.
+                file.delete();
+            }
+        }
+    }
+}
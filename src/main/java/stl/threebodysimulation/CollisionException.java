@@ -0,0 +1,23 @@
+package stl.threebodysimulation;
+
+/**
+ * Thrown by an integrator when two particles collide, and the simulation is set to stop at collisions.
+ */
+class CollisionException extends RuntimeException {
+
+    /**
+     * Throwables are Serializable. This one is caught where the simulation runs, and never leaves the app.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an exception for a collision.
+     *
+     * @param time           The time of the collision, in seconds.
+     * @param firstParticle  The index of the first particle, starting from 0.
+     * @param secondParticle The index of the second particle, starting from 0.
+     */
+    CollisionException(double time, int firstParticle, int secondParticle) {
+        super(String.format("Particles %d and %d collided at %.6f s.", firstParticle + 1, secondParticle + 1, time));
+    }
+}
@@ -0,0 +1,23 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that represents all the ways a simulation can respond when two particles collide.
+ */
+public enum CollisionResponse {
+    /**
+     * Ends the simulation at the moment of the collision.
+     */
+    STOP {
+        public String toString() {
+            return "Stop Simulation";
+        }
+    },
+    /**
+     * Merges the two particles into one, conserving mass and momentum, and carries on.
+     */
+    MERGE {
+        public String toString() {
+            return "Merge Particles";
+        }
+    }
+}
@@ -168,6 +168,39 @@ enum DefaultTemplates {
         String getTitle() {
             return "Chaotic Orbit (Example)";
         }
+    },
+    /**
+     * An example of a hierarchical triple: a tight, eccentric binary orbited by a distant third particle.
+     */
+    HIERARCHICAL_TRIPLE {
+        @Override
+        SimulationSettings getSettings() {
+            return new SimulationSettings(
+                    new Particle[]{
+                            new Particle(
+                                    -57, 0, 0, 34.2, 1, 1, Color.RED
+                            ),
+                            new Particle(
+                                    -77, 0, 0, -85.8, 1, 2, Color.GREEN
+                            ),
+                            new Particle(
+                                    133, 0, 0, 51.5, 1, 3, Color.BLUE
+                            )
+                    },
+                    true,
+                    true,
+                    false,
+                    0,
+                    1,
+                    NumberFormat.ADAPTIVE,
+                    ""
+            );
+        }
+
+        @Override
+        String getTitle() {
+            return "Hierarchical Triple (Example)";
+        }
     };
 
     /**
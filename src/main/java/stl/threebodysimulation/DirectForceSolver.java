@@ -0,0 +1,236 @@
+package stl.threebodysimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A ForceSolver that sums the exact gravitational force between every pair of particles. O(N^2), but exact.
+ * <p>
+ * Large particle counts are split across the common ForkJoinPool. Each thread accumulates into its own partial array, and the partial arrays are added up in a fixed order,
+ * so results are bit-for-bit reproducible as long as the pool's parallelism stays the same.
+ */
+class DirectForceSolver implements ForceSolver {
+
+    /**
+     * The smallest particle count that is split across threads. Below this, the cost of coordinating threads outweighs the work saved.
+     */
+    static final int PARALLEL_THRESHOLD = 512;
+
+    /**
+     * The number of particles.
+     */
+    private final int particleCount;
+
+    /**
+     * The gravitational parameter (G * mass) of each particle.
+     */
+    private final double[] gravitationalParameters;
+
+    /**
+     * The pool that runs parallel evaluations, or null if evaluations are serial.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The first row (particle) of each block of pairs, followed by the particle count. Block i covers rows blockStarts[i] up to blockStarts[i + 1].
+     */
+    private final int[] blockStarts;
+
+    /**
+     * The partial accelerations accumulated by each block, in the same layout as the final accelerations.
+     */
+    private final double[][] partialAccelerations;
+
+    /**
+     * The task that evaluates every block, reused for every evaluation.
+     */
+    private final RecursiveAction parallelEvaluation;
+
+    /**
+     * The tasks that evaluate each block, reused for every evaluation.
+     */
+    private final BlockTask[] blockTasks;
+
+    /**
+     * The state being evaluated by the block tasks.
+     */
+    private double[] evaluatedState;
+
+    /**
+     * Creates a direct summation solver for a set of particles.
+     *
+     * @param gravitationalParameters The gravitational parameter (G * mass) of each particle.
+     */
+    DirectForceSolver(double[] gravitationalParameters) {
+        this.particleCount = gravitationalParameters.length;
+        this.gravitationalParameters = gravitationalParameters;
+
+        int threadCount = ForkJoinPool.getCommonPoolParallelism();
+        if (particleCount < PARALLEL_THRESHOLD || threadCount < 2) {
+            pool = null;
+            blockStarts = null;
+            partialAccelerations = null;
+            blockTasks = null;
+            parallelEvaluation = null;
+            return;
+        }
+
+        pool = ForkJoinPool.commonPool();
+        blockStarts = partitionRows(threadCount);
+        partialAccelerations = new double[threadCount][2 * particleCount];
+        blockTasks = new BlockTask[threadCount];
+        for (int block = 0; block < threadCount; block++) {
+            blockTasks[block] = new BlockTask(block);
+        }
+        parallelEvaluation = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(blockTasks);
+            }
+        };
+    }
+
+    /**
+     * Calculates the acceleration of every particle due to gravity by direct summation over all pairs.
+     *
+     * @param state         The state of the particles. Only the positions are read.
+     * @param accelerations The array where the accelerations are stored.
+     */
+    @Override
+    public void computeAccelerations(double[] state, double[] accelerations) {
+        Arrays.fill(accelerations, 0);
+
+        if (pool == null) {
+            accumulatePairs(state, 0, particleCount, accelerations);
+            return;
+        }
+
+        // Tasks are reused, so they must be reset before every run.
+        evaluatedState = state;
+        for (BlockTask task : blockTasks) {
+            task.reinitialize();
+        }
+        parallelEvaluation.reinitialize();
+        pool.invoke(parallelEvaluation);
+
+        // Reduce the partial accelerations, always in block order.
+        for (double[] partial : partialAccelerations) {
+            for (int i = 0; i < accelerations.length; i++) {
+                accelerations[i] += partial[i];
+            }
+        }
+    }
+
+    /**
+     * Splits the rows of the pair triangle into blocks with roughly equal numbers of pairs. Row i holds the pairs (i, j) with j greater than i.
+     *
+     * @param blockCount The number of blocks.
+     * @return The first row of each block, followed by the particle count.
+     */
+    private int[] partitionRows(int blockCount) {
+        int[] starts = new int[blockCount + 1];
+        double pairsPerBlock = (double) particleCount * (particleCount - 1) / 2 / blockCount;
+
+        long pairsSoFar = 0;
+        int block = 1;
+        for (int row = 0; row < particleCount && block < blockCount; row++) {
+            pairsSoFar += particleCount - 1 - row;
+            if (pairsSoFar >= block * pairsPerBlock) {
+                starts[block++] = row + 1;
+            }
+        }
+        // Any blocks left over are empty, and start at the end.
+        for (; block <= blockCount; block++) {
+            starts[block] = particleCount;
+        }
+        return starts;
+    }
+
+    /**
+     * Adds the gravitational acceleration from every pair in a range of rows to an array.
+     *
+     * @param state         The state of the particles.
+     * @param firstRow      The first row (particle) of the range.
+     * @param endRow        The row after the last row of the range.
+     * @param accelerations The array where the accelerations are added.
+     */
+    private void accumulatePairs(double[] state, int firstRow, int endRow, double[] accelerations) {
+        for (int id1 = firstRow; id1 < endRow; id1++) {
+            double x1 = state[id1];
+            double y1 = state[particleCount + id1];
+            double gravitationalParameter1 = gravitationalParameters[id1];
+
+            // Acceleration on object 1 is accumulated locally, and only written back once.
+            double xAcceleration1 = 0;
+            double yAcceleration1 = 0;
+
+            for (int id2 = id1 + 1; id2 < particleCount; id2++) {
+                // The vector from object 1 to object 2.
+                double xDistance = state[id2] - x1;
+                double yDistance = state[particleCount + id2] - y1;
+
+                // Square of the absolute distance, according to pythagorean theorem
+                double squaredDistance = xDistance * xDistance + yDistance * yDistance;
+
+                if (squaredDistance == 0) {
+                    // obviously zero if there is no distance between two objects.
+                    continue;
+                }
+
+                // Common factor of acceleration: 1 / absVector^3
+                double inverseDistance = 1 / Math.sqrt(squaredDistance);
+                double inverseCubedDistance = inverseDistance * inverseDistance * inverseDistance;
+
+                // individual coefficients for each acceleration
+                double massFactor1 = gravitationalParameters[id2] * inverseCubedDistance;
+                // Reversed for object 2, because vectors have direction
+                double massFactor2 = -gravitationalParameter1 * inverseCubedDistance;
+
+                xAcceleration1 += massFactor1 * xDistance;
+                yAcceleration1 += massFactor1 * yDistance;
+                accelerations[id2] += massFactor2 * xDistance;
+                accelerations[particleCount + id2] += massFactor2 * yDistance;
+            }
+
+            accelerations[id1] += xAcceleration1;
+            accelerations[particleCount + id1] += yAcceleration1;
+        }
+    }
+
+    /**
+     * A task that accumulates one block of rows into that block's partial accelerations.
+     */
+    private class BlockTask extends RecursiveAction {
+
+        /**
+         * The version of the serialized form, which is never used, as the class is never serialized.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The block this task evaluates.
+         */
+        private final int block;
+
+        /**
+         * Creates a task for a block.
+         *
+         * @param block The block this task evaluates.
+         */
+        BlockTask(int block) {
+            this.block = block;
+        }
+
+        /**
+         * Accumulates the block. Called by the pool.
+         */
+        @Override
+        protected void compute() {
+            double[] partial = partialAccelerations[block];
+            Arrays.fill(partial, 0);
+            accumulatePairs(evaluatedState, blockStarts[block], blockStarts[block + 1], partial);
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.events.EventHandler;
+import org.apache.commons.math3.ode.nonstiff.DormandPrince853Integrator;
+import org.apache.commons.math3.ode.sampling.StepHandler;
+import org.apache.commons.math3.ode.sampling.StepInterpolator;
+
+/**
+ * A SimulationIntegrator that uses adaptive Dormand-Prince 8(5,3) integration from Apache Commons Math.
+ * <p>
+ * When running frame by frame, the integrator takes whatever steps it likes, and frames are read off each step with the integrator's dense output.
+ * This keeps the step size and the first-same-as-last derivative from one frame to the next, instead of restarting the integrator every frame.
+ * The integrator is only restarted when a pair of particles crosses the radius of a close encounter or collision, and after a merge, since the state jumps there.
+ * <p>
+ * When regularized, the integrator steps in the fictitious time of RegularizedEquations, and frames are found by the real time carried in the state.
+ */
+class DormandPrinceIntegrator implements SimulationIntegrator {
+
+    /**
+     * The smallest step the integrator will take, in seconds. Small enough that the integrator will return errors at asymptotes.
+     */
+    private static final double MIN_STEP_SIZE = Math.pow(10, -10);
+
+    /**
+     * The largest step the integrator will take, in seconds.
+     */
+    private static final double MAX_STEP_SIZE = 10000;
+
+    /**
+     * The absolute error allowed per step in the app, in km and km/s.
+     * Steps are no longer cut short at every frame, so the tolerances alone decide the accuracy, and are kept tight.
+     */
+    private static final double ABSOLUTE_TOLERANCE = Math.pow(10, -9);
+
+    /**
+     * The relative error allowed per step in the app.
+     */
+    private static final double RELATIVE_TOLERANCE = Math.pow(10, -12);
+
+    /**
+     * How closely the time of a close encounter or collision is found, in seconds.
+     */
+    private static final double EVENT_TIME_TOLERANCE = Math.pow(10, -9);
+
+    /**
+     * The most iterations the root finder may take to find the time of an event.
+     */
+    private static final int MAX_EVENT_ITERATIONS = 100;
+
+    /**
+     * The differential equations being integrated.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The DormandPrince853Integrator provided by Apache Commons Math.
+     */
+    private final DormandPrince853Integrator integrator;
+
+    /**
+     * The step handler that counts every step the integrator takes. Always attached to the integrator.
+     */
+    private final StepCounter stepCounter;
+
+    /**
+     * The differential equations extended with their variational equations, or null if chaos indicators are not measured.
+     */
+    private final VariationalEquations variationalEquations;
+
+    /**
+     * The tracker that measures chaos indicators, or null if they are not measured.
+     */
+    private final ChaosTracker chaosTracker;
+
+    /**
+     * The detectors of close encounters and collisions. Always attached to the integrator.
+     */
+    private final EncounterDetector[] encounterDetectors;
+
+    /**
+     * True if the integrator steps in regularized time.
+     */
+    private final boolean regularized;
+
+    /**
+     * Creates a Dormand-Prince integrator for a set of differential equations.
+     *
+     * @param equations The differential equations to integrate.
+     * @param settings  The settings of the run, which choose regularization, chaos indicators and encounter detection.
+     */
+    DormandPrinceIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+        this(equations, settings, 1);
+    }
+
+    /**
+     * Creates a Dormand-Prince integrator with its error tolerances scaled, to trade accuracy for speed when comparing integrators.
+     *
+     * @param equations      The differential equations to integrate.
+     * @param settings       The settings of the run, which choose regularization, chaos indicators and encounter detection.
+     * @param toleranceScale The factor that both tolerances are multiplied by. 1 gives the tolerances of the app.
+     */
+    DormandPrinceIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings, double toleranceScale) {
+        this.equations = equations;
+        this.integrator = new DormandPrince853Integrator(MIN_STEP_SIZE, MAX_STEP_SIZE, ABSOLUTE_TOLERANCE * toleranceScale, RELATIVE_TOLERANCE * toleranceScale);
+        this.stepCounter = new StepCounter();
+        integrator.addStepHandler(stepCounter);
+        this.regularized = settings.getRegularized();
+        this.encounterDetectors = settings.getEncounterSettings().buildDetectors(equations);
+        for (EncounterDetector detector : encounterDetectors) {
+            // Checked at the end of every step, which the integrator keeps short through encounters anyway.
+            integrator.addEventHandler(regularized ? new RealTimeEventHandler(detector) : detector, MAX_STEP_SIZE, EVENT_TIME_TOLERANCE, MAX_EVENT_ITERATIONS);
+        }
+        if (settings.getChaosIndicators()) {
+            this.variationalEquations = new VariationalEquations(equations);
+            this.chaosTracker = new ChaosTracker(equations);
+        } else {
+            this.variationalEquations = null;
+            this.chaosTracker = null;
+        }
+    }
+
+    /**
+     * Advances a state from one time to another, in place.
+     *
+     * @param startTime The time of the state.
+     * @param state     The state. Overwritten with the state at the end time.
+     * @param endTime   The time to advance to.
+     */
+    @Override
+    public void integrate(double startTime, double[] state, double endTime) {
+        equations.applyMerges(state);
+        if (regularized) {
+            // Fictitious time cannot be known ahead of the real end time, so the end state is found like a single frame.
+            if (endTime != startTime) {
+                try {
+                    integrateFrames(startTime, state, endTime - startTime, (time, frameState, accelerations) -> false, null);
+                } catch (InterruptedException e) {
+                    // Should never occur, as the frame handler does not wait.
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return;
+        }
+        double time = startTime;
+        do {
+            time = integrator.integrate(equations, time, state, endTime, state);
+            // Backward skips end below their start time, so the end is checked for in either direction.
+        } while (finishStops(state) && time != endTime);
+    }
+
+    /**
+     * Advances a state frame by frame until the frame handler asks to stop, in one continuous integration.
+     * With chaos indicators, the variational equations are integrated in the same steps as the state.
+     *
+     * @param startTime     The time of the state.
+     * @param state         The state. Overwritten with the state at each frame.
+     * @param frameInterval The simulation time between frames, in seconds.
+     * @param handler       The FrameHandler that receives every frame.
+     * @throws InterruptedException If the thread is interrupted while handling a frame.
+     */
+    @Override
+    public void integrateFrames(double startTime, double[] state, double frameInterval, FrameHandler handler) throws InterruptedException {
+        equations.applyMerges(state);
+        if (chaosTracker != null) {
+            chaosTracker.start(startTime);
+            variationalEquations.setStartTime(chaosTracker.getStartTime());
+        }
+        integrateFrames(startTime, state, frameInterval, handler, chaosTracker);
+    }
+
+    /**
+     * Advances a state frame by frame until the frame handler asks to stop, in one continuous integration.
+     *
+     * @param startTime     The time of the state.
+     * @param state         The state. Overwritten with the state at each frame.
+     * @param frameInterval The simulation time between frames, in seconds. Negative to integrate backwards.
+     * @param handler       The FrameHandler that receives every frame.
+     * @param tracker       The started tracker whose tangent is integrated alongside the state, or null if there is none.
+     * @throws InterruptedException If the thread is interrupted while handling a frame.
+     */
+    private void integrateFrames(double startTime, double[] state, double frameInterval, FrameHandler handler, ChaosTracker tracker) throws InterruptedException {
+        // The integrator keeps its own copy of the state, so frames can be written straight into the caller's array.
+        double[] initialState;
+        FirstOrderDifferentialEquations integratedEquations;
+        if (tracker == null) {
+            initialState = state.clone();
+            integratedEquations = equations;
+        } else {
+            initialState = new double[variationalEquations.getDimension()];
+            System.arraycopy(state, 0, initialState, 0, state.length);
+            tracker.writeExtendedState(initialState);
+            integratedEquations = variationalEquations;
+        }
+        RegularizedEquations regularizedEquations = null;
+        if (regularized) {
+            regularizedEquations = new RegularizedEquations(equations, integratedEquations);
+            initialState = regularizedEquations.start(initialState, startTime);
+            integratedEquations = regularizedEquations;
+        }
+        integrator.addStepHandler(new FrameStepHandler(startTime, state, frameInterval, handler, tracker, regularizedEquations));
+        try {
+            // There is no real end time: the integration only ends when the handler asks to stop, or the integrator fails.
+            // Crossings of an encounter or collision radius stop it as well, and it starts again from there, merged if particles collided, with the same frame handler.
+            // Fictitious time starts at the real start time, so that both run alike away from encounters.
+            double time = startTime;
+            do {
+                time = integrator.integrate(integratedEquations, time, initialState, Math.copySign(Double.MAX_VALUE, frameInterval), initialState);
+            } while (finishStops(initialState));
+        } catch (StopException e) {
+            if (e.getCause() != null) {
+                throw (InterruptedException) e.getCause();
+            }
+        } finally {
+            // The integrator can only drop all of its step handlers at once, so the step counter goes back on.
+            integrator.clearStepHandlers();
+            integrator.addStepHandler(stepCounter);
+        }
+    }
+
+    /**
+     * Finishes the crossings that stopped the integrator, merging the particles of any collision.
+     *
+     * @param state The state the integrator stopped at, which may be extended. Overwritten with the merged state.
+     * @return True if a crossing stopped the integrator, so it should start again.
+     */
+    private boolean finishStops(double[] state) {
+        boolean stopped = false;
+        for (EncounterDetector detector : encounterDetectors) {
+            if (detector.finishStop(state)) {
+                stopped = true;
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * Gets the number of steps the integrator has taken, over every call since it was built. Rejected steps are not counted.
+     *
+     * @return The number of steps taken.
+     */
+    @Override
+    public long getStepCount() {
+        return stepCounter.count;
+    }
+
+    /**
+     * Gets the chaos indicators at the frame being handled.
+     *
+     * @return The indicators, indexed by the ordinal of each ChaosIndicator, or null if the integrator was built without them.
+     */
+    @Override
+    public double[] getChaosIndicators() {
+        return chaosTracker == null ? null : chaosTracker.getIndicators();
+    }
+
+    /**
+     * Sets the handler that is told about every close encounter and collision.
+     *
+     * @param handler The handler, or null if nothing should be told.
+     */
+    @Override
+    public void setEncounterHandler(EncounterHandler handler) {
+        for (EncounterDetector detector : encounterDetectors) {
+            detector.setHandler(handler);
+        }
+    }
+
+    /**
+     * A StepHandler that counts the steps the integrator takes.
+     */
+    private static class StepCounter implements StepHandler {
+
+        /**
+         * The number of steps counted.
+         */
+        private long count;
+
+        /**
+         * Called by the integrator at the start of the integration.
+         *
+         * @param t0 The initial time.
+         * @param y0 The initial state.
+         * @param t  The final time.
+         */
+        @Override
+        public void init(double t0, double[] y0, double t) {
+        }
+
+        /**
+         * Called by the integrator after every step.
+         *
+         * @param interpolator The interpolator over the step.
+         * @param isLast       True if this is the last step.
+         */
+        @Override
+        public void handleStep(StepInterpolator interpolator, boolean isLast) {
+            count++;
+        }
+    }
+
+    /**
+     * A StepHandler that interpolates every frame that falls within a step, and passes it on to a FrameHandler.
+     */
+    private class FrameStepHandler implements StepHandler {
+
+        /**
+         * The time of the initial state.
+         */
+        private final double startTime;
+
+        /**
+         * The array that frames are written into.
+         */
+        private final double[] frameState;
+
+        /**
+         * The simulation time between frames, in seconds.
+         */
+        private final double frameInterval;
+
+        /**
+         * The FrameHandler that receives every frame.
+         */
+        private final FrameHandler handler;
+
+        /**
+         * The array that the accelerations of frames are written into.
+         */
+        private final double[] frameAccelerations;
+
+        /**
+         * The tracker whose tangent is read off every frame, or null if there is none.
+         */
+        private final ChaosTracker tracker;
+
+        /**
+         * The regularized equations being integrated, which give the real time of each step, or null if the integrator steps in real time.
+         */
+        private final RegularizedEquations regularizedEquations;
+
+        /**
+         * The number of the next frame, counting from the initial state.
+         */
+        private long nextFrame;
+
+        /**
+         * Creates a step handler for one run.
+         *
+         * @param startTime     The time of the initial state.
+         * @param frameState    The array that frames are written into.
+         * @param frameInterval The simulation time between frames, in seconds.
+         * @param handler              The FrameHandler that receives every frame.
+         * @param tracker              The tracker whose tangent is read off every frame, or null if there is none.
+         * @param regularizedEquations The regularized equations being integrated, or null if the integrator steps in real time.
+         */
+        FrameStepHandler(double startTime, double[] frameState, double frameInterval, FrameHandler handler, ChaosTracker tracker, RegularizedEquations regularizedEquations) {
+            this.startTime = startTime;
+            this.frameState = frameState;
+            this.frameInterval = frameInterval;
+            this.handler = handler;
+            this.frameAccelerations = new double[frameState.length / 2];
+            this.tracker = tracker;
+            this.regularizedEquations = regularizedEquations;
+            this.nextFrame = 1;
+        }
+
+        /**
+         * Called by the integrator at the start of the integration.
+         *
+         * @param t0 The initial time.
+         * @param y0 The initial state.
+         * @param t  The final time.
+         */
+        @Override
+        public void init(double t0, double[] y0, double t) {
+        }
+
+        /**
+         * Called by the integrator after every step. Hands every frame within the step to the frame handler.
+         *
+         * @param interpolator The interpolator over the step.
+         * @param isLast       True if this is the last step.
+         */
+        @Override
+        public void handleStep(StepInterpolator interpolator, boolean isLast) {
+            double stepEndTime = regularizedEquations == null ? interpolator.getCurrentTime() : regularizedEquations.getStepEndTime(interpolator);
+            // Frame times are counted from the start, rather than added up, so that they do not drift.
+            double frameTime = startTime + nextFrame * frameInterval;
+            while ((stepEndTime - frameTime) * Math.signum(frameInterval) >= 0) {
+                if (regularizedEquations == null) {
+                    interpolator.setInterpolatedTime(frameTime);
+                } else {
+                    regularizedEquations.setInterpolatedTime(interpolator, frameTime);
+                }
+                // With chaos indicators or regularization, the interpolated state is extended, and only its front is the state.
+                double[] interpolatedState = interpolator.getInterpolatedState();
+                System.arraycopy(interpolatedState, 0, frameState, 0, frameState.length);
+                if (tracker != null) {
+                    tracker.readExtendedState(frameTime, interpolatedState);
+                }
+                // The interpolator only gives the state, so the accelerations are evaluated at the frame itself.
+                equations.computeAccelerations(frameState, frameAccelerations);
+
+                boolean continuing;
+                try {
+                    continuing = handler.handleFrame(frameTime, frameState, frameAccelerations);
+                } catch (InterruptedException e) {
+                    throw new StopException(e);
+                }
+                if (!continuing) {
+                    throw new StopException(null);
+                }
+
+                nextFrame++;
+                frameTime = startTime + nextFrame * frameInterval;
+            }
+        }
+    }
+
+    /**
+     * An EventHandler that passes the real time carried in a regularized state on to another, in place of the fictitious time the integrator steps in.
+     */
+    private static class RealTimeEventHandler implements EventHandler {
+
+        /**
+         * The handler that is passed the real time.
+         */
+        private final EventHandler handler;
+
+        /**
+         * Creates an event handler that passes on the real time.
+         *
+         * @param handler The handler that is passed the real time.
+         */
+        RealTimeEventHandler(EventHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * Gets the real time of a regularized state, which is always its last element.
+         *
+         * @param y The regularized state.
+         * @return The real time, in seconds.
+         */
+        private static double getTime(double[] y) {
+            return y[y.length - 1];
+        }
+
+        /**
+         * Called by the integrator at the start of the integration.
+         *
+         * @param s0 The initial fictitious time.
+         * @param y0 The initial state.
+         * @param s  The final fictitious time.
+         */
+        @Override
+        public void init(double s0, double[] y0, double s) {
+            handler.init(getTime(y0), y0, s);
+        }
+
+        /**
+         * The switching function of the handler, at the real time of the state.
+         *
+         * @param s The fictitious time.
+         * @param y The state.
+         * @return The value of the switching function.
+         */
+        @Override
+        public double g(double s, double[] y) {
+            return handler.g(getTime(y), y);
+        }
+
+        /**
+         * Called by the integrator at the moment the switching function changes sign.
+         *
+         * @param s          The fictitious time of the event.
+         * @param y          The state at the time of the event.
+         * @param increasing True if the switching function is increasing.
+         * @return What the integrator should do next.
+         */
+        @Override
+        public Action eventOccurred(double s, double[] y, boolean increasing) {
+            return handler.eventOccurred(getTime(y), y, increasing);
+        }
+
+        /**
+         * Called by the integrator after an event that changes the state.
+         *
+         * @param s The fictitious time of the event.
+         * @param y The state at the time of the event.
+         */
+        @Override
+        public void resetState(double s, double[] y) {
+            handler.resetState(getTime(y), y);
+        }
+    }
+
+    /**
+     * Thrown from inside the integrator to end a frame-by-frame run, as the integrator has no other way of stopping early.
+     */
+    private static class StopException extends RuntimeException {
+
+        /**
+         * The version of the serialized form, which is never used, as the class is never serialized.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Creates an exception that ends a run.
+         *
+         * @param cause The InterruptedException that ended the run, or null if the frame handler asked to stop.
+         */
+        StopException(InterruptedException cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.ode.events.EventHandler;
+
+import java.util.BitSet;
+
+/**
+ * An EventHandler that detects when two particles come within a radius of each other, so that the integrator can find the moment exactly.
+ * <p>
+ * Every pair is tracked on its own, as inside or outside the radius, so a pair coming within the radius is an event even while another pair is already inside it.
+ * The switching function is how far the pair nearest to crossing is from changing sides: the distance less the radius for pairs outside, and the radius less the distance for pairs inside.
+ * It turns negative when any pair crosses, and the adaptive integrator then narrows the moment down by root finding, instead of blindly shrinking its steps into the singularity.
+ * Every crossing stops the integrator, so that the pairs can be moved to their new side before it starts again. Only pairs coming within the radius are reported.
+ * Fixed-step integrators compare every pair at the end of every step instead.
+ * <p>
+ * Each evaluation measures the distance between every pair, which is as costly as summing the forces directly.
+ * With Barnes-Hut forces and many particles, detection rather than the forces sets the cost of each step.
+ * <p>
+ * Particles that have been merged into another are left out, as they sit on top of the particle they were merged into.
+ */
+class EncounterDetector implements EventHandler {
+
+    /**
+     * The fraction of the radius by which a pair has to cross it to change sides.
+     * Without it, the integrator would start again with the switching function at zero, and could take the pair that just crossed for crossing again.
+     */
+    private static final double CROSSING_MARGIN = 1e-9;
+
+    /**
+     * The differential equations of the simulation.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The number of particles.
+     */
+    private final int particleCount;
+
+    /**
+     * The kind of event this detector reports.
+     */
+    private final EncounterType type;
+
+    /**
+     * The distance between two particles at which the event happens, in km.
+     */
+    private final double radius;
+
+    /**
+     * The distance that a pair outside the radius has to come within to cross it, in km.
+     */
+    private final double innerRadius;
+
+    /**
+     * The distance that a pair inside the radius has to get beyond to cross it, in km.
+     */
+    private final double outerRadius;
+
+    /**
+     * What the simulation does at a collision, or null for close encounters, which are only reported.
+     */
+    private final CollisionResponse response;
+
+    /**
+     * The pairs that are inside the radius, numbered in the order the nested loops over particles visit them. Pairs with a merged particle are never inside.
+     */
+    private final BitSet insidePairs = new BitSet();
+
+    /**
+     * The handler that is told about every event, or null if nothing is.
+     */
+    private EncounterHandler handler;
+
+    /**
+     * The index of the first particle of the pair to merge.
+     */
+    private int firstParticle;
+
+    /**
+     * The index of the second particle of the pair to merge.
+     */
+    private int secondParticle;
+
+    /**
+     * True if a pair collided, and has not been merged yet.
+     */
+    private boolean mergePending;
+
+    /**
+     * True if the integrator was stopped at a crossing, and has not been started again yet.
+     */
+    private boolean stopPending;
+
+    /**
+     * Creates a detector for one kind of event.
+     *
+     * @param equations The differential equations of the simulation.
+     * @param type      The kind of event to report.
+     * @param radius    The distance between two particles at which the event happens, in km.
+     * @param response  What the simulation does at a collision, or null for close encounters.
+     */
+    EncounterDetector(ParticleDifferentialEquations equations, EncounterType type, double radius, CollisionResponse response) {
+        this.equations = equations;
+        this.particleCount = equations.getParticleCount();
+        this.type = type;
+        this.radius = radius;
+        this.innerRadius = radius * (1 - CROSSING_MARGIN);
+        this.outerRadius = radius * (1 + CROSSING_MARGIN);
+        this.response = response;
+    }
+
+    /**
+     * Sets the handler that is told about every event.
+     *
+     * @param handler The handler, or null if nothing should be told.
+     */
+    void setHandler(EncounterHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Called by the integrator at the start of the integration, including every time it starts again after a crossing. Pairs that start within the radius are not events.
+     *
+     * @param t0 The initial time.
+     * @param y0 The initial state.
+     * @param t  The final time.
+     */
+    @Override
+    public void init(double t0, double[] y0, double t) {
+        updatePairs(t0, y0, false);
+    }
+
+    /**
+     * The switching function: how far the pair nearest to crossing the radius is from doing so. Continuous until the integrator stops, and negative once some pair has crossed.
+     *
+     * @param t The time.
+     * @param y The state. Only the positions at its front are read, so it may be an extended state.
+     * @return The value of the switching function, in km.
+     */
+    @Override
+    public double g(double t, double[] y) {
+        // Only the closest pair outside and the farthest pair inside can be nearest to crossing, so each side takes one square root.
+        double closestOutside = Double.POSITIVE_INFINITY;
+        double farthestInside = -1;
+        int pair = 0;
+        for (int i = 0; i < particleCount; i++) {
+            for (int j = i + 1; j < particleCount; j++, pair++) {
+                if (equations.isMerged(i) || equations.isMerged(j)) {
+                    continue;
+                }
+                double squaredDistance = getSquaredDistance(y, i, j);
+                if (insidePairs.get(pair)) {
+                    farthestInside = Math.max(farthestInside, squaredDistance);
+                } else {
+                    closestOutside = Math.min(closestOutside, squaredDistance);
+                }
+            }
+        }
+        double margin = Math.sqrt(closestOutside) - innerRadius;
+        if (farthestInside >= 0) {
+            margin = Math.min(margin, outerRadius - Math.sqrt(farthestInside));
+        }
+        return margin;
+    }
+
+    /**
+     * Called by the integrator at the moment the switching function changes sign.
+     * Moves the pairs that crossed to their new side, reports the ones that came within the radius, and responds to collisions.
+     *
+     * @param t          The time of the event.
+     * @param y          The state at the time of the event.
+     * @param increasing True if the switching function is increasing. Not used, as every crossing turns it negative.
+     * @return What the integrator should do next.
+     * @throws CollisionException If two particles collided, and the simulation stops at collisions.
+     */
+    @Override
+    public Action eventOccurred(double t, double[] y, boolean increasing) {
+        if (!updatePairs(t, y, true)) {
+            return Action.CONTINUE;
+        }
+        // With the pairs on their new sides, the switching function is positive again, which the integrator would take for another crossing, so it starts again from here.
+        stopPending = true;
+        return Action.STOP;
+    }
+
+    /**
+     * Called by the integrator after an event that changes the state. Never called, as crossings stop the integrator instead.
+     *
+     * @param t The time of the event.
+     * @param y The state at the time of the event.
+     */
+    @Override
+    public void resetState(double t, double[] y) {
+    }
+
+    /**
+     * Finishes a crossing that stopped the integrator, merging the pair that collided if there is one.
+     *
+     * @param state The state at the time the integrator stopped. Overwritten with the merged state.
+     * @return True if this detector stopped the integrator, so the integration should start again from the state.
+     */
+    boolean finishStop(double[] state) {
+        if (!stopPending) {
+            return false;
+        }
+        stopPending = false;
+        finishMerge(state);
+        return true;
+    }
+
+    /**
+     * Starts checking a fixed-step integration. Pairs that start within the radius are not events.
+     *
+     * @param state The state at the start of the integration.
+     */
+    void startSteps(double[] state) {
+        updatePairs(0, state, false);
+    }
+
+    /**
+     * Checks for events at the end of a fixed step. Events are placed at the end of the step they happen in, rather than found exactly.
+     *
+     * @param time  The time at the end of the step.
+     * @param state The state at the end of the step. Overwritten if particles are merged.
+     * @return True if the state was changed, so that anything calculated from it is out of date.
+     * @throws CollisionException If two particles collided, and the simulation stops at collisions.
+     */
+    boolean checkStep(double time, double[] state) {
+        updatePairs(time, state, true);
+        if (!finishMerge(state)) {
+            return false;
+        }
+        // The merged particle may already be within the radius of others, which is not a new event.
+        updatePairs(time, state, false);
+        return true;
+    }
+
+    /**
+     * Merges the pair that collided, if there is one.
+     *
+     * @param state The state to merge the pair in. Overwritten with the merged state.
+     * @return True if particles were merged.
+     */
+    private boolean finishMerge(double[] state) {
+        if (!mergePending) {
+            return false;
+        }
+        mergePending = false;
+        equations.mergeParticles(firstParticle, secondParticle, state);
+        return true;
+    }
+
+    /**
+     * Moves every pair to the side of the radius it is on.
+     * A collision stops the simulation at the first pair reported, or marks it to be merged. Only one pair is merged at a time.
+     *
+     * @param time   The time of the state.
+     * @param y      The state. Only the positions are read.
+     * @param report True to report the pairs that crossed into the radius, which they do once past the margin that the switching function allows.
+     *               False to start afresh, with pairs on the radius counted as inside.
+     * @return True if any pair changed sides.
+     * @throws CollisionException If two particles collided, and the simulation stops at collisions.
+     */
+    private boolean updatePairs(double time, double[] y, boolean report) {
+        boolean changed = false;
+        int pair = 0;
+        for (int i = 0; i < particleCount; i++) {
+            for (int j = i + 1; j < particleCount; j++, pair++) {
+                boolean wasInside = insidePairs.get(pair);
+                boolean inside = false;
+                if (!equations.isMerged(i) && !equations.isMerged(j)) {
+                    // Distances are compared exactly as the switching function measures them, so that the two always agree on which pairs have crossed.
+                    double distance = Math.sqrt(getSquaredDistance(y, i, j));
+                    if (!report) {
+                        inside = distance <= radius;
+                    } else {
+                        inside = wasInside ? distance < outerRadius : distance <= innerRadius;
+                    }
+                }
+                if (inside == wasInside) {
+                    continue;
+                }
+                changed = true;
+                insidePairs.set(pair, inside);
+                if (report && inside) {
+                    reportEntry(time, i, j);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Reports a pair that came within the radius, and responds if it collided.
+     *
+     * @param time   The time of the event.
+     * @param first  The index of the first particle.
+     * @param second The index of the second particle.
+     * @throws CollisionException If the simulation stops at collisions.
+     */
+    private void reportEntry(double time, int first, int second) {
+        if (handler != null) {
+            handler.handleEncounter(type, time, first, second);
+        }
+        if (response == CollisionResponse.STOP) {
+            throw new CollisionException(time, first, second);
+        } else if (response == CollisionResponse.MERGE && !mergePending) {
+            mergePending = true;
+            firstParticle = first;
+            secondParticle = second;
+        }
+    }
+
+    /**
+     * Measures the squared distance between two particles.
+     *
+     * @param y The state. Only the positions are read.
+     * @param i The index of the first particle.
+     * @param j The index of the second particle.
+     * @return The squared distance, in km^2.
+     */
+    private double getSquaredDistance(double[] y, int i, int j) {
+        double xDistance = y[j] - y[i];
+        double yDistance = y[particleCount + j] - y[particleCount + i];
+        return xDistance * xDistance + yDistance * yDistance;
+    }
+}
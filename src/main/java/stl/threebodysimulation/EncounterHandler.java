@@ -0,0 +1,16 @@
+package stl.threebodysimulation;
+
+/**
+ * This represents an EncounterHandler object that is told about every close encounter and collision in a running simulation.
+ */
+interface EncounterHandler {
+    /**
+     * A method that is called at the moment two particles come within the radius of an event. Called on the thread running the simulation.
+     *
+     * @param type           The kind of event.
+     * @param time           The time of the event, in seconds.
+     * @param firstParticle  The index of the first particle, starting from 0.
+     * @param secondParticle The index of the second particle, starting from 0.
+     */
+    void handleEncounter(EncounterType type, double time, int firstParticle, int secondParticle);
+}
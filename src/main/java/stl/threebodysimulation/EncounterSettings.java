@@ -0,0 +1,98 @@
+package stl.threebodysimulation;
+
+import java.util.ArrayList;
+
+/**
+ * A class that packages the settings of close encounter and collision detection. These are chosen per run, and are not stored in templates.
+ */
+class EncounterSettings {
+
+    /**
+     * The distance between two particles at which they collide, in km. 0 if collisions are not detected.
+     */
+    private final double collisionRadius;
+
+    /**
+     * What the simulation does when two particles collide.
+     */
+    private final CollisionResponse collisionResponse;
+
+    /**
+     * The distance between two particles within which they have a close encounter, in km. 0 if close encounters are not detected.
+     */
+    private final double encounterRadius;
+
+    /**
+     * Creates the default encounter settings: nothing is detected.
+     */
+    EncounterSettings() {
+        this(0, CollisionResponse.STOP, 0);
+    }
+
+    /**
+     * Basic constructor that creates an EncounterSettings object.
+     *
+     * @param collisionRadius   The distance between two particles at which they collide, in km. 0 if collisions are not detected.
+     * @param collisionResponse What the simulation does when two particles collide.
+     * @param encounterRadius   The distance between two particles within which they have a close encounter, in km. 0 if close encounters are not detected.
+     */
+    EncounterSettings(double collisionRadius, CollisionResponse collisionResponse, double encounterRadius) {
+        this.collisionRadius = collisionRadius;
+        this.collisionResponse = collisionResponse;
+        this.encounterRadius = encounterRadius;
+    }
+
+    /**
+     * Gets the distance between two particles at which they collide.
+     *
+     * @return The collision radius, in km. 0 if collisions are not detected.
+     */
+    double getCollisionRadius() {
+        return collisionRadius;
+    }
+
+    /**
+     * Gets what the simulation does when two particles collide.
+     *
+     * @return The collision response.
+     */
+    CollisionResponse getCollisionResponse() {
+        return collisionResponse;
+    }
+
+    /**
+     * Gets the distance between two particles within which they have a close encounter.
+     *
+     * @return The encounter radius, in km. 0 if close encounters are not detected.
+     */
+    double getEncounterRadius() {
+        return encounterRadius;
+    }
+
+    /**
+     * Checks whether anything is detected at all.
+     *
+     * @return True if collisions or close encounters are detected.
+     */
+    boolean isDetecting() {
+        return collisionRadius > 0 || encounterRadius > 0;
+    }
+
+    /**
+     * Builds the detectors described by these settings.
+     *
+     * @param equations The differential equations of the simulation.
+     * @return A detector for each kind of event that is detected. Empty if nothing is.
+     */
+    EncounterDetector[] buildDetectors(ParticleDifferentialEquations equations) {
+        ArrayList<EncounterDetector> detectors = new ArrayList<>();
+        if (collisionRadius > 0) {
+            detectors.add(new EncounterDetector(equations, EncounterType.COLLISION, collisionRadius, collisionResponse));
+        }
+        if (encounterRadius > 0) {
+            // Close encounters are only ever reported, so they have no response.
+            detectors.add(new EncounterDetector(equations, EncounterType.CLOSE_ENCOUNTER, encounterRadius, null));
+        }
+        return detectors.toArray(new EncounterDetector[0]);
+    }
+}
@@ -0,0 +1,23 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that represents all kinds of events between two particles that a simulation can detect.
+ */
+enum EncounterType {
+    /**
+     * Two particles came within the encounter radius of each other.
+     */
+    CLOSE_ENCOUNTER {
+        public String toString() {
+            return "Close encounter";
+        }
+    },
+    /**
+     * Two particles came within the collision radius of each other.
+     */
+    COLLISION {
+        public String toString() {
+            return "Collision";
+        }
+    }
+}
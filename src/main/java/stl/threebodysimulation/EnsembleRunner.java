@@ -0,0 +1,421 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+import org.apache.commons.math3.exception.NumberIsTooSmallException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A class that runs an ensemble of simulations around a template in parallel, each member with its own perturbed initial conditions.
+ * <p>
+ * Every member gets its own differential equations and integrator, and runs on one of a pool of threads.
+ * A summary of each member is written to a CSV file as soon as it finishes, so results from a long sweep can be read while it is still running.
+ * Each member draws its offsets from its own random number generator, seeded from the sweep seed and its index, so a sweep gives the same members however many threads run it.
+ */
+class EnsembleRunner {
+
+    /**
+     * The number of frames at which each member is checked for close encounters.
+     */
+    private static final int SAMPLE_COUNT = 1000;
+
+    /**
+     * The fraction of a sample interval that a sample time may miss the end time by, and still count as reaching it.
+     */
+    private static final double END_TIME_TOLERANCE = 1e-9;
+
+    /**
+     * The masses of the particles of the template.
+     */
+    private final double[] baseMasses;
+
+    /**
+     * The initial state of the template, in the layout used by ParticleDifferentialEquations.
+     */
+    private final double[] baseState;
+
+    /**
+     * The time of the template to skip to. Every member is perturbed at time 0, and sampled from here.
+     */
+    private final double skip;
+
+    /**
+     * The settings of the numerical engine that every member uses.
+     */
+    private final IntegrationSettings integrationSettings;
+
+    /**
+     * The properties that are varied between members.
+     */
+    private final List<SweepParameter> parameters;
+
+    /**
+     * The number of members in the ensemble.
+     */
+    private final int memberCount;
+
+    /**
+     * The seed that the random number generator of every member is derived from.
+     */
+    private final long seed;
+
+    /**
+     * The total number of integrator steps taken by finished members.
+     */
+    private long totalStepCount;
+
+    /**
+     * The total number of force evaluations made by finished members.
+     */
+    private long totalEvaluationCount;
+
+    /**
+     * Creates an ensemble around a template.
+     *
+     * @param settings            The template that members are perturbed from. Members are summarized from its skip time onwards.
+     * @param integrationSettings The settings of the numerical engine that every member uses.
+     * @param parameters          The properties that are varied between members.
+     * @param memberCount         The number of members in the ensemble.
+     * @param seed                The seed that the random number generator of every member is derived from.
+     * @throws IllegalArgumentException If a parameter varies a particle that the template does not have.
+     */
+    EnsembleRunner(SimulationSettings settings, IntegrationSettings integrationSettings, List<SweepParameter> parameters, int memberCount, long seed) {
+        Particle[] particles = settings.getParticles();
+        for (SweepParameter parameter : parameters) {
+            if (parameter.getParticleID() < 1 || parameter.getParticleID() > particles.length) {
+                throw new IllegalArgumentException("The template has no particle " + parameter.getParticleID() + ".");
+            }
+        }
+
+        this.baseMasses = settings.getMass();
+        this.baseState = new double[4 * particles.length];
+        for (Particle particle : particles) {
+            particle.flatten(baseState, particles.length);
+        }
+        this.skip = settings.getSkip();
+        this.integrationSettings = integrationSettings;
+        this.parameters = parameters;
+        this.memberCount = memberCount;
+        this.seed = seed;
+    }
+
+    /**
+     * Runs every member to an end time, writing a summary of each to a CSV file as it finishes.
+     *
+     * @param endTime     The time every member is simulated until.
+     * @param threadCount The number of members that run at once.
+     * @param summaryPath The path of the CSV file that summaries are written to. Anything already in the file is replaced.
+     * @throws IOException          If the summary file cannot be written.
+     * @throws InterruptedException If the thread is interrupted while waiting for members.
+     */
+    void run(double endTime, int threadCount, String summaryPath) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "Ensemble member");
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<MemberSummary> completionService = new ExecutorCompletionService<>(executor);
+        for (int member = 0; member < memberCount; member++) {
+            int index = member;
+            completionService.submit(() -> runMember(index, endTime));
+        }
+
+        try (CSVPrinter printer = new CSVPrinter(Files.newBufferedWriter(Paths.get(summaryPath)), CSVFormat.DEFAULT)) {
+            //noinspection RedundantCast
+            printer.printRecord((Object[]) getHeaders()); // Cast for clarity's sake.
+            for (int finished = 0; finished < memberCount; finished++) {
+                MemberSummary summary;
+                try {
+                    summary = completionService.take().get();
+                } catch (ExecutionException e) {
+                    // Should never occur, as members catch their own errors.
+                    throw new IllegalStateException(e.getCause());
+                }
+                totalStepCount += summary.stepCount;
+                totalEvaluationCount += summary.evaluationCount;
+                //noinspection RedundantCast
+                printer.printRecord((Object[]) summary.toRecord()); // Cast for clarity's sake.
+                // Each summary goes to disk as soon as its member finishes.
+                printer.flush();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the total number of integrator steps taken by finished members.
+     *
+     * @return The number of steps.
+     */
+    long getTotalStepCount() {
+        return totalStepCount;
+    }
+
+    /**
+     * Gets the total number of force evaluations made by finished members.
+     *
+     * @return The number of force evaluations.
+     */
+    long getTotalEvaluationCount() {
+        return totalEvaluationCount;
+    }
+
+    /**
+     * Gets the column headers of the summary file.
+     *
+     * @return The column headers.
+     */
+    private String[] getHeaders() {
+        ArrayList<String> headers = new ArrayList<>();
+        headers.add("Member");
+        for (SweepParameter parameter : parameters) {
+            headers.add(parameter.getHeader());
+        }
+        headers.add("Status");
+        headers.add("Time");
+        headers.add("Steps");
+        headers.add("Force Evaluations");
+        headers.add("Relative Energy Error");
+        headers.add("Min Separation");
+        if (integrationSettings.getChaosIndicators()) {
+            for (ChaosIndicator indicator : ChaosIndicator.values()) {
+                headers.add(indicator.toString());
+            }
+        }
+        if (integrationSettings.getEncounterSettings().isDetecting()) {
+            // In the order of EncounterType.
+            headers.add("Close Encounters");
+            headers.add("Collisions");
+        }
+        for (int id = 1; id <= baseMasses.length; id++) {
+            for (String vectorName : new String[]{"Pos", "Vel"}) {
+                headers.add(id + " X " + vectorName);
+                headers.add(id + " Y " + vectorName);
+            }
+        }
+        return headers.toArray(new String[0]);
+    }
+
+    /**
+     * Runs one member of the ensemble. Called on a thread of the pool.
+     *
+     * @param member  The index of the member, starting from 0.
+     * @param endTime The time the member is simulated until.
+     * @return The summary of the member.
+     */
+    private MemberSummary runMember(int member, double endTime) {
+        // Every member owns all of its state, so nothing is shared between threads but the read-only template.
+        double[] masses = baseMasses.clone();
+        double[] state = baseState.clone();
+        Random random = new Random(seed * 31 + member);
+        double[] offsets = new double[parameters.size()];
+        for (int index = 0; index < offsets.length; index++) {
+            offsets[index] = parameters.get(index).apply(random, masses, state);
+        }
+
+        ParticleDifferentialEquations equations = new ParticleDifferentialEquations(masses, integrationSettings);
+        SimulationIntegrator integrator = integrationSettings.buildIntegrator(equations);
+        MemberSummary summary = new MemberSummary(member, offsets, state.length, integrationSettings.getChaosIndicators(), integrationSettings.getEncounterSettings().isDetecting());
+        if (summary.encounterCounts != null) {
+            integrator.setEncounterHandler((type, time, firstParticle, secondParticle) -> summary.encounterCounts[type.ordinal()]++);
+        }
+        System.arraycopy(state, 0, summary.state, 0, state.length);
+        double initialEnergy = equations.computeEnergy(state);
+
+        double sampleInterval = (endTime - skip) / SAMPLE_COUNT;
+        summary.status = "Finished";
+        summary.minimumSeparation = getMinimumSeparation(state);
+        try {
+            // Skip ahead like the app does, and sample from there.
+            if (skip != 0) {
+                integrator.integrate(0, state, skip);
+                System.arraycopy(state, 0, summary.state, 0, state.length);
+            }
+            summary.time = skip;
+            summary.minimumSeparation = getMinimumSeparation(state);
+
+            integrator.integrateFrames(skip, state, sampleInterval, (time, frameState, accelerations) -> {
+                summary.time = time;
+                System.arraycopy(frameState, 0, summary.state, 0, frameState.length);
+                summary.minimumSeparation = Math.min(summary.minimumSeparation, getMinimumSeparation(frameState));
+                if (summary.chaosIndicators != null) {
+                    System.arraycopy(integrator.getChaosIndicators(), 0, summary.chaosIndicators, 0, summary.chaosIndicators.length);
+                }
+                return time + sampleInterval <= endTime + END_TIME_TOLERANCE * sampleInterval;
+            });
+        } catch (NumberIsTooSmallException e) {
+            // Asymptote error (the integrator can't converge and gives up)
+            summary.status = "Asymptote";
+        } catch (NumberIsTooLargeException e) {
+            // Double overflow error (inputs too large for double datatype to handle)
+            summary.status = "Overflow";
+        } catch (CollisionException e) {
+            // Two particles collided, and the member stops at collisions.
+            summary.status = "Collision";
+        } catch (Exception e) {
+            // Other errors
+            summary.status = "Error: " + e.getMessage();
+        }
+
+        // The summary holds the last sample reached, even if the member failed after it.
+        summary.energyError = Math.abs((equations.computeEnergy(summary.state) - initialEnergy) / initialEnergy);
+        summary.stepCount = integrator.getStepCount();
+        summary.evaluationCount = equations.getEvaluationCount();
+        return summary;
+    }
+
+    /**
+     * Finds the smallest distance between any two particles.
+     *
+     * @param state The state of the particles, in the layout used by ParticleDifferentialEquations.
+     * @return The smallest distance, in km.
+     */
+    static double getMinimumSeparation(double[] state) {
+        int particleCount = state.length / 4;
+        double minimumSquaredDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < particleCount; i++) {
+            for (int j = i + 1; j < particleCount; j++) {
+                double xDistance = state[j] - state[i];
+                double yDistance = state[particleCount + j] - state[particleCount + i];
+                minimumSquaredDistance = Math.min(minimumSquaredDistance, xDistance * xDistance + yDistance * yDistance);
+            }
+        }
+        return Math.sqrt(minimumSquaredDistance);
+    }
+
+    /**
+     * A class that packages the results of one member of the ensemble.
+     */
+    private static class MemberSummary {
+
+        /**
+         * The index of the member, starting from 0.
+         */
+        private final int member;
+
+        /**
+         * The offset applied for each sweep parameter.
+         */
+        private final double[] offsets;
+
+        /**
+         * The state at the last sample reached.
+         */
+        private final double[] state;
+
+        /**
+         * How the member ended.
+         */
+        private String status;
+
+        /**
+         * The time of the last sample reached.
+         */
+        private double time;
+
+        /**
+         * The number of steps the integrator took.
+         */
+        private long stepCount;
+
+        /**
+         * The number of force evaluations made.
+         */
+        private long evaluationCount;
+
+        /**
+         * The relative change in total energy between the start and the last sample reached.
+         */
+        private double energyError;
+
+        /**
+         * The smallest distance between any two particles, over every sample.
+         */
+        private double minimumSeparation;
+
+        /**
+         * The chaos indicators at the last sample reached, indexed by the ordinal of each ChaosIndicator, or null if they are not measured.
+         */
+        private final double[] chaosIndicators;
+
+        /**
+         * The number of events of each kind, indexed by the ordinal of each EncounterType, or null if none are detected.
+         */
+        private final int[] encounterCounts;
+
+        /**
+         * Creates an empty summary of a member.
+         *
+         * @param member     The index of the member, starting from 0.
+         * @param offsets    The offset applied for each sweep parameter.
+         * @param dimension  The length of a state.
+         * @param chaos      True if chaos indicators are measured.
+         * @param encounters True if collisions or close encounters are detected.
+         */
+        MemberSummary(int member, double[] offsets, int dimension, boolean chaos, boolean encounters) {
+            this.member = member;
+            this.offsets = offsets;
+            this.state = new double[dimension];
+            if (chaos) {
+                this.chaosIndicators = new double[ChaosIndicator.values().length];
+                // Nothing is measured until the first sample.
+                Arrays.fill(chaosIndicators, Double.NaN);
+            } else {
+                this.chaosIndicators = null;
+            }
+            this.encounterCounts = encounters ? new int[EncounterType.values().length] : null;
+        }
+
+        /**
+         * Converts the summary into an array of strings.
+         *
+         * @return The array of strings to be stored as a row in the summary file.
+         */
+        String[] toRecord() {
+            ArrayList<String> record = new ArrayList<>();
+            record.add(String.valueOf(member));
+            for (double offset : offsets) {
+                record.add(String.valueOf(offset));
+            }
+            record.add(status);
+            record.add(String.valueOf(time));
+            record.add(String.valueOf(stepCount));
+            record.add(String.valueOf(evaluationCount));
+            record.add(String.valueOf(energyError));
+            record.add(String.valueOf(minimumSeparation));
+            if (chaosIndicators != null) {
+                for (double indicator : chaosIndicators) {
+                    record.add(String.valueOf(indicator));
+                }
+            }
+            if (encounterCounts != null) {
+                for (int count : encounterCounts) {
+                    record.add(String.valueOf(count));
+                }
+            }
+            int particleCount = state.length / 4;
+            for (int id = 0; id < particleCount; id++) {
+                // Position, then velocity, each as an X and Y pair.
+                for (int offset = 0; offset < state.length; offset += 2 * particleCount) {
+                    record.add(String.valueOf(state[offset + id]));
+                    record.add(String.valueOf(state[offset + particleCount + id]));
+                }
+            }
+            return record.toArray(new String[0]);
+        }
+    }
+}
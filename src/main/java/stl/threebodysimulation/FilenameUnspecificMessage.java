@@ -61,6 +61,20 @@ enum FilenameUnspecificMessage implements PopupMessage {
             return "One of the numbers being processed is too large to fit in a Java double. Please ensure that all your inputs are reasonably scaled.";
         }
     },
+    /**
+     * An error that occurs when two particles collide in a simulation that stops at collisions.
+     */
+    COLLISION_ERROR {
+        @Override
+        public String getTitle() {
+            return "Simulation Error";
+        }
+
+        @Override
+        public String getMessage() {
+            return "Two particles have collided, and the simulation has ceased. Please choose to merge particles on collision, or use a smaller collision radius, and try again.";
+        }
+    },
     /**
      * For confirmations related to loading settings files.
      */
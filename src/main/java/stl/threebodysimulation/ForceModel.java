@@ -0,0 +1,42 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that represents all algorithms that can be used to calculate gravitational forces.
+ */
+public enum ForceModel {
+    /**
+     * Sums the force between every pair of particles. Exact, but scales with the square of the particle count.
+     */
+    DIRECT {
+        @Override
+        ForceSolver buildSolver(double[] gravitationalParameters, double openingAngle) {
+            return new DirectForceSolver(gravitationalParameters);
+        }
+
+        public String toString() {
+            return "Direct Summation";
+        }
+    },
+    /**
+     * Approximates distant groups of particles by their center of mass using a quadtree. Scales with N log N.
+     */
+    BARNES_HUT {
+        @Override
+        ForceSolver buildSolver(double[] gravitationalParameters, double openingAngle) {
+            return new BarnesHutForceSolver(gravitationalParameters, openingAngle);
+        }
+
+        public String toString() {
+            return "Barnes-Hut Tree";
+        }
+    };
+
+    /**
+     * Builds a ForceSolver that uses this algorithm.
+     *
+     * @param gravitationalParameters The gravitational parameter (G * mass) of each particle.
+     * @param openingAngle            The opening angle used by tree algorithms. Ignored by exact algorithms.
+     * @return The ForceSolver.
+     */
+    abstract ForceSolver buildSolver(double[] gravitationalParameters, double openingAngle);
+}
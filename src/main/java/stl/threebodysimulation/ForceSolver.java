@@ -0,0 +1,15 @@
+package stl.threebodysimulation;
+
+/**
+ * The common interface for algorithms that calculate the gravitational acceleration of every particle.
+ */
+interface ForceSolver {
+
+    /**
+     * Calculates the acceleration of every particle from their positions. Called for every derivative evaluation, so implementations must not allocate.
+     *
+     * @param state         The state of the particles. Only the positions are read. <br>[X-pos of every particle, Y-pos of every particle, ...]
+     * @param accelerations The array where the accelerations are stored. <br>[X-acc of every particle, Y-acc of every particle]
+     */
+    void computeAccelerations(double[] state, double[] accelerations);
+}
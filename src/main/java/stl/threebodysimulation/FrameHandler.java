@@ -0,0 +1,17 @@
+package stl.threebodysimulation;
+
+/**
+ * This represents a FrameHandler object that receives the state of a running simulation at every frame.
+ */
+interface FrameHandler {
+    /**
+     * A method that is called when the simulation reaches the time of a frame.
+     *
+     * @param time          The time of the frame.
+     * @param state         The state at the time of the frame. Only valid until this method returns.
+     * @param accelerations The accelerations at the time of the frame, in the layout used by ParticleDifferentialEquations. Only valid until this method returns.
+     * @return True if the simulation should continue to the next frame, false if it should stop.
+     * @throws InterruptedException If the thread is interrupted while handling the frame.
+     */
+    boolean handleFrame(double time, double[] state, double[] accelerations) throws InterruptedException;
+}
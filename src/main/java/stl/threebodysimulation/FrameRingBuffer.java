@@ -0,0 +1,260 @@
+package stl.threebodysimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A ring of preallocated frames, passed from exactly one producer thread (the simulation) to exactly one consumer thread (the JavaFX thread) without locks.
+ * <p>
+ * Frames are numbered from 1 in the order they are published. The consumer takes frames in order, but may skip past several at once, in which case the skipped frames count as dropped.
+ * The frame taken last is still being shown, so its slot is not reused until the consumer takes a newer one. That lets the producer run ahead by at most capacity - 1 frames.
+ */
+class FrameRingBuffer {
+
+    /**
+     * How long the producer sleeps between checks when the ring is full, in nanoseconds. The consumer also wakes it whenever it takes a frame.
+     */
+    private static final long PRODUCER_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The number of slots in the ring, always a power of two.
+     */
+    private final int capacity;
+
+    /**
+     * The simulation time of the frame in each slot.
+     */
+    private final double[] times;
+
+    /**
+     * The state of the frame in each slot, in the layout used by ParticleDifferentialEquations.
+     */
+    private final double[][] states;
+
+    /**
+     * The accelerations of the frame in each slot, in the layout used by ParticleDifferentialEquations.
+     */
+    private final double[][] accelerations;
+
+    /**
+     * The chaos indicators of the frame in each slot, indexed by the ordinal of each ChaosIndicator. NaN if the simulation does not measure them.
+     */
+    private final double[][] chaosIndicators;
+
+    /**
+     * The number of events of each kind that the simulation had detected by the frame in each slot, indexed by the ordinal of each EncounterType.
+     */
+    private final long[][] encounterCounts;
+
+    /**
+     * The number of frames published so far. Only written by the producer.
+     */
+    private volatile long publishedCount;
+
+    /**
+     * The number of the last frame taken by the consumer, or 0 if none has been. Only written by the consumer.
+     */
+    private volatile long takenCount;
+
+    /**
+     * The number of frames the consumer skipped past without taking. Only written by the consumer.
+     */
+    private volatile long droppedCount;
+
+    /**
+     * True once the buffer is closed, after which the producer stops.
+     */
+    private volatile boolean closed;
+
+    /**
+     * The producer thread, so that the consumer can wake it when a slot frees up.
+     */
+    private volatile Thread producer;
+
+    /**
+     * Creates a ring buffer, allocating every frame up front.
+     *
+     * @param capacity  The smallest number of slots in the ring. Rounded up to a power of two.
+     * @param dimension The length of a state, as given by ParticleDifferentialEquations.
+     */
+    FrameRingBuffer(int capacity, int dimension) {
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        times = new double[this.capacity];
+        states = new double[this.capacity][dimension];
+        // Accelerations only have the position half of the state.
+        accelerations = new double[this.capacity][dimension / 2];
+        chaosIndicators = new double[this.capacity][ChaosIndicator.values().length];
+        encounterCounts = new long[this.capacity][EncounterType.values().length];
+    }
+
+    /**
+     * Copies a frame into the ring. Called by the producer. Blocks while the ring is full.
+     *
+     * @param time               The time of the frame.
+     * @param state              The state of the frame.
+     * @param frameAccelerations The accelerations of the frame.
+     * @param frameIndicators    The chaos indicators of the frame, or null if the simulation does not measure them.
+     * @param frameEncounters    The number of events of each kind detected by the frame, or null if the simulation does not detect any.
+     * @return True if the frame was published, false if the buffer was closed first.
+     */
+    boolean publish(double time, double[] state, double[] frameAccelerations, double[] frameIndicators, long[] frameEncounters) {
+        producer = Thread.currentThread();
+        long frame = publishedCount + 1;
+        // The slot is free once the consumer has taken a frame newer than the one last stored there.
+        while (frame - capacity >= takenCount) {
+            if (closed) {
+                return false;
+            }
+            LockSupport.parkNanos(this, PRODUCER_WAIT_NANOS);
+        }
+        if (closed) {
+            return false;
+        }
+
+        int slot = slotOf(frame);
+        times[slot] = time;
+        System.arraycopy(state, 0, states[slot], 0, state.length);
+        System.arraycopy(frameAccelerations, 0, accelerations[slot], 0, frameAccelerations.length);
+        if (frameIndicators == null) {
+            Arrays.fill(chaosIndicators[slot], Double.NaN);
+        } else {
+            System.arraycopy(frameIndicators, 0, chaosIndicators[slot], 0, frameIndicators.length);
+        }
+        if (frameEncounters == null) {
+            Arrays.fill(encounterCounts[slot], 0);
+        } else {
+            System.arraycopy(frameEncounters, 0, encounterCounts[slot], 0, frameEncounters.length);
+        }
+
+        // The volatile write publishes the contents of the slot along with the count.
+        publishedCount = frame;
+        return true;
+    }
+
+    /**
+     * Takes a frame, releasing every older frame. Called by the consumer. Frames between the last one taken and this one count as dropped.
+     *
+     * @param frame The number of the frame, between the last frame taken and the last frame published.
+     */
+    void take(long frame) {
+        long previous = takenCount;
+        if (frame <= previous) {
+            return;
+        }
+        droppedCount += frame - previous - 1;
+        takenCount = frame;
+
+        Thread waitingProducer = producer;
+        if (waitingProducer != null) {
+            LockSupport.unpark(waitingProducer);
+        }
+    }
+
+    /**
+     * Gets the time of a frame. Only valid for frames from the last one taken up to the last one published.
+     *
+     * @param frame The number of the frame.
+     * @return The time of the frame.
+     */
+    double getTime(long frame) {
+        return times[slotOf(frame)];
+    }
+
+    /**
+     * Gets the state of a frame. Only valid for frames from the last one taken up to the last one published.
+     *
+     * @param frame The number of the frame.
+     * @return The state of the frame. Must not be modified.
+     */
+    double[] getState(long frame) {
+        return states[slotOf(frame)];
+    }
+
+    /**
+     * Gets the accelerations of a frame. Only valid for frames from the last one taken up to the last one published.
+     *
+     * @param frame The number of the frame.
+     * @return The accelerations of the frame. Must not be modified.
+     */
+    double[] getAccelerations(long frame) {
+        return accelerations[slotOf(frame)];
+    }
+
+    /**
+     * Gets the chaos indicators of a frame. Only valid for frames from the last one taken up to the last one published.
+     *
+     * @param frame The number of the frame.
+     * @return The indicators of the frame, NaN if the simulation does not measure them. Must not be modified.
+     */
+    double[] getChaosIndicators(long frame) {
+        return chaosIndicators[slotOf(frame)];
+    }
+
+    /**
+     * Gets the number of events of each kind that the simulation had detected by a frame. Only valid for frames from the last one taken up to the last one published.
+     *
+     * @param frame The number of the frame.
+     * @return The counts, indexed by the ordinal of each EncounterType. Must not be modified.
+     */
+    long[] getEncounterCounts(long frame) {
+        return encounterCounts[slotOf(frame)];
+    }
+
+    /**
+     * Gets the number of frames published so far, which is also the number of the newest frame.
+     *
+     * @return The number of frames published.
+     */
+    long getPublishedCount() {
+        return publishedCount;
+    }
+
+    /**
+     * Gets the number of the last frame taken.
+     *
+     * @return The number of the last frame taken, or 0 if none has been.
+     */
+    long getTakenCount() {
+        return takenCount;
+    }
+
+    /**
+     * Gets the number of frames the consumer skipped past without taking.
+     *
+     * @return The number of dropped frames.
+     */
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Gets the number of frames published but not yet taken.
+     *
+     * @return The backlog, in frames.
+     */
+    long getBacklog() {
+        return publishedCount - takenCount;
+    }
+
+    /**
+     * Closes the buffer. The producer stops at its next frame, even if it is waiting for a free slot.
+     */
+    void close() {
+        closed = true;
+        Thread waitingProducer = producer;
+        if (waitingProducer != null) {
+            LockSupport.unpark(waitingProducer);
+        }
+    }
+
+    /**
+     * Finds the slot that a frame is stored in.
+     *
+     * @param frame The number of the frame.
+     * @return The index of the slot.
+     */
+    private int slotOf(long frame) {
+        return (int) ((frame - 1) & (capacity - 1));
+    }
+}
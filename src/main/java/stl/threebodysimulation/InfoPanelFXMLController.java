@@ -1,6 +1,8 @@
 package stl.threebodysimulation;
 
 import javafx.fxml.FXML;
+import javafx.scene.control.Label;
+import javafx.scene.control.TitledPane;
 import javafx.scene.layout.HBox;
 
 import java.io.IOException;
@@ -21,6 +23,48 @@ public class InfoPanelFXMLController {
     @FXML
     private HBox panelBox;
 
+    /**
+     * The TitledPane UI element that displays chaos indicators. Only shown for runs that measure them.
+     */
+    @FXML
+    private TitledPane chaosPane;
+
+    /**
+     * The Label UI element that displays the maximal Lyapunov exponent.
+     */
+    @FXML
+    private Label lyapunovInfo;
+
+    /**
+     * The Label UI element that displays the MEGNO.
+     */
+    @FXML
+    private Label megnoInfo;
+
+    /**
+     * The Label UI element that displays the mean MEGNO.
+     */
+    @FXML
+    private Label meanMegnoInfo;
+
+    /**
+     * The TitledPane UI element that displays encounter counts. Only shown for runs that detect close encounters or collisions.
+     */
+    @FXML
+    private TitledPane encounterPane;
+
+    /**
+     * The Label UI element that displays the number of close encounters.
+     */
+    @FXML
+    private Label closeEncounterInfo;
+
+    /**
+     * The Label UI element that displays the number of collisions.
+     */
+    @FXML
+    private Label collisionInfo;
+
     /**
      * An array that stores all info-display UI elements.
      */
@@ -73,6 +117,69 @@ public class InfoPanelFXMLController {
         } catch (IOException ignored) {
             // Should never happen.
         }
+        // The particle displays are added after the layout is loaded, so the chaos and encounter displays are moved back behind them.
+        chaosPane.toFront();
+        encounterPane.toFront();
+    }
+
+    /**
+     * Shows or hides the chaos indicator display.
+     *
+     * @param visible True if the run measures chaos indicators.
+     */
+    void setChaosIndicatorsVisible(boolean visible) {
+        chaosPane.setVisible(visible);
+        chaosPane.setManaged(visible);
+    }
+
+    /**
+     * Updates the chaos indicator display.
+     *
+     * @param indicators The indicators, indexed by the ordinal of each ChaosIndicator. NaN if nothing has been measured.
+     */
+    void updateChaosIndicators(double[] indicators) {
+        if (!chaosPane.isVisible()) {
+            return;
+        }
+        lyapunovInfo.setText(formatIndicator(indicators[ChaosIndicator.LYAPUNOV_EXPONENT.ordinal()]));
+        megnoInfo.setText(formatIndicator(indicators[ChaosIndicator.MEGNO.ordinal()]));
+        meanMegnoInfo.setText(formatIndicator(indicators[ChaosIndicator.MEAN_MEGNO.ordinal()]));
+    }
+
+    /**
+     * Shows or hides the encounter display.
+     *
+     * @param visible True if the run detects close encounters or collisions.
+     */
+    void setEncountersVisible(boolean visible) {
+        encounterPane.setVisible(visible);
+        encounterPane.setManaged(visible);
+    }
+
+    /**
+     * Updates the encounter display.
+     *
+     * @param counts The number of events of each kind so far, indexed by the ordinal of each EncounterType.
+     */
+    void updateEncounters(long[] counts) {
+        if (!encounterPane.isVisible()) {
+            return;
+        }
+        closeEncounterInfo.setText(Long.toString(counts[EncounterType.CLOSE_ENCOUNTER.ordinal()]));
+        collisionInfo.setText(Long.toString(counts[EncounterType.COLLISION.ordinal()]));
+    }
+
+    /**
+     * Formats a chaos indicator for display. Indicators are small, dimensionless numbers, so they keep the same format whatever number format is chosen.
+     *
+     * @param indicator The value of the indicator.
+     * @return The formatted string that represents the indicator.
+     */
+    private static String formatIndicator(double indicator) {
+        if (Double.isNaN(indicator)) {
+            return "N/A";
+        }
+        return String.format("%.4g", indicator);
     }
 
     /**
@@ -83,8 +190,8 @@ public class InfoPanelFXMLController {
     void setParticles(Particle[] particles) {
         this.particles = particles;
 
-        // Set up a listener inside each particle
-        for (int i = 0; i < 3; i++) {
+        // Set up a listener inside each particle that has an info display. Any further particles are simulated, but not displayed here.
+        for (int i = 0; i < Math.min(particles.length, infoControllers.length); i++) {
             setParticleListener(i);
             infoControllers[i].updateFromColor(particles[i].getColor());
         }
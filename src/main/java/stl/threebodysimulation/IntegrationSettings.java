@@ -0,0 +1,165 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that packages the settings of the numerical engine behind a simulation. These are chosen per run, and are not stored in templates.
+ */
+class IntegrationSettings {
+
+    /**
+     * The opening angle used if none is specified.
+     */
+    static final double DEFAULT_OPENING_ANGLE = 0.5;
+
+    /**
+     * The step size of fixed-step integrators used if none is specified, in seconds.
+     */
+    static final double DEFAULT_STEP_SIZE = 0.001;
+
+    /**
+     * The algorithm that calculates gravitational forces.
+     */
+    private final ForceModel forceModel;
+
+    /**
+     * The opening angle of tree force models. Lower is more accurate, and 0 is exact.
+     */
+    private final double openingAngle;
+
+    /**
+     * The numerical integrator that advances the simulation.
+     */
+    private final IntegratorType integratorType;
+
+    /**
+     * The step size of fixed-step integrators, in seconds.
+     */
+    private final double stepSize;
+
+    /**
+     * True if the adaptive integrator steps in regularized time, which slows down through close encounters.
+     */
+    private final boolean regularized;
+
+    /**
+     * True if chaos indicators are measured alongside the state.
+     */
+    private final boolean chaosIndicators;
+
+    /**
+     * The settings of close encounter and collision detection.
+     */
+    private final EncounterSettings encounterSettings;
+
+    /**
+     * Creates the default integration settings: exact direct summation, integrated with Dormand-Prince.
+     */
+    IntegrationSettings() {
+        this(ForceModel.DIRECT, DEFAULT_OPENING_ANGLE, IntegratorType.DORMAND_PRINCE, DEFAULT_STEP_SIZE);
+    }
+
+    /**
+     * Creates integration settings without regularization, chaos indicators or encounter detection.
+     *
+     * @param forceModel     The algorithm that calculates gravitational forces.
+     * @param openingAngle   The opening angle of tree force models.
+     * @param integratorType The numerical integrator that advances the simulation.
+     * @param stepSize       The step size of fixed-step integrators, in seconds.
+     */
+    IntegrationSettings(ForceModel forceModel, double openingAngle, IntegratorType integratorType, double stepSize) {
+        this(forceModel, openingAngle, integratorType, stepSize, false, false, new EncounterSettings());
+    }
+
+    /**
+     * Basic constructor that creates an IntegrationSettings object.
+     *
+     * @param forceModel        The algorithm that calculates gravitational forces.
+     * @param openingAngle      The opening angle of tree force models.
+     * @param integratorType    The numerical integrator that advances the simulation.
+     * @param stepSize          The step size of fixed-step integrators, in seconds.
+     * @param regularized       True if the adaptive integrator steps in regularized time.
+     * @param chaosIndicators   True if chaos indicators are measured alongside the state.
+     * @param encounterSettings The settings of close encounter and collision detection.
+     */
+    IntegrationSettings(ForceModel forceModel, double openingAngle, IntegratorType integratorType, double stepSize, boolean regularized, boolean chaosIndicators, EncounterSettings encounterSettings) {
+        this.forceModel = forceModel;
+        this.openingAngle = openingAngle;
+        this.integratorType = integratorType;
+        this.stepSize = stepSize;
+        this.regularized = regularized;
+        this.chaosIndicators = chaosIndicators;
+        this.encounterSettings = encounterSettings;
+    }
+
+    /**
+     * Gets the algorithm that calculates gravitational forces.
+     *
+     * @return The force model.
+     */
+    ForceModel getForceModel() {
+        return forceModel;
+    }
+
+    /**
+     * Gets the opening angle of tree force models.
+     *
+     * @return The opening angle.
+     */
+    double getOpeningAngle() {
+        return openingAngle;
+    }
+
+    /**
+     * Gets the numerical integrator that advances the simulation.
+     *
+     * @return The integrator type.
+     */
+    IntegratorType getIntegratorType() {
+        return integratorType;
+    }
+
+    /**
+     * Gets the step size of fixed-step integrators.
+     *
+     * @return The step size, in seconds.
+     */
+    double getStepSize() {
+        return stepSize;
+    }
+
+    /**
+     * Checks whether the adaptive integrator steps in regularized time.
+     *
+     * @return True if it does. Fixed-step integrators ignore this.
+     */
+    boolean getRegularized() {
+        return regularized;
+    }
+
+    /**
+     * Checks whether chaos indicators are measured alongside the state.
+     *
+     * @return True if chaos indicators are measured.
+     */
+    boolean getChaosIndicators() {
+        return chaosIndicators;
+    }
+
+    /**
+     * Gets the settings of close encounter and collision detection.
+     *
+     * @return The encounter settings.
+     */
+    EncounterSettings getEncounterSettings() {
+        return encounterSettings;
+    }
+
+    /**
+     * Builds the integrator described by these settings.
+     *
+     * @param equations The differential equations to integrate.
+     * @return The integrator.
+     */
+    SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations) {
+        return integratorType.buildIntegrator(equations, this);
+    }
+}
@@ -0,0 +1,142 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that represents all numerical integrators that can advance a simulation.
+ */
+public enum IntegratorType {
+    /**
+     * Adaptive Dormand-Prince 8(5,3). Very accurate through close encounters, but its energy error drifts over long runs.
+     */
+    DORMAND_PRINCE {
+        @Override
+        SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+            return new DormandPrinceIntegrator(equations, settings);
+        }
+
+        @Override
+        boolean isFixedStep() {
+            return false;
+        }
+
+        @Override
+        boolean canRegularize() {
+            return true;
+        }
+
+        public String toString() {
+            return "Dormand-Prince";
+        }
+    },
+    /**
+     * Adaptive Gragg-Bulirsch-Stoer extrapolation, which chooses its order as well as its step size.
+     * Held to tolerances near machine precision, which it reaches in far fewer force evaluations than Dormand-Prince would on smooth orbits.
+     */
+    BULIRSCH_STOER {
+        @Override
+        SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+            return new BulirschStoerIntegrator(equations, settings);
+        }
+
+        @Override
+        boolean isFixedStep() {
+            return false;
+        }
+
+        public String toString() {
+            return "Bulirsch-Stoer";
+        }
+    },
+    /**
+     * Second order kick-drift-kick leapfrog. One force evaluation per step.
+     */
+    LEAPFROG {
+        @Override
+        SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+            return new SymplecticIntegrator(equations, SymplecticIntegrator.LEAPFROG_DRIFTS, SymplecticIntegrator.LEAPFROG_KICKS, settings);
+        }
+
+        public String toString() {
+            return "Leapfrog";
+        }
+    },
+    /**
+     * Yoshida's fourth order triple jump. Three force evaluations per step.
+     */
+    YOSHIDA_4 {
+        @Override
+        SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+            return new SymplecticIntegrator(equations, SymplecticIntegrator.YOSHIDA_4_DRIFTS, SymplecticIntegrator.YOSHIDA_4_KICKS, settings);
+        }
+
+        public String toString() {
+            return "Yoshida 4th Order";
+        }
+    },
+    /**
+     * Yoshida's sixth order composition. Seven force evaluations per step.
+     */
+    YOSHIDA_6 {
+        @Override
+        SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+            return new SymplecticIntegrator(equations, SymplecticIntegrator.YOSHIDA_6_DRIFTS, SymplecticIntegrator.YOSHIDA_6_KICKS, settings);
+        }
+
+        public String toString() {
+            return "Yoshida 6th Order";
+        }
+    },
+    /**
+     * Forest and Ruth's fourth order integrator. Three force evaluations per step.
+     */
+    FOREST_RUTH {
+        @Override
+        SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+            return new SymplecticIntegrator(equations, SymplecticIntegrator.FOREST_RUTH_DRIFTS, SymplecticIntegrator.FOREST_RUTH_KICKS, settings);
+        }
+
+        public String toString() {
+            return "Forest-Ruth";
+        }
+    },
+    /**
+     * Algorithmic chain regularization, with Yoshida's sixth order composition in regularized time. Seven force evaluations per step.
+     * Follows tight binaries and close encounters with steps that shrink in real time as particles approach each other, so its step size is only the length of a step at the start.
+     */
+    ALGORITHMIC_CHAIN {
+        @Override
+        SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings) {
+            return new ChainIntegrator(equations, SymplecticIntegrator.YOSHIDA_6_DRIFTS, SymplecticIntegrator.YOSHIDA_6_KICKS, settings);
+        }
+
+        public String toString() {
+            return "Algorithmic Chain";
+        }
+    };
+
+    /**
+     * Builds an integrator of this type.
+     *
+     * @param equations The differential equations to integrate.
+     * @param settings  The settings of the run. The step size is ignored by adaptive integrators.
+     * @return The integrator.
+     */
+    abstract SimulationIntegrator buildIntegrator(ParticleDifferentialEquations equations, IntegrationSettings settings);
+
+    /**
+     * Checks whether integrators of this type take steps of a fixed size.
+     *
+     * @return True if the step size setting is used.
+     */
+    boolean isFixedStep() {
+        return true;
+    }
+
+    /**
+     * Checks whether integrators of this type can step in regularized time.
+     *
+     * @return True if the regularization setting is used.
+     */
+    boolean canRegularize() {
+        return false;
+    }
+}
@@ -7,11 +7,15 @@ import javafx.application.Application;
  */
 public class Launcher {
     /**
-     * Runs the application.
+     * Runs the application, or a headless simulation if the first argument is the batch flag.
      *
      * @param args Terminal arguments.
      */
     public static void main(String[] args) {
+        // Batch runs never touch JavaFX, so they work on machines without a display.
+        if (args.length > 0 && args[0].equals(BatchRunner.BATCH_FLAG)) {
+            System.exit(BatchRunner.run(args));
+        }
         System.setProperty("prism.allowhidpi", "false");
         Application.launch(MainApp.class, args);
     }
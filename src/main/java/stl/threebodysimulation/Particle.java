@@ -15,7 +15,7 @@ class Particle {
     private final double mass;
 
     /**
-     * ID of particle, one of {1, 2, 3}
+     * ID of particle, starting from 1.
      */
     private final int id;
 
@@ -118,27 +118,38 @@ class Particle {
     }
 
     /**
-     * Flattens a particle into an array.
+     * Flattens a particle into its slots of a flattened state array.
      *
-     * @return An array of 4 doubles that represent the {x-position, y-position, x-velocity, y-velocity}.
-     */
-    double[] flatten() {
-        return new double[]{position[0], position[1], velocity[0], velocity[1]};
+     * @param flattenedParticles The state array of every particle, in the layout used by ParticleDifferentialEquations.
+     * @param particleCount      The number of particles in the state array.
+     */
+    void flatten(double[] flattenedParticles, int particleCount) {
+        int index = id - 1; // Particle IDs start with 1, but indices start with 0.
+        flattenedParticles[index] = position[0];
+        flattenedParticles[particleCount + index] = position[1];
+        flattenedParticles[2 * particleCount + index] = velocity[0];
+        flattenedParticles[3 * particleCount + index] = velocity[1];
     }
 
     /**
-     * Updates the particle according to a given input array, as well as a static acceleration array from ParticleDifferentialEquations.
+     * Updates the particle according to its slots of a flattened state array and a flattened acceleration array.
      *
-     * @param flattenedParticle The double array that represents {x-position, y-position, x-velocity, y-velocity}.
-     */
-    void update(double[] flattenedParticle) {
-        position[0] = flattenedParticle[0];
-        position[1] = flattenedParticle[1];
-        velocity[0] = flattenedParticle[2];
-        velocity[1] = flattenedParticle[3];
-        acceleration[0] = ParticleDifferentialEquations.getAcceleration(id, 0);
-        acceleration[1] = ParticleDifferentialEquations.getAcceleration(id, 1);
-        infoUpdateListener.onEvent();
+     * @param flattenedParticles The state array of every particle, in the layout used by ParticleDifferentialEquations.
+     * @param accelerations      The acceleration array of every particle, in the layout used by ParticleDifferentialEquations.
+     * @param particleCount      The number of particles in the state array.
+     */
+    void update(double[] flattenedParticles, double[] accelerations, int particleCount) {
+        int index = id - 1; // Particle IDs start with 1, but indices start with 0.
+        position[0] = flattenedParticles[index];
+        position[1] = flattenedParticles[particleCount + index];
+        velocity[0] = flattenedParticles[2 * particleCount + index];
+        velocity[1] = flattenedParticles[3 * particleCount + index];
+        acceleration[0] = accelerations[index];
+        acceleration[1] = accelerations[particleCount + index];
+        // Only particles with an info display have a listener.
+        if (infoUpdateListener != null) {
+            infoUpdateListener.onEvent();
+        }
     }
 
     /**
@@ -3,7 +3,10 @@ package stl.threebodysimulation;
 import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
 
 /**
- * A class that represents the differential equations, which govern the movement of three masses.
+ * A class that represents the differential equations, which govern the movement of any number of masses.
+ * <p>
+ * The state is stored as a structure of arrays, so that the force kernel walks through contiguous memory: <br>
+ * [X-pos of every particle, Y-pos of every particle, X-vel of every particle, Y-vel of every particle]
  */
 class ParticleDifferentialEquations implements FirstOrderDifferentialEquations {
 
@@ -13,107 +16,421 @@ class ParticleDifferentialEquations implements FirstOrderDifferentialEquations {
     private static final double G = 398575.0725;
 
     /**
-     * Stores the x and y accelerations of each particle so other classes can access them.
+     * The number of particles governed by the equations.
      */
-    private static double[][] accelerationStorage;
+    private final int particleCount;
 
     /**
-     * The mass of each particle.
+     * The gravitational parameter (G * mass) of each particle, precomputed so the kernel only multiplies.
      */
-    private final double[] masses;
+    private final double[] gravitationalParameters;
 
     /**
-     * Initializes a differential equation set based on given masses.
+     * The gravitational parameter of each particle before any merges, so that merges can be redone on an older state.
+     */
+    private final double[] initialGravitationalParameters;
+
+    /**
+     * The index of the particle that each particle has been merged into, or its own index if it has not been merged.
+     * A merged particle has no mass, and is carried along on top of the particle it was merged into.
+     */
+    private final int[] hosts;
+
+    /**
+     * The number of particles that have been merged into another.
+     */
+    private int mergedCount;
+
+    /**
+     * The algorithm that calculates the acceleration of each particle.
+     */
+    private final ForceSolver forceSolver;
+
+    /**
+     * Scratch space for the x and y accelerations of each particle within computeDerivatives. <br>[X-acc of every particle, Y-acc of every particle]
+     * Never handed out, so no other object can see it change.
+     */
+    private final double[] accelerationStorage;
+
+    /**
+     * The number of times the accelerations have been calculated since the equations were created.
+     */
+    private long evaluationCount;
+
+    /**
+     * Initializes a differential equation set based on given masses, with exact forces.
      *
      * @param masses The masses of each particle, in an array.
      */
     ParticleDifferentialEquations(double[] masses) {
-        this.masses = masses;
-        accelerationStorage = new double[3][2];
+        this(masses, new IntegrationSettings());
+    }
+
+    /**
+     * Initializes a differential equation set based on given masses, with forces calculated according to the given settings.
+     *
+     * @param masses   The masses of each particle, in an array.
+     * @param settings The settings that choose the force model.
+     */
+    ParticleDifferentialEquations(double[] masses, IntegrationSettings settings) {
+        particleCount = masses.length;
+        gravitationalParameters = new double[particleCount];
+        for (int particle = 0; particle < particleCount; particle++) {
+            gravitationalParameters[particle] = G * masses[particle];
+        }
+        initialGravitationalParameters = gravitationalParameters.clone();
+        hosts = new int[particleCount];
+        for (int particle = 0; particle < particleCount; particle++) {
+            hosts[particle] = particle;
+        }
+        forceSolver = settings.getForceModel().buildSolver(gravitationalParameters, settings.getOpeningAngle());
+        // Allocated once here, so that computeDerivatives never has to allocate.
+        accelerationStorage = new double[2 * particleCount];
+    }
+
+    /**
+     * Gets the number of particles governed by the equations.
+     *
+     * @return The number of particles.
+     */
+    int getParticleCount() {
+        return particleCount;
+    }
+
+    /**
+     * Gets the number of times the accelerations have been calculated, by computeDerivatives or computeAccelerations.
+     *
+     * @return The number of force evaluations since the equations were created.
+     */
+    long getEvaluationCount() {
+        return evaluationCount;
     }
 
     /**
-     * Gets the acceleration for a particle and a dimension.
+     * Counts a force evaluation made outside the equations, by an integrator with its own force calculation.
+     */
+    void countEvaluation() {
+        evaluationCount++;
+    }
+
+    /**
+     * Gets the gravitational parameter of a particle, which includes the mass of any particle merged into it.
      *
-     * @param particleID The particle with acceleration.
-     * @param dimension  The dimension of acceleration.
-     * @return The acceleration.
+     * @param particle The index of the particle.
+     * @return The gravitational parameter, G times the mass, in km^3 / s^2. 0 if the particle has been merged into another.
      */
-    static double getAcceleration(int particleID, int dimension) {
-        return accelerationStorage[particleID - 1][dimension]; // Particle IDs start with 1, but indices start with 0.
+    double getGravitationalParameter(int particle) {
+        return gravitationalParameters[particle];
     }
 
     /**
      * Gets the dimensions of the differential equations. From the interface.
      *
-     * @return The dimensions of the equations. Always 12.
+     * @return The dimensions of the equations: 4 for every particle.
      */
     @Override
     public int getDimension() {
-        return 12; // 3 particles * 2 dimensions * 2 derivatives (both displacement -> velocity and velocity -> acceleration)
+        return 4 * particleCount; // particles * 2 dimensions * 2 derivatives (both displacement -> velocity and velocity -> acceleration)
     }
 
     /**
      * Takes the derivative of an array and stores it an another array. From the interface.
+     * This is called many times per integration step, so it works entirely in preallocated arrays and never allocates.
      *
      * @param t    The current time. Parameter inherited from interface, not used.
-     * @param y    The initial state of the function. <br>[X-pos of particle 1, Y-pos of particle 1, X-vel of particle 1, Y-vel of particle 1, X-pos of particle 2, Y-pos of particle 2, X-vel of particle 2, Y-vel of particle 2, X-pos of particle 3, Y-pos of particle 3, X-vel of particle 3, Y-vel of particle 3]
-     * @param yDot The array where the derivatives are stored. <br>[X-vel of particle 1, Y-vel of particle 1, X-acc of particle 1, Y-acc of particle 1, X-vel of particle 2, Y-vel of particle 2, X-acc of particle 2, Y-acc of particle 2, X-vel of particle 3, Y-vel of particle 3, X-acc of particle 3, Y-acc of particle 3]
+     * @param y    The initial state of the function. <br>[X-pos of every particle, Y-pos of every particle, X-vel of every particle, Y-vel of every particle]
+     * @param yDot The array where the derivatives are stored. <br>[X-vel of every particle, Y-vel of every particle, X-acc of every particle, Y-acc of every particle]
      */
     @Override
     public void computeDerivatives(double t, double[] y, double[] yDot) {
-        // Copy velocity for y to yDot in correct position.
-        for (int particle = 0; particle < 3; particle++) {
-            yDot[4 * particle] = y[4 * particle + 2];
-            yDot[4 * particle + 1] = y[4 * particle + 3];
-        }
-
-        // Reset acceleration
-        accelerationStorage = new double[3][2];
+        // Velocities are stored contiguously, so they are copied over in one go.
+        System.arraycopy(y, 2 * particleCount, yDot, 0, 2 * particleCount);
 
         // Calculate acceleration on each object from every other object.
-        addToAcceleration(new double[]{y[4] - y[0], y[5] - y[1]}, masses[0], masses[1], 0, 1);
-        addToAcceleration(new double[]{y[8] - y[0], y[9] - y[1]}, masses[0], masses[2], 0, 2);
-        addToAcceleration(new double[]{y[8] - y[4], y[9] - y[5]}, masses[1], masses[2], 1, 2);
+        forceSolver.computeAccelerations(y, accelerationStorage);
+        evaluationCount++;
+        followHosts(accelerationStorage);
 
         // Set yDot acceleration indices to correct value
-        for (int particle = 0; particle < 3; particle++) {
-            yDot[4 * particle + 2] = accelerationStorage[particle][0];
-            yDot[4 * particle + 3] = accelerationStorage[particle][1];
+        System.arraycopy(accelerationStorage, 0, yDot, 2 * particleCount, 2 * particleCount);
+    }
+
+    /**
+     * Calculates the acceleration of every particle for a state, without the velocity half of the derivatives. Used by integrators that treat positions and velocities separately.
+     *
+     * The accelerations are written into an array owned by the caller, so they stay with the state they belong to, whatever the equations evaluate next.
+     *
+     * @param y             The state of the function, in the same layout as computeDerivatives. Only the positions are read.
+     * @param accelerations The array the accelerations are stored in. <br>[X-acc of every particle, Y-acc of every particle]
+     */
+    void computeAccelerations(double[] y, double[] accelerations) {
+        forceSolver.computeAccelerations(y, accelerations);
+        evaluationCount++;
+        followHosts(accelerations);
+    }
+
+    /**
+     * Checks whether a particle has been merged into another.
+     *
+     * @param particle The index of the particle.
+     * @return True if the particle has been merged, and no longer takes part in the simulation.
+     */
+    boolean isMerged(int particle) {
+        return hosts[particle] != particle;
+    }
+
+    /**
+     * Gets the particle that a particle has been merged into.
+     *
+     * @param particle The index of the particle.
+     * @return The index of the particle it was merged into, or its own index if it has not been merged.
+     */
+    int getHost(int particle) {
+        return hosts[particle];
+    }
+
+    /**
+     * Merges two particles that collided into one, conserving mass and momentum. The heavier particle carries on, at the center of mass of the two.
+     * The other particle loses its mass, and is carried along on top of it for the rest of the run.
+     *
+     * @param first  The index of the first particle.
+     * @param second The index of the second particle.
+     * @param y      The state at the collision. The two particles are overwritten with the merged particle. May be an extended state.
+     */
+    void mergeParticles(int first, int second, double[] y) {
+        int host = gravitationalParameters[first] >= gravitationalParameters[second] ? first : second;
+        int absorbed = host == first ? second : first;
+        double hostParameter = gravitationalParameters[host];
+        double absorbedParameter = gravitationalParameters[absorbed];
+        double totalParameter = hostParameter + absorbedParameter;
+
+        // Positions and velocities both average by mass, which keeps the center of mass and the momentum where they were.
+        for (int offset = 0; offset < 4 * particleCount; offset += particleCount) {
+            y[offset + host] = (hostParameter * y[offset + host] + absorbedParameter * y[offset + absorbed]) / totalParameter;
+        }
+        gravitationalParameters[host] = totalParameter;
+        gravitationalParameters[absorbed] = 0;
+
+        // Anything merged into the absorbed particle earlier now follows the new host.
+        for (int particle = 0; particle < particleCount; particle++) {
+            if (particle == absorbed || hosts[particle] == absorbed) {
+                hosts[particle] = host;
+            }
+        }
+        mergedCount = 0;
+        for (int particle = 0; particle < particleCount; particle++) {
+            if (isMerged(particle)) {
+                mergedCount++;
+                for (int offset = 0; offset < 4 * particleCount; offset += particleCount) {
+                    y[offset + particle] = y[offset + host];
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts the equations back into the merges recorded from another run of the same simulation, such as one resumed from a checkpoint.
+     * Any merges made so far are undone first.
+     *
+     * @param hosts The particle each particle had been merged into, or its own index if it had not been merged.
+     */
+    void restoreMerges(int[] hosts) {
+        System.arraycopy(initialGravitationalParameters, 0, gravitationalParameters, 0, particleCount);
+        System.arraycopy(hosts, 0, this.hosts, 0, particleCount);
+        mergedCount = 0;
+        for (int particle = 0; particle < particleCount; particle++) {
+            if (isMerged(particle)) {
+                mergedCount++;
+                gravitationalParameters[hosts[particle]] += initialGravitationalParameters[particle];
+                gravitationalParameters[particle] = 0;
+            }
+        }
+    }
+
+    /**
+     * Redoes every merge on a state from before the merges happened, such as a frame on display when a paused simulation resumes.
+     * Does nothing to a state that already has its particles merged.
+     *
+     * @param y The state. Merged particles are overwritten with the particle they were merged into.
+     */
+    void applyMerges(double[] y) {
+        if (mergedCount == 0) {
+            return;
+        }
+        for (int host = 0; host < particleCount; host++) {
+            if (isMerged(host)) {
+                continue;
+            }
+            boolean merged = true;
+            for (int particle = 0; particle < particleCount; particle++) {
+                if (hosts[particle] != host) {
+                    continue;
+                }
+                for (int offset = 0; offset < 4 * particleCount; offset += particleCount) {
+                    if (y[offset + particle] != y[offset + host]) {
+                        merged = false;
+                    }
+                }
+            }
+            if (merged) {
+                continue;
+            }
+
+            // Average the whole group by its original masses, as the merges would have.
+            for (int offset = 0; offset < 4 * particleCount; offset += particleCount) {
+                double weightedSum = 0;
+                for (int particle = 0; particle < particleCount; particle++) {
+                    if (hosts[particle] == host) {
+                        weightedSum += initialGravitationalParameters[particle] * y[offset + particle];
+                    }
+                }
+                y[offset + host] = weightedSum / gravitationalParameters[host];
+                for (int particle = 0; particle < particleCount; particle++) {
+                    if (hosts[particle] == host) {
+                        y[offset + particle] = y[offset + host];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives every merged particle the acceleration of the particle it was merged into, so that it stays on top of it.
+     *
+     * @param accelerations The accelerations of every particle. <br>[X-acc of every particle, Y-acc of every particle]
+     */
+    private void followHosts(double[] accelerations) {
+        if (mergedCount == 0) {
+            return;
+        }
+        for (int particle = 0; particle < particleCount; particle++) {
+            if (isMerged(particle)) {
+                accelerations[particle] = accelerations[hosts[particle]];
+                accelerations[particleCount + particle] = accelerations[particleCount + hosts[particle]];
+            }
         }
     }
 
     /**
-     * Calculates acceleration due to gravity between two different objects and stores it in the accelerationStorage array.
+     * Calculates how the accelerations change when the positions are displaced along a tangent vector: the Jacobian of the accelerations, times the position half of the tangent.
+     * Used to integrate the variational equations. Always exact direct summation, whatever the force model, and never allocates.
+     * <p>
+     * The arrays are read and written at offsets, so that the tangent can live in the same array as an extended state.
      *
-     * @param vector The distance between the objects.
-     * @param mass1  The mass of object 1.
-     * @param mass2  The mass of object 2.
-     * @param id1    The id of object 1 in the storage array.
-     * @param id2    The id of object 2 in the storage array.
+     * @param y                    The state of the function, in the same layout as computeDerivatives. Only the positions are read.
+     * @param tangent              The array holding the tangent vector, in the same layout as the state. Only its positions are read.
+     * @param tangentOffset        The index of the tangent vector in its array.
+     * @param tangentAccelerations The array the change in accelerations is stored in. <br>[X-acc of every particle, Y-acc of every particle]
+     * @param accelerationOffset   The index to store the change in accelerations at.
      */
-    private void addToAcceleration(double[] vector, double mass1, double mass2, int id1, int id2) {
-        // Absolute value of vector, according to pythagorean theorem
-        double absoluteDistance = Math.sqrt(Math.pow(vector[0], 2) + Math.pow(vector[1], 2));
+    void computeTangentAccelerations(double[] y, double[] tangent, int tangentOffset, double[] tangentAccelerations, int accelerationOffset) {
+        for (int i = 0; i < 2 * particleCount; i++) {
+            tangentAccelerations[accelerationOffset + i] = 0;
+        }
 
-        // Common factors of acceleration: vector / absVector^3
-        double[] baseAcceleration;
-        if (absoluteDistance != 0) {
-            baseAcceleration = new double[]{vector[0] / Math.pow(absoluteDistance, 3), vector[1] / Math.pow(absoluteDistance, 3)};
-        } else {
-            // obviously zero if there is no distance between two objects.
-            baseAcceleration = new double[]{0, 0};
+        for (int i = 0; i < particleCount; i++) {
+            for (int j = i + 1; j < particleCount; j++) {
+                // Merged particles sit on top of their host, where the Jacobian is singular, and have no mass anyway.
+                if (isMerged(i) || isMerged(j)) {
+                    continue;
+                }
+                double xDistance = y[j] - y[i];
+                double yDistance = y[particleCount + j] - y[particleCount + i];
+                double squaredDistance = xDistance * xDistance + yDistance * yDistance;
+                double inverseCubedDistance = 1 / (squaredDistance * Math.sqrt(squaredDistance));
+                double inverseFifthDistance = inverseCubedDistance / squaredDistance;
+
+                // How far the tangent moves the pair apart.
+                double xDisplacement = tangent[tangentOffset + j] - tangent[tangentOffset + i];
+                double yDisplacement = tangent[tangentOffset + particleCount + j] - tangent[tangentOffset + particleCount + i];
+                double projection = xDistance * xDisplacement + yDistance * yDisplacement;
+
+                // The tidal tensor of the pair, (I / r^3 - 3 * d * d^T / r^5), applied to the displacement.
+                double xTidal = xDisplacement * inverseCubedDistance - 3 * xDistance * projection * inverseFifthDistance;
+                double yTidal = yDisplacement * inverseCubedDistance - 3 * yDistance * projection * inverseFifthDistance;
+
+                // Equal and opposite, like the forces themselves.
+                tangentAccelerations[accelerationOffset + i] += gravitationalParameters[j] * xTidal;
+                tangentAccelerations[accelerationOffset + particleCount + i] += gravitationalParameters[j] * yTidal;
+                tangentAccelerations[accelerationOffset + j] -= gravitationalParameters[i] * xTidal;
+                tangentAccelerations[accelerationOffset + particleCount + j] -= gravitationalParameters[i] * yTidal;
+            }
         }
+    }
 
-        // individual coefficients for each acceleration
-        double massFactor1 = mass2 * G;
-        // Reversed for mass2, because vectors have direction
-        double massFactor2 = -1 * mass1 * G;
+    /**
+     * Calculates the total energy of a state: the kinetic energy of every particle, plus the potential energy of every pair.
+     * Always exact, whatever the force model. Used to check how well an integrator conserves energy.
+     *
+     * @param y The state, in the same layout as computeDerivatives.
+     * @return The total energy, in earths * km^2 / s^2.
+     */
+    double computeEnergy(double[] y) {
+        double energy = 0;
+        for (int i = 0; i < particleCount; i++) {
+            double mass = gravitationalParameters[i] / G;
+            double xVelocity = y[2 * particleCount + i];
+            double yVelocity = y[3 * particleCount + i];
+            energy += 0.5 * mass * (xVelocity * xVelocity + yVelocity * yVelocity);
+            for (int j = i + 1; j < particleCount; j++) {
+                // Merged particles have no mass, and sit on top of their host.
+                if (isMerged(i) || isMerged(j)) {
+                    continue;
+                }
+                double xDistance = y[j] - y[i];
+                double yDistance = y[particleCount + j] - y[particleCount + i];
+                energy -= gravitationalParameters[i] * gravitationalParameters[j] / G / Math.sqrt(xDistance * xDistance + yDistance * yDistance);
+            }
+        }
+        return energy;
+    }
 
-        // Multiply together.
-        for (int i = 0; i < 2; i++) {
-            accelerationStorage[id1][i] += massFactor1 * baseAcceleration[i];
-            accelerationStorage[id2][i] += massFactor2 * baseAcceleration[i];
+    /**
+     * Calculates the potential of a state: the gravitational parameters of every pair, multiplied and divided by their distance.
+     * This is the negative potential energy times G, so it is always positive, and grows without bound as any two particles approach each other.
+     *
+     * @param y The state, in the same layout as computeDerivatives. Only the positions are read.
+     * @return The potential, in km^5 / s^4.
+     */
+    double computePotential(double[] y) {
+        double potential = 0;
+        for (int i = 0; i < particleCount; i++) {
+            for (int j = i + 1; j < particleCount; j++) {
+                // Merged particles have no mass, and sit on top of their host.
+                if (isMerged(i) || isMerged(j)) {
+                    continue;
+                }
+                double xDistance = y[j] - y[i];
+                double yDistance = y[particleCount + j] - y[particleCount + i];
+                potential += gravitationalParameters[i] * gravitationalParameters[j] / Math.sqrt(xDistance * xDistance + yDistance * yDistance);
+            }
+        }
+        return potential;
+    }
+
+    /**
+     * Measures how far the force model strays from exact direct summation for a given state.
+     *
+     * @param y The state to measure at, in the same layout as computeDerivatives.
+     * @return The root-mean-square error of the accelerations, relative to the root-mean-square exact acceleration.
+     */
+    double measureForceError(double[] y) {
+        double[] approximateAccelerations = new double[2 * particleCount];
+        double[] exactAccelerations = new double[2 * particleCount];
+        forceSolver.computeAccelerations(y, approximateAccelerations);
+        new DirectForceSolver(gravitationalParameters).computeAccelerations(y, exactAccelerations);
+
+        // Relative errors of single particles are meaningless where forces cancel out, so the errors are compared in aggregate.
+        double squaredErrorSum = 0;
+        double squaredAccelerationSum = 0;
+        for (int i = 0; i < 2 * particleCount; i++) {
+            double error = approximateAccelerations[i] - exactAccelerations[i];
+            squaredErrorSum += error * error;
+            squaredAccelerationSum += exactAccelerations[i] * exactAccelerations[i];
+        }
+        if (squaredAccelerationSum == 0) {
+            return 0;
         }
+        return Math.sqrt(squaredErrorSum / squaredAccelerationSum);
     }
 }
@@ -0,0 +1,14 @@
+package stl.threebodysimulation;
+
+/**
+ * This represents a ProgressHandler object that is told how far a long integration has come, and can abandon it.
+ */
+interface ProgressHandler {
+    /**
+     * A method that is called whenever the integration reaches a new time.
+     *
+     * @param time The time the integration has reached.
+     * @throws InterruptedException If the integration should be abandoned.
+     */
+    void handleProgress(double time) throws InterruptedException;
+}
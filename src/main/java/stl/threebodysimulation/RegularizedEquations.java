@@ -0,0 +1,156 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+import org.apache.commons.math3.ode.sampling.StepInterpolator;
+
+/**
+ * A class that represents the differential equations of a simulation in regularized time, so that close encounters do not force the adaptive integrator into tiny steps.
+ * <p>
+ * The equations are integrated in a fictitious time s instead of the real time t, related by the Sundman transformation dt/ds = U0 / U,
+ * where U is the potential of the state and U0 its value at the start. As two particles approach each other, U grows, and real time slows down in fictitious time,
+ * so that the integrator passes through the encounter in steps of ordinary length. Far from encounters, fictitious time runs roughly as fast as real time.
+ * This is the time transformation behind logarithmic Hamiltonian methods, which follow the same flow.
+ * <p>
+ * The regularized state holds the state of the wrapped equations, followed by the real time: <br>
+ * [state, t]
+ */
+class RegularizedEquations implements FirstOrderDifferentialEquations {
+
+    /**
+     * The most iterations taken to find the fictitious time of a real time within a step.
+     */
+    private static final int MAX_TIME_ITERATIONS = 50;
+
+    /**
+     * The differential equations of the particles, which give the potential.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The equations being regularized: the equations of the particles, or those extended with their variational equations.
+     */
+    private final FirstOrderDifferentialEquations wrappedEquations;
+
+    /**
+     * The index of the real time in the regularized state.
+     */
+    private final int timeIndex;
+
+    /**
+     * The potential at the start of the integration, U0.
+     */
+    private double startPotential;
+
+    /**
+     * Creates regularized equations.
+     *
+     * @param equations        The differential equations of the particles.
+     * @param wrappedEquations The equations to regularize, whose state starts with the state of the particles.
+     */
+    RegularizedEquations(ParticleDifferentialEquations equations, FirstOrderDifferentialEquations wrappedEquations) {
+        this.equations = equations;
+        this.wrappedEquations = wrappedEquations;
+        this.timeIndex = wrappedEquations.getDimension();
+    }
+
+    /**
+     * Builds the regularized state at the start of an integration, and scales fictitious time to run as fast as real time there.
+     *
+     * @param state The state of the wrapped equations.
+     * @param time  The real time of the state.
+     * @return The regularized state.
+     */
+    double[] start(double[] state, double time) {
+        double[] regularizedState = new double[getDimension()];
+        System.arraycopy(state, 0, regularizedState, 0, timeIndex);
+        regularizedState[timeIndex] = time;
+        startPotential = equations.computePotential(state);
+        return regularizedState;
+    }
+
+    /**
+     * Gets the dimensions of the differential equations. From the interface.
+     *
+     * @return The dimensions of the equations: those of the wrapped equations, plus the real time.
+     */
+    @Override
+    public int getDimension() {
+        return timeIndex + 1;
+    }
+
+    /**
+     * Takes the derivative of a regularized state with respect to fictitious time, and stores it in another array. From the interface.
+     *
+     * @param s    The current fictitious time.
+     * @param y    The regularized state.
+     * @param yDot The array where the derivatives are stored.
+     */
+    @Override
+    public void computeDerivatives(double s, double[] y, double[] yDot) {
+        // The wrapped equations run on real time, and only touch the front of the arrays.
+        wrappedEquations.computeDerivatives(y[timeIndex], y, yDot);
+
+        double potential = equations.computePotential(y);
+        // With nothing left to pull on each other, such as after every particle has merged, there is nothing to regularize.
+        double timeRate = potential > 0 && startPotential > 0 ? startPotential / potential : 1;
+        for (int i = 0; i < timeIndex; i++) {
+            yDot[i] *= timeRate;
+        }
+        yDot[timeIndex] = timeRate;
+    }
+
+    /**
+     * Gets the real time of a regularized state.
+     *
+     * @param y The regularized state.
+     * @return The real time, in seconds.
+     */
+    double getTime(double[] y) {
+        return y[timeIndex];
+    }
+
+    /**
+     * Gets the real time at the end of a step of the integrator.
+     *
+     * @param interpolator The interpolator over the step. Left at the end of the step.
+     * @return The real time, in seconds.
+     */
+    double getStepEndTime(StepInterpolator interpolator) {
+        interpolator.setInterpolatedTime(interpolator.getCurrentTime());
+        return interpolator.getInterpolatedState()[timeIndex];
+    }
+
+    /**
+     * Moves an interpolator to the moment a real time is reached within its step, by Newton's method on the interpolated real time.
+     *
+     * @param interpolator The interpolator over the step.
+     * @param time         The real time to move to, which must fall within the step.
+     */
+    void setInterpolatedTime(StepInterpolator interpolator, double time) {
+        // Real time always moves forwards with fictitious time, so the step brackets the answer.
+        double lower = Math.min(interpolator.getPreviousTime(), interpolator.getCurrentTime());
+        double upper = Math.max(interpolator.getPreviousTime(), interpolator.getCurrentTime());
+        double fictitiousTime = interpolator.getCurrentTime();
+        for (int iteration = 0; iteration < MAX_TIME_ITERATIONS; iteration++) {
+            interpolator.setInterpolatedTime(fictitiousTime);
+            double error = time - interpolator.getInterpolatedState()[timeIndex];
+            if (error == 0) {
+                return;
+            } else if (error > 0) {
+                lower = fictitiousTime;
+            } else {
+                upper = fictitiousTime;
+            }
+            double next = fictitiousTime + error / interpolator.getInterpolatedDerivatives()[timeIndex];
+            // Fall back on bisection if Newton's method leaves the bracket.
+            if (!(next > lower && next < upper)) {
+                next = (lower + upper) / 2;
+            }
+            if (next == fictitiousTime) {
+                return;
+            }
+            fictitiousTime = next;
+        }
+        interpolator.setInterpolatedTime(fictitiousTime);
+    }
+}
@@ -35,6 +35,10 @@ public class SceneFXMLController implements Initializable {
      * The extension of CSV files.
      */
     static final String CSV_EXTENSION_NAME = ".csv";
+    /**
+     * The extension of binary trajectory files. These are stored with the CSVs.
+     */
+    static final String BINARY_TRAJECTORY_EXTENSION_NAME = ".3btrajectory";
     /**
      * The name of the directory that stores templates.
      */
@@ -43,6 +47,14 @@ public class SceneFXMLController implements Initializable {
      * The extension of template files.
      */
     static final String SAVES_EXTENSION_NAME = ".3btemplate";
+    /**
+     * The name of the directory that caches states along the time skip of each simulation.
+     */
+    static final String CHECKPOINTS_DIRECTORY_NAME = "Checkpoints";
+    /**
+     * The extension of checkpoint files.
+     */
+    static final String CHECKPOINT_EXTENSION_NAME = ".3bcheckpoint";
     /**
      * Default colors that each particle is initialized to.
      */
@@ -55,6 +67,10 @@ public class SceneFXMLController implements Initializable {
      * A String.format template for CSV files.
      */
     static String CSVFilePathTemplate;
+    /**
+     * A String.format template for binary trajectory files.
+     */
+    static String BinaryTrajectoryFilePathTemplate;
     /**
      * A String.format template for save files.
      */
@@ -108,6 +124,7 @@ public class SceneFXMLController implements Initializable {
     public SceneFXMLController() {
         fileSeparator = System.getProperty("file.separator");
         CSVFilePathTemplate = CSV_DIRECTORY_NAME + fileSeparator + "%s" + CSV_EXTENSION_NAME;
+        BinaryTrajectoryFilePathTemplate = CSV_DIRECTORY_NAME + fileSeparator + "%s" + BINARY_TRAJECTORY_EXTENSION_NAME;
         SavesFilePathTemplate = SAVES_DIRECTORY_NAME + fileSeparator + "%s" + SAVES_EXTENSION_NAME;
     }
 
@@ -264,6 +281,8 @@ public class SceneFXMLController implements Initializable {
         );
         panelController.setup(); // Sets up canvas.
         panelController.setOnStopListener(() -> settingsPanelController.setActiveRunButton(true)); // Enables rerunning the simulation if it is stopped.
+        panelController.setOnChaosIndicatorsListener(() -> infoPanelController.updateChaosIndicators(panelController.getChaosIndicators())); // Shows chaos indicators as frames go by.
+        panelController.setOnEncountersListener(() -> infoPanelController.updateEncounters(panelController.getEncounterCounts())); // Shows how many encounters there have been.
         return panelController;
     }
 
@@ -319,6 +338,8 @@ public class SceneFXMLController implements Initializable {
         Particle[] particles = settings.getParticles();
         infoPanelController.setParticles(particles);
         InfoPanelFXMLController.setNumberFormat(settings.getNumberFormat());
+        infoPanelController.setChaosIndicatorsVisible(settings.getIntegrationSettings().getChaosIndicators());
+        infoPanelController.setEncountersVisible(settings.getIntegrationSettings().getEncounterSettings().isDetecting());
 
         // Sets up visualization.
         canvasPanelController.setParticles(particles);
@@ -46,6 +46,21 @@ public class SettingsPanelFXMLController {
      */
     private static final double MAX_SIMULATION_SPEED = 10;
 
+    /**
+     * The largest opening angle allowed for tree force models.
+     */
+    private static final double MAX_OPENING_ANGLE = 1.5;
+
+    /**
+     * The largest step size allowed for fixed-step integrators, in seconds.
+     */
+    private static final double MAX_STEP_SIZE = 1;
+
+    /**
+     * The largest collision or encounter radius allowed, in km.
+     */
+    private static final double MAX_ENCOUNTER_RADIUS = 100000000;
+
     /**
      * The listener that is called when the run simulation button is pressed.
      */
@@ -119,12 +134,128 @@ public class SettingsPanelFXMLController {
     @FXML
     private CheckBox centerCheckBox;
 
+    /**
+     * The CheckBox UI element that records whether chaos indicators should be measured.
+     */
+    @FXML
+    private CheckBox chaosCheckBox;
+
     /**
      * The ChoiceBox UI element where users choose a number format.
      */
     @FXML
     private ChoiceBox<NumberFormat> numberFormatBox;
 
+    /**
+     * The ChoiceBox UI element where users choose a force model.
+     */
+    @FXML
+    private ChoiceBox<ForceModel> forceModelBox;
+
+    /**
+     * The Label UI element for the opening angle.
+     */
+    @FXML
+    private Label openingAngleLabel;
+
+    /**
+     * The TextField UI element for the opening angle of tree force models.
+     */
+    @FXML
+    private TextField openingAngleField;
+
+    /**
+     * The Tooltip UI element for opening angle hints.
+     */
+    @FXML
+    private Tooltip openingAngleTooltip;
+
+    /**
+     * The TextWrapper that the opening angle elements are wrapped in.
+     */
+    private LimitedTextFieldWrapper openingAngleWrapper;
+
+    /**
+     * The ChoiceBox UI element where users choose an integrator.
+     */
+    @FXML
+    private ChoiceBox<IntegratorType> integratorBox;
+
+    /**
+     * The Label UI element for the step size.
+     */
+    @FXML
+    private Label stepSizeLabel;
+
+    /**
+     * The TextField UI element for the step size of fixed-step integrators.
+     */
+    @FXML
+    private TextField stepSizeField;
+
+    /**
+     * The Tooltip UI element for step size hints.
+     */
+    @FXML
+    private Tooltip stepSizeTooltip;
+
+    /**
+     * The TextWrapper that the step size elements are wrapped in.
+     */
+    private LimitedTextFieldWrapper stepSizeWrapper;
+
+    /**
+     * The Label UI element for regularization.
+     */
+    @FXML
+    private Label regularizeLabel;
+
+    /**
+     * The CheckBox UI element that records whether the adaptive integrator should step in regularized time.
+     */
+    @FXML
+    private CheckBox regularizeCheckBox;
+
+    /**
+     * The TextField UI element for the collision radius.
+     */
+    @FXML
+    private TextField collisionRadiusField;
+
+    /**
+     * The Tooltip UI element for collision radius hints.
+     */
+    @FXML
+    private Tooltip collisionRadiusTooltip;
+
+    /**
+     * The TextWrapper that the collision radius elements are wrapped in.
+     */
+    private LimitedTextFieldWrapper collisionRadiusWrapper;
+
+    /**
+     * The ChoiceBox UI element where users choose what happens at a collision.
+     */
+    @FXML
+    private ChoiceBox<CollisionResponse> collisionResponseBox;
+
+    /**
+     * The TextField UI element for the close encounter radius.
+     */
+    @FXML
+    private TextField encounterRadiusField;
+
+    /**
+     * The Tooltip UI element for encounter radius hints.
+     */
+    @FXML
+    private Tooltip encounterRadiusTooltip;
+
+    /**
+     * The TextWrapper that the encounter radius elements are wrapped in.
+     */
+    private LimitedTextFieldWrapper encounterRadiusWrapper;
+
     /**
      * The Button UI element that is clicked to run a simulation.
      */
@@ -160,6 +291,18 @@ public class SettingsPanelFXMLController {
      */
     private TextFieldWrapper CSVIDWrapper;
 
+    /**
+     * The ChoiceBox UI element where users choose the format the trajectory is saved in.
+     */
+    @FXML
+    private ChoiceBox<TrajectoryFormat> trajectoryFormatBox;
+
+    /**
+     * The Label UI element for the trajectory format, which is greyed out if saving is disabled.
+     */
+    @FXML
+    private Label trajectoryFormatLabel;
+
     /**
      * Whether we should overwrite an existing CSV file.
      */
@@ -210,6 +353,11 @@ public class SettingsPanelFXMLController {
      */
     private ParameterFXMLController[] parameterControllers;
 
+    /**
+     * Serialized particles from a loaded template beyond those that have a settings UI. They are carried over into every simulation unchanged.
+     */
+    private final ArrayList<ArrayList<String>> additionalParticles = new ArrayList<>();
+
     /**
      * Constructor called by the FXML loader.
      */
@@ -255,7 +403,35 @@ public class SettingsPanelFXMLController {
         numberFormatBox.setItems(FXCollections.observableArrayList(NumberFormat.values()));
         numberFormatBox.setValue(NumberFormat.ADAPTIVE);
 
+        // Sets up force models, and only asks for an opening angle when a tree is used.
+        openingAngleField.setText(String.valueOf(IntegrationSettings.DEFAULT_OPENING_ANGLE));
+        openingAngleWrapper = new LimitedTextFieldWrapper(openingAngleField, openingAngleTooltip, 0, MAX_OPENING_ANGLE, true, openingAngleLabel);
+        forceModelBox.setItems(FXCollections.observableArrayList(ForceModel.values()));
+        forceModelBox.setValue(ForceModel.DIRECT);
+        forceModelBox.valueProperty().addListener((observable, oldModel, newModel) -> forceModelToggle());
+        forceModelToggle();
+
+        // Sets up integrators, and only asks for a step size when the integrator does not choose its own.
+        stepSizeField.setText(String.valueOf(IntegrationSettings.DEFAULT_STEP_SIZE));
+        stepSizeWrapper = new LimitedTextFieldWrapper(stepSizeField, stepSizeTooltip, 0, MAX_STEP_SIZE, false, stepSizeLabel);
+        integratorBox.setItems(FXCollections.observableArrayList(IntegratorType.values()));
+        integratorBox.setValue(IntegratorType.DORMAND_PRINCE);
+        integratorBox.valueProperty().addListener((observable, oldIntegrator, newIntegrator) -> integratorToggle());
+        integratorToggle();
+
+        // Sets up collision and encounter detection, which is off at a radius of 0.
+        collisionRadiusField.setText("0");
+        collisionRadiusWrapper = new LimitedTextFieldWrapper(collisionRadiusField, collisionRadiusTooltip, 0, MAX_ENCOUNTER_RADIUS, true);
+        collisionResponseBox.setItems(FXCollections.observableArrayList(CollisionResponse.values()));
+        collisionResponseBox.setValue(CollisionResponse.STOP);
+        encounterRadiusField.setText("0");
+        encounterRadiusWrapper = new LimitedTextFieldWrapper(encounterRadiusField, encounterRadiusTooltip, 0, MAX_ENCOUNTER_RADIUS, true);
+
         CSVIDWrapper = new TextFieldWrapper(CSVIDField, CSVIDFieldTooltip, "CSV Filename", CSVIDLabel);
+
+        // Sets up trajectory formats and default format.
+        trajectoryFormatBox.setItems(FXCollections.observableArrayList(TrajectoryFormat.values()));
+        trajectoryFormatBox.setValue(TrajectoryFormat.CSV);
         templateIDFieldWrapper = new TextFieldWrapper(templateIDField, templateIDTooltip, "Template Filename");
 
         saveCSVToggle();
@@ -276,10 +452,51 @@ public class SettingsPanelFXMLController {
         if (infiniteCheckBox.isSelected()) {
             simSpeedWrapper.changeState(true);
             trailCheckBox.setDisable(false);
+            chaosCheckBox.setDisable(false);
         } else {
             simSpeedWrapper.changeState(false);
             trailCheckBox.setSelected(false);
             trailCheckBox.setDisable(true);
+            // Chaos indicators are shown frame by frame, and a run that is not infinite has no frames.
+            chaosCheckBox.setSelected(false);
+            chaosCheckBox.setDisable(true);
+        }
+    }
+
+    /**
+     * Changes the state of the opening angle UI elements depending on whether the chosen force model is a tree.
+     */
+    private void forceModelToggle() {
+        if (forceModelBox.getValue() == ForceModel.BARNES_HUT) {
+            openingAngleWrapper.changeState(true);
+            if (openingAngleField.getText().isEmpty()) {
+                openingAngleWrapper.setText(String.valueOf(IntegrationSettings.DEFAULT_OPENING_ANGLE));
+            }
+        } else {
+            openingAngleWrapper.changeState(false);
+        }
+    }
+
+    /**
+     * Changes the state of the step size and regularization UI elements depending on the chosen integrator.
+     */
+    private void integratorToggle() {
+        if (integratorBox.getValue().isFixedStep()) {
+            stepSizeWrapper.changeState(true);
+            if (stepSizeField.getText().isEmpty()) {
+                stepSizeWrapper.setText(String.valueOf(IntegrationSettings.DEFAULT_STEP_SIZE));
+            }
+        } else {
+            stepSizeWrapper.changeState(false);
+        }
+        if (integratorBox.getValue().canRegularize()) {
+            regularizeCheckBox.setDisable(false);
+            regularizeLabel.setDisable(false);
+        } else {
+            // Only Dormand-Prince can step in regularized time.
+            regularizeCheckBox.setSelected(false);
+            regularizeCheckBox.setDisable(true);
+            regularizeLabel.setDisable(true);
         }
     }
 
@@ -321,6 +538,18 @@ public class SettingsPanelFXMLController {
         if (!CSVIDWrapper.isReady()) {
             readiness = false;
         }
+        if (!openingAngleWrapper.isReady()) {
+            readiness = false;
+        }
+        if (!stepSizeWrapper.isReady()) {
+            readiness = false;
+        }
+        if (!collisionRadiusWrapper.isReady()) {
+            readiness = false;
+        }
+        if (!encounterRadiusWrapper.isReady()) {
+            readiness = false;
+        }
 
         for (ParameterFXMLController controller : parameterControllers) {
             if (!controller.isReady()) {
@@ -358,7 +587,7 @@ public class SettingsPanelFXMLController {
             return false; // No conflict exists since the CSV file won't be written anyways
         }
 
-        String filepath = "CSV" + SceneFXMLController.fileSeparator + CSVIDField.getText() + ".csv";
+        String filepath = String.format(trajectoryFormatBox.getValue().getFilePathTemplate(), CSVIDField.getText());
 
         File CSVFile = new File(filepath);
 
@@ -418,11 +647,15 @@ public class SettingsPanelFXMLController {
      * @return The SimulationSettings that the simulation will run with.
      */
     SimulationSettings getSimulationSettings() {
-        // Package each object's settings UI into a particle object.
-        Particle[] particles = new Particle[3];
-        for (int i = 0; i < 3; i++) {
+        // Package each object's settings UI into a particle object, followed by any particles without a settings UI.
+        Particle[] particles = new Particle[parameterControllers.length + additionalParticles.size()];
+        for (int i = 0; i < parameterControllers.length; i++) {
             particles[i] = parameterControllers[i].convertToParticle();
         }
+        for (int i = parameterControllers.length; i < particles.length; i++) {
+            // Built fresh every time, since a simulation moves the particles it is given.
+            particles[i] = new Particle(additionalParticles.get(i - parameterControllers.length), i + 1);
+        }
 
         // Track settings down.
         boolean infiniteEnabled = infiniteCheckBox.isSelected();
@@ -446,8 +679,31 @@ public class SettingsPanelFXMLController {
         } else {
             CSVFileName = "";
         }
+        double openingAngle;
+        try {
+            openingAngle = Double.parseDouble(openingAngleField.getText());
+        } catch (NumberFormatException ignored) { // Happens when the field is disabled for exact force models.
+            openingAngle = IntegrationSettings.DEFAULT_OPENING_ANGLE;
+        }
+        double stepSize;
+        try {
+            stepSize = Double.parseDouble(stepSizeField.getText());
+        } catch (NumberFormatException ignored) { // Happens when the field is disabled for adaptive integrators.
+            stepSize = IntegrationSettings.DEFAULT_STEP_SIZE;
+        }
+        double collisionRadius;
+        double encounterRadius;
+        try {
+            collisionRadius = Double.parseDouble(collisionRadiusField.getText());
+            encounterRadius = Double.parseDouble(encounterRadiusField.getText());
+        } catch (NumberFormatException ignored) { // Should never happen.
+            collisionRadius = 0;
+            encounterRadius = 0;
+        }
+        EncounterSettings encounterSettings = new EncounterSettings(collisionRadius, collisionResponseBox.getValue(), encounterRadius);
+        IntegrationSettings integrationSettings = new IntegrationSettings(forceModelBox.getValue(), openingAngle, integratorBox.getValue(), stepSize, regularizeCheckBox.isSelected(), chaosCheckBox.isSelected(), encounterSettings);
 
-        return new SimulationSettings(particles, infiniteEnabled, trailsEnabled, centerOfGravityEnabled, skip, speed, numberFormatBox.getValue(), CSVFileName);
+        return new SimulationSettings(particles, infiniteEnabled, trailsEnabled, centerOfGravityEnabled, skip, speed, numberFormatBox.getValue(), CSVFileName, trajectoryFormatBox.getValue(), integrationSettings);
     }
 
     /**
@@ -455,6 +711,8 @@ public class SettingsPanelFXMLController {
      */
     public void saveCSVToggle() {
         CSVIDWrapper.changeState(saveCSVCheckBox.isSelected());
+        trajectoryFormatBox.setDisable(!saveCSVCheckBox.isSelected());
+        trajectoryFormatLabel.setDisable(!saveCSVCheckBox.isSelected());
     }
 
     /**
@@ -560,8 +818,13 @@ public class SettingsPanelFXMLController {
         numberFormatBox.getSelectionModel().select(settings.getNumberFormat());
         infiniteToggle();
 
-        for (int id = 0; id < 3; id++) {
-            parameterControllers[id].loadParticle(settings.getParticles()[id]);
+        Particle[] particles = settings.getParticles();
+        for (int id = 0; id < Math.min(particles.length, parameterControllers.length); id++) {
+            parameterControllers[id].loadParticle(particles[id]);
+        }
+        additionalParticles.clear();
+        for (int id = parameterControllers.length; id < particles.length; id++) {
+            additionalParticles.add(particles[id].serialize());
         }
 
         String CSVID = settings.getCSVFileName();
@@ -0,0 +1,48 @@
+package stl.threebodysimulation;
+
+/**
+ * The common interface for numerical integrators that advance the state of a simulation through time. Integrators are bound to their differential equations when they are built.
+ */
+interface SimulationIntegrator {
+
+    /**
+     * Advances a state from one time to another, in place. The end time may be before the start time.
+     *
+     * @param startTime The time of the state.
+     * @param state     The state, in the layout used by ParticleDifferentialEquations. Overwritten with the state at the end time.
+     * @param endTime   The time to advance to.
+     */
+    void integrate(double startTime, double[] state, double endTime);
+
+    /**
+     * Advances a state frame by frame until the frame handler asks to stop. Unlike repeated calls to integrate, the integrator carries its internal state from frame to frame.
+     *
+     * @param startTime     The time of the state.
+     * @param state         The state, in the layout used by ParticleDifferentialEquations. Overwritten with the state at each frame, and left at the last frame handled.
+     * @param frameInterval The simulation time between frames, in seconds.
+     * @param handler       The FrameHandler that receives every frame.
+     * @throws InterruptedException If the thread is interrupted while handling a frame.
+     */
+    void integrateFrames(double startTime, double[] state, double frameInterval, FrameHandler handler) throws InterruptedException;
+
+    /**
+     * Gets the number of steps the integrator has taken, over every call since it was built.
+     *
+     * @return The number of steps taken.
+     */
+    long getStepCount();
+
+    /**
+     * Gets the chaos indicators at the frame being handled. Only meaningful while a frame handler runs, or after a run for its last frame.
+     *
+     * @return The indicators, indexed by the ordinal of each ChaosIndicator, or null if the integrator was built without them. Owned by the integrator.
+     */
+    double[] getChaosIndicators();
+
+    /**
+     * Sets the handler that is told about every close encounter and collision the integrator detects.
+     *
+     * @param handler The handler, or null if nothing should be told.
+     */
+    void setEncounterHandler(EncounterHandler handler);
+}
@@ -7,6 +7,11 @@ import java.util.ArrayList;
  */
 class SimulationSettings {
 
+    /**
+     * The number of serialized fields that describe each particle: mass, 3 color channels, 2 position components and 2 velocity components.
+     */
+    private static final int SERIALIZED_PARTICLE_LENGTH = 8;
+
     /**
      * Particle array to be simulated.
      */
@@ -47,6 +52,15 @@ class SimulationSettings {
      */
     private final String CSVFileName;
 
+    /**
+     * The format that the trajectory is saved in. Not part of the serialized form, since it is chosen per run.
+     */
+    private final TrajectoryFormat trajectoryFormat;
+
+    /**
+     * The settings of the numerical engine. Not part of the serialized form, since they are chosen per run.
+     */
+    private final IntegrationSettings integrationSettings;
 
     /**
      * Basic constructor that creates a SimulationSettings object.
@@ -61,6 +75,24 @@ class SimulationSettings {
      * @param CSVFileName          The file name of the CSV where simulation stats are saved to. If saving is disabled, this is an empty string.
      */
     SimulationSettings(Particle[] particles, boolean isInfinite, boolean hasTrails, boolean showsCenterOfGravity, double skip, double speed, NumberFormat numberFormat, String CSVFileName) {
+        this(particles, isInfinite, hasTrails, showsCenterOfGravity, skip, speed, numberFormat, CSVFileName, TrajectoryFormat.CSV, new IntegrationSettings());
+    }
+
+    /**
+     * Constructor that creates a SimulationSettings object with a specific trajectory format and integration settings.
+     *
+     * @param particles            Particle array of particles to be simulated.
+     * @param isInfinite           Whether the simulation is continuous.
+     * @param hasTrails            Whether the simulation shows particle trails.
+     * @param showsCenterOfGravity Whether the simulation shows center of gravity.
+     * @param skip                 The time the simulation skips to.
+     * @param speed                The speed multiplier of the simulation.
+     * @param numberFormat         The NumberFormat of the simulation info display.
+     * @param CSVFileName          The file name of the CSV where simulation stats are saved to. If saving is disabled, this is an empty string.
+     * @param trajectoryFormat     The format that the trajectory is saved in.
+     * @param integrationSettings  The settings of the numerical engine.
+     */
+    SimulationSettings(Particle[] particles, boolean isInfinite, boolean hasTrails, boolean showsCenterOfGravity, double skip, double speed, NumberFormat numberFormat, String CSVFileName, TrajectoryFormat trajectoryFormat, IntegrationSettings integrationSettings) {
         this.isInfinite = isInfinite;
         this.hasTrails = hasTrails;
         this.showsCenterOfGravity = showsCenterOfGravity;
@@ -68,7 +100,9 @@ class SimulationSettings {
         this.speed = speed;
         this.numberFormat = numberFormat;
         this.CSVFileName = CSVFileName;
+        this.trajectoryFormat = trajectoryFormat;
         this.particles = particles;
+        this.integrationSettings = integrationSettings;
     }
 
     /**
@@ -86,14 +120,18 @@ class SimulationSettings {
         this.speed = Double.parseDouble(serializedSettings.get(index++));
         this.numberFormat = parseNumberFormat(serializedSettings.get(index++));
         this.CSVFileName = serializedSettings.get(index++);
-        this.particles = new Particle[3];
+        this.trajectoryFormat = TrajectoryFormat.CSV;
+        this.integrationSettings = new IntegrationSettings();
 
-        for (int id = 1; id <= 3; id++) {
+        // Every remaining field belongs to a particle, so the particle count follows from the length of the settings.
+        this.particles = new Particle[(serializedSettings.size() - index) / SERIALIZED_PARTICLE_LENGTH];
+
+        for (int id = 1; id <= particles.length; id++) {
             ArrayList<String> serializedParticle = new ArrayList<>();
-            for (int properties = 0; properties < 8; properties++) {
+            for (int properties = 0; properties < SERIALIZED_PARTICLE_LENGTH; properties++) {
                 serializedParticle.add(serializedSettings.get(index + properties));
             }
-            index += 8;
+            index += SERIALIZED_PARTICLE_LENGTH;
             this.particles[id - 1] = new Particle(serializedParticle, id);
         }
     }
@@ -161,10 +199,14 @@ class SimulationSettings {
     /**
      * Gets the mass of the particles in the simulation.
      *
-     * @return The mass of the particles in the simulation, in an array of 3 doubles.
+     * @return The mass of the particles in the simulation, in an array with one double per particle.
      */
     double[] getMass() {
-        return new double[]{particles[0].getMass(), particles[1].getMass(), particles[2].getMass()};
+        double[] masses = new double[particles.length];
+        for (int id = 0; id < particles.length; id++) {
+            masses[id] = particles[id].getMass();
+        }
+        return masses;
     }
 
     /**
@@ -179,7 +221,7 @@ class SimulationSettings {
     /**
      * Gets the particles involved in the simulation.
      *
-     * @return The particles, in an array of 3, involved in the simulation.
+     * @return The particles, in an array, involved in the simulation.
      */
     Particle[] getParticles() {
         return particles;
@@ -194,6 +236,24 @@ class SimulationSettings {
         return CSVFileName;
     }
 
+    /**
+     * Gets the format that the trajectory is saved in.
+     *
+     * @return The trajectory format.
+     */
+    TrajectoryFormat getTrajectoryFormat() {
+        return trajectoryFormat;
+    }
+
+    /**
+     * Gets the settings of the numerical engine.
+     *
+     * @return The integration settings.
+     */
+    IntegrationSettings getIntegrationSettings() {
+        return integrationSettings;
+    }
+
     /**
      * Converts the SimulationSettings object into a serialized ArrayList of strings that represent the settings' state.
      *
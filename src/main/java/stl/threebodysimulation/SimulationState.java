@@ -14,6 +14,10 @@ enum SimulationState {
      * A simulation is currently running. No new simulation may begin.
      */
     ACTIVE,
+    /**
+     * A simulation is skipping ahead to its start time in the background. The skip may be stopped, which abandons the simulation.
+     */
+    SKIPPING,
 
     /**
      * A simulation is paused. No new simulation may begin, but the current simulation may resume.
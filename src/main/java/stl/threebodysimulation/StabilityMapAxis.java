@@ -0,0 +1,97 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that packages one axis of a stability map: a property of a particle, offset evenly across a range.
+ */
+class StabilityMapAxis {
+
+    /**
+     * The ID of the particle that is varied, starting from 1.
+     */
+    private final int particleID;
+
+    /**
+     * The property of the particle that is varied.
+     */
+    private final SweepProperty property;
+
+    /**
+     * The offset at the first cell of the axis, in the units of the property.
+     */
+    private final double minimumOffset;
+
+    /**
+     * The offset at the last cell of the axis, in the units of the property.
+     */
+    private final double maximumOffset;
+
+    /**
+     * Basic constructor that creates a StabilityMapAxis object.
+     *
+     * @param particleID    The ID of the particle that is varied, starting from 1.
+     * @param property      The property of the particle that is varied.
+     * @param minimumOffset The offset at the first cell of the axis.
+     * @param maximumOffset The offset at the last cell of the axis.
+     */
+    StabilityMapAxis(int particleID, SweepProperty property, double minimumOffset, double maximumOffset) {
+        this.particleID = particleID;
+        this.property = property;
+        this.minimumOffset = minimumOffset;
+        this.maximumOffset = maximumOffset;
+    }
+
+    /**
+     * Gets the ID of the particle that is varied.
+     *
+     * @return The ID of the particle, starting from 1.
+     */
+    int getParticleID() {
+        return particleID;
+    }
+
+    /**
+     * Gets the offset at a cell of the axis. The first and last cells sit exactly on the ends of the range.
+     *
+     * @param cell      The index of the cell, starting from 0.
+     * @param cellCount The number of cells along the axis.
+     * @return The offset, in the units of the property.
+     */
+    double getOffset(int cell, int cellCount) {
+        if (cellCount == 1) {
+            return minimumOffset;
+        }
+        return minimumOffset + (maximumOffset - minimumOffset) * cell / (cellCount - 1);
+    }
+
+    /**
+     * Applies the offset of a cell to the masses and state of a simulation.
+     *
+     * @param cell      The index of the cell, starting from 0.
+     * @param cellCount The number of cells along the axis.
+     * @param masses    The mass of every particle.
+     * @param state     The state of every particle, in the layout used by ParticleDifferentialEquations.
+     */
+    void apply(int cell, int cellCount, double[] masses, double[] state) {
+        // Particle IDs start with 1, but indices start with 0.
+        property.offset(masses, state, particleID - 1, getOffset(cell, cellCount));
+    }
+
+    /**
+     * Gets the name of the column that holds the offsets of this axis in the raw data of a map.
+     *
+     * @return The column header.
+     */
+    String getHeader() {
+        return particleID + " " + property + " Offset";
+    }
+
+    /**
+     * Describes the axis, for checking that a checkpoint belongs to the same scan.
+     *
+     * @return A description of the axis.
+     */
+    @Override
+    public String toString() {
+        return getHeader() + " from " + minimumOffset + " to " + maximumOffset;
+    }
+}
@@ -0,0 +1,700 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+import org.apache.commons.math3.exception.NumberIsTooSmallException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class that scans a grid of initial conditions around a template, and maps how stable each one is.
+ * <p>
+ * Two properties of the template are offset along the two axes of the grid, and every cell is integrated on its own until a particle escapes, the run fails, or the end time is reached.
+ * Cells are grouped into square tiles, which run on a work-stealing pool. Each finished tile can be saved to a checkpoint directory, so an interrupted scan resumes where it left off.
+ * The map is written as a PNG colored by a StabilityMetric, with the raw results of every cell in a CSV file beside it.
+ */
+class StabilityMapper {
+
+    /**
+     * The index of the escape time within the results of a cell.
+     */
+    static final int ESCAPE_TIME_INDEX = 0;
+
+    /**
+     * The index of the encounter count within the results of a cell.
+     */
+    static final int ENCOUNTER_COUNT_INDEX = 1;
+
+    /**
+     * The index of the outcome within the results of a cell: one of BOUND, ESCAPED and FAILED.
+     */
+    static final int OUTCOME_INDEX = 2;
+
+    /**
+     * The number of results stored for each cell.
+     */
+    private static final int CELL_LENGTH = 3;
+
+    /**
+     * The outcome of a cell whose particles stayed together until the end time.
+     */
+    private static final double BOUND = 0;
+
+    /**
+     * The outcome of a cell in which a particle escaped.
+     */
+    private static final double ESCAPED = 1;
+
+    /**
+     * The outcome of a cell whose integration failed, usually at a collision.
+     */
+    private static final double FAILED = 2;
+
+    /**
+     * The names of the outcomes, in the raw data.
+     */
+    private static final String[] OUTCOME_NAMES = {"Bound", "Escaped", "Failed"};
+
+    /**
+     * The width and height of each tile, in cells.
+     */
+    private static final int TILE_SIZE = 16;
+
+    /**
+     * The number of frames at which each cell is checked for escapes and encounters.
+     */
+    private static final int SAMPLE_COUNT = 1000;
+
+    /**
+     * The fraction of a sample interval that a sample time may miss the end time by, and still count as reaching it.
+     */
+    private static final double END_TIME_TOLERANCE = 1e-9;
+
+    /**
+     * The escape radius used if none is given, as a multiple of the template's largest distance from its center of mass.
+     */
+    private static final double DEFAULT_ESCAPE_RADIUS_FACTOR = 10;
+
+    /**
+     * The encounter radius used if none is given, as a fraction of the template's smallest distance between two particles.
+     */
+    private static final double DEFAULT_ENCOUNTER_RADIUS_FACTOR = 0.1;
+
+    /**
+     * The name of the file in a checkpoint directory that describes the scan it belongs to.
+     */
+    private static final String CHECKPOINT_DESCRIPTION_NAME = "scan.txt";
+
+    /**
+     * The colors that the map fades between, from the lowest value to the highest.
+     */
+    private static final int[] COLOR_SCALE = {0x440154, 0x3B528B, 0x21918C, 0x5EC962, 0xFDE725};
+
+    /**
+     * The color of cells whose integration failed.
+     */
+    private static final int FAILED_COLOR = 0x000000;
+
+    /**
+     * The masses of the particles of the template.
+     */
+    private final double[] baseMasses;
+
+    /**
+     * The initial state of the template, in the layout used by ParticleDifferentialEquations.
+     */
+    private final double[] baseState;
+
+    /**
+     * The time of the template to skip to. Every cell is offset at time 0, and checked from here.
+     */
+    private final double skip;
+
+    /**
+     * The settings of the numerical engine that every cell uses.
+     */
+    private final IntegrationSettings integrationSettings;
+
+    /**
+     * The property offset across the width of the map.
+     */
+    private final StabilityMapAxis xAxis;
+
+    /**
+     * The property offset across the height of the map.
+     */
+    private final StabilityMapAxis yAxis;
+
+    /**
+     * The number of cells across the map.
+     */
+    private final int width;
+
+    /**
+     * The number of cells down the map.
+     */
+    private final int height;
+
+    /**
+     * The time every cell is simulated until.
+     */
+    private final double endTime;
+
+    /**
+     * The distance from the center of mass beyond which a particle counts as escaped, in km.
+     */
+    private final double escapeRadius;
+
+    /**
+     * The distance between two particles below which they count as having a close encounter, in km.
+     */
+    private final double encounterRadius;
+
+    /**
+     * The results of every cell, row by row, with CELL_LENGTH values per cell.
+     */
+    private final double[] results;
+
+    /**
+     * Creates a stability map around a template.
+     *
+     * @param settings            The template that cells are offset from. Cells are checked from its skip time onwards.
+     * @param integrationSettings The settings of the numerical engine that every cell uses.
+     * @param xAxis               The property offset across the width of the map.
+     * @param yAxis               The property offset across the height of the map.
+     * @param width               The number of cells across the map.
+     * @param height              The number of cells down the map.
+     * @param endTime             The time every cell is simulated until.
+     * @param escapeRadius        The distance from the center of mass beyond which a particle counts as escaped, in km, or NaN to scale it from the template.
+     * @param encounterRadius     The distance between two particles below which they count as having a close encounter, in km, or NaN to scale it from the template.
+     * @throws IllegalArgumentException If an axis varies a particle that the template does not have.
+     */
+    StabilityMapper(SimulationSettings settings, IntegrationSettings integrationSettings, StabilityMapAxis xAxis, StabilityMapAxis yAxis,
+                    int width, int height, double endTime, double escapeRadius, double encounterRadius) {
+        Particle[] particles = settings.getParticles();
+        for (StabilityMapAxis axis : new StabilityMapAxis[]{xAxis, yAxis}) {
+            if (axis.getParticleID() < 1 || axis.getParticleID() > particles.length) {
+                throw new IllegalArgumentException("The template has no particle " + axis.getParticleID() + ".");
+            }
+        }
+
+        this.baseMasses = settings.getMass();
+        this.baseState = new double[4 * particles.length];
+        for (Particle particle : particles) {
+            particle.flatten(baseState, particles.length);
+        }
+        this.skip = settings.getSkip();
+        this.integrationSettings = integrationSettings;
+        this.xAxis = xAxis;
+        this.yAxis = yAxis;
+        this.width = width;
+        this.height = height;
+        this.endTime = endTime;
+        this.escapeRadius = Double.isNaN(escapeRadius) ? DEFAULT_ESCAPE_RADIUS_FACTOR * getMaximumDistanceFromCenter(baseMasses, baseState) : escapeRadius;
+        this.encounterRadius = Double.isNaN(encounterRadius) ? DEFAULT_ENCOUNTER_RADIUS_FACTOR * EnsembleRunner.getMinimumSeparation(baseState) : encounterRadius;
+        this.results = new double[width * height * CELL_LENGTH];
+    }
+
+    /**
+     * Scans every cell of the map. Tiles already in the checkpoint directory are loaded instead of scanned again.
+     *
+     * @param threadCount         The number of tiles that run at once.
+     * @param checkpointDirectory The directory finished tiles are saved to, or null to not save them.
+     * @throws IOException If the checkpoint directory cannot be used, or belongs to a different scan.
+     */
+    void run(int threadCount, String checkpointDirectory) throws IOException {
+        Path checkpointPath = checkpointDirectory == null ? null : prepareCheckpoint(Paths.get(checkpointDirectory));
+
+        int tileColumns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tileRows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        List<int[]> remainingTiles = new ArrayList<>();
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            for (int tileColumn = 0; tileColumn < tileColumns; tileColumn++) {
+                if (checkpointPath == null || !loadTile(checkpointPath, tileColumn, tileRow)) {
+                    remainingTiles.add(new int[]{tileColumn, tileRow});
+                }
+            }
+        }
+        int tileCount = tileColumns * tileRows;
+        if (remainingTiles.size() < tileCount) {
+            System.out.println(String.format("Resuming with %d of %d tiles already scanned.", tileCount - remainingTiles.size(), tileCount));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threadCount);
+        try {
+            pool.invoke(new TileScan(remainingTiles, 0, remainingTiles.size(), checkpointPath, new AtomicInteger(tileCount - remainingTiles.size()), tileCount));
+        } catch (UncheckedIOException e) {
+            // The pool only lets unchecked exceptions through, so failures to save a tile are unwrapped here.
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Creates a checkpoint directory, or checks that an existing one belongs to this scan.
+     *
+     * @param directory The checkpoint directory.
+     * @return The checkpoint directory.
+     * @throws IOException If the directory cannot be created, or belongs to a different scan.
+     */
+    private Path prepareCheckpoint(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        Path descriptionPath = directory.resolve(CHECKPOINT_DESCRIPTION_NAME);
+        String description = describe();
+        if (Files.exists(descriptionPath)) {
+            if (!new String(Files.readAllBytes(descriptionPath), StandardCharsets.UTF_8).equals(description)) {
+                throw new IOException("The checkpoint " + directory + " belongs to a different scan.");
+            }
+        } else {
+            Files.write(descriptionPath, description.getBytes(StandardCharsets.UTF_8));
+        }
+        return directory;
+    }
+
+    /**
+     * Describes everything that decides the results of the scan, so that a checkpoint is only resumed by the same scan.
+     *
+     * @return A description of the scan.
+     */
+    private String describe() {
+        StringBuilder description = new StringBuilder();
+        description.append("Masses: ").append(Arrays.toString(baseMasses)).append(System.lineSeparator());
+        description.append("State: ").append(Arrays.toString(baseState)).append(System.lineSeparator());
+        description.append("Skip: ").append(skip).append(System.lineSeparator());
+        description.append("End time: ").append(endTime).append(System.lineSeparator());
+        description.append("Integrator: ").append(integrationSettings.getIntegratorType()).append(", step size ").append(integrationSettings.getStepSize()).append(System.lineSeparator());
+        description.append("Force model: ").append(integrationSettings.getForceModel()).append(", opening angle ").append(integrationSettings.getOpeningAngle()).append(System.lineSeparator());
+        description.append("X axis: ").append(xAxis).append(", ").append(width).append(" cells").append(System.lineSeparator());
+        description.append("Y axis: ").append(yAxis).append(", ").append(height).append(" cells").append(System.lineSeparator());
+        description.append("Escape radius: ").append(escapeRadius).append(System.lineSeparator());
+        description.append("Encounter radius: ").append(encounterRadius).append(System.lineSeparator());
+        return description.toString();
+    }
+
+    /**
+     * Gets the path of the checkpoint file of a tile.
+     *
+     * @param directory  The checkpoint directory.
+     * @param tileColumn The column of the tile.
+     * @param tileRow    The row of the tile.
+     * @return The path of the file.
+     */
+    private static Path getTilePath(Path directory, int tileColumn, int tileRow) {
+        return directory.resolve("tile_" + tileColumn + "_" + tileRow + ".bin");
+    }
+
+    /**
+     * Loads a tile from the checkpoint directory, if it has been saved.
+     *
+     * @param directory  The checkpoint directory.
+     * @param tileColumn The column of the tile.
+     * @param tileRow    The row of the tile.
+     * @return True if the tile was loaded, false if it still has to be scanned.
+     * @throws IOException If the tile file exists but cannot be read.
+     */
+    private boolean loadTile(Path directory, int tileColumn, int tileRow) throws IOException {
+        Path tilePath = getTilePath(directory, tileColumn, tileRow);
+        if (!Files.exists(tilePath)) {
+            return false;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(tilePath)))) {
+            for (int row = tileRow * TILE_SIZE; row < Math.min(height, (tileRow + 1) * TILE_SIZE); row++) {
+                for (int column = tileColumn * TILE_SIZE; column < Math.min(width, (tileColumn + 1) * TILE_SIZE); column++) {
+                    for (int index = 0; index < CELL_LENGTH; index++) {
+                        results[(row * width + column) * CELL_LENGTH + index] = input.readDouble();
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Saves a finished tile to the checkpoint directory. The file only appears once it is complete, so a crash midway never leaves a partial tile behind.
+     *
+     * @param directory  The checkpoint directory.
+     * @param tileColumn The column of the tile.
+     * @param tileRow    The row of the tile.
+     * @throws IOException If the tile cannot be saved.
+     */
+    private void saveTile(Path directory, int tileColumn, int tileRow) throws IOException {
+        Path tilePath = getTilePath(directory, tileColumn, tileRow);
+        Path temporaryPath = tilePath.resolveSibling(tilePath.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+            for (int row = tileRow * TILE_SIZE; row < Math.min(height, (tileRow + 1) * TILE_SIZE); row++) {
+                for (int column = tileColumn * TILE_SIZE; column < Math.min(width, (tileColumn + 1) * TILE_SIZE); column++) {
+                    for (int index = 0; index < CELL_LENGTH; index++) {
+                        output.writeDouble(results[(row * width + column) * CELL_LENGTH + index]);
+                    }
+                }
+            }
+        }
+        Files.move(temporaryPath, tilePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Scans every cell of a tile.
+     *
+     * @param tileColumn The column of the tile.
+     * @param tileRow    The row of the tile.
+     */
+    private void scanTile(int tileColumn, int tileRow) {
+        double[] cell = new double[CELL_LENGTH];
+        for (int row = tileRow * TILE_SIZE; row < Math.min(height, (tileRow + 1) * TILE_SIZE); row++) {
+            for (int column = tileColumn * TILE_SIZE; column < Math.min(width, (tileColumn + 1) * TILE_SIZE); column++) {
+                scanCell(column, row, cell);
+                System.arraycopy(cell, 0, results, (row * width + column) * CELL_LENGTH, CELL_LENGTH);
+            }
+        }
+    }
+
+    /**
+     * Integrates a single cell of the map.
+     *
+     * @param column The column of the cell.
+     * @param row    The row of the cell.
+     * @param cell   The array the results of the cell are stored in.
+     */
+    private void scanCell(int column, int row, double[] cell) {
+        // Every cell owns all of its state, so nothing is shared between threads but the read-only template.
+        double[] masses = baseMasses.clone();
+        double[] state = baseState.clone();
+        xAxis.apply(column, width, masses, state);
+        yAxis.apply(row, height, masses, state);
+
+        ParticleDifferentialEquations equations = new ParticleDifferentialEquations(masses, integrationSettings);
+        SimulationIntegrator integrator = integrationSettings.buildIntegrator(equations);
+        CellTracker tracker = new CellTracker(masses, (endTime - skip) / SAMPLE_COUNT);
+        cell[ESCAPE_TIME_INDEX] = endTime;
+        cell[ENCOUNTER_COUNT_INDEX] = 0;
+        cell[OUTCOME_INDEX] = BOUND;
+        try {
+            // Skip ahead like the app does, and check from there.
+            if (skip != 0) {
+                integrator.integrate(0, state, skip);
+            }
+            tracker.lastTime = skip;
+            integrator.integrateFrames(skip, state, tracker.sampleInterval, tracker);
+            if (tracker.escaped) {
+                cell[ESCAPE_TIME_INDEX] = tracker.lastTime;
+                cell[OUTCOME_INDEX] = ESCAPED;
+            }
+        } catch (NumberIsTooSmallException | NumberIsTooLargeException e) {
+            // Asymptotes and overflows come from collisions, which end the cell as surely as an escape.
+            cell[ESCAPE_TIME_INDEX] = tracker.lastTime;
+            cell[OUTCOME_INDEX] = FAILED;
+        } catch (Exception e) {
+            // Other errors
+            System.out.println(e.getMessage());
+            cell[ESCAPE_TIME_INDEX] = tracker.lastTime;
+            cell[OUTCOME_INDEX] = FAILED;
+        }
+        cell[ENCOUNTER_COUNT_INDEX] = tracker.encounterCount;
+    }
+
+    /**
+     * Finds the largest distance of any particle from the center of mass.
+     *
+     * @param masses The masses of the particles.
+     * @param state  The state of the particles.
+     * @return The largest distance, in km.
+     */
+    private static double getMaximumDistanceFromCenter(double[] masses, double[] state) {
+        int particleCount = masses.length;
+        double totalMass = 0;
+        double xCenter = 0;
+        double yCenter = 0;
+        for (int i = 0; i < particleCount; i++) {
+            totalMass += masses[i];
+            xCenter += masses[i] * state[i];
+            yCenter += masses[i] * state[particleCount + i];
+        }
+        xCenter /= totalMass;
+        yCenter /= totalMass;
+
+        double maximumSquaredDistance = 0;
+        for (int i = 0; i < particleCount; i++) {
+            double xDistance = state[i] - xCenter;
+            double yDistance = state[particleCount + i] - yCenter;
+            maximumSquaredDistance = Math.max(maximumSquaredDistance, xDistance * xDistance + yDistance * yDistance);
+        }
+        return Math.sqrt(maximumSquaredDistance);
+    }
+
+    /**
+     * Writes the map as a PNG image, with the lowest row of cells at the bottom.
+     *
+     * @param filepath The path of the image.
+     * @param metric   The quantity that the map is colored by.
+     * @throws IOException If the image cannot be written.
+     */
+    void writeImage(String filepath, StabilityMetric metric) throws IOException {
+        double[] cell = new double[CELL_LENGTH];
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+        for (int index = 0; index < width * height; index++) {
+            System.arraycopy(results, index * CELL_LENGTH, cell, 0, CELL_LENGTH);
+            minimum = Math.min(minimum, metric.getValue(cell));
+            maximum = Math.max(maximum, metric.getValue(cell));
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                System.arraycopy(results, (row * width + column) * CELL_LENGTH, cell, 0, CELL_LENGTH);
+                int color;
+                if (cell[OUTCOME_INDEX] == FAILED) {
+                    color = FAILED_COLOR;
+                } else {
+                    color = getScaleColor(maximum == minimum ? 1 : (metric.getValue(cell) - minimum) / (maximum - minimum));
+                }
+                // Images count rows from the top, but the map counts them from the bottom.
+                image.setRGB(column, height - 1 - row, color);
+            }
+        }
+        if (!ImageIO.write(image, "png", new File(filepath))) {
+            throw new IOException("No PNG writer is available.");
+        }
+    }
+
+    /**
+     * Finds the color of a value on the color scale.
+     *
+     * @param fraction The value, between 0 for the lowest and 1 for the highest.
+     * @return The color, as packed RGB.
+     */
+    private static int getScaleColor(double fraction) {
+        double position = fraction * (COLOR_SCALE.length - 1);
+        int lower = Math.min((int) position, COLOR_SCALE.length - 2);
+        double blend = position - lower;
+        int color = 0;
+        // Blend each 8-bit channel separately.
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int from = (COLOR_SCALE[lower] >> shift) & 0xFF;
+            int to = (COLOR_SCALE[lower + 1] >> shift) & 0xFF;
+            color |= ((int) Math.round(from + (to - from) * blend)) << shift;
+        }
+        return color;
+    }
+
+    /**
+     * Writes the results of every cell to a CSV file, one cell per row.
+     *
+     * @param filepath The path of the CSV file.
+     * @throws IOException If the file cannot be written.
+     */
+    void writeData(String filepath) throws IOException {
+        try (CSVPrinter printer = new CSVPrinter(Files.newBufferedWriter(Paths.get(filepath)), CSVFormat.DEFAULT)) {
+            printer.printRecord("Column", "Row", xAxis.getHeader(), yAxis.getHeader(), "Outcome", "Escape Time", "Encounters");
+            for (int row = 0; row < height; row++) {
+                for (int column = 0; column < width; column++) {
+                    int index = (row * width + column) * CELL_LENGTH;
+                    printer.printRecord(
+                            column,
+                            row,
+                            xAxis.getOffset(column, width),
+                            yAxis.getOffset(row, height),
+                            OUTCOME_NAMES[(int) results[index + OUTCOME_INDEX]],
+                            results[index + ESCAPE_TIME_INDEX],
+                            (long) results[index + ENCOUNTER_COUNT_INDEX]);
+                }
+            }
+        }
+    }
+
+    /**
+     * A FrameHandler that follows a cell from sample to sample, counting close encounters and stopping at the first escape.
+     */
+    private class CellTracker implements FrameHandler {
+
+        /**
+         * The masses of the particles of the cell.
+         */
+        private final double[] masses;
+
+        /**
+         * The simulation time between samples.
+         */
+        private final double sampleInterval;
+
+        /**
+         * The time of the last sample.
+         */
+        private double lastTime;
+
+        /**
+         * The number of close encounters so far.
+         */
+        private int encounterCount;
+
+        /**
+         * Whether each pair of particles is within the encounter radius, so that one encounter is only counted once. Pairs are numbered in the order the nested loops over particles visit them.
+         * Each pair is followed on its own, so a pair coming close counts even while another pair is still close.
+         */
+        private final boolean[] insidePairs;
+
+        /**
+         * True once a particle has escaped.
+         */
+        private boolean escaped;
+
+        /**
+         * Creates a tracker for one cell.
+         *
+         * @param masses         The masses of the particles of the cell.
+         * @param sampleInterval The simulation time between samples.
+         */
+        CellTracker(double[] masses, double sampleInterval) {
+            this.masses = masses;
+            this.sampleInterval = sampleInterval;
+            this.insidePairs = new boolean[masses.length * (masses.length - 1) / 2];
+        }
+
+        /**
+         * Checks a sample for encounters and escapes.
+         *
+         * @param time          The time of the sample.
+         * @param state         The state at the time of the sample.
+         * @param accelerations The accelerations at the time of the sample. Not used.
+         * @return True if the cell should go on to the next sample.
+         */
+        @Override
+        public boolean handleFrame(double time, double[] state, double[] accelerations) {
+            lastTime = time;
+
+            int particleCount = masses.length;
+            double squaredRadius = encounterRadius * encounterRadius;
+            int pair = 0;
+            for (int i = 0; i < particleCount; i++) {
+                for (int j = i + 1; j < particleCount; j++, pair++) {
+                    double xDistance = state[j] - state[i];
+                    double yDistance = state[particleCount + j] - state[particleCount + i];
+                    boolean close = xDistance * xDistance + yDistance * yDistance < squaredRadius;
+                    if (close && !insidePairs[pair]) {
+                        encounterCount++;
+                    }
+                    insidePairs[pair] = close;
+                }
+            }
+
+            if (getMaximumDistanceFromCenter(masses, state) > escapeRadius) {
+                escaped = true;
+                return false;
+            }
+            return time + sampleInterval <= endTime + END_TIME_TOLERANCE * sampleInterval;
+        }
+    }
+
+    /**
+     * A RecursiveAction that scans a range of tiles, splitting it in half until each task holds a single tile, so idle threads can steal halves from busy ones.
+     */
+    private class TileScan extends RecursiveAction {
+
+        /**
+         * Declared because RecursiveAction is Serializable. Scans only live as long as one map, and are never serialized.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The tiles left to scan, as {column, row} pairs.
+         */
+        private final List<int[]> tiles;
+
+        /**
+         * The index of the first tile of this task.
+         */
+        private final int start;
+
+        /**
+         * The index after the last tile of this task.
+         */
+        private final int end;
+
+        /**
+         * The checkpoint directory, or null if tiles are not saved.
+         */
+        private final Path checkpointPath;
+
+        /**
+         * The number of tiles finished, shared by every task of the scan.
+         */
+        private final AtomicInteger finishedCount;
+
+        /**
+         * The number of tiles in the whole map.
+         */
+        private final int tileCount;
+
+        /**
+         * Creates a task that scans a range of tiles.
+         *
+         * @param tiles          The tiles left to scan.
+         * @param start          The index of the first tile of this task.
+         * @param end            The index after the last tile of this task.
+         * @param checkpointPath The checkpoint directory, or null if tiles are not saved.
+         * @param finishedCount  The number of tiles finished, shared by every task of the scan.
+         * @param tileCount      The number of tiles in the whole map.
+         */
+        TileScan(List<int[]> tiles, int start, int end, Path checkpointPath, AtomicInteger finishedCount, int tileCount) {
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+            this.checkpointPath = checkpointPath;
+            this.finishedCount = finishedCount;
+            this.tileCount = tileCount;
+        }
+
+        /**
+         * Scans the tiles of this task, or splits them between two new tasks.
+         */
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) / 2;
+                invokeAll(new TileScan(tiles, start, middle, checkpointPath, finishedCount, tileCount),
+                        new TileScan(tiles, middle, end, checkpointPath, finishedCount, tileCount));
+                return;
+            }
+            if (end == start) {
+                return;
+            }
+
+            int[] tile = tiles.get(start);
+            scanTile(tile[0], tile[1]);
+            if (checkpointPath != null) {
+                try {
+                    saveTile(checkpointPath, tile[0], tile[1]);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            // Report progress every tenth of the map.
+            int finished = finishedCount.incrementAndGet();
+            if (finished * 10L / tileCount > (finished - 1) * 10L / tileCount) {
+                System.out.println(String.format("Scanned %d of %d tiles.", finished, tileCount));
+            }
+        }
+    }
+}
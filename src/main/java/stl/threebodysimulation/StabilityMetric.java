@@ -0,0 +1,41 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that represents all quantities that a stability map can be colored by.
+ */
+enum StabilityMetric {
+    /**
+     * The time until a particle is ejected, or the run fails. Cells that stay bound until the end are brightest.
+     */
+    ESCAPE_TIME {
+        @Override
+        double getValue(double[] cell) {
+            return cell[StabilityMapper.ESCAPE_TIME_INDEX];
+        }
+
+        public String toString() {
+            return "Escape Time";
+        }
+    },
+    /**
+     * The number of close encounters between any two particles.
+     */
+    ENCOUNTER_COUNT {
+        @Override
+        double getValue(double[] cell) {
+            return cell[StabilityMapper.ENCOUNTER_COUNT_INDEX];
+        }
+
+        public String toString() {
+            return "Encounters";
+        }
+    };
+
+    /**
+     * Gets the value of this quantity for a cell of the map.
+     *
+     * @param cell The results of the cell, as stored by StabilityMapper.
+     * @return The value.
+     */
+    abstract double getValue(double[] cell);
+}
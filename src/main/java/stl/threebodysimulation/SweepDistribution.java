@@ -0,0 +1,44 @@
+package stl.threebodysimulation;
+
+import java.util.Random;
+
+/**
+ * A class that represents all distributions that an ensemble sweep can draw offsets from.
+ */
+enum SweepDistribution {
+    /**
+     * Offsets spread evenly between -spread and spread.
+     */
+    UNIFORM {
+        @Override
+        double sample(Random random, double spread) {
+            return spread * (2 * random.nextDouble() - 1);
+        }
+
+        public String toString() {
+            return "Uniform";
+        }
+    },
+    /**
+     * Offsets from a normal distribution, with the spread as the standard deviation.
+     */
+    NORMAL {
+        @Override
+        double sample(Random random, double spread) {
+            return spread * random.nextGaussian();
+        }
+
+        public String toString() {
+            return "Normal";
+        }
+    };
+
+    /**
+     * Draws an offset from this distribution.
+     *
+     * @param random The random number generator of the ensemble member.
+     * @param spread The spread of the distribution.
+     * @return The offset.
+     */
+    abstract double sample(Random random, double spread);
+}
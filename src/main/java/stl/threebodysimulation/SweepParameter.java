@@ -0,0 +1,77 @@
+package stl.threebodysimulation;
+
+import java.util.Random;
+
+/**
+ * A class that packages one property that an ensemble sweep varies, and how it is varied.
+ */
+class SweepParameter {
+
+    /**
+     * The ID of the particle that is varied, starting from 1.
+     */
+    private final int particleID;
+
+    /**
+     * The property of the particle that is varied.
+     */
+    private final SweepProperty property;
+
+    /**
+     * The distribution that offsets are drawn from.
+     */
+    private final SweepDistribution distribution;
+
+    /**
+     * The spread of the distribution, in the units of the property.
+     */
+    private final double spread;
+
+    /**
+     * Basic constructor that creates a SweepParameter object.
+     *
+     * @param particleID   The ID of the particle that is varied, starting from 1.
+     * @param property     The property of the particle that is varied.
+     * @param distribution The distribution that offsets are drawn from.
+     * @param spread       The spread of the distribution, in the units of the property.
+     */
+    SweepParameter(int particleID, SweepProperty property, SweepDistribution distribution, double spread) {
+        this.particleID = particleID;
+        this.property = property;
+        this.distribution = distribution;
+        this.spread = spread;
+    }
+
+    /**
+     * Gets the ID of the particle that is varied.
+     *
+     * @return The ID of the particle, starting from 1.
+     */
+    int getParticleID() {
+        return particleID;
+    }
+
+    /**
+     * Draws an offset and applies it to the masses and state of an ensemble member.
+     *
+     * @param random The random number generator of the ensemble member.
+     * @param masses The mass of every particle.
+     * @param state  The state of every particle, in the layout used by ParticleDifferentialEquations.
+     * @return The offset that was applied.
+     */
+    double apply(Random random, double[] masses, double[] state) {
+        double offset = distribution.sample(random, spread);
+        // Particle IDs start with 1, but indices start with 0.
+        property.offset(masses, state, particleID - 1, offset);
+        return offset;
+    }
+
+    /**
+     * Gets the name of the column that holds the offsets of this parameter in a sweep summary.
+     *
+     * @return The column header.
+     */
+    String getHeader() {
+        return particleID + " " + property + " Offset";
+    }
+}
@@ -0,0 +1,82 @@
+package stl.threebodysimulation;
+
+/**
+ * A class that represents all properties of a particle that an ensemble sweep can vary.
+ */
+enum SweepProperty {
+    /**
+     * The mass of the particle, in earths.
+     */
+    MASS {
+        @Override
+        void offset(double[] masses, double[] state, int index, double offset) {
+            masses[index] += offset;
+        }
+
+        public String toString() {
+            return "Mass";
+        }
+    },
+    /**
+     * The X position of the particle, in km.
+     */
+    X_POSITION {
+        @Override
+        void offset(double[] masses, double[] state, int index, double offset) {
+            state[index] += offset;
+        }
+
+        public String toString() {
+            return "X Pos";
+        }
+    },
+    /**
+     * The Y position of the particle, in km.
+     */
+    Y_POSITION {
+        @Override
+        void offset(double[] masses, double[] state, int index, double offset) {
+            state[masses.length + index] += offset;
+        }
+
+        public String toString() {
+            return "Y Pos";
+        }
+    },
+    /**
+     * The X velocity of the particle, in km/s.
+     */
+    X_VELOCITY {
+        @Override
+        void offset(double[] masses, double[] state, int index, double offset) {
+            state[2 * masses.length + index] += offset;
+        }
+
+        public String toString() {
+            return "X Vel";
+        }
+    },
+    /**
+     * The Y velocity of the particle, in km/s.
+     */
+    Y_VELOCITY {
+        @Override
+        void offset(double[] masses, double[] state, int index, double offset) {
+            state[3 * masses.length + index] += offset;
+        }
+
+        public String toString() {
+            return "Y Vel";
+        }
+    };
+
+    /**
+     * Offsets this property of a particle.
+     *
+     * @param masses The mass of every particle.
+     * @param state  The state of every particle, in the layout used by ParticleDifferentialEquations.
+     * @param index  The index of the particle, starting from 0.
+     * @param offset The amount to add to the property.
+     */
+    abstract void offset(double[] masses, double[] state, int index, double offset);
+}
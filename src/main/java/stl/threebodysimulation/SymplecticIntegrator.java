@@ -0,0 +1,355 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.exception.NumberIsTooLargeException;
+
+/**
+ * A fixed-step SimulationIntegrator that splits every step into alternating drifts (positions move with the velocities) and kicks (velocities change with the accelerations).
+ * Splitting the step this way makes the integrator symplectic: the energy error stays bounded over long runs instead of drifting, at the cost of not adapting the step size to close encounters.
+ * <p>
+ * Each step applies, for every stage i in order: a drift of driftCoefficients[i] * h, then a kick of kickCoefficients[i] * h.
+ */
+class SymplecticIntegrator implements SimulationIntegrator {
+
+    /**
+     * Drift coefficients of the kick-drift-kick leapfrog (velocity Verlet). Second order, one force evaluation per step.
+     */
+    static final double[] LEAPFROG_DRIFTS = {0, 1};
+
+    /**
+     * Kick coefficients of the kick-drift-kick leapfrog.
+     */
+    static final double[] LEAPFROG_KICKS = {0.5, 0.5};
+
+    /**
+     * The weight of the outer leapfrog steps in the fourth order triple jump, 1 / (2 - 2^(1/3)).
+     */
+    private static final double TRIPLE_JUMP_WEIGHT = 1 / (2 - Math.cbrt(2));
+
+    /**
+     * Drift coefficients of Yoshida's fourth order integrator: a triple jump of three leapfrog steps. Three force evaluations per step.
+     */
+    static final double[] YOSHIDA_4_DRIFTS = composeDrifts(TRIPLE_JUMP_WEIGHT, 1 - 2 * TRIPLE_JUMP_WEIGHT, TRIPLE_JUMP_WEIGHT);
+
+    /**
+     * Kick coefficients of Yoshida's fourth order integrator.
+     */
+    static final double[] YOSHIDA_4_KICKS = composeKicks(TRIPLE_JUMP_WEIGHT, 1 - 2 * TRIPLE_JUMP_WEIGHT, TRIPLE_JUMP_WEIGHT);
+
+    /**
+     * Weights of the seven leapfrog steps in Yoshida's sixth order integrator (solution A), from the outside in.
+     */
+    private static final double[] YOSHIDA_6_WEIGHTS = {0.784513610477560, 0.235573213359357, -1.17767998417887};
+
+    /**
+     * The weight of the middle leapfrog step in Yoshida's sixth order integrator, chosen so that the weights add up to 1.
+     */
+    private static final double YOSHIDA_6_MIDDLE_WEIGHT = 1 - 2 * (YOSHIDA_6_WEIGHTS[0] + YOSHIDA_6_WEIGHTS[1] + YOSHIDA_6_WEIGHTS[2]);
+
+    /**
+     * Drift coefficients of Yoshida's sixth order integrator. Seven force evaluations per step.
+     */
+    static final double[] YOSHIDA_6_DRIFTS = composeDrifts(YOSHIDA_6_WEIGHTS[0], YOSHIDA_6_WEIGHTS[1], YOSHIDA_6_WEIGHTS[2], YOSHIDA_6_MIDDLE_WEIGHT,
+            YOSHIDA_6_WEIGHTS[2], YOSHIDA_6_WEIGHTS[1], YOSHIDA_6_WEIGHTS[0]);
+
+    /**
+     * Kick coefficients of Yoshida's sixth order integrator.
+     */
+    static final double[] YOSHIDA_6_KICKS = composeKicks(YOSHIDA_6_WEIGHTS[0], YOSHIDA_6_WEIGHTS[1], YOSHIDA_6_WEIGHTS[2], YOSHIDA_6_MIDDLE_WEIGHT,
+            YOSHIDA_6_WEIGHTS[2], YOSHIDA_6_WEIGHTS[1], YOSHIDA_6_WEIGHTS[0]);
+
+    /**
+     * Drift coefficients of the Forest-Ruth fourth order integrator, which starts and ends with a half drift instead of a half kick. Three force evaluations per step.
+     */
+    static final double[] FOREST_RUTH_DRIFTS = {TRIPLE_JUMP_WEIGHT / 2, (1 - TRIPLE_JUMP_WEIGHT) / 2, (1 - TRIPLE_JUMP_WEIGHT) / 2, TRIPLE_JUMP_WEIGHT / 2};
+
+    /**
+     * Kick coefficients of the Forest-Ruth fourth order integrator.
+     */
+    static final double[] FOREST_RUTH_KICKS = {TRIPLE_JUMP_WEIGHT, 1 - 2 * TRIPLE_JUMP_WEIGHT, TRIPLE_JUMP_WEIGHT, 0};
+
+    /**
+     * How far past a whole number of steps an interval may be, as a fraction of a step, before another step is taken.
+     */
+    private static final double STEP_COUNT_TOLERANCE = 1e-9;
+
+    /**
+     * The differential equations being integrated.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The largest step the integrator will take, in seconds.
+     */
+    private final double maxStepSize;
+
+    /**
+     * The drift coefficient of each stage.
+     */
+    private final double[] driftCoefficients;
+
+    /**
+     * The kick coefficient of each stage.
+     */
+    private final double[] kickCoefficients;
+
+    /**
+     * The number of particles.
+     */
+    private final int particleCount;
+
+    /**
+     * The accelerations at the current state, owned by the integrator and handed to the frame handler with every frame.
+     */
+    private final double[] accelerations;
+
+    /**
+     * The number of steps taken since the integrator was built.
+     */
+    private long stepCount;
+
+    /**
+     * The tracker that measures chaos indicators, or null if they are not measured.
+     */
+    private final ChaosTracker chaosTracker;
+
+    /**
+     * The detectors of close encounters and collisions, checked at the end of every step.
+     */
+    private final EncounterDetector[] encounterDetectors;
+
+    /**
+     * Creates a symplectic integrator for a set of differential equations.
+     *
+     * @param equations         The differential equations to integrate.
+     * @param driftCoefficients The drift coefficient of each stage.
+     * @param kickCoefficients  The kick coefficient of each stage.
+     * @param settings          The settings of the run. Every interval is split into equal steps no larger than its step size.
+     */
+    SymplecticIntegrator(ParticleDifferentialEquations equations, double[] driftCoefficients, double[] kickCoefficients, IntegrationSettings settings) {
+        this.equations = equations;
+        this.maxStepSize = settings.getStepSize();
+        this.driftCoefficients = driftCoefficients;
+        this.kickCoefficients = kickCoefficients;
+        this.particleCount = equations.getParticleCount();
+        this.accelerations = new double[2 * particleCount];
+        this.chaosTracker = settings.getChaosIndicators() ? new ChaosTracker(equations) : null;
+        this.encounterDetectors = settings.getEncounterSettings().buildDetectors(equations);
+    }
+
+    /**
+     * Builds the drift coefficients of a composition of kick-drift-kick leapfrog steps.
+     *
+     * @param weights The fraction of the step taken by each leapfrog step. Should add up to 1.
+     * @return The drift coefficients of the composition.
+     */
+    private static double[] composeDrifts(double... weights) {
+        double[] drifts = new double[weights.length + 1];
+        // The first stage only kicks, and each leapfrog step drifts once.
+        System.arraycopy(weights, 0, drifts, 1, weights.length);
+        return drifts;
+    }
+
+    /**
+     * Builds the kick coefficients of a composition of kick-drift-kick leapfrog steps.
+     *
+     * @param weights The fraction of the step taken by each leapfrog step. Should add up to 1.
+     * @return The kick coefficients of the composition.
+     */
+    private static double[] composeKicks(double... weights) {
+        double[] kicks = new double[weights.length + 1];
+        // The closing half kick of each leapfrog step merges with the opening half kick of the next.
+        for (int i = 0; i < weights.length; i++) {
+            kicks[i] += weights[i] / 2;
+            kicks[i + 1] += weights[i] / 2;
+        }
+        return kicks;
+    }
+
+    /**
+     * Advances a state from one time to another, in place, using equal steps no larger than the maximum step size.
+     *
+     * @param startTime The time of the state.
+     * @param state     The state. Overwritten with the state at the end time.
+     * @param endTime   The time to advance to.
+     */
+    @Override
+    public void integrate(double startTime, double[] state, double endTime) {
+        equations.applyMerges(state);
+        startEncounterDetection(state);
+        advance(state, startTime, endTime - startTime, false, null);
+    }
+
+    /**
+     * Advances a state frame by frame until the frame handler asks to stop. The accelerations at the end of one frame are reused at the start of the next.
+     * With chaos indicators, the tangent is drifted and kicked alongside the state, with the same coefficients.
+     *
+     * @param startTime     The time of the state.
+     * @param state         The state. Overwritten with the state at each frame.
+     * @param frameInterval The simulation time between frames, in seconds.
+     * @param handler       The FrameHandler that receives every frame.
+     * @throws InterruptedException If the thread is interrupted while handling a frame.
+     */
+    @Override
+    public void integrateFrames(double startTime, double[] state, double frameInterval, FrameHandler handler) throws InterruptedException {
+        equations.applyMerges(state);
+        startEncounterDetection(state);
+        double previousFrameTime = startTime;
+        boolean accelerationsCurrent = false;
+        if (chaosTracker != null) {
+            chaosTracker.start(startTime);
+        }
+        for (long frame = 1; ; frame++) {
+            // Frame times are counted from the start, rather than added up, so that they do not drift.
+            double frameTime = startTime + frame * frameInterval;
+            advance(state, previousFrameTime, frameTime - previousFrameTime, accelerationsCurrent, chaosTracker);
+            // Nothing but the frame handler touches the state between frames, so the accelerations stay current.
+            accelerationsCurrent = true;
+            if (chaosTracker != null) {
+                chaosTracker.recordFrame(frameTime);
+            }
+            if (!handler.handleFrame(frameTime, state, accelerations)) {
+                return;
+            }
+            previousFrameTime = frameTime;
+        }
+    }
+
+    /**
+     * Gets the number of steps the integrator has taken, over every call since it was built.
+     *
+     * @return The number of steps taken.
+     */
+    @Override
+    public long getStepCount() {
+        return stepCount;
+    }
+
+    /**
+     * Gets the chaos indicators at the frame being handled.
+     *
+     * @return The indicators, indexed by the ordinal of each ChaosIndicator, or null if the integrator was built without them.
+     */
+    @Override
+    public double[] getChaosIndicators() {
+        return chaosTracker == null ? null : chaosTracker.getIndicators();
+    }
+
+    /**
+     * Sets the handler that is told about every close encounter and collision.
+     *
+     * @param handler The handler, or null if nothing should be told.
+     */
+    @Override
+    public void setEncounterHandler(EncounterHandler handler) {
+        for (EncounterDetector detector : encounterDetectors) {
+            detector.setHandler(handler);
+        }
+    }
+
+    /**
+     * Advances a state by an interval, in place, using equal steps no larger than the maximum step size. Leaves the equations holding the accelerations at the final state.
+     *
+     * @param state                The state. Overwritten with the state at the end of the interval.
+     * @param startTime            The time of the state.
+     * @param interval             The length of time to advance by, in seconds. Negative to integrate backwards.
+     * @param accelerationsCurrent True if the accelerations last computed belong to the current state, and can be reused.
+     * @param tracker              The tracker whose tangent is advanced alongside the state, or null if there is none.
+     */
+    private void advance(double[] state, double startTime, double interval, boolean accelerationsCurrent, ChaosTracker tracker) {
+        if (interval == 0) {
+            return;
+        }
+
+        // Split the interval into equal steps, so that the end time is hit exactly. The step is negative when integrating backwards.
+        // Rounding in the interval is forgiven, so that it does not cost a whole extra step.
+        long intervalStepCount = Math.max(1, (long) Math.ceil(Math.abs(interval) / maxStepSize - STEP_COUNT_TOLERANCE));
+        double stepSize = interval / intervalStepCount;
+
+        for (long step = 0; step < intervalStepCount; step++) {
+            for (int stage = 0; stage < driftCoefficients.length; stage++) {
+                if (driftCoefficients[stage] != 0) {
+                    drift(state, driftCoefficients[stage] * stepSize);
+                    if (tracker != null) {
+                        tracker.drift(driftCoefficients[stage] * stepSize);
+                    }
+                    accelerationsCurrent = false;
+                }
+                if (kickCoefficients[stage] != 0) {
+                    // A kick that directly follows another kick reuses its accelerations.
+                    boolean positionsMoved = !accelerationsCurrent;
+                    if (positionsMoved) {
+                        equations.computeAccelerations(state, accelerations);
+                        accelerationsCurrent = true;
+                    }
+                    kick(state, accelerations, kickCoefficients[stage] * stepSize);
+                    if (tracker != null) {
+                        tracker.kick(state, kickCoefficients[stage] * stepSize, positionsMoved);
+                    }
+                }
+            }
+            // Step times are counted from the start of the interval, like frame times.
+            double stepEndTime = startTime + (step + 1) * stepSize;
+            if (tracker != null) {
+                tracker.finishStep(stepEndTime, stepSize);
+            }
+            for (EncounterDetector detector : encounterDetectors) {
+                if (detector.checkStep(stepEndTime, state)) {
+                    // Merged particles move and change mass, so the accelerations must be recalculated.
+                    accelerationsCurrent = false;
+                }
+            }
+        }
+        stepCount += intervalStepCount;
+
+        // Schemes that end on a drift leave the stored accelerations behind, so bring them up to the final positions for display.
+        if (!accelerationsCurrent) {
+            equations.computeAccelerations(state, accelerations);
+        }
+
+        // Unlike the adaptive integrator, a fixed step will happily step through a singularity, so check that the result is still a number.
+        for (double value : state) {
+            if (!Double.isFinite(value)) {
+                throw new NumberIsTooLargeException(value, Double.MAX_VALUE, true);
+            }
+        }
+    }
+
+    /**
+     * Starts checking for close encounters and collisions from a state.
+     *
+     * @param state The state at the start of the integration.
+     */
+    private void startEncounterDetection(double[] state) {
+        for (EncounterDetector detector : encounterDetectors) {
+            detector.startSteps(state);
+        }
+    }
+
+    /**
+     * Moves every particle along its velocity.
+     *
+     * @param state The state of the particles.
+     * @param time  The length of the drift, in seconds.
+     */
+    private void drift(double[] state, double time) {
+        // Positions are the first half of the state, and velocities are the second half, in the same order.
+        int velocityOffset = 2 * particleCount;
+        for (int i = 0; i < velocityOffset; i++) {
+            state[i] += time * state[velocityOffset + i];
+        }
+    }
+
+    /**
+     * Changes the velocity of every particle by its acceleration.
+     *
+     * @param state         The state of the particles.
+     * @param accelerations The accelerations of the particles at their current positions.
+     * @param time          The length of the kick, in seconds.
+     */
+    private void kick(double[] state, double[] accelerations, double time) {
+        int velocityOffset = 2 * particleCount;
+        for (int i = 0; i < velocityOffset; i++) {
+            state[velocityOffset + i] += time * accelerations[i];
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package stl.threebodysimulation;
+
+/**
+ * The trails of the particles, kept as positions in space rather than as pixels, so that they can be drawn again at any scale.
+ * <p>
+ * Each particle has its own ring buffer of points, x and y apart in plain arrays, sized once from a memory limit.
+ * Once a trail fills its buffer, every new point overwrites the oldest, so however long the run, the trails never take up more than the limit.
+ * <p>
+ * Points are thinned out by distance as they are recorded: a particle that has not moved far from the point before its newest only moves its newest point,
+ * rather than adding another. The newest point is always where the particle is now, so a trail drawn from the store reaches the particle.
+ */
+class TrailStore {
+
+    /**
+     * The memory taken up by a single point, in bytes: its x and y positions.
+     */
+    private static final int POINT_SIZE = 2 * Double.BYTES;
+
+    /**
+     * The fewest points a trail has room for, whatever the memory limit.
+     */
+    private static final int MIN_CAPACITY = 2;
+
+    /**
+     * The number of points each trail has room for.
+     */
+    private final int capacity;
+
+    /**
+     * The x position of every point of every trail, in km. Indexed by particle, then slot in the ring buffer.
+     */
+    private final double[][] xPositions;
+
+    /**
+     * The y position of every point of every trail, in km. Indexed by particle, then slot in the ring buffer.
+     */
+    private final double[][] yPositions;
+
+    /**
+     * The slot of the oldest point of each trail.
+     */
+    private final int[] starts;
+
+    /**
+     * The number of points in each trail.
+     */
+    private final int[] sizes;
+
+    /**
+     * Creates empty trails.
+     *
+     * @param particleCount The number of particles.
+     * @param maxBytes      The most memory that the points of all of the trails may take up together, in bytes.
+     */
+    TrailStore(int particleCount, long maxBytes) {
+        capacity = (int) Math.max(MIN_CAPACITY, Math.min(Integer.MAX_VALUE, maxBytes / POINT_SIZE / Math.max(1, particleCount)));
+        xPositions = new double[particleCount][capacity];
+        yPositions = new double[particleCount][capacity];
+        starts = new int[particleCount];
+        sizes = new int[particleCount];
+    }
+
+    /**
+     * Gets the number of points each trail has room for.
+     *
+     * @return The capacity of each trail.
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds the current position of every particle to its trail.
+     *
+     * @param particles  The particles, in the order of their trails.
+     * @param minSpacing The distance that a particle must move from the point before its newest for a new point to be added, in km.
+     *                   Closer than that, its newest point is moved instead.
+     */
+    void record(Particle[] particles, double minSpacing) {
+        for (int i = 0; i < particles.length; i++) {
+            double[] position = particles[i].getPosition();
+            int size = sizes[i];
+            if (size >= 2) {
+                int previousSlot = (starts[i] + size - 2) % capacity;
+                double xDistance = position[0] - xPositions[i][previousSlot];
+                double yDistance = position[1] - yPositions[i][previousSlot];
+                if (xDistance * xDistance + yDistance * yDistance < minSpacing * minSpacing) {
+                    // Too close to be worth a point of its own, so the newest point just follows the particle.
+                    int newestSlot = (starts[i] + size - 1) % capacity;
+                    xPositions[i][newestSlot] = position[0];
+                    yPositions[i][newestSlot] = position[1];
+                    continue;
+                }
+            }
+            int slot = (starts[i] + size) % capacity;
+            xPositions[i][slot] = position[0];
+            yPositions[i][slot] = position[1];
+            if (size == capacity) {
+                // The buffer is full, so the oldest point has just been overwritten.
+                starts[i] = (starts[i] + 1) % capacity;
+            } else {
+                sizes[i]++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of points in a trail.
+     *
+     * @param particle The index of the particle.
+     * @return The number of points.
+     */
+    int getSize(int particle) {
+        return sizes[particle];
+    }
+
+    /**
+     * Gets the x position of a point of a trail.
+     *
+     * @param particle The index of the particle.
+     * @param index    The index of the point, from the oldest.
+     * @return The x position, in km.
+     */
+    double getX(int particle, int index) {
+        return xPositions[particle][(starts[particle] + index) % capacity];
+    }
+
+    /**
+     * Gets the y position of a point of a trail.
+     *
+     * @param particle The index of the particle.
+     * @param index    The index of the point, from the oldest.
+     * @return The y position, in km.
+     */
+    double getY(int particle, int index) {
+        return yPositions[particle][(starts[particle] + index) % capacity];
+    }
+}
@@ -0,0 +1,62 @@
+package stl.threebodysimulation;
+
+import java.io.IOException;
+
+/**
+ * A class that represents all file formats that a trajectory can be saved in.
+ */
+public enum TrajectoryFormat {
+    /**
+     * Readable text, with every value rounded to 7 decimal places.
+     */
+    CSV {
+        @Override
+        String getFilePathTemplate() {
+            return SceneFXMLController.CSVFilePathTemplate;
+        }
+
+        @Override
+        TrajectoryRecorder openRecorder(String filepath, Particle[] particles) throws IOException {
+            return new CSVRecorder(filepath, particles.length);
+        }
+
+        public String toString() {
+            return "CSV";
+        }
+    },
+    /**
+     * Fixed-width binary records holding every value at full precision. Much smaller and faster than CSV, and readable frame by frame with BinaryTrajectoryReader.
+     */
+    BINARY {
+        @Override
+        String getFilePathTemplate() {
+            return SceneFXMLController.BinaryTrajectoryFilePathTemplate;
+        }
+
+        @Override
+        TrajectoryRecorder openRecorder(String filepath, Particle[] particles) throws IOException {
+            return new BinaryTrajectoryWriter(filepath, particles);
+        }
+
+        public String toString() {
+            return "Binary";
+        }
+    };
+
+    /**
+     * Gets the String.format template for the path of files in this format.
+     *
+     * @return The template, with a %s where the filename goes.
+     */
+    abstract String getFilePathTemplate();
+
+    /**
+     * Opens a file in this format for a run, replacing anything already in it.
+     *
+     * @param filepath  The path of the file.
+     * @param particles The particles of the run.
+     * @return The TrajectoryRecorder that writes the file.
+     * @throws IOException If the file cannot be opened or written.
+     */
+    abstract TrajectoryRecorder openRecorder(String filepath, Particle[] particles) throws IOException;
+}
@@ -0,0 +1,26 @@
+package stl.threebodysimulation;
+
+/**
+ * The common interface for files that record the trajectory of a run, one frame at a time.
+ */
+interface TrajectoryRecorder {
+
+    /**
+     * Adds a frame to the file.
+     *
+     * @param time          The time of the frame.
+     * @param state         The state of the frame, in the layout used by ParticleDifferentialEquations.
+     * @param accelerations The accelerations of the frame, in the layout used by ParticleDifferentialEquations.
+     */
+    void record(double time, double[] state, double[] accelerations);
+
+    /**
+     * Makes sure every frame recorded so far reaches the disk. Called whenever the simulation pauses.
+     */
+    void flush();
+
+    /**
+     * Flushes every frame and closes the file. Called when the simulation stops, normally or because of an error.
+     */
+    void close();
+}
@@ -0,0 +1,104 @@
+package stl.threebodysimulation;
+
+import org.apache.commons.math3.ode.FirstOrderDifferentialEquations;
+
+/**
+ * A class that represents the differential equations of a simulation, extended with its variational equations, so that chaos indicators can be integrated alongside the state.
+ * <p>
+ * The extended state holds the state, then a tangent vector in the same layout, then the running integrals used by ChaosIndicator: <br>
+ * [state, tangent, log growth L, weighted growth W, MEGNO integral Z]
+ * <p>
+ * The tangent is kept at a constant length by removing its growth rate s from its derivative, and s is integrated into L, W and Z instead.
+ * This keeps the tangent from overflowing in chaotic runs, without ever stopping to renormalize it.
+ */
+class VariationalEquations implements FirstOrderDifferentialEquations {
+
+    /**
+     * The number of running integrals after the tangent.
+     */
+    static final int INTEGRAL_COUNT = 3;
+
+    /**
+     * The differential equations of the state.
+     */
+    private final ParticleDifferentialEquations equations;
+
+    /**
+     * The length of a state, and of the tangent.
+     */
+    private final int stateDimension;
+
+    /**
+     * The time the measurement started from, t0.
+     */
+    private double startTime;
+
+    /**
+     * Creates the variational equations of a simulation.
+     *
+     * @param equations The differential equations of the state.
+     */
+    VariationalEquations(ParticleDifferentialEquations equations) {
+        this.equations = equations;
+        this.stateDimension = equations.getDimension();
+    }
+
+    /**
+     * Sets the time the measurement started from, which weights the integrals.
+     *
+     * @param startTime The start time, t0.
+     */
+    void setStartTime(double startTime) {
+        this.startTime = startTime;
+    }
+
+    /**
+     * Gets the dimensions of the differential equations. From the interface.
+     *
+     * @return The dimensions of the equations: twice those of the state, plus the running integrals.
+     */
+    @Override
+    public int getDimension() {
+        return 2 * stateDimension + INTEGRAL_COUNT;
+    }
+
+    /**
+     * Takes the derivative of an extended state and stores it in another array. From the interface.
+     * The state equations work on the extended arrays directly, since they only touch the state at the front, so nothing is copied or allocated.
+     *
+     * @param t    The current time.
+     * @param y    The extended state.
+     * @param yDot The array where the derivatives are stored.
+     */
+    @Override
+    public void computeDerivatives(double t, double[] y, double[] yDot) {
+        equations.computeDerivatives(t, y, yDot);
+
+        // The tangent moves like the state: its positions change with its velocities, and its velocities with the Jacobian of the accelerations.
+        int tangentOffset = stateDimension;
+        int tangentVelocityOffset = tangentOffset + stateDimension / 2;
+        System.arraycopy(y, tangentVelocityOffset, yDot, tangentOffset, stateDimension / 2);
+        equations.computeTangentAccelerations(y, y, tangentOffset, yDot, tangentVelocityOffset);
+
+        // The growth rate of the tangent, s = (u . u') / (u . u).
+        double squaredLength = 0;
+        double growth = 0;
+        for (int i = tangentOffset; i < tangentOffset + stateDimension; i++) {
+            squaredLength += y[i] * y[i];
+            growth += y[i] * yDot[i];
+        }
+        double growthRate = growth / squaredLength;
+
+        // Take the growth out of the tangent, so that it keeps its length.
+        for (int i = tangentOffset; i < tangentOffset + stateDimension; i++) {
+            yDot[i] -= growthRate * y[i];
+        }
+
+        int integralOffset = 2 * stateDimension;
+        double elapsedTime = t - startTime;
+        yDot[integralOffset] = growthRate;
+        yDot[integralOffset + 1] = growthRate * elapsedTime;
+        // The MEGNO, 2W / (t - t0), starts at 0.
+        yDot[integralOffset + 2] = elapsedTime == 0 ? 0 : 2 * y[integralOffset + 1] / elapsedTime;
+    }
+}